@@ -0,0 +1,159 @@
+package nablarch.common.encryption;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link AesEncryptor}と{@link CachedAesEncryptor}の暗号化・復号のコストを比較するベンチマーク。
+ * <p/>
+ * {@link ByteBufferEncryptor}を実装しない{@link AesEncryptor}の{@link #encryptByteBuffer()}と{@link #decryptByteBuffer()}は、
+ * バイト配列のAPIを呼び出して結果をバッファにコピーするコストを計測する。
+ * アロケーションレートは{@code -prof gc}を指定して計測すること。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class EncryptorBenchmark {
+
+    /** 使用する{@link Encryptor} */
+    @Param({"aes", "cachedCbc", "cachedGcm"})
+    public String encryptor;
+
+    /** 暗号化対象のサイズ */
+    @Param({"64", "1024", "16384"})
+    public int size;
+
+    /** {@link Encryptor} */
+    private Encryptor<Serializable> target;
+
+    /** コンテキスト */
+    private Serializable context;
+
+    /** 暗号化対象 */
+    private byte[] plain;
+
+    /** 暗号化済みのデータ */
+    private byte[] encrypted;
+
+    /**
+     * {@link Encryptor}と暗号化対象を生成する。
+     */
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        if (encryptor.equals("aes")) {
+            final AesEncryptor aesEncryptor = new AesEncryptor();
+            aesEncryptor.setKey("1234567890123456");
+            aesEncryptor.setIv("9876543210987654");
+            target = (Encryptor) aesEncryptor;
+        } else {
+            final CachedAesEncryptor cachedAesEncryptor = new CachedAesEncryptor();
+            cachedAesEncryptor.setMode(encryptor.equals("cachedCbc") ? "CBC" : "GCM");
+            cachedAesEncryptor.setKey("1234567890123456");
+            cachedAesEncryptor.setIv("9876543210987654");
+            target = (Encryptor) cachedAesEncryptor;
+        }
+        context = target.generateContext();
+        plain = new byte[size];
+        new Random(0).nextBytes(plain);
+        encrypted = target.encrypt(context, plain);
+    }
+
+    /**
+     * バイト配列のAPIで暗号化する。
+     *
+     * @return 暗号化したデータ
+     */
+    @Benchmark
+    public byte[] encrypt() {
+        return target.encrypt(context, plain);
+    }
+
+    /**
+     * バイト配列のAPIで復号する。
+     *
+     * @return 復号したデータ
+     */
+    @Benchmark
+    public byte[] decrypt() {
+        return target.decrypt(context, encrypted);
+    }
+
+    /**
+     * {@link ByteBuffer}のAPIで暗号化する。
+     *
+     * @param buffers スレッドごとのバッファ
+     * @return 出力先のバッファ
+     */
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public ByteBuffer encryptByteBuffer(final Buffers buffers) {
+        final ByteBuffer src = ByteBuffer.wrap(plain);
+        buffers.output.clear();
+        if (target instanceof ByteBufferEncryptor) {
+            ((ByteBufferEncryptor<Serializable>) target).encrypt(context, src, buffers.output);
+        } else {
+            buffers.output.put(target.encrypt(context, plain));
+        }
+        return buffers.output;
+    }
+
+    /**
+     * {@link ByteBuffer}のAPIで復号する。
+     *
+     * @param buffers スレッドごとのバッファ
+     * @return 出力先のバッファ
+     */
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public ByteBuffer decryptByteBuffer(final Buffers buffers) {
+        final ByteBuffer src = ByteBuffer.wrap(encrypted);
+        buffers.output.clear();
+        if (target instanceof ByteBufferEncryptor) {
+            ((ByteBufferEncryptor<Serializable>) target).decrypt(context, src, buffers.output);
+        } else {
+            buffers.output.put(target.decrypt(context, encrypted));
+        }
+        return buffers.output;
+    }
+
+    /**
+     * スレッドごとに確保する出力先のバッファ。
+     */
+    @State(Scope.Thread)
+    public static class Buffers {
+
+        /** 出力先のバッファ */
+        private ByteBuffer output;
+
+        /**
+         * 出力先のバッファを確保する。
+         *
+         * @param benchmark ベンチマーク
+         */
+        @Setup(Level.Trial)
+        public void setUp(final EncryptorBenchmark benchmark) {
+            output = ByteBuffer.allocate(benchmark.size + 64);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package nablarch.common.web.session.encoder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nablarch.common.encryption.AesEncryptor;
+import nablarch.common.web.session.StateEncoder;
+
+/**
+ * {@link StateEncoder}の直列化・復元のコストと、直列化後のサイズを比較するベンチマーク。
+ * <p/>
+ * 直列化後のサイズは、セットアップ時に標準出力へ出力する。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StateEncoderBenchmark {
+
+    /** 使用する{@link StateEncoder} */
+    @Param({"javaSerialize", "javaSerializeEncrypt", "compact", "compactEncrypt"})
+    public String encoder;
+
+    /** セッションに格納する値 */
+    @Param({"string", "map", "form"})
+    public String payload;
+
+    /** {@link StateEncoder} */
+    private StateEncoder stateEncoder;
+
+    /** 直列化する値 */
+    private Object value;
+
+    /** 直列化済みの値 */
+    private byte[] encoded;
+
+    /**
+     * {@link StateEncoder}と直列化する値を生成する。
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        stateEncoder = createEncoder(encoder);
+        value = createPayload(payload);
+        encoded = stateEncoder.encode(value);
+        System.out.println();
+        System.out.println("encoded size: encoder = [" + encoder + "], payload = [" + payload
+                + "], size = [" + encoded.length + ']');
+    }
+
+    /**
+     * 値を直列化する。
+     *
+     * @return 直列化した値
+     */
+    @Benchmark
+    public byte[] encode() {
+        return stateEncoder.encode(value);
+    }
+
+    /**
+     * 値を復元する。
+     *
+     * @return 復元した値
+     */
+    @Benchmark
+    public Object decode() {
+        return stateEncoder.decode(encoded, value.getClass());
+    }
+
+    /**
+     * {@link StateEncoder}を生成する。
+     *
+     * @param name 名前
+     * @return {@link StateEncoder}
+     */
+    private static StateEncoder createEncoder(final String name) {
+        if (name.equals("javaSerialize")) {
+            return new JavaSerializeStateEncoder();
+        }
+        if (name.equals("javaSerializeEncrypt")) {
+            final JavaSerializeEncryptStateEncoder<AesEncryptor.AesContext> stateEncoder =
+                    new JavaSerializeEncryptStateEncoder<AesEncryptor.AesContext>();
+            stateEncoder.setEncryptor(createEncryptor());
+            return stateEncoder;
+        }
+        final CompactBinaryStateEncoder<AesEncryptor.AesContext> stateEncoder =
+                new CompactBinaryStateEncoder<AesEncryptor.AesContext>();
+        stateEncoder.setCodecs(Collections.<BinaryCodec<?>>singletonList(new SampleFormCodec()));
+        if (name.equals("compactEncrypt")) {
+            stateEncoder.setEncryptor(createEncryptor());
+        }
+        return stateEncoder;
+    }
+
+    /**
+     * session-store.xmlと同じ設定の{@link AesEncryptor}を生成する。
+     *
+     * @return {@link AesEncryptor}
+     */
+    private static AesEncryptor createEncryptor() {
+        final AesEncryptor encryptor = new AesEncryptor();
+        encryptor.setKey("1234567890123456");
+        encryptor.setIv("9876543210987654");
+        return encryptor;
+    }
+
+    /**
+     * 直列化する値を生成する。
+     *
+     * @param name 名前
+     * @return 直列化する値
+     */
+    private static Object createPayload(final String name) {
+        if (name.equals("string")) {
+            return "value";
+        }
+        if (name.equals("map")) {
+            final Map<String, Object> map = new HashMap<String, Object>();
+            for (int i = 0; i < 20; i++) {
+                map.put("field" + i, "value" + i);
+            }
+            map.put("amount", new BigDecimal("12345.67"));
+            map.put("updated", new Date(0));
+            return map;
+        }
+        final SampleForm form = new SampleForm();
+        form.userId = 12345L;
+        form.name = "山田太郎";
+        form.mailAddress = "taro.yamada@example.com";
+        form.amount = new BigDecimal("12345.67");
+        form.updated = new Date(0);
+        for (int i = 0; i < 10; i++) {
+            form.roles.add("role" + i);
+        }
+        return form;
+    }
+
+    /**
+     * セッションに格納する業務クラスを模したクラス。
+     */
+    public static class SampleForm implements Serializable {
+
+        /** ユーザID */
+        private long userId;
+
+        /** 氏名 */
+        private String name;
+
+        /** メールアドレス */
+        private String mailAddress;
+
+        /** 金額 */
+        private BigDecimal amount;
+
+        /** 更新日時 */
+        private Date updated;
+
+        /** ロール */
+        private List<String> roles = new ArrayList<String>();
+    }
+
+    /**
+     * {@link SampleForm}のコーデック。
+     */
+    private static class SampleFormCodec implements BinaryCodec<SampleForm> {
+
+        @Override
+        public Class<SampleForm> getType() {
+            return SampleForm.class;
+        }
+
+        @Override
+        public void write(final SampleForm value, final CompactBinaryWriter out) throws IOException {
+            out.writeSignedVarint(value.userId);
+            out.writeValue(value.name);
+            out.writeValue(value.mailAddress);
+            out.writeValue(value.amount);
+            out.writeValue(value.updated);
+            out.writeValue(value.roles);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public SampleForm read(final CompactBinaryReader in) throws IOException {
+            final SampleForm form = new SampleForm();
+            form.userId = in.readSignedVarint();
+            form.name = (String) in.readValue();
+            form.mailAddress = (String) in.readValue();
+            form.amount = (BigDecimal) in.readValue();
+            form.updated = (Date) in.readValue();
+            form.roles = (List<String>) in.readValue();
+            return form;
+        }
+    }
+}
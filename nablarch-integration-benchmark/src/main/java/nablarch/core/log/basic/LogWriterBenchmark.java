@@ -0,0 +1,90 @@
+package nablarch.core.log.basic;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nablarch.core.util.ObjectUtil;
+
+/**
+ * ログを大量に出力する場合に、リクエストスレッドが{@link LogWriter#write(LogContext)}に費やす時間を比較するベンチマーク。
+ * <p/>
+ * 以下の{@link LogWriter}を比較する。設定は{@value #SETTINGS}を参照。
+ * <ul>
+ *     <li>sync:{@link FileLogWriter}(リクエストスレッドでフォーマットと出力を行う)</li>
+ *     <li>async:{@link AsyncLogWriter}から{@link FileLogWriter}に委譲する(満杯時は待つ)</li>
+ *     <li>asyncDropDebug:{@link AsyncLogWriter}から{@link FileLogWriter}に委譲する(満杯時はDEBUGログを破棄する)</li>
+ * </ul>
+ * 非同期の場合、バックグラウンドのスレッドでの出力時間は計測に含まれない。
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LogWriterBenchmark {
+
+    /** ログ出力の設定ファイル */
+    static final String SETTINGS = "classpath:nablarch/core/log/basic/log-writer-benchmark.properties";
+
+    /** 使用する{@link LogWriter} */
+    @Param({"sync", "async", "asyncDropDebug"})
+    public String writerName;
+
+    /** {@link LogWriter} */
+    private LogWriter writer;
+
+    /**
+     * {@link LogWriter}を初期化する。
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        final LogSettings settings = new LogSettings(SETTINGS);
+        final String name = "writer." + writerName;
+        writer = ObjectUtil.createInstance(settings.getProps().get(name + ".className"));
+        writer.initialize(new ObjectSettings(settings, name));
+    }
+
+    /**
+     * {@link LogWriter}を終了する。
+     * <p/>
+     * 非同期の場合は、未出力のログの出力を待つ。
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        writer.terminate();
+    }
+
+    /**
+     * DEBUGレベルのログを出力する。
+     */
+    @Benchmark
+    public void writeDebug() {
+        writer.write(new LogContext("nablarch.benchmark", LogLevel.DEBUG,
+                "request processed. path = [/action/MultipartAction/Upload], status = [200]", null));
+    }
+
+    /**
+     * 例外を含むERRORレベルのログを出力する。
+     */
+    @Benchmark
+    public void writeErrorWithStackTrace() {
+        writer.write(new LogContext("nablarch.benchmark", LogLevel.ERROR,
+                "request failed.", new IllegalStateException("benchmark")));
+    }
+}
@@ -0,0 +1,177 @@
+package nablarch.fw.web.benchmark;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * ベンチマークで送信するリクエストを生成するクラス。
+ * <p/>
+ * リクエストの内容は結合テスト({@code WebHandlerQueueIntegrationTestSupport})で送信しているものと同一とする。
+ */
+public final class BenchmarkRequests {
+
+    /** マルチパートの境界文字列 */
+    public static final String BOUNDARY = "__END_OF_PART__";
+
+    /** Hiddenセッションに"key"="value"が格納された状態を表すパラメータ値 */
+    public static final String HIDDEN_STORE_VALUE = "AANrZXkAAAAQABBqYXZhLmxhbmcuU3RyaW5njmDwr5d2mkeZFXpTJHZGxg==";
+
+    /** 文字コード */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** 改行 */
+    private static final String NEWLINE = "\r\n";
+
+    /** 隠蔽コンストラクタ */
+    private BenchmarkRequests() {
+    }
+
+    /**
+     * 単純なGETリクエストを生成する。
+     * <p/>
+     * セッションストアを使用しない旧ハンドラ構成でも正常に処理されるよう、セッションを使用しない業務Actionを呼び出す。
+     *
+     * @param servletContext サーブレットコンテキスト
+     * @return リクエスト
+     */
+    public static HttpServletRequest plainGet(final ServletContext servletContext) {
+        return MockServletObjects.createRequest("GET", "/action/MultipartAction/ThreadName",
+                new HashMap<String, String>(), new byte[0], servletContext);
+    }
+
+    /**
+     * ファイルアップロードのマルチパートリクエストを生成する。
+     *
+     * @param servletContext サーブレットコンテキスト
+     * @param body {@link #uploadBody(int)}で生成したリクエストボディ
+     * @return リクエスト
+     */
+    public static HttpServletRequest upload(final ServletContext servletContext, final byte[] body) {
+        return MockServletObjects.createRequest("POST", "/action/MultipartAction/Upload",
+                multipartHeaders(), body, servletContext);
+    }
+
+    /**
+     * Hiddenセッションからの値の取得を行うマルチパートリクエストを生成する。
+     *
+     * @param servletContext サーブレットコンテキスト
+     * @param body {@link #getSessionBody()}で生成したリクエストボディ
+     * @return リクエスト
+     */
+    public static HttpServletRequest getSession(final ServletContext servletContext, final byte[] body) {
+        final Map<String, String> headers = multipartHeaders();
+        headers.put("Cookie", "NABLARCH_SID=benchmark");
+        return MockServletObjects.createRequest("POST", "/action/MultipartAction/GetSession",
+                headers, body, servletContext);
+    }
+
+    /**
+     * ファイルアップロードのリクエストボディを生成する。
+     *
+     * @param fileSize アップロードするファイルのサイズ
+     * @return リクエストボディ
+     */
+    public static byte[] uploadBody(final int fileSize) {
+        final byte[] file = new byte[fileSize];
+        Arrays.fill(file, (byte) 'a');
+        return new MultipartBody()
+                .field("key", "value")
+                .file("uploadFile", "multipart.txt", file)
+                .toByteArray();
+    }
+
+    /**
+     * Hiddenセッションからの値の取得を行うリクエストボディを生成する。
+     *
+     * @return リクエストボディ
+     */
+    public static byte[] getSessionBody() {
+        return new MultipartBody()
+                .field("key", "value")
+                .file("uploadFile", "multipart.txt", new byte[0])
+                .field("_HIDDEN_STORE_", HIDDEN_STORE_VALUE)
+                .toByteArray();
+    }
+
+    /**
+     * マルチパートリクエストのヘッダを生成する。
+     *
+     * @return ヘッダ
+     */
+    private static Map<String, String> multipartHeaders() {
+        final Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+        return headers;
+    }
+
+    /**
+     * マルチパートのリクエストボディを組み立てるクラス。
+     */
+    public static final class MultipartBody {
+
+        /** 組み立て中のボディ */
+        private byte[] body = new byte[0];
+
+        /**
+         * パラメータを追加する。
+         *
+         * @param name パラメータ名
+         * @param value 値
+         * @return 本オブジェクト
+         */
+        public MultipartBody field(final String name, final String value) {
+            append(("--" + BOUNDARY + NEWLINE
+                    + "Content-Disposition: form-data; name=\"" + name + '"' + NEWLINE
+                    + NEWLINE).getBytes(UTF_8));
+            append(value.getBytes(UTF_8));
+            append(NEWLINE.getBytes(UTF_8));
+            return this;
+        }
+
+        /**
+         * ファイルを追加する。
+         *
+         * @param name パラメータ名
+         * @param fileName ファイル名
+         * @param content ファイルの内容
+         * @return 本オブジェクト
+         */
+        public MultipartBody file(final String name, final String fileName, final byte[] content) {
+            append(("--" + BOUNDARY + NEWLINE
+                    + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName + '"' + NEWLINE
+                    + "Content-Type: application/octet-stream" + NEWLINE
+                    + NEWLINE).getBytes(UTF_8));
+            append(content);
+            append(NEWLINE.getBytes(UTF_8));
+            return this;
+        }
+
+        /**
+         * 終端の境界文字列を付与したボディを返す。
+         *
+         * @return ボディ
+         */
+        public byte[] toByteArray() {
+            final byte[] end = ("--" + BOUNDARY + "--" + NEWLINE).getBytes(UTF_8);
+            final byte[] result = Arrays.copyOf(body, body.length + end.length);
+            System.arraycopy(end, 0, result, body.length, end.length);
+            return result;
+        }
+
+        /**
+         * ボディの末尾にバイト列を追加する。
+         *
+         * @param bytes 追加するバイト列
+         */
+        private void append(final byte[] bytes) {
+            final int length = body.length;
+            body = Arrays.copyOf(body, length + bytes.length);
+            System.arraycopy(bytes, 0, body, length, bytes.length);
+        }
+    }
+}
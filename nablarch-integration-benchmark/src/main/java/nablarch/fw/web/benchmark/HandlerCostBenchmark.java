@@ -0,0 +1,78 @@
+package nablarch.fw.web.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 新ハンドラ構成で追加されたハンドラ1つあたりのコストを計測するベンチマーク。
+ * <p/>
+ * 新ハンドラ構成から対象のハンドラを1つだけ除外した構成で計測し、
+ * 除外しない構成({@code excludedHandler=none})との差分をそのハンドラのコストとみなす。
+ * <p/>
+ * {@code SessionStoreHandler}を除外した構成では、{@link #getSession()}はエラー応答までのコストを計測することになる。
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HandlerCostBenchmark extends HandlerQueueBenchmarkSupport {
+
+    /** 除外するハンドラ */
+    @Param({
+            "none",
+            "SecureHandler",
+            "SessionStoreHandler",
+            "NormalizationHandler",
+            "NablarchTagHandler",
+            "HttpCharacterEncodingHandler"})
+    public String excludedHandler;
+
+    /**
+     * ハンドラキュー構成を読み込む。
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        setUpController(NEW_HANDLER_QUEUE, excludedHandler.equals("none") ? null : excludedHandler);
+    }
+
+    /**
+     * ハンドラキュー構成を破棄する。
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tearDownController();
+    }
+
+    @Benchmark
+    @Override
+    public int plainGet() throws Exception {
+        return super.plainGet();
+    }
+
+    @Benchmark
+    @Override
+    public int upload() throws Exception {
+        return super.upload();
+    }
+
+    @Benchmark
+    @Override
+    public int getSession() throws Exception {
+        return super.getSession();
+    }
+}
@@ -0,0 +1,163 @@
+package nablarch.fw.web.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import nablarch.core.repository.SystemRepository;
+import nablarch.core.repository.di.DiContainer;
+import nablarch.core.repository.di.config.DuplicateDefinitionPolicy;
+import nablarch.core.repository.di.config.xml.XmlComponentDefinitionLoader;
+import nablarch.core.repository.disposal.BasicApplicationDisposer;
+import nablarch.fw.Handler;
+import nablarch.fw.web.servlet.WebFrontController;
+
+/**
+ * ハンドラキュー構成を読み込み、モックのサーブレットリクエストで駆動するベンチマークのサポートクラス。
+ * <p/>
+ * 結合テストのデプロイメントと同様に、DIコンテナの設定ファイルから{@code webFrontController}を構築する。
+ */
+public abstract class HandlerQueueBenchmarkSupport {
+
+    /** 新ハンドラ構成の設定ファイル */
+    public static final String NEW_HANDLER_QUEUE = "nablarch/fw/web/new-handler-queue-configuration.xml";
+
+    /** 旧ハンドラ構成の設定ファイル */
+    public static final String OLD_HANDLER_QUEUE = "nablarch/fw/web/old-handler-queue-configuration.xml";
+
+    /** 新ハンドラ構成に本モジュールで追加したハンドラを組み込んだ構成の設定ファイル */
+    public static final String EXTENDED_HANDLER_QUEUE = "nablarch/fw/web/extended-handler-queue-configuration.xml";
+
+    /** 後続に処理を委譲しない{@link FilterChain} */
+    private static final FilterChain TERMINAL_CHAIN = new FilterChain() {
+        @Override
+        public void doFilter(final ServletRequest request, final ServletResponse response) {
+            // ハンドラキューで処理されなかったリクエストは何もしない。
+        }
+    };
+
+    /** ベンチマーク対象のコントローラ */
+    private WebFrontController controller;
+
+    /** サーブレットコンテキスト */
+    private ServletContext servletContext;
+
+    /** ファイルアップロードのリクエストボディ */
+    private byte[] uploadBody;
+
+    /** Hiddenセッション取得のリクエストボディ */
+    private byte[] getSessionBody;
+
+    /**
+     * ハンドラキュー構成を読み込み、コントローラを構築する。
+     *
+     * @param configFile DIコンテナの設定ファイル
+     * @param excludedHandler ハンドラキューから除外するハンドラのクラス名(単純名)。除外しない場合は{@code null}
+     */
+    protected void setUpController(final String configFile, final String excludedHandler) {
+        SystemRepository.clear();
+        SystemRepository.load(new DiContainer(
+                new XmlComponentDefinitionLoader(configFile, DuplicateDefinitionPolicy.OVERRIDE)));
+
+        final WebFrontController loaded = SystemRepository.get("webFrontController");
+        final List<Handler> handlerQueue = new ArrayList<Handler>();
+        boolean excluded = false;
+        for (Handler handler : loaded.getHandlerQueue()) {
+            if (handler.getClass().getSimpleName().equals(excludedHandler)) {
+                excluded = true;
+                continue;
+            }
+            handlerQueue.add(handler);
+        }
+        if (excludedHandler != null && !excluded) {
+            throw new IllegalArgumentException(
+                    "handler not found in handler queue. config = [" + configFile + "], handler = [" + excludedHandler + ']');
+        }
+
+        final FilterConfig filterConfig = MockServletObjects.createFilterConfig();
+        controller = new WebFrontController();
+        controller.setHandlerQueue(handlerQueue);
+        controller.setServletFilterConfig(filterConfig);
+        servletContext = filterConfig.getServletContext();
+
+        uploadBody = BenchmarkRequests.uploadBody(100);
+        getSessionBody = BenchmarkRequests.getSessionBody();
+
+        // エラー応答のコストを計測しないよう、計測前に正常に処理されることを確認する
+        final int status;
+        try {
+            status = plainGet();
+        } catch (Exception e) {
+            throw new IllegalStateException("failed to execute plain GET request. config = [" + configFile + ']', e);
+        }
+        if (status != 200) {
+            throw new IllegalStateException("plain GET request was not processed successfully. config = ["
+                    + configFile + "], excluded handler = [" + excludedHandler + "], status = [" + status + ']');
+        }
+    }
+
+    /**
+     * 読み込んだハンドラキュー構成を破棄する。
+     * <p/>
+     * {@code disposer}が定義されている場合は、スレッドなどのリソースを解放してから破棄する。
+     */
+    protected void tearDownController() {
+        final BasicApplicationDisposer disposer = SystemRepository.get("disposer");
+        if (disposer != null) {
+            disposer.dispose();
+        }
+        SystemRepository.clear();
+    }
+
+    /**
+     * 単純なGETリクエストを処理する。
+     * <p/>
+     * いずれのハンドラ構成でも200となることを、{@link #setUpController(String, String)}で確認している。
+     *
+     * @return ステータスコード
+     * @throws Exception 例外
+     */
+    protected int plainGet() throws Exception {
+        return execute(BenchmarkRequests.plainGet(servletContext));
+    }
+
+    /**
+     * ファイルアップロードのリクエストを処理する。
+     *
+     * @return ステータスコード
+     * @throws Exception 例外
+     */
+    protected int upload() throws Exception {
+        return execute(BenchmarkRequests.upload(servletContext, uploadBody));
+    }
+
+    /**
+     * Hiddenセッションからの値の取得を行うリクエストを処理する。
+     *
+     * @return ステータスコード
+     * @throws Exception 例外
+     */
+    protected int getSession() throws Exception {
+        return execute(BenchmarkRequests.getSession(servletContext, getSessionBody));
+    }
+
+    /**
+     * リクエストをハンドラキューで処理する。
+     *
+     * @param request リクエスト
+     * @return ステータスコード
+     * @throws Exception 例外
+     */
+    private int execute(final HttpServletRequest request) throws Exception {
+        final HttpServletResponse response = MockServletObjects.createResponse();
+        controller.doFilter(request, response, TERMINAL_CHAIN);
+        return response.getStatus();
+    }
+}
@@ -0,0 +1,531 @@
+package nablarch.fw.web.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterConfig;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * ハンドラキューをサーブレットコンテナなしで駆動するための、サーブレットAPIのモック実装を生成するクラス。
+ * <p/>
+ * ハンドラキューが参照するメソッドのみを実装し、それ以外のメソッドは型に応じた既定値({@code null}、{@code 0}、{@code false})を返す。
+ */
+public final class MockServletObjects {
+
+    /** 隠蔽コンストラクタ */
+    private MockServletObjects() {
+    }
+
+    /**
+     * {@link FilterConfig}を生成する。
+     *
+     * @return {@link FilterConfig}
+     */
+    public static FilterConfig createFilterConfig() {
+        final ServletContext servletContext = createServletContext();
+        return proxy(FilterConfig.class, new DefaultValueHandler() {
+            @Override
+            Object invoke(final String name, final Object[] args) {
+                if (name.equals("getServletContext")) {
+                    return servletContext;
+                }
+                if (name.equals("getFilterName")) {
+                    return "entryPoint";
+                }
+                return DEFAULT;
+            }
+        });
+    }
+
+    /**
+     * {@link ServletContext}を生成する。
+     *
+     * @return {@link ServletContext}
+     */
+    public static ServletContext createServletContext() {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        return proxy(ServletContext.class, new DefaultValueHandler() {
+            @Override
+            Object invoke(final String name, final Object[] args) {
+                if (name.equals("getContextPath")) {
+                    return "";
+                }
+                if (name.equals("getAttribute")) {
+                    return attributes.get(args[0]);
+                }
+                if (name.equals("setAttribute")) {
+                    attributes.put((String) args[0], args[1]);
+                    return null;
+                }
+                if (name.equals("removeAttribute")) {
+                    attributes.remove(args[0]);
+                    return null;
+                }
+                if (name.equals("getAttributeNames")) {
+                    return Collections.enumeration(new ArrayList<String>(attributes.keySet()));
+                }
+                if (name.equals("getInitParameterNames")) {
+                    return Collections.enumeration(Collections.<String>emptyList());
+                }
+                if (name.equals("getServerInfo")) {
+                    return "nablarch-integration-benchmark";
+                }
+                return DEFAULT;
+            }
+        });
+    }
+
+    /**
+     * {@link HttpServletRequest}を生成する。
+     *
+     * @param method HTTPメソッド
+     * @param requestUri リクエストURI(コンテキストパスは空文字列とする)
+     * @param headers リクエストヘッダ
+     * @param body リクエストボディ
+     * @param servletContext サーブレットコンテキスト
+     * @return {@link HttpServletRequest}
+     */
+    public static HttpServletRequest createRequest(final String method, final String requestUri,
+            final Map<String, String> headers, final byte[] body, final ServletContext servletContext) {
+
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        final Map<String, String> lowerCaseHeaders = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            lowerCaseHeaders.put(header.getKey().toLowerCase(Locale.ENGLISH), header.getValue());
+        }
+        final Cookie[] cookies = parseCookies(lowerCaseHeaders.get("cookie"));
+        final ServletInputStream inputStream = new ByteArrayServletInputStream(body);
+        final String[] characterEncoding = new String[1];
+        final HttpSession[] session = new HttpSession[1];
+
+        return proxy(HttpServletRequest.class, new DefaultValueHandler() {
+            @Override
+            Object invoke(final String name, final Object[] args) {
+                if (name.equals("getMethod")) {
+                    return method;
+                }
+                if (name.equals("getRequestURI")) {
+                    return requestUri;
+                }
+                if (name.equals("getRequestURL")) {
+                    return new StringBuffer("http://localhost").append(requestUri);
+                }
+                if (name.equals("getContextPath")) {
+                    return "";
+                }
+                if (name.equals("getServletPath")) {
+                    return requestUri;
+                }
+                if (name.equals("getProtocol")) {
+                    return "HTTP/1.1";
+                }
+                if (name.equals("getScheme")) {
+                    return "http";
+                }
+                if (name.equals("getServerName") || name.equals("getLocalName") || name.equals("getRemoteHost")) {
+                    return "localhost";
+                }
+                if (name.equals("getServerPort") || name.equals("getLocalPort")) {
+                    return 80;
+                }
+                if (name.equals("getRemoteAddr") || name.equals("getLocalAddr")) {
+                    return "127.0.0.1";
+                }
+                if (name.equals("getContentType")) {
+                    return lowerCaseHeaders.get("content-type");
+                }
+                if (name.equals("getContentLength")) {
+                    return body.length;
+                }
+                if (name.equals("getContentLengthLong")) {
+                    return (long) body.length;
+                }
+                if (name.equals("getCharacterEncoding")) {
+                    return characterEncoding[0];
+                }
+                if (name.equals("setCharacterEncoding")) {
+                    characterEncoding[0] = (String) args[0];
+                    return null;
+                }
+                if (name.equals("getInputStream")) {
+                    return inputStream;
+                }
+                if (name.equals("getHeader")) {
+                    return lowerCaseHeaders.get(((String) args[0]).toLowerCase(Locale.ENGLISH));
+                }
+                if (name.equals("getHeaders")) {
+                    final String value = lowerCaseHeaders.get(((String) args[0]).toLowerCase(Locale.ENGLISH));
+                    return Collections.enumeration(
+                            value == null ? Collections.<String>emptyList() : Collections.singletonList(value));
+                }
+                if (name.equals("getHeaderNames")) {
+                    return Collections.enumeration(new ArrayList<String>(headers.keySet()));
+                }
+                if (name.equals("getCookies")) {
+                    return cookies;
+                }
+                if (name.equals("getParameterMap")) {
+                    return Collections.<String, String[]>emptyMap();
+                }
+                if (name.equals("getParameterNames")) {
+                    return Collections.enumeration(Collections.<String>emptyList());
+                }
+                if (name.equals("getAttribute")) {
+                    return attributes.get(args[0]);
+                }
+                if (name.equals("setAttribute")) {
+                    attributes.put((String) args[0], args[1]);
+                    return null;
+                }
+                if (name.equals("removeAttribute")) {
+                    attributes.remove(args[0]);
+                    return null;
+                }
+                if (name.equals("getAttributeNames")) {
+                    return Collections.enumeration(new ArrayList<String>(attributes.keySet()));
+                }
+                if (name.equals("getSession")) {
+                    final boolean create = args == null || (Boolean) args[0];
+                    if (session[0] == null && create) {
+                        session[0] = createSession(servletContext);
+                    }
+                    return session[0];
+                }
+                if (name.equals("getLocale")) {
+                    return Locale.getDefault();
+                }
+                if (name.equals("getLocales")) {
+                    return Collections.enumeration(Collections.singletonList(Locale.getDefault()));
+                }
+                if (name.equals("getDispatcherType")) {
+                    return DispatcherType.REQUEST;
+                }
+                if (name.equals("getServletContext")) {
+                    return servletContext;
+                }
+                return DEFAULT;
+            }
+        });
+    }
+
+    /**
+     * {@link HttpServletResponse}を生成する。
+     * <p/>
+     * 書き込まれたボディは破棄し、ステータスコードのみ保持する。
+     *
+     * @return {@link HttpServletResponse}
+     */
+    public static HttpServletResponse createResponse() {
+        return createResponse(new DiscardingServletOutputStream());
+    }
+
+    /**
+     * ボディを指定した{@link ServletOutputStream}に書き込む{@link HttpServletResponse}を生成する。
+     *
+     * @param outputStream ボディの書き込み先
+     * @return {@link HttpServletResponse}
+     */
+    public static HttpServletResponse createResponse(final ServletOutputStream outputStream) {
+        final int[] status = {HttpServletResponse.SC_OK};
+        final String[] contentType = new String[1];
+        final String[] characterEncoding = {"UTF-8"};
+        final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        final PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, Charset.forName("UTF-8")));
+
+        return proxy(HttpServletResponse.class, new DefaultValueHandler() {
+            @Override
+            Object invoke(final String name, final Object[] args) {
+                if (name.equals("setStatus") || name.equals("sendError")) {
+                    status[0] = (Integer) args[0];
+                    return null;
+                }
+                if (name.equals("getStatus")) {
+                    return status[0];
+                }
+                if (name.equals("setContentType")) {
+                    contentType[0] = (String) args[0];
+                    return null;
+                }
+                if (name.equals("getContentType")) {
+                    return contentType[0];
+                }
+                if (name.equals("setCharacterEncoding")) {
+                    characterEncoding[0] = (String) args[0];
+                    return null;
+                }
+                if (name.equals("getCharacterEncoding")) {
+                    return characterEncoding[0];
+                }
+                if (name.equals("setHeader") || name.equals("setDateHeader") || name.equals("setIntHeader")) {
+                    final List<String> values = new ArrayList<String>();
+                    values.add(String.valueOf(args[1]));
+                    headers.put((String) args[0], values);
+                    return null;
+                }
+                if (name.equals("addHeader") || name.equals("addDateHeader") || name.equals("addIntHeader")) {
+                    List<String> values = headers.get(args[0]);
+                    if (values == null) {
+                        values = new ArrayList<String>();
+                        headers.put((String) args[0], values);
+                    }
+                    values.add(String.valueOf(args[1]));
+                    return null;
+                }
+                if (name.equals("containsHeader")) {
+                    return headers.containsKey(args[0]);
+                }
+                if (name.equals("getHeader")) {
+                    final List<String> values = headers.get(args[0]);
+                    return values == null ? null : values.get(0);
+                }
+                if (name.equals("getHeaders")) {
+                    final List<String> values = headers.get(args[0]);
+                    return values == null ? Collections.<String>emptyList() : values;
+                }
+                if (name.equals("getHeaderNames")) {
+                    return headers.keySet();
+                }
+                if (name.equals("getOutputStream")) {
+                    return outputStream;
+                }
+                if (name.equals("getWriter")) {
+                    return writer;
+                }
+                if (name.equals("encodeURL") || name.equals("encodeRedirectURL")
+                        || name.equals("encodeUrl") || name.equals("encodeRedirectUrl")) {
+                    return args[0];
+                }
+                if (name.equals("getLocale")) {
+                    return Locale.getDefault();
+                }
+                if (name.equals("getBufferSize")) {
+                    return 8192;
+                }
+                return DEFAULT;
+            }
+        });
+    }
+
+    /**
+     * {@link HttpSession}を生成する。
+     *
+     * @param servletContext サーブレットコンテキスト
+     * @return {@link HttpSession}
+     */
+    private static HttpSession createSession(final ServletContext servletContext) {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        final long creationTime = System.currentTimeMillis();
+        return proxy(HttpSession.class, new DefaultValueHandler() {
+            @Override
+            Object invoke(final String name, final Object[] args) {
+                if (name.equals("getId")) {
+                    return "benchmark-session";
+                }
+                if (name.equals("getCreationTime") || name.equals("getLastAccessedTime")) {
+                    return creationTime;
+                }
+                if (name.equals("getAttribute")) {
+                    return attributes.get(args[0]);
+                }
+                if (name.equals("setAttribute")) {
+                    attributes.put((String) args[0], args[1]);
+                    return null;
+                }
+                if (name.equals("removeAttribute")) {
+                    attributes.remove(args[0]);
+                    return null;
+                }
+                if (name.equals("getAttributeNames")) {
+                    return Collections.enumeration(new ArrayList<String>(attributes.keySet()));
+                }
+                if (name.equals("invalidate")) {
+                    attributes.clear();
+                    return null;
+                }
+                if (name.equals("getServletContext")) {
+                    return servletContext;
+                }
+                return DEFAULT;
+            }
+        });
+    }
+
+    /**
+     * Cookieヘッダを解析する。
+     *
+     * @param header Cookieヘッダ
+     * @return Cookie(ヘッダが存在しない場合は{@code null})
+     */
+    private static Cookie[] parseCookies(final String header) {
+        if (header == null) {
+            return null;
+        }
+        final List<Cookie> cookies = new ArrayList<Cookie>();
+        for (String pair : header.split(";")) {
+            final int index = pair.indexOf('=');
+            if (index > 0) {
+                cookies.add(new Cookie(pair.substring(0, index).trim(), pair.substring(index + 1).trim()));
+            }
+        }
+        return cookies.toArray(new Cookie[cookies.size()]);
+    }
+
+    /**
+     * 動的プロキシを生成する。
+     *
+     * @param type インタフェース
+     * @param handler ハンドラ
+     * @param <T> インタフェースの型
+     * @return 動的プロキシ
+     */
+    private static <T> T proxy(final Class<T> type, final DefaultValueHandler handler) {
+        return type.cast(Proxy.newProxyInstance(MockServletObjects.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    /**
+     * 未実装のメソッドに対して既定値を返す{@link InvocationHandler}。
+     */
+    private abstract static class DefaultValueHandler implements InvocationHandler {
+
+        /** 既定値を返すことを示すマーカー */
+        static final Object DEFAULT = new Object();
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            final String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                if (name.equals("equals")) {
+                    return proxy == args[0];
+                }
+                if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return "Mock" + method.getDeclaringClass().getSimpleName();
+            }
+            final Object result = invoke(name, args);
+            return result == DEFAULT ? defaultValue(method.getReturnType()) : result;
+        }
+
+        /**
+         * メソッド呼び出しを処理する。
+         *
+         * @param name メソッド名
+         * @param args 引数
+         * @return 戻り値(既定値を返す場合は{@link #DEFAULT})
+         */
+        abstract Object invoke(String name, Object[] args);
+
+        /**
+         * 型に応じた既定値を返す。
+         *
+         * @param type 戻り値の型
+         * @return 既定値
+         */
+        private static Object defaultValue(final Class<?> type) {
+            if (type == boolean.class) {
+                return false;
+            }
+            if (type == int.class) {
+                return 0;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * バイト配列を読み込む{@link ServletInputStream}。
+     */
+    private static final class ByteArrayServletInputStream extends ServletInputStream {
+
+        /** 読み込み元 */
+        private final ByteArrayInputStream in;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param body リクエストボディ
+         */
+        ByteArrayServletInputStream(final byte[] body) {
+            in = new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public int read() {
+            return in.read();
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return in.available();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return in.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(final ReadListener readListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * 書き込まれた内容を破棄する{@link ServletOutputStream}。
+     */
+    private static final class DiscardingServletOutputStream extends ServletOutputStream {
+
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
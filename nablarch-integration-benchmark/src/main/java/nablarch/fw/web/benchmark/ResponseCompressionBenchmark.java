@@ -0,0 +1,209 @@
+package nablarch.fw.web.benchmark;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.HttpResponse;
+import nablarch.fw.web.buffer.BufferPoolHandler;
+import nablarch.fw.web.compression.DeflaterPool;
+import nablarch.fw.web.compression.ResponseCompressionHandler;
+import nablarch.fw.web.handler.HttpResponseHandler;
+import nablarch.fw.web.servlet.ServletExecutionContext;
+
+/**
+ * {@link ResponseCompressionHandler}による、レスポンス1件あたりの圧縮のコストと削減されるバイト数を計測するベンチマーク。
+ * <p/>
+ * Hiddenストアに値を格納したHTMLを{@code HttpResponseHandler}で書き込み、
+ * {@code encoding=identity}(Accept-Encodingなし)との差分を圧縮のコストとみなす。
+ * 1スレッドで実行するため、処理時間はレスポンス1件あたりのCPU時間とほぼ等しい。
+ * {@code pooled=false}の場合は、{@link java.util.zip.Deflater}と圧縮に使用するバッファをプールせずに毎回生成・解放する。
+ * {@code pooled=true}の場合は、ハンドラキューの先頭に{@link BufferPoolHandler}を設定する。
+ * <p/>
+ * 削減されるバイト数は、トライアルの終了時に標準出力に出力する。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseCompressionBenchmark {
+
+    /** Accept-Encoding(identityの場合は送信しない) */
+    @Param({"identity", "gzip", "deflate"})
+    public String encoding;
+
+    /** Hiddenストアに格納する値の長さ */
+    @Param({"4096", "65536"})
+    public int hiddenStoreBytes;
+
+    /** {@link java.util.zip.Deflater}とバッファをプールする場合は{@code true} */
+    @Param({"true", "false"})
+    public boolean pooled;
+
+    /** ハンドラキュー */
+    private List<Handler> handlerQueue;
+
+    /** リクエスト */
+    private HttpServletRequest request;
+
+    /** サーブレットコンテキスト */
+    private ServletContext servletContext;
+
+    /** ボディのバイト数を数える出力先 */
+    private final CountingServletOutputStream body = new CountingServletOutputStream();
+
+    /** 圧縮前のボディのバイト数 */
+    private long originalBytes;
+
+    /**
+     * ハンドラキューとリクエストを構築する。
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        final String page = createPage(hiddenStoreBytes);
+        originalBytes = page.getBytes(Charset.forName("UTF-8")).length;
+
+        final ResponseCompressionHandler compressionHandler = new ResponseCompressionHandler();
+        final DeflaterPool deflaterPool = new DeflaterPool();
+        deflaterPool.setMaxPoolSize(pooled ? 64 : 0);
+        compressionHandler.setDeflaterPool(deflaterPool);
+
+        handlerQueue = new ArrayList<Handler>();
+        if (pooled) {
+            handlerQueue.add(new BufferPoolHandler());
+        }
+        handlerQueue.addAll(Arrays.<Handler>asList(compressionHandler, new HttpResponseHandler(),
+                new Handler<HttpRequest, HttpResponse>() {
+                    @Override
+                    public HttpResponse handle(final HttpRequest request, final ExecutionContext context) {
+                        return new HttpResponse().setContentType("text/html;charset=UTF-8").write(page);
+                    }
+                }));
+
+        servletContext = MockServletObjects.createServletContext();
+        final Map<String, String> headers = new HashMap<String, String>();
+        if (!encoding.equals("identity")) {
+            headers.put("Accept-Encoding", encoding);
+        }
+        request = MockServletObjects.createRequest("GET", "/action/Page", headers, new byte[0], servletContext);
+    }
+
+    /**
+     * 削減されたバイト数を出力する。
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        final long compressed = body.getCount();
+        System.out.printf("%n[ResponseCompressionBenchmark] encoding=%s, hiddenStoreBytes=%d: %d -> %d bytes (%.1f%% saved)%n",
+                encoding, hiddenStoreBytes, originalBytes, compressed,
+                100.0 * (originalBytes - compressed) / originalBytes);
+    }
+
+    /**
+     * レスポンスを1件処理する。
+     *
+     * @return レスポンスのボディのバイト数
+     */
+    @Benchmark
+    public long respond() {
+        body.reset();
+        final ServletExecutionContext context = new ServletExecutionContext(
+                request, MockServletObjects.createResponse(body), servletContext);
+        context.setHandlerQueue(new ArrayList<Handler>(handlerQueue));
+        context.handleNext(context.getHttpRequest());
+        return body.getCount();
+    }
+
+    /**
+     * Hiddenストアに値を格納したHTMLを生成する。
+     *
+     * @param size 値の長さ
+     * @return HTML
+     */
+    private static String createPage(final int size) {
+        // Hiddenストアの値(暗号化したセッションをBase64エンコードした文字列)を模擬するため、
+        // 乱数をBase64エンコードする。同じ文字列の繰り返しに比べて圧縮率は低くなる。
+        final byte[] random = new byte[size * 3 / 4 + 3];
+        new Random(size).nextBytes(random);
+        final String value = Base64.getEncoder().encodeToString(random).substring(0, size);
+        return "<html><head><title>benchmark</title></head><body><form method=\"post\" action=\"/action/Page\">"
+                + "<input type=\"text\" name=\"name\" value=\"\">"
+                + "<input type=\"hidden\" name=\"_HIDDEN_STORE_\" value=\"" + value + "\">"
+                + "</form></body></html>";
+    }
+
+    /**
+     * 書き込まれたバイト数を数える{@link ServletOutputStream}。
+     */
+    private static final class CountingServletOutputStream extends ServletOutputStream {
+
+        /** 書き込まれたバイト数 */
+        private long count;
+
+        /**
+         * 次のレスポンスのためにバイト数をクリアする。
+         */
+        void reset() {
+            count = 0;
+        }
+
+        /**
+         * 直前のクリア以降に書き込まれたバイト数を取得する。
+         *
+         * @return 書き込まれたバイト数
+         */
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(final int b) {
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            count += len;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
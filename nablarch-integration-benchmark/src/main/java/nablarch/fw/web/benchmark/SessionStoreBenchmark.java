@@ -0,0 +1,73 @@
+package nablarch.fw.web.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nablarch.common.web.session.store.DirtyTrackingHiddenStore;
+import nablarch.core.repository.SystemRepository;
+
+/**
+ * セッションを参照するだけのリクエストが大半を占める場合のスループットを、
+ * {@link DirtyTrackingHiddenStore}の変更の検出の有無で比較するベンチマーク。
+ * <p/>
+ * {@link DirtyTrackingHiddenStore}は拡張構成でのみ使用するため、拡張構成を読み込む。
+ * <p/>
+ * 計測後に、保存を省略した回数と保存を行った回数を標準出力へ出力する。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class SessionStoreBenchmark extends HandlerQueueBenchmarkSupport {
+
+    /** 変更の検出を行う場合は{@code true} */
+    @Param({"true", "false"})
+    public boolean dirtyTracking;
+
+    /** ベンチマーク対象のセッションストア */
+    private DirtyTrackingHiddenStore store;
+
+    /**
+     * ハンドラキュー構成を読み込む。
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        setUpController(EXTENDED_HANDLER_QUEUE, null);
+        store = SystemRepository.get("hiddenStore");
+        store.setDirtyTracking(dirtyTracking);
+    }
+
+    /**
+     * 保存の回数を出力し、ハンドラキュー構成を破棄する。
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.println("hidden store saves: skipped = [" + store.getSkippedSaves()
+                + "], performed = [" + store.getPerformedSaves() + ']');
+        tearDownController();
+    }
+
+    @Benchmark
+    @Override
+    public int getSession() throws Exception {
+        return super.getSession();
+    }
+}
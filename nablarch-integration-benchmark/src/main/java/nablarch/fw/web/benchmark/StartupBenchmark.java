@@ -0,0 +1,86 @@
+package nablarch.fw.web.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nablarch.core.repository.ObjectLoader;
+import nablarch.core.repository.SystemRepository;
+import nablarch.core.repository.di.DiContainer;
+import nablarch.core.repository.di.config.DuplicateDefinitionPolicy;
+import nablarch.core.repository.di.config.xml.XmlComponentDefinitionLoader;
+import nablarch.core.repository.di.precompiled.PrecompiledComponentLoader;
+
+/**
+ * ハンドラキュー構成でシステムリポジトリを初期化するまでの時間(コールドスタート)を、
+ * 設定ファイル(XML)から読み込む場合とビルド時に生成したクラスを使用する場合とで比較するベンチマーク。
+ * <p/>
+ * 起動時のコストを計測するため、フォークしたJVMごとに1回だけ初期化する。
+ * 生成したクラスを使用する場合は、設定ファイルが変更されていないことの確認を含む。
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    /** ハンドラ構成 */
+    @Param({"new", "old"})
+    public String handlerQueue;
+
+    /** 読み込み方法 */
+    @Param({"xml", "precompiled"})
+    public String loader;
+
+    /**
+     * 読み込んだハンドラキュー構成を破棄する。
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SystemRepository.clear();
+    }
+
+    /**
+     * システムリポジトリを初期化し、{@code webFrontController}を取得する。
+     *
+     * @return {@code webFrontController}
+     */
+    @Benchmark
+    public Object load() {
+        final String configFile = handlerQueue.equals("new")
+                ? HandlerQueueBenchmarkSupport.NEW_HANDLER_QUEUE : HandlerQueueBenchmarkSupport.OLD_HANDLER_QUEUE;
+        SystemRepository.load(createLoader(configFile));
+        return SystemRepository.get("webFrontController");
+    }
+
+    /**
+     * 設定ファイルを読み込む{@link ObjectLoader}を生成する。
+     *
+     * @param configFile 設定ファイル
+     * @return {@link ObjectLoader}
+     */
+    private ObjectLoader createLoader(final String configFile) {
+        if (loader.equals("xml")) {
+            return new DiContainer(new XmlComponentDefinitionLoader(configFile, DuplicateDefinitionPolicy.OVERRIDE));
+        }
+        final PrecompiledComponentLoader precompiled = PrecompiledComponentLoader.find(configFile);
+        if (precompiled == null) {
+            throw new IllegalStateException("precompiled component loader was not found. build nablarch-integration-test"
+                    + " without -Ddi.precompile.skip=true. config = [" + configFile + ']');
+        }
+        return precompiled;
+    }
+}
@@ -0,0 +1,72 @@
+package nablarch.fw.web.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 旧・新ハンドラ構成でのリクエスト処理コストを比較するベンチマーク。
+ * <p/>
+ * スループットと処理時間の分布(p99を含む)を計測する。
+ * アロケーションレートは{@code -prof gc}を指定して計測すること。
+ * <p/>
+ * 旧ハンドラ構成にはセッションストアが存在しないため、{@link #getSession()}はエラー応答までのコストを計測することになる。
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WebHandlerQueueBenchmark extends HandlerQueueBenchmarkSupport {
+
+    /** ハンドラ構成 */
+    @Param({"new", "old"})
+    public String handlerQueue;
+
+    /**
+     * ハンドラキュー構成を読み込む。
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        setUpController(handlerQueue.equals("new") ? NEW_HANDLER_QUEUE : OLD_HANDLER_QUEUE, null);
+    }
+
+    /**
+     * ハンドラキュー構成を破棄する。
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tearDownController();
+    }
+
+    @Benchmark
+    @Override
+    public int plainGet() throws Exception {
+        return super.plainGet();
+    }
+
+    @Benchmark
+    @Override
+    public int upload() throws Exception {
+        return super.upload();
+    }
+
+    @Benchmark
+    @Override
+    public int getSession() throws Exception {
+        return super.getSession();
+    }
+}
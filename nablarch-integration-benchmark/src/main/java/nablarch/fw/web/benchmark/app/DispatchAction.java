@@ -0,0 +1,24 @@
+package nablarch.fw.web.benchmark.app;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.HttpResponse;
+
+/**
+ * ディスパッチのコストを計測するための業務Actionクラス。
+ * <p/>
+ * ディスパッチ以外のコストを含めないよう、何も処理を行わない。
+ */
+public class DispatchAction {
+
+    /**
+     * 空のレスポンスを返す。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return レスポンス
+     */
+    public HttpResponse doIndex(HttpRequest request, ExecutionContext context) {
+        return new HttpResponse();
+    }
+}
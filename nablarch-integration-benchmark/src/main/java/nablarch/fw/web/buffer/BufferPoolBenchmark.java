@@ -0,0 +1,108 @@
+package nablarch.fw.web.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * リクエストごとにバッファを取得して1回分の読み込みに使用するコストを、{@link BufferPool}の有無で比較するベンチマーク。
+ * <p/>
+ * 1回の操作で、リクエスト単位の{@link BufferLeases}の生成、バッファの取得、{@code chunkSize}バイトの書き込み、返却を行う。
+ * {@code pooled=false}の場合は、毎回バッファを生成する。
+ * 複数スレッドで実行し、共有のプールでの競合も含めて計測する。
+ * <p/>
+ * プールのヒット率は、トライアルの終了時に標準出力に出力する。
+ * パッケージプライベートなクラスを使用するため、本クラスは{@code nablarch.fw.web.buffer}パッケージに配置する。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class BufferPoolBenchmark {
+
+    /** バッファの種類 */
+    @Param({"heap", "direct"})
+    public String kind;
+
+    /** バッファの容量 */
+    @Param({"8192", "65536"})
+    public int bufferSize;
+
+    /** 書き込むバイト数 */
+    @Param({"1024"})
+    public int chunkSize;
+
+    /** {@link BufferPool}を使用する場合は{@code true} */
+    @Param({"true", "false"})
+    public boolean pooled;
+
+    /** バッファのプール */
+    private BufferPool pool;
+
+    /** 書き込む内容 */
+    private byte[] chunk;
+
+    /**
+     * プールと書き込む内容を生成する。
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new BufferPool();
+        chunk = new byte[chunkSize];
+        new Random(chunkSize).nextBytes(chunk);
+    }
+
+    /**
+     * プールのヒット率を出力する。
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pooled) {
+            System.out.printf("%n[BufferPoolBenchmark] kind=%s, bufferSize=%d: hit rate = %.4f (thread local = %d, shared = %d, allocated = %d)%n",
+                    kind, bufferSize, pool.getHitRate(), pool.getThreadLocalHitCount(), pool.getSharedHitCount(),
+                    pool.getAllocateCount());
+        }
+    }
+
+    /**
+     * バッファを取得して書き込み、返却する。
+     *
+     * @return 書き込んだバッファの内容
+     */
+    @Benchmark
+    public byte acquireAndRelease() {
+        final boolean direct = kind.equals("direct");
+        if (!pooled) {
+            final ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+            buffer.put(chunk);
+            return buffer.get(chunkSize - 1);
+        }
+        final BufferLeases leases = new BufferLeases(pool);
+        final ByteBuffer buffer = direct ? leases.acquireDirect(bufferSize) : leases.acquireHeap(bufferSize);
+        try {
+            buffer.put(chunk);
+            return buffer.get(chunkSize - 1);
+        } finally {
+            leases.release(buffer);
+            leases.discardAll();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package nablarch.fw.web.handler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.MockHttpRequest;
+
+/**
+ * リクエストパスから業務Actionのメソッドを呼び出すまでのコストを比較するベンチマーク。
+ * <p/>
+ * 以下のハンドラで、業務Actionが存在するリクエストパスと存在しないリクエストパスを処理する。
+ * <ul>
+ *     <li>{@code standard}:{@link HttpRequestJavaPackageMapping}(リクエストごとにクラスとメソッドを検索する)</li>
+ *     <li>{@code cached}:{@link CachedHttpRequestJavaPackageMapping}(解決結果をキャッシュする)</li>
+ * </ul>
+ * 業務Actionは何も処理を行わないため、計測値はディスパッチのコストとみなせる。
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ActionDispatchBenchmark {
+
+    /** ベースURI */
+    private static final String BASE_URI = "/action/";
+
+    /** ベースパッケージ */
+    private static final String BASE_PACKAGE = "nablarch.fw.web.benchmark.app";
+
+    /** ディスパッチを行うハンドラ */
+    @Param({"standard", "cached"})
+    public String mapping;
+
+    /** ディスパッチを行うハンドラ */
+    private Handler<HttpRequest, ?> handler;
+
+    /** 業務Actionが存在するリクエスト */
+    private HttpRequest found;
+
+    /** 業務Actionが存在しないリクエスト */
+    private HttpRequest notFound;
+
+    /**
+     * ハンドラとリクエストを生成する。
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (mapping.equals("cached")) {
+            final CachedHttpRequestJavaPackageMapping cached = new CachedHttpRequestJavaPackageMapping();
+            cached.setBaseUri(BASE_URI);
+            cached.setBasePackage(BASE_PACKAGE);
+            handler = cached;
+        } else {
+            final HttpRequestJavaPackageMapping standard = new HttpRequestJavaPackageMapping();
+            standard.setBaseUri(BASE_URI);
+            standard.setBasePackage(BASE_PACKAGE);
+            handler = standard;
+        }
+        found = new MockHttpRequest().setMethod("GET").setRequestPath(BASE_URI + "DispatchAction/Index");
+        notFound = new MockHttpRequest().setMethod("GET").setRequestPath(BASE_URI + "NoSuchAction/Index");
+    }
+
+    /**
+     * 業務Actionが存在するリクエストパスを処理する。
+     *
+     * @return 業務Actionの戻り値
+     */
+    @Benchmark
+    public Object found() {
+        return handler.handle(found, new ExecutionContext());
+    }
+
+    /**
+     * 業務Actionが存在しないリクエストパスを処理する。
+     *
+     * @return 送出された例外
+     */
+    @Benchmark
+    public Object notFound() {
+        try {
+            return handler.handle(notFound, new ExecutionContext());
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+}
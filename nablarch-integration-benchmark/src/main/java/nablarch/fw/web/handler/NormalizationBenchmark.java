@@ -0,0 +1,104 @@
+package nablarch.fw.web.handler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.MockHttpRequest;
+
+/**
+ * リクエストパラメータの正規化のコストを比較するベンチマーク。
+ * <p/>
+ * 以下のハンドラで、指定した数のパラメータを持つリクエストを正規化する。
+ * <ul>
+ *     <li>{@code standard}:{@link NormalizationHandler}(デフォルト設定)</li>
+ *     <li>{@code fused}:{@link FusedNormalizationHandler}(前後の空白の除去のみ)</li>
+ *     <li>{@code fusedHalfWidth}:{@link FusedNormalizationHandler}(前後の空白の除去と全角英数記号の半角への変換)</li>
+ * </ul>
+ * {@code dirtyRatio}の割合のパラメータは前後に空白を含み、残りは正規化済みの値とする。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NormalizationBenchmark {
+
+    /** 後続のハンドラ */
+    private static final Handler<HttpRequest, Object> TERMINAL = new Handler<HttpRequest, Object>() {
+        @Override
+        public Object handle(final HttpRequest request, final ExecutionContext context) {
+            return request;
+        }
+    };
+
+    /** 正規化を行うハンドラ */
+    @Param({"standard", "fused", "fusedHalfWidth"})
+    public String normalizer;
+
+    /** パラメータの数 */
+    @Param({"10", "500"})
+    public int fields;
+
+    /** 前後に空白を含むパラメータの割合 */
+    @Param({"0.0", "0.1"})
+    public double dirtyRatio;
+
+    /** 正規化を行うハンドラ */
+    private Handler<HttpRequest, ?> handler;
+
+    /** 正規化前のパラメータ */
+    private Map<String, String[]> params;
+
+    /** リクエスト */
+    private MockHttpRequest request;
+
+    /**
+     * ハンドラとパラメータを生成する。
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (normalizer.equals("standard")) {
+            handler = new NormalizationHandler();
+        } else {
+            final FusedNormalizationHandler fused = new FusedNormalizationHandler();
+            fused.setHalfWidthAscii(normalizer.equals("fusedHalfWidth"));
+            handler = fused;
+        }
+        params = new HashMap<String, String[]>();
+        final int dirtyFields = (int) (fields * dirtyRatio);
+        for (int i = 0; i < fields; i++) {
+            final String value = "value" + i;
+            params.put("form.field" + i, new String[] {i < dirtyFields ? ' ' + value + ' ' : value});
+        }
+        request = new MockHttpRequest();
+    }
+
+    /**
+     * パラメータを正規化する。
+     *
+     * @return 後続のハンドラに渡されたリクエスト
+     */
+    @Benchmark
+    public Object normalize() {
+        request.setParamMap(params);
+        return handler.handle(request, new ExecutionContext().addHandler(TERMINAL));
+    }
+}
@@ -0,0 +1,191 @@
+package nablarch.fw.web.upload;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nablarch.fw.web.benchmark.BenchmarkRequests;
+import nablarch.fw.web.benchmark.BenchmarkRequests.MultipartBody;
+
+/**
+ * マルチパートの境界文字列の検出コストを、単純な検索と{@link BoundaryScanner}とで比較するベンチマーク。
+ * <p/>
+ * {@link BoundaryScanner}を使用するのはストリーミングモード({@link MultipartStreamReader})のみで、
+ * {@link MultipartParser}(nablarch-fw-web)の境界文字列の検出は変更していない。
+ * 検出方法による差は、{@link #naiveScan()}と{@link #boundaryScanner()}の比較でのみ計測できる。
+ * <p/>
+ * 参考として、多数の小さなパラメータと少数の大きなファイルから成るリクエストボディの解析全体のコストを、
+ * 以下の方法で計測する。両者は一時ファイルへの書き出しの有無も異なるため、
+ * この差を境界文字列の検出方法による差とみなしてはならない。
+ * <ul>
+ *     <li>{@link MultipartParser}(パートを一時ファイルに書き出す。変更していない既存の処理)</li>
+ *     <li>{@link MultipartStreamReader}(パートを読み込みバッファから直接転送する)</li>
+ * </ul>
+ * <p/>
+ * パッケージプライベートなクラスを使用するため、本クラスは{@code nablarch.fw.web.upload}パッケージに配置する。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultipartParserBenchmark {
+
+    /** Content-Type */
+    private static final String CONTENT_TYPE = "multipart/form-data; boundary=" + BenchmarkRequests.BOUNDARY;
+
+    /** パートの区切り */
+    private static final byte[] DELIMITER = ("\r\n--" + BenchmarkRequests.BOUNDARY).getBytes(Charset.forName("UTF-8"));
+
+    /** 書き込まれた内容を破棄するチャネル */
+    private static final WritableByteChannel DISCARD = new WritableByteChannel() {
+        @Override
+        public int write(final ByteBuffer src) {
+            final int remaining = src.remaining();
+            src.position(src.limit());
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /** パラメータの数 */
+    @Param({"10", "500"})
+    public int fields;
+
+    /** ファイルのサイズ */
+    @Param({"1048576"})
+    public int fileSize;
+
+    /** リクエストボディ */
+    private byte[] body;
+
+    /** 境界文字列の検出対象のバッファ */
+    private ByteBuffer window;
+
+    /** 境界文字列の検出に使用する{@link BoundaryScanner} */
+    private BoundaryScanner scanner;
+
+    /** {@link MultipartParser}の設定 */
+    private UploadSettings settings;
+
+    /** {@link MultipartStreamReader}の設定 */
+    private StreamingUploadSettings streamingSettings;
+
+    /**
+     * リクエストボディを生成する。
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(0);
+        final MultipartBody multipartBody = new MultipartBody();
+        for (int i = 0; i < fields; i++) {
+            multipartBody.field("field" + i, "value" + i);
+        }
+        for (int i = 0; i < 2; i++) {
+            final byte[] file = new byte[fileSize];
+            random.nextBytes(file);
+            multipartBody.file("uploadFile" + i, "file" + i + ".bin", file);
+        }
+        body = multipartBody.toByteArray();
+
+        final byte[] noise = new byte[fileSize];
+        random.nextBytes(noise);
+        window = ByteBuffer.allocateDirect(noise.length + DELIMITER.length);
+        window.put(noise).put(DELIMITER).flip();
+        scanner = new BoundaryScanner(DELIMITER);
+
+        settings = new UploadSettings();
+        settings.setContentLengthLimit(Integer.MAX_VALUE);
+        streamingSettings = new StreamingUploadSettings();
+    }
+
+    /**
+     * {@link MultipartParser}でリクエストボディを解析する(参考値)。
+     *
+     * @return 解析したパート
+     * @throws Exception 例外
+     */
+    @Benchmark
+    public Object multipartParser() throws Exception {
+        final PartInfoHolder parts = new MultipartParser(
+                new ByteArrayInputStream(body),
+                new HashMap<String, String[]>(),
+                settings,
+                new MultipartContext(CONTENT_TYPE, body.length, "UTF-8")).parse();
+        parts.cleanup();
+        return parts;
+    }
+
+    /**
+     * {@link MultipartStreamReader}でリクエストボディを解析する(参考値)。
+     *
+     * @return 転送したバイト数
+     */
+    @Benchmark
+    public long streamReader() {
+        final StreamingParts parts = new StreamingParts(new MultipartStreamReader(
+                Channels.newChannel(new ByteArrayInputStream(body)), BenchmarkRequests.BOUNDARY, streamingSettings));
+        long transferred = 0;
+        for (StreamingPart part = parts.next(); part != null; part = parts.next()) {
+            transferred += part.transferTo(DISCARD);
+        }
+        return transferred;
+    }
+
+    /**
+     * 1バイトずつ比較する方法で境界文字列を検出する。
+     *
+     * @return 見つかった位置
+     */
+    @Benchmark
+    public int naiveScan() {
+        final int last = window.limit() - DELIMITER.length;
+        outer:
+        for (int i = 0; i <= last; i++) {
+            for (int j = 0; j < DELIMITER.length; j++) {
+                if (window.get(i + j) != DELIMITER[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * {@link BoundaryScanner}で境界文字列を検出する。
+     *
+     * @return 見つかった位置
+     */
+    @Benchmark
+    public int boundaryScanner() {
+        return scanner.indexOf(window, 0, window.limit());
+    }
+}
@@ -0,0 +1,53 @@
+package nablarch.common.encryption;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ByteBuffer}を入出力とする暗号化・復号を提供する{@link Encryptor}。
+ * <p/>
+ * 呼び出し元が確保したバッファに直接出力するため、中間のバイト配列を生成せずに暗号化・復号できる。
+ *
+ * @param <C> 暗号化で使用するコンテキストの型
+ */
+public interface ByteBufferEncryptor<C extends Serializable> extends Encryptor<C> {
+
+    /**
+     * 暗号化後の最大サイズを取得する。
+     *
+     * @param plainSize 暗号化対象のサイズ
+     * @return 暗号化後の最大サイズ
+     */
+    int getMaxEncryptedSize(int plainSize);
+
+    /**
+     * 暗号化後のデータを復号した場合の最大サイズを取得する。
+     *
+     * @param encryptedSize 暗号化後のサイズ
+     * @return 復号後の最大サイズ
+     */
+    int getMaxDecryptedSize(int encryptedSize);
+
+    /**
+     * 暗号化する。
+     * <p/>
+     * {@code src}の残りのデータを暗号化し、{@code dst}の現在位置から書き込む。
+     *
+     * @param context コンテキスト
+     * @param src 暗号化対象
+     * @param dst 出力先({@link #getMaxEncryptedSize(int)}以上の残りが必要)
+     */
+    void encrypt(C context, ByteBuffer src, ByteBuffer dst);
+
+    /**
+     * 復号する。
+     * <p/>
+     * {@code src}の残りのデータを復号し、{@code dst}の現在位置から書き込む。
+     *
+     * @param context コンテキスト
+     * @param src 復号対象
+     * @param dst 出力先({@link #getMaxDecryptedSize(int)}以上の残りが必要)
+     * @throws IllegalArgumentException 復号対象が不正(改ざんを含む)な場合
+     */
+    void decrypt(C context, ByteBuffer src, ByteBuffer dst);
+}
@@ -0,0 +1,515 @@
+package nablarch.common.encryption;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import nablarch.core.repository.disposal.Disposable;
+
+/**
+ * 初期化済みの{@link Cipher}をプールして再利用し、暗号化・復号のたびのセットアップと一時配列の生成を抑えた
+ * AES暗号の{@link Encryptor}。
+ * <p/>
+ * 以下のモードをサポートする。
+ * <dl>
+ *     <dt>GCM(デフォルト)</dt>
+ *     <dd>
+ *     認証付き暗号(AES/GCM/NoPadding)。メッセージごとにランダムな初期化ベクトルを生成して暗号文の先頭に付加するため、
+ *     {@link #setIv(String)}は不要。改ざんされた暗号文は復号時に検出される。
+ *     </dd>
+ *     <dt>CBC</dt>
+ *     <dd>
+ *     {@link AesEncryptor}と互換のモード(AES/CBC/PKCS5Padding)。
+ *     同じ鍵と初期化ベクトルを設定すれば、{@link AesEncryptor}で暗号化したデータを復号できる。
+ *     </dd>
+ * </dl>
+ * 鍵を設定しない場合は、{@link #generateContext()}の呼び出しごとにランダムな鍵を生成する。
+ * 複数のサーバで暗号文を共有する場合は、鍵を設定すること。
+ * <p/>
+ * {@link Cipher}はスレッドに紐付けず、暗号化・復号の間だけプールから取り出す。
+ * {@link ThreadLocal}で保持すると、アプリケーションの停止後もコンテナのスレッドから本クラスへの参照が残り、
+ * クラスローダが解放されないためである。
+ * プールする数は{@link #setMaxPoolSize(int)}で制限し、停止時には{@link #dispose()}でプールを破棄する。
+ */
+public class CachedAesEncryptor implements ByteBufferEncryptor<CachedAesEncryptor.CachedAesContext>, Disposable {
+
+    /** 鍵および初期化ベクトルの長さ(バイト) */
+    private static final int KEY_LENGTH = 16;
+
+    /** AESのブロック長(バイト) */
+    private static final int BLOCK_LENGTH = 16;
+
+    /** GCMの初期化ベクトルの長さ(バイト) */
+    private static final int GCM_IV_LENGTH = 12;
+
+    /** GCMの認証タグの長さ(ビット) */
+    private static final int GCM_TAG_BITS = 128;
+
+    /** GCMの認証タグの長さ(バイト) */
+    private static final int GCM_TAG_LENGTH = GCM_TAG_BITS / 8;
+
+    /** プールしたまま再利用する復号用のバッファの最大長(バイト) */
+    private static final int MAX_POOLED_BUFFER_LENGTH = 16 * 1024;
+
+    /** 鍵および初期化ベクトルの文字コード */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** 鍵 */
+    private byte[] key;
+
+    /** 初期化ベクトル(CBCモードのみ) */
+    private byte[] iv;
+
+    /** GCMモードの場合は{@code true} */
+    private boolean gcm = true;
+
+    /** プールする{@link Cipher}とバッファの数の上限 */
+    private int maxPoolSize = 64;
+
+    /** プールしている{@link Cipher}とバッファ */
+    private final Queue<CipherState> pool = new ConcurrentLinkedQueue<CipherState>();
+
+    /** プールしている数 */
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    /** 解放済みの場合は{@code true} */
+    private volatile boolean disposed;
+
+    @Override
+    public CachedAesContext generateContext() {
+        final SecureRandom random = new SecureRandom();
+        byte[] contextKey = key;
+        if (contextKey == null) {
+            contextKey = new byte[KEY_LENGTH];
+            random.nextBytes(contextKey);
+        }
+        byte[] contextIv = null;
+        if (!gcm) {
+            contextIv = iv;
+            if (contextIv == null) {
+                contextIv = new byte[KEY_LENGTH];
+                random.nextBytes(contextIv);
+            }
+        }
+        return new CachedAesContext(contextKey, contextIv);
+    }
+
+    @Override
+    public byte[] encrypt(final CachedAesContext context, final byte[] src) {
+        final CipherState state = acquire();
+        try {
+            if (gcm) {
+                final byte[] encrypted = new byte[GCM_IV_LENGTH + src.length + GCM_TAG_LENGTH];
+                state.random.nextBytes(state.iv);
+                System.arraycopy(state.iv, 0, encrypted, 0, GCM_IV_LENGTH);
+                state.initEncrypt(context, new GCMParameterSpec(GCM_TAG_BITS, state.iv));
+                state.encryptCipher.doFinal(src, 0, src.length, encrypted, GCM_IV_LENGTH);
+                return encrypted;
+            }
+            state.initEncrypt(context, null);
+            final byte[] encrypted = new byte[getMaxEncryptedSize(src.length)];
+            state.encryptCipher.doFinal(src, 0, src.length, encrypted, 0);
+            return encrypted;
+        } catch (GeneralSecurityException e) {
+            throw state.fail(e);
+        } finally {
+            release(state);
+        }
+    }
+
+    @Override
+    public byte[] decrypt(final CachedAesContext context, final byte[] src) {
+        final CipherState state = acquire();
+        try {
+            if (gcm) {
+                checkGcmLength(src.length);
+                state.initDecrypt(context, new GCMParameterSpec(GCM_TAG_BITS, src, 0, GCM_IV_LENGTH));
+                final byte[] decrypted = new byte[src.length - GCM_IV_LENGTH - GCM_TAG_LENGTH];
+                state.decryptCipher.doFinal(src, GCM_IV_LENGTH, src.length - GCM_IV_LENGTH, decrypted, 0);
+                return decrypted;
+            }
+            // パディングを除いたサイズは復号するまで分からないため、プールしているバッファに復号してからコピーする
+            state.initDecrypt(context, null);
+            final byte[] buffer = state.buffer(src.length);
+            final int length = state.decryptCipher.doFinal(src, 0, src.length, buffer, 0);
+            return Arrays.copyOf(buffer, length);
+        } catch (GeneralSecurityException e) {
+            throw state.fail(e);
+        } finally {
+            release(state);
+        }
+    }
+
+    @Override
+    public int getMaxEncryptedSize(final int plainSize) {
+        if (gcm) {
+            return GCM_IV_LENGTH + plainSize + GCM_TAG_LENGTH;
+        }
+        return (plainSize / BLOCK_LENGTH + 1) * BLOCK_LENGTH;
+    }
+
+    @Override
+    public int getMaxDecryptedSize(final int encryptedSize) {
+        if (gcm) {
+            return Math.max(encryptedSize - GCM_IV_LENGTH - GCM_TAG_LENGTH, 0);
+        }
+        return encryptedSize;
+    }
+
+    @Override
+    public void encrypt(final CachedAesContext context, final ByteBuffer src, final ByteBuffer dst) {
+        final CipherState state = acquire();
+        try {
+            if (gcm) {
+                state.random.nextBytes(state.iv);
+                dst.put(state.iv);
+                state.initEncrypt(context, new GCMParameterSpec(GCM_TAG_BITS, state.iv));
+            } else {
+                state.initEncrypt(context, null);
+            }
+            state.encryptCipher.doFinal(src, dst);
+        } catch (GeneralSecurityException e) {
+            throw state.fail(e);
+        } finally {
+            release(state);
+        }
+    }
+
+    @Override
+    public void decrypt(final CachedAesContext context, final ByteBuffer src, final ByteBuffer dst) {
+        final CipherState state = acquire();
+        try {
+            if (gcm) {
+                checkGcmLength(src.remaining());
+                src.get(state.iv);
+                state.initDecrypt(context, new GCMParameterSpec(GCM_TAG_BITS, state.iv));
+            } else {
+                state.initDecrypt(context, null);
+            }
+            state.decryptCipher.doFinal(src, dst);
+        } catch (GeneralSecurityException e) {
+            throw state.fail(e);
+        } finally {
+            release(state);
+        }
+    }
+
+    /**
+     * プールしている{@link Cipher}とバッファを破棄する。
+     * <p/>
+     * 破棄した後も暗号化・復号は行えるが、{@link Cipher}とバッファはプールせず、都度生成する。
+     */
+    @Override
+    public void dispose() {
+        disposed = true;
+        while (pool.poll() != null) {
+            pooledCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * プールしている{@link Cipher}とバッファの数を取得する。
+     *
+     * @return プールしている数
+     */
+    public int getPooledCount() {
+        return pooledCount.get();
+    }
+
+    /**
+     * プールから{@link Cipher}とバッファを取り出す。
+     * <p/>
+     * プールが空の場合と、取り出したものが現在のモードと異なる場合は、新たに生成する。
+     *
+     * @return {@link Cipher}とバッファ
+     */
+    private CipherState acquire() {
+        final boolean currentGcm = gcm;
+        final CipherState state = pool.poll();
+        if (state != null) {
+            pooledCount.decrementAndGet();
+            if (state.gcm == currentGcm) {
+                return state;
+            }
+        }
+        return new CipherState(currentGcm);
+    }
+
+    /**
+     * {@link Cipher}とバッファをプールに戻す。
+     * <p/>
+     * 解放済みの場合、現在のモードと異なる場合、プールする数の上限に達している場合は破棄する。
+     *
+     * @param state {@link Cipher}とバッファ
+     */
+    private void release(final CipherState state) {
+        if (disposed || state.gcm != gcm) {
+            return;
+        }
+        if (pooledCount.incrementAndGet() > maxPoolSize) {
+            pooledCount.decrementAndGet();
+            return;
+        }
+        pool.offer(state);
+    }
+
+    /**
+     * GCMモードの暗号文の長さを検証する。
+     *
+     * @param length 暗号文の長さ
+     */
+    private static void checkGcmLength(final int length) {
+        if (length < GCM_IV_LENGTH + GCM_TAG_LENGTH) {
+            throw new IllegalArgumentException("encrypted data is too short. length = [" + length + ']');
+        }
+    }
+
+    /**
+     * 暗号化の鍵を設定する。
+     * <p/>
+     * 16文字(128ビット)で指定すること。
+     *
+     * @param key 暗号化の鍵
+     */
+    public void setKey(final String key) {
+        this.key = toKeyBytes(key, "key");
+    }
+
+    /**
+     * 初期化ベクトルを設定する。
+     * <p/>
+     * CBCモードでのみ使用する。16文字(128ビット)で指定すること。
+     *
+     * @param iv 初期化ベクトル
+     */
+    public void setIv(final String iv) {
+        this.iv = toKeyBytes(iv, "iv");
+    }
+
+    /**
+     * モードを設定する。
+     * <p/>
+     * {@code GCM}または{@code CBC}を指定する。デフォルトは{@code GCM}。
+     *
+     * @param mode モード
+     */
+    public void setMode(final String mode) {
+        if ("GCM".equals(mode)) {
+            gcm = true;
+        } else if ("CBC".equals(mode)) {
+            gcm = false;
+        } else {
+            throw new IllegalArgumentException("mode must be GCM or CBC. mode = [" + mode + ']');
+        }
+    }
+
+    /**
+     * プールする{@link Cipher}とバッファの数の上限を設定する。
+     * <p/>
+     * 同時に暗号化・復号を行うスレッドの数を目安に指定する。デフォルトは64。
+     *
+     * @param maxPoolSize プールする数の上限
+     */
+    public void setMaxPoolSize(final int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * 鍵または初期化ベクトルをバイト配列に変換する。
+     *
+     * @param value 鍵または初期化ベクトル
+     * @param name プロパティ名
+     * @return バイト配列
+     */
+    private static byte[] toKeyBytes(final String value, final String name) {
+        final byte[] bytes = value.getBytes(UTF_8);
+        if (bytes.length != KEY_LENGTH) {
+            throw new IllegalArgumentException(name + " length must be " + KEY_LENGTH + " bytes.");
+        }
+        return bytes;
+    }
+
+    /**
+     * {@link CachedAesEncryptor}で使用するコンテキスト。
+     */
+    public static class CachedAesContext implements Serializable {
+
+        /** 鍵 */
+        private final byte[] key;
+
+        /** 初期化ベクトル(GCMモードでは{@code null}) */
+        private final byte[] iv;
+
+        /** 鍵の仕様 */
+        private transient SecretKeySpec keySpec;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param key 鍵
+         * @param iv 初期化ベクトル
+         */
+        public CachedAesContext(final byte[] key, final byte[] iv) {
+            this.key = key;
+            this.iv = iv;
+        }
+
+        /**
+         * 鍵の仕様を取得する。
+         *
+         * @return 鍵の仕様
+         */
+        SecretKeySpec getKeySpec() {
+            if (keySpec == null) {
+                keySpec = new SecretKeySpec(key, "AES");
+            }
+            return keySpec;
+        }
+
+        /**
+         * 初期化ベクトルを取得する。
+         *
+         * @return 初期化ベクトル
+         */
+        byte[] getIv() {
+            return iv;
+        }
+    }
+
+    /**
+     * プールする{@link Cipher}とバッファ。
+     */
+    private static class CipherState {
+
+        /** GCMモードの場合は{@code true} */
+        private final boolean gcm;
+
+        /** 暗号化用の{@link Cipher} */
+        private final Cipher encryptCipher;
+
+        /** 復号用の{@link Cipher} */
+        private final Cipher decryptCipher;
+
+        /** 暗号化用の{@link Cipher}を初期化したコンテキスト(CBCモードのみ) */
+        private CachedAesContext encryptContext;
+
+        /** 復号用の{@link Cipher}を初期化したコンテキスト(CBCモードのみ) */
+        private CachedAesContext decryptContext;
+
+        /** 初期化ベクトルの生成に使用する乱数 */
+        private final SecureRandom random = new SecureRandom();
+
+        /** 初期化ベクトル(GCMモードのみ) */
+        private final byte[] iv = new byte[GCM_IV_LENGTH];
+
+        /** 復号用のバッファ(CBCモードのみ) */
+        private byte[] buffer = new byte[1024];
+
+        /**
+         * コンストラクタ。
+         *
+         * @param gcm GCMモードの場合は{@code true}
+         */
+        CipherState(final boolean gcm) {
+            this.gcm = gcm;
+            final String transformation = gcm ? "AES/GCM/NoPadding" : "AES/CBC/PKCS5Padding";
+            try {
+                encryptCipher = Cipher.getInstance(transformation);
+                decryptCipher = Cipher.getInstance(transformation);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * 暗号化用の{@link Cipher}を初期化する。
+         * <p/>
+         * CBCモードでは、{@link Cipher#doFinal()}の後は初期化時の状態に戻るため、
+         * 前回と同じコンテキストであれば初期化を省略する。
+         *
+         * @param context コンテキスト
+         * @param gcmSpec GCMのパラメータ(CBCモードでは{@code null})
+         * @throws GeneralSecurityException 初期化に失敗した場合
+         */
+        void initEncrypt(final CachedAesContext context, final GCMParameterSpec gcmSpec)
+                throws GeneralSecurityException {
+            if (gcmSpec != null) {
+                encryptCipher.init(Cipher.ENCRYPT_MODE, context.getKeySpec(), gcmSpec);
+            } else if (encryptContext != context) {
+                // 初期化に失敗した場合に、古いコンテキストの状態を使用しないよう先にクリアする
+                encryptContext = null;
+                encryptCipher.init(Cipher.ENCRYPT_MODE, context.getKeySpec(), new IvParameterSpec(context.getIv()));
+                encryptContext = context;
+            }
+        }
+
+        /**
+         * 復号用の{@link Cipher}を初期化する。
+         *
+         * @param context コンテキスト
+         * @param gcmSpec GCMのパラメータ(CBCモードでは{@code null})
+         * @throws GeneralSecurityException 初期化に失敗した場合
+         * @see #initEncrypt(CachedAesContext, GCMParameterSpec)
+         */
+        void initDecrypt(final CachedAesContext context, final GCMParameterSpec gcmSpec)
+                throws GeneralSecurityException {
+            if (gcmSpec != null) {
+                decryptCipher.init(Cipher.DECRYPT_MODE, context.getKeySpec(), gcmSpec);
+            } else if (decryptContext != context) {
+                decryptContext = null;
+                decryptCipher.init(Cipher.DECRYPT_MODE, context.getKeySpec(), new IvParameterSpec(context.getIv()));
+                decryptContext = context;
+            }
+        }
+
+        /**
+         * 指定されたサイズ以上の復号用のバッファを取得する。
+         * <p/>
+         * {@link #MAX_POOLED_BUFFER_LENGTH}を超えるサイズの場合は、保持しないバッファを都度生成する。
+         *
+         * @param size 必要なサイズ
+         * @return バッファ
+         */
+        byte[] buffer(final int size) {
+            if (size > MAX_POOLED_BUFFER_LENGTH) {
+                return new byte[size];
+            }
+            if (buffer.length < size) {
+                buffer = new byte[Math.min(Math.max(buffer.length * 2, size), MAX_POOLED_BUFFER_LENGTH)];
+            }
+            return buffer;
+        }
+
+        /**
+         * 暗号化・復号の失敗を例外に変換する。
+         * <p/>
+         * 失敗した{@link Cipher}は状態が不定となるため、次回は必ず初期化する。
+         *
+         * @param e 発生した例外
+         * @return 送出する例外
+         */
+        RuntimeException fail(final GeneralSecurityException e) {
+            encryptContext = null;
+            decryptContext = null;
+            if (e instanceof AEADBadTagException || e instanceof BadPaddingException
+                    || e instanceof IllegalBlockSizeException) {
+                return new IllegalArgumentException("failed to decrypt.", e);
+            }
+            return new IllegalStateException(e);
+        }
+    }
+}
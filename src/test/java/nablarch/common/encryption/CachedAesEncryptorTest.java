@@ -0,0 +1,241 @@
+package nablarch.common.encryption;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * {@link CachedAesEncryptor}のテストクラス。
+ */
+public class CachedAesEncryptorTest {
+
+    private final CachedAesEncryptor sut = new CachedAesEncryptor();
+
+    /**
+     * GCMモード(デフォルト)で暗号化した内容が復号できることを確認するケース。
+     * <p/>
+     * 暗号文は初期化ベクトル(12バイト)と認証タグ(16バイト)の分だけ長くなり、
+     * 同じ内容でもメッセージごとに異なる暗号文となること。
+     */
+    @Test
+    public void testGcm_roundTrip() {
+        sut.setKey("1234567890123456");
+        final CachedAesEncryptor.CachedAesContext context = sut.generateContext();
+
+        for (int size : new int[] {0, 1, 15, 16, 17, 1000}) {
+            final byte[] plain = createPlain(size);
+            final byte[] encrypted = sut.encrypt(context, plain);
+            assertThat(encrypted.length, is(12 + size + 16));
+            assertThat(sut.getMaxEncryptedSize(size), is(encrypted.length));
+            assertThat(sut.decrypt(context, encrypted), is(plain));
+        }
+
+        final byte[] plain = createPlain(32);
+        assertThat(sut.encrypt(context, plain), is(not(sut.encrypt(context, plain))));
+    }
+
+    /**
+     * GCMモードで、{@link ByteBuffer}を入出力とする暗号化・復号と、バイト配列を入出力とする暗号化・復号とで
+     * 互いに復号できることを確認するケース。
+     */
+    @Test
+    public void testGcm_byteBuffer() {
+        sut.setKey("1234567890123456");
+        final CachedAesEncryptor.CachedAesContext context = sut.generateContext();
+        final byte[] plain = createPlain(100);
+
+        final ByteBuffer encrypted = ByteBuffer.allocate(sut.getMaxEncryptedSize(plain.length));
+        sut.encrypt(context, ByteBuffer.wrap(plain), encrypted);
+        assertThat(encrypted.remaining(), is(0));
+        assertThat(sut.decrypt(context, encrypted.array()), is(plain));
+
+        final byte[] encryptedArray = sut.encrypt(context, plain);
+        final ByteBuffer decrypted = ByteBuffer.allocate(sut.getMaxDecryptedSize(encryptedArray.length));
+        sut.decrypt(context, ByteBuffer.wrap(encryptedArray), decrypted);
+        assertThat(decrypted.position(), is(plain.length));
+        assertThat(decrypted.array(), is(plain));
+    }
+
+    /**
+     * GCMモードで、初期化ベクトル・暗号文・認証タグのいずれかが改ざんされた場合に、復号が例外となることを確認するケース。
+     * <p/>
+     * 改ざんを検出した後も、改ざんされていない暗号文は復号できること。
+     */
+    @Test
+    public void testGcm_tampered() {
+        sut.setKey("1234567890123456");
+        final CachedAesEncryptor.CachedAesContext context = sut.generateContext();
+        final byte[] plain = createPlain(32);
+        final byte[] encrypted = sut.encrypt(context, plain);
+
+        // 初期化ベクトル、暗号文、認証タグの順に改ざんする
+        for (int index : new int[] {0, 12, 12 + 32}) {
+            final byte[] tampered = encrypted.clone();
+            tampered[index] ^= 1;
+            assertDecryptFails(context, tampered, "failed to decrypt.");
+
+            final ByteBuffer dst = ByteBuffer.allocate(sut.getMaxDecryptedSize(tampered.length));
+            try {
+                sut.decrypt(context, ByteBuffer.wrap(tampered), dst);
+                fail("改ざんされているため、例外が発生する。 index = " + index);
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), is("failed to decrypt."));
+            }
+        }
+        assertDecryptFails(context, Arrays.copyOf(encrypted, encrypted.length - 1), "failed to decrypt.");
+        assertDecryptFails(context, Arrays.copyOf(encrypted, 27), "encrypted data is too short. length = [27]");
+
+        assertThat(sut.decrypt(context, encrypted), is(plain));
+    }
+
+    /**
+     * GCMモードで、暗号化と異なる鍵では復号できないことを確認するケース。
+     * <p/>
+     * 鍵を設定しない場合は、コンテキストごとにランダムな鍵が生成されること。
+     */
+    @Test
+    public void testGcm_differentKey() {
+        final CachedAesEncryptor.CachedAesContext context = sut.generateContext();
+        final CachedAesEncryptor.CachedAesContext other = sut.generateContext();
+        final byte[] plain = createPlain(32);
+        final byte[] encrypted = sut.encrypt(context, plain);
+
+        assertDecryptFails(other, encrypted, "failed to decrypt.");
+        assertThat(sut.decrypt(context, encrypted), is(plain));
+    }
+
+    /**
+     * CBCモードで暗号化した内容が復号でき、同じ鍵と初期化ベクトルでは同じ暗号文となることを確認するケース。
+     */
+    @Test
+    public void testCbc_roundTrip() {
+        sut.setMode("CBC");
+        sut.setKey("1234567890123456");
+        sut.setIv("9876543210987654");
+        final CachedAesEncryptor.CachedAesContext context = sut.generateContext();
+
+        for (int size : new int[] {0, 1, 15, 16, 17, 1000}) {
+            final byte[] plain = createPlain(size);
+            final byte[] encrypted = sut.encrypt(context, plain);
+            assertThat(encrypted.length, is((size / 16 + 1) * 16));
+            assertThat(sut.decrypt(context, encrypted), is(plain));
+            assertThat(sut.encrypt(context, plain), is(encrypted));
+        }
+    }
+
+    /**
+     * CBCモードで、プールするバッファの最大長を超える暗号文も復号できることを確認するケース。
+     */
+    @Test
+    public void testCbc_largeData() {
+        sut.setMode("CBC");
+        sut.setKey("1234567890123456");
+        sut.setIv("9876543210987654");
+        final CachedAesEncryptor.CachedAesContext context = sut.generateContext();
+
+        for (int size : new int[] {100, 16 * 1024 - 1, 16 * 1024, 100000, 100}) {
+            final byte[] plain = createPlain(size);
+            assertThat(sut.decrypt(context, sut.encrypt(context, plain)), is(plain));
+        }
+    }
+
+    /**
+     * {@link javax.crypto.Cipher}がプールされて再利用され、モードを変更した場合は再利用されないことを確認するケース。
+     * <p/>
+     * 解放した後はプールせず、暗号化・復号は行えること。
+     */
+    @Test
+    public void testPool() {
+        sut.setKey("1234567890123456");
+        final CachedAesEncryptor.CachedAesContext gcmContext = sut.generateContext();
+        final byte[] plain = createPlain(32);
+        assertThat(sut.getPooledCount(), is(0));
+        assertThat(sut.decrypt(gcmContext, sut.encrypt(gcmContext, plain)), is(plain));
+        assertThat(sut.getPooledCount(), is(1));
+
+        sut.setMode("CBC");
+        sut.setIv("9876543210987654");
+        final CachedAesEncryptor.CachedAesContext cbcContext = sut.generateContext();
+        assertThat(sut.decrypt(cbcContext, sut.encrypt(cbcContext, plain)), is(plain));
+        assertThat(sut.getPooledCount(), is(1));
+
+        sut.dispose();
+        assertThat(sut.getPooledCount(), is(0));
+        assertThat(sut.decrypt(cbcContext, sut.encrypt(cbcContext, plain)), is(plain));
+        assertThat(sut.getPooledCount(), is(0));
+    }
+
+    /**
+     * プールする数が上限を超えないことを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testPool_maxPoolSize() throws Exception {
+        sut.setKey("1234567890123456");
+        sut.setMaxPoolSize(2);
+        final CachedAesEncryptor.CachedAesContext context = sut.generateContext();
+        final byte[] plain = createPlain(32);
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        sut.decrypt(context, sut.encrypt(context, plain));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(sut.getPooledCount() <= 2, is(true));
+        assertThat(sut.getPooledCount() >= 1, is(true));
+    }
+
+    /**
+     * サポートしないモードを設定した場合に、例外となることを確認するケース。
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetMode_unsupported() {
+        sut.setMode("ECB");
+    }
+
+    /**
+     * 復号が失敗することを確認する。
+     *
+     * @param context コンテキスト
+     * @param encrypted 復号する内容
+     * @param message 期待する例外のメッセージ
+     */
+    private void assertDecryptFails(final CachedAesEncryptor.CachedAesContext context, final byte[] encrypted,
+            final String message) {
+        try {
+            sut.decrypt(context, encrypted);
+            fail("復号できないため、例外が発生する。");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is(message));
+        }
+    }
+
+    /**
+     * 暗号化する内容を作成する。
+     *
+     * @param size サイズ
+     * @return 暗号化する内容
+     */
+    private static byte[] createPlain(final int size) {
+        final byte[] plain = new byte[size];
+        for (int i = 0; i < size; i++) {
+            plain[i] = (byte) i;
+        }
+        return plain;
+    }
+}
@@ -0,0 +1,38 @@
+package nablarch.common.web.session.encoder;
+
+import java.io.IOException;
+
+/**
+ * {@link CompactBinaryStateEncoder}で、特定のクラスをリフレクションを使用せずに直列化するコーデック。
+ * <p/>
+ * セッションに格納する業務クラスごとに実装し、{@link CompactBinaryStateEncoder#setCodecs(java.util.List)}で登録する。
+ *
+ * @param <T> 対象のクラス
+ */
+public interface BinaryCodec<T> {
+
+    /**
+     * 対象のクラスを取得する。
+     *
+     * @return 対象のクラス
+     */
+    Class<T> getType();
+
+    /**
+     * オブジェクトを書き込む。
+     *
+     * @param value 書き込むオブジェクト
+     * @param out 書き込み先
+     * @throws IOException 入出力例外
+     */
+    void write(T value, CompactBinaryWriter out) throws IOException;
+
+    /**
+     * オブジェクトを読み込む。
+     *
+     * @param in 読み込み元
+     * @return 読み込んだオブジェクト
+     * @throws IOException 入出力例外
+     */
+    T read(CompactBinaryReader in) throws IOException;
+}
@@ -0,0 +1,449 @@
+package nablarch.common.web.session.encoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * {@link CompactBinaryWriter}で書き込まれたオブジェクトを読み込むクラス。
+ * <p/>
+ * コレクション・マップ・日付は、書き込まれたときと同じクラスで復元する。
+ * 読み込み元はクライアントから送信される場合があるため、ネストの深さを制限する。
+ */
+public class CompactBinaryReader {
+
+    /** 読み込み元 */
+    private final byte[] buffer;
+
+    /** 読み込み位置 */
+    private int position;
+
+    /** 登録されたコーデック */
+    private final List<BinaryCodec<?>> codecs;
+
+    /** Java標準の直列化で書き込まれた値の読み込みを許可する場合は{@code true} */
+    private final boolean javaSerializationAllowed;
+
+    /** ネストの深さの上限 */
+    private final int maxDepth;
+
+    /** 読み込み中の値のネストの深さ */
+    private int depth;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param buffer 読み込み元
+     * @param codecs 登録されたコーデック
+     * @param javaSerializationAllowed Java標準の直列化で書き込まれた値の読み込みを許可する場合は{@code true}
+     * @param maxDepth ネストの深さの上限
+     */
+    CompactBinaryReader(final byte[] buffer, final List<BinaryCodec<?>> codecs,
+            final boolean javaSerializationAllowed, final int maxDepth) {
+        this.buffer = buffer;
+        this.codecs = codecs;
+        this.javaSerializationAllowed = javaSerializationAllowed;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * 1バイト読み込む。
+     *
+     * @return 読み込んだ値(0～255)
+     * @throws IOException 読み込み元の終端に達した場合
+     */
+    public int readByte() throws IOException {
+        if (position >= buffer.length) {
+            throw new EOFException();
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * 指定された長さのバイト列を読み込む。
+     *
+     * @param length 読み込む長さ
+     * @return 読み込んだバイト列
+     * @throws IOException 読み込み元の終端に達した場合
+     */
+    public byte[] readRawBytes(final int length) throws IOException {
+        if (length < 0 || length > buffer.length - position) {
+            throw new EOFException();
+        }
+        final byte[] bytes = new byte[length];
+        System.arraycopy(buffer, position, bytes, 0, length);
+        position += length;
+        return bytes;
+    }
+
+    /**
+     * 符号なしの可変長整数を読み込む。
+     *
+     * @return 読み込んだ値
+     * @throws IOException 読み込み元が不正な場合
+     */
+    public long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("malformed varint.");
+    }
+
+    /**
+     * 符号付きの可変長整数(ZigZag形式)を読み込む。
+     *
+     * @return 読み込んだ値
+     * @throws IOException 読み込み元が不正な場合
+     */
+    public long readSignedVarint() throws IOException {
+        final long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 長さ付きで書き込まれたバイト列を読み込む。
+     *
+     * @return 読み込んだバイト列
+     * @throws IOException 読み込み元が不正な場合
+     */
+    public byte[] readBytes() throws IOException {
+        return readRawBytes(readLength());
+    }
+
+    /**
+     * 長さ付きで書き込まれた文字列を読み込む。
+     *
+     * @return 読み込んだ文字列
+     * @throws IOException 読み込み元が不正な場合
+     */
+    public String readString() throws IOException {
+        final int length = readLength();
+        if (length > buffer.length - position) {
+            throw new EOFException();
+        }
+        final String value = new String(buffer, position, length, CompactBinaryWriter.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * 型タグ付きで書き込まれたオブジェクトを読み込む。
+     *
+     * @return 読み込んだオブジェクト
+     * @throws IOException 読み込み元が不正な場合や、ネストの深さが上限を超える場合
+     */
+    public Object readValue() throws IOException {
+        if (depth >= maxDepth) {
+            throw new StreamCorruptedException("nesting is too deep. max depth = [" + maxDepth + ']');
+        }
+        depth++;
+        try {
+            return readTaggedValue(readByte());
+        } finally {
+            depth--;
+        }
+    }
+
+    /**
+     * 型タグに対応するオブジェクトを読み込む。
+     *
+     * @param tag 型タグ
+     * @return 読み込んだオブジェクト
+     * @throws IOException 読み込み元が不正な場合
+     */
+    private Object readTaggedValue(final int tag) throws IOException {
+        switch (tag) {
+            case TypeTag.NULL:
+                return null;
+            case TypeTag.STRING:
+                return readString();
+            case TypeTag.INTEGER:
+                return (int) readSignedVarint();
+            case TypeTag.LONG:
+                return readSignedVarint();
+            case TypeTag.TRUE:
+                return Boolean.TRUE;
+            case TypeTag.FALSE:
+                return Boolean.FALSE;
+            case TypeTag.SHORT:
+                return (short) readSignedVarint();
+            case TypeTag.BYTE:
+                return (byte) readByte();
+            case TypeTag.CHARACTER:
+                return (char) readVarint();
+            case TypeTag.DOUBLE:
+                return Double.longBitsToDouble(readFixed64());
+            case TypeTag.FLOAT:
+                return Float.intBitsToFloat(readFixed32());
+            case TypeTag.BIG_DECIMAL:
+                return readBigDecimal();
+            case TypeTag.BIG_INTEGER:
+                return readBigInteger();
+            case TypeTag.DATE:
+                return new Date(readSignedVarint());
+            case TypeTag.TIMESTAMP:
+                return readTimestamp();
+            case TypeTag.SQL_DATE:
+                return new java.sql.Date(readSignedVarint());
+            case TypeTag.SQL_TIME:
+                return new Time(readSignedVarint());
+            case TypeTag.BYTE_ARRAY:
+                return readBytes();
+            case TypeTag.STRING_ARRAY:
+                return readStringArray();
+            case TypeTag.LIST:
+                final int listSize = readLength();
+                return readElements(new ArrayList<Object>(listSize), listSize);
+            case TypeTag.LINKED_LIST:
+                return readElements(new LinkedList<Object>(), readLength());
+            case TypeTag.SET:
+                final int setSize = readLength();
+                return readElements(new HashSet<Object>(setSize * 2), setSize);
+            case TypeTag.LINKED_HASH_SET:
+                final int linkedSetSize = readLength();
+                return readElements(new LinkedHashSet<Object>(linkedSetSize * 2), linkedSetSize);
+            case TypeTag.TREE_SET:
+                return readElements(new TreeSet<Object>(), readLength());
+            case TypeTag.MAP:
+                final int mapSize = readLength();
+                return readEntries(new HashMap<Object, Object>(mapSize * 2), mapSize);
+            case TypeTag.LINKED_HASH_MAP:
+                final int linkedMapSize = readLength();
+                return readEntries(new LinkedHashMap<Object, Object>(linkedMapSize * 2), linkedMapSize);
+            case TypeTag.TREE_MAP:
+                return readEntries(new TreeMap<Object, Object>(), readLength());
+            case TypeTag.CODEC:
+                return readWithCodec();
+            case TypeTag.JAVA_SERIALIZED:
+                return readFallback();
+            default:
+                throw new StreamCorruptedException("unknown type tag. tag = [" + tag + ']');
+        }
+    }
+
+    /**
+     * 読み込み元の終端に達したかどうか。
+     *
+     * @return 終端に達した場合は{@code true}
+     */
+    boolean isEnd() {
+        return position == buffer.length;
+    }
+
+    /**
+     * 長さ(要素数)を読み込む。
+     *
+     * @return 読み込んだ長さ
+     * @throws IOException 読み込み元が不正な場合
+     */
+    private int readLength() throws IOException {
+        final long length = readVarint();
+        // 要素は最低1バイトなので、残りのバイト数を超える長さは不正
+        if (length > buffer.length - position) {
+            throw new StreamCorruptedException("invalid length. length = [" + length + ']');
+        }
+        return (int) length;
+    }
+
+    /**
+     * {@link String}配列を読み込む。
+     *
+     * @return 読み込んだ配列
+     * @throws IOException 読み込み元が不正な場合
+     */
+    private String[] readStringArray() throws IOException {
+        final String[] array = new String[readLength()];
+        for (int i = 0; i < array.length; i++) {
+            final Object element = readValue();
+            if (element != null && !(element instanceof String)) {
+                throw new StreamCorruptedException("invalid string array element. type = ["
+                        + element.getClass().getName() + ']');
+            }
+            array[i] = (String) element;
+        }
+        return array;
+    }
+
+    /**
+     * {@link BigDecimal}を読み込む。
+     *
+     * @return 読み込んだ値
+     * @throws IOException 読み込み元が不正な場合
+     */
+    private BigDecimal readBigDecimal() throws IOException {
+        final String value = readString();
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            throw new StreamCorruptedException("invalid decimal. value = [" + value + ']');
+        }
+    }
+
+    /**
+     * {@link BigInteger}を読み込む。
+     *
+     * @return 読み込んだ値
+     * @throws IOException 読み込み元が不正な場合
+     */
+    private BigInteger readBigInteger() throws IOException {
+        final byte[] value = readBytes();
+        if (value.length == 0) {
+            throw new StreamCorruptedException("empty big integer.");
+        }
+        return new BigInteger(value);
+    }
+
+    /**
+     * {@link Timestamp}を読み込む。
+     *
+     * @return 読み込んだ値
+     * @throws IOException 読み込み元が不正な場合
+     */
+    private Timestamp readTimestamp() throws IOException {
+        final Timestamp timestamp = new Timestamp(readSignedVarint());
+        final long nanos = readVarint();
+        if (nanos > 999999999L) {
+            throw new StreamCorruptedException("invalid nanos. nanos = [" + nanos + ']');
+        }
+        timestamp.setNanos((int) nanos);
+        return timestamp;
+    }
+
+    /**
+     * コレクションの要素を読み込む。
+     *
+     * @param collection 要素を追加するコレクション
+     * @param size 要素数
+     * @param <T> コレクションの型
+     * @return 要素を追加したコレクション
+     * @throws IOException 読み込み元が不正な場合
+     */
+    private <T extends Collection<Object>> T readElements(final T collection, final int size) throws IOException {
+        try {
+            for (int i = 0; i < size; i++) {
+                collection.add(readValue());
+            }
+        } catch (RuntimeException e) {
+            // 自然順序で比較できない要素(TreeSet)
+            throw corrupted("invalid collection element.", e);
+        }
+        return collection;
+    }
+
+    /**
+     * マップのエントリを読み込む。
+     *
+     * @param map エントリを追加するマップ
+     * @param size エントリ数
+     * @param <T> マップの型
+     * @return エントリを追加したマップ
+     * @throws IOException 読み込み元が不正な場合
+     */
+    private <T extends Map<Object, Object>> T readEntries(final T map, final int size) throws IOException {
+        try {
+            for (int i = 0; i < size; i++) {
+                final Object key = readValue();
+                map.put(key, readValue());
+            }
+        } catch (RuntimeException e) {
+            // 自然順序で比較できないキー(TreeMap)
+            throw corrupted("invalid map key.", e);
+        }
+        return map;
+    }
+
+    /**
+     * 読み込み元が不正であることを表す例外を生成する。
+     *
+     * @param message メッセージ
+     * @param cause 原因
+     * @return 生成した例外
+     */
+    private static StreamCorruptedException corrupted(final String message, final Throwable cause) {
+        final StreamCorruptedException exception = new StreamCorruptedException(message);
+        exception.initCause(cause);
+        return exception;
+    }
+
+    /**
+     * 登録されたコーデックでオブジェクトを読み込む。
+     *
+     * @return 読み込んだオブジェクト
+     * @throws IOException 読み込み元が不正な場合
+     */
+    private Object readWithCodec() throws IOException {
+        final long index = readVarint();
+        if (index >= codecs.size()) {
+            throw new StreamCorruptedException("unknown codec. index = [" + index + ']');
+        }
+        return codecs.get((int) index).read(this);
+    }
+
+    /**
+     * Java標準の直列化で書き込まれたオブジェクトを読み込む。
+     *
+     * @return 読み込んだオブジェクト
+     * @throws IOException 読み込み元が不正な場合
+     */
+    private Object readFallback() throws IOException {
+        if (!javaSerializationAllowed) {
+            throw new InvalidClassException("java serialization is not allowed.");
+        }
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(readBytes()));
+        try {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 固定長の64ビットの値を読み込む。
+     *
+     * @return 読み込んだ値
+     * @throws IOException 読み込み元の終端に達した場合
+     */
+    private long readFixed64() throws IOException {
+        return ((long) readFixed32() << 32) | (readFixed32() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 固定長の32ビットの値を読み込む。
+     *
+     * @return 読み込んだ値
+     * @throws IOException 読み込み元の終端に達した場合
+     */
+    private int readFixed32() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+}
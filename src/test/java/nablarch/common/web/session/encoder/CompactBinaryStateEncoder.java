@@ -0,0 +1,281 @@
+package nablarch.common.web.session.encoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import nablarch.common.encryption.ByteBufferEncryptor;
+import nablarch.common.encryption.Encryptor;
+import nablarch.common.web.session.StateEncoder;
+
+/**
+ * 独自のバイナリ形式で直列化を行う{@link StateEncoder}。
+ * <p/>
+ * Java標準の直列化と比較して、以下の点で直列化後のサイズと処理時間を削減する。
+ * <ul>
+ *     <li>長さや数値は可変長整数(varint)で表現する。</li>
+ *     <li>よく使用されるJDKのクラス({@link String}、数値、{@link java.util.Date}、コレクション等)は、
+ *     クラス名の代わりに1バイトの型タグで表現する。コレクション・マップ・日付は同じクラスで復元するため、
+ *     型タグで表現するのは{@link java.util.ArrayList}や{@link java.util.LinkedHashMap}、{@link java.sql.Timestamp}など
+ *     型タグに対応するクラスそのものに限る。</li>
+ *     <li>{@link #setCodecs(List)}で登録したクラスは、リフレクションを使用せずに{@link BinaryCodec}で直列化する。</li>
+ * </ul>
+ * 上記のいずれにも該当しないクラスは、{@link #setJavaSerializationAllowed(boolean)}で許可した場合のみ、Java標準の直列化で直列化する。
+ * <p/>
+ * 値のネストの深さは{@link #setMaxDepth(int)}で制限する。
+ * <p/>
+ * 直列化後のサイズが{@link #setCompressionThreshold(int)}以上の場合は圧縮する。
+ * 復元時に展開するサイズは{@link #setMaxDecompressedSize(int)}で制限する。
+ * また、{@link #setEncryptor(Encryptor)}が設定された場合は、圧縮後に暗号化する。
+ * {@link ByteBufferEncryptor}が設定された場合、圧縮しない内容は中間の配列にコピーせずに暗号化する。
+ * <p/>
+ * 直列化後の先頭1バイトは形式のバージョンと圧縮有無を表すヘッダとなる。
+ *
+ * @param <C> 暗号化で使用するコンテキストの型
+ */
+public class CompactBinaryStateEncoder<C extends Serializable> implements StateEncoder {
+
+    /** 形式のバージョン */
+    private static final int VERSION = 1;
+
+    /** ヘッダで圧縮有無を表すビット */
+    private static final int COMPRESSED = 0x80;
+
+    /** 登録されたコーデック */
+    private List<BinaryCodec<?>> codecs = Collections.emptyList();
+
+    /** 圧縮する直列化後のサイズの閾値 */
+    private int compressionThreshold = 512;
+
+    /** 展開後のサイズの上限 */
+    private int maxDecompressedSize = 1024 * 1024;
+
+    /** Java標準の直列化へのフォールバックを許可する場合は{@code true} */
+    private boolean javaSerializationAllowed = false;
+
+    /** ネストの深さの上限 */
+    private int maxDepth = 32;
+
+    /** 暗号化に使用する{@link Encryptor} */
+    private Encryptor<C> encryptor;
+
+    /** 暗号化で使用するコンテキスト */
+    private C context;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> byte[] encode(final T obj) {
+        final CompactBinaryWriter writer = new CompactBinaryWriter(codecs, javaSerializationAllowed, maxDepth);
+        writer.writeByte(VERSION);
+        try {
+            writer.writeValue(obj);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        final ByteBuffer plain = writer.toByteBuffer();
+        if (encryptor instanceof ByteBufferEncryptor && plain.remaining() < compressionThreshold) {
+            return encryptDirect((ByteBufferEncryptor<C>) encryptor, plain);
+        }
+        byte[] encoded = writer.toByteArray();
+        if (encoded.length >= compressionThreshold) {
+            encoded = compress(encoded);
+        }
+        return encryptor == null ? encoded : encryptor.encrypt(context, encoded);
+    }
+
+    /**
+     * 書き込んだ内容をコピーせずに暗号化する。
+     *
+     * @param byteBufferEncryptor 暗号化に使用する{@link ByteBufferEncryptor}
+     * @param plain 暗号化対象
+     * @return 暗号化後の内容
+     */
+    private byte[] encryptDirect(final ByteBufferEncryptor<C> byteBufferEncryptor, final ByteBuffer plain) {
+        final ByteBuffer encrypted = ByteBuffer.allocate(byteBufferEncryptor.getMaxEncryptedSize(plain.remaining()));
+        byteBufferEncryptor.encrypt(context, plain, encrypted);
+        return encrypted.position() == encrypted.capacity()
+                ? encrypted.array() : Arrays.copyOf(encrypted.array(), encrypted.position());
+    }
+
+    @Override
+    public <T> T decode(final byte[] dumped, final Class<T> type) {
+        byte[] encoded = encryptor == null ? dumped : encryptor.decrypt(context, dumped);
+        if (encoded.length == 0) {
+            throw new RuntimeException(new StreamCorruptedException("empty data."));
+        }
+        if ((encoded[0] & COMPRESSED) != 0) {
+            encoded = decompress(encoded);
+        }
+        if ((encoded[0] & ~COMPRESSED) != VERSION) {
+            throw new RuntimeException(new StreamCorruptedException(
+                    "unsupported version. version = [" + (encoded[0] & ~COMPRESSED) + ']'));
+        }
+        final CompactBinaryReader reader = new CompactBinaryReader(encoded, codecs, javaSerializationAllowed, maxDepth);
+        try {
+            reader.readByte();
+            final Object value = reader.readValue();
+            if (!reader.isEnd()) {
+                throw new StreamCorruptedException("trailing data.");
+            }
+            if (value != null && !type.isInstance(value)) {
+                throw new StreamCorruptedException("unexpected type. expected = [" + type.getName()
+                        + "], actual = [" + value.getClass().getName() + ']');
+            }
+            return type.cast(value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 直列化後の内容を圧縮する。
+     * <p/>
+     * ヘッダは圧縮せず、圧縮有無のビットを立てて先頭に残す。
+     *
+     * @param encoded 直列化後の内容
+     * @return 圧縮後の内容
+     */
+    private static byte[] compress(final byte[] encoded) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(encoded, 1, encoded.length - 1);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length);
+            out.write(encoded[0] | COMPRESSED);
+            final byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 圧縮された内容を展開する。
+     * <p/>
+     * 展開後のサイズが{@link #maxDecompressedSize}を超える場合は、展開を中断して例外を送出する。
+     *
+     * @param compressed 圧縮後の内容
+     * @return 直列化後の内容
+     */
+    private byte[] decompress(final byte[] compressed) {
+        if (compressed.length < 2) {
+            throw new RuntimeException(new StreamCorruptedException("empty compressed data."));
+        }
+        final Inflater inflater = new Inflater(true);
+        try {
+            // nowrap形式では、終端の検出に入力の末尾にダミーのバイトが必要
+            final byte[] input = new byte[compressed.length];
+            System.arraycopy(compressed, 1, input, 0, compressed.length - 1);
+            inflater.setInput(input);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    (int) Math.min((long) compressed.length * 4, maxDecompressedSize + 1L));
+            out.write(compressed[0] & ~COMPRESSED);
+            final byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                final int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("truncated data.");
+                }
+                // ヘッダの1バイトは展開後のサイズに含めない
+                if ((long) out.size() - 1 + inflated > maxDecompressedSize) {
+                    throw new StreamCorruptedException(
+                            "decompressed data is too large. max = [" + maxDecompressedSize + ']');
+                }
+                out.write(buffer, 0, inflated);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new RuntimeException(e);
+        } catch (StreamCorruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * リフレクションを使用せずに直列化するクラスのコーデックを設定する。
+     * <p/>
+     * コーデックは登録順のインデックスで識別されるため、
+     * 直列化済みの値を読み込む可能性がある間は、登録順を変更しないこと。
+     *
+     * @param codecs コーデック
+     */
+    public void setCodecs(final List<BinaryCodec<?>> codecs) {
+        this.codecs = new ArrayList<BinaryCodec<?>>(codecs);
+    }
+
+    /**
+     * 圧縮する直列化後のサイズの閾値を設定する。
+     * <p/>
+     * デフォルトは512バイト。
+     *
+     * @param compressionThreshold 閾値(バイト)
+     */
+    public void setCompressionThreshold(final int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * 展開後のサイズの上限を設定する。
+     * <p/>
+     * 圧縮された内容はクライアントから送信される場合があるため、展開後のサイズを制限する。
+     * 上限を超える場合、復元は例外となる。デフォルトは1MB。
+     *
+     * @param maxDecompressedSize 上限(バイト)
+     */
+    public void setMaxDecompressedSize(final int maxDecompressedSize) {
+        this.maxDecompressedSize = maxDecompressedSize;
+    }
+
+    /**
+     * 型タグやコーデックで表現できないクラスを、Java標準の直列化で直列化するかどうかを設定する。
+     * <p/>
+     * {@code false}を設定した場合、該当するクラスの直列化は{@link java.io.NotSerializableException}、
+     * Java標準の直列化で書き込まれた値の復元は{@link java.io.InvalidClassException}となる。
+     * Java標準の直列化による復元は任意のクラスのインスタンス化につながるため、デフォルトは{@code false}。
+     * 有効にする場合は、{@link #setEncryptor(Encryptor)}で改ざんを検出できる暗号化を設定すること。
+     *
+     * @param javaSerializationAllowed Java標準の直列化を許可する場合は{@code true}
+     */
+    public void setJavaSerializationAllowed(final boolean javaSerializationAllowed) {
+        this.javaSerializationAllowed = javaSerializationAllowed;
+    }
+
+    /**
+     * 値のネストの深さの上限を設定する。
+     * <p/>
+     * コレクション・マップの要素や、コーデックから書き込むプロパティを1段とする。
+     * 上限を超える場合、直列化と復元はいずれも例外となる。
+     * 復元する内容はクライアントから送信される場合があるため、スタックを使い切らない値とすること。デフォルトは32。
+     *
+     * @param maxDepth 上限
+     */
+    public void setMaxDepth(final int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * 暗号化に使用する{@link Encryptor}を設定する。
+     * <p/>
+     * 設定しない場合は暗号化を行わない。
+     *
+     * @param encryptor 暗号化に使用する{@link Encryptor}
+     */
+    public void setEncryptor(final Encryptor<C> encryptor) {
+        this.encryptor = encryptor;
+        context = encryptor.generateContext();
+    }
+}
@@ -0,0 +1,517 @@
+package nablarch.common.web.session.encoder;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+
+import nablarch.common.encryption.CachedAesEncryptor;
+
+import org.junit.Test;
+
+/**
+ * {@link CompactBinaryStateEncoder}のテストクラス。
+ */
+public class CompactBinaryStateEncoderTest {
+
+    private final CompactBinaryStateEncoder<CachedAesEncryptor.CachedAesContext> sut =
+            new CompactBinaryStateEncoder<CachedAesEncryptor.CachedAesContext>();
+
+    /**
+     * 型タグで表現する値が、対応する型タグで直列化され、元の値に復元されることを確認するケース。
+     */
+    @Test
+    public void testTypeTags() {
+        assertRoundTrip(null, TypeTag.NULL);
+        assertRoundTrip("文字列", TypeTag.STRING);
+        assertRoundTrip("", TypeTag.STRING);
+        assertRoundTrip(Integer.MIN_VALUE, TypeTag.INTEGER);
+        assertRoundTrip(Integer.MAX_VALUE, TypeTag.INTEGER);
+        assertRoundTrip(Long.MIN_VALUE, TypeTag.LONG);
+        assertRoundTrip(Long.MAX_VALUE, TypeTag.LONG);
+        assertRoundTrip(Boolean.TRUE, TypeTag.TRUE);
+        assertRoundTrip(Boolean.FALSE, TypeTag.FALSE);
+        assertRoundTrip(Short.MIN_VALUE, TypeTag.SHORT);
+        assertRoundTrip(Byte.MIN_VALUE, TypeTag.BYTE);
+        assertRoundTrip(Byte.MAX_VALUE, TypeTag.BYTE);
+        assertRoundTrip('あ', TypeTag.CHARACTER);
+        assertRoundTrip(-1.5d, TypeTag.DOUBLE);
+        assertRoundTrip(Double.NaN, TypeTag.DOUBLE);
+        assertRoundTrip(1.25f, TypeTag.FLOAT);
+        assertRoundTrip(new BigDecimal("-123.4500"), TypeTag.BIG_DECIMAL);
+        assertRoundTrip(new BigInteger("-123456789012345678901234567890"), TypeTag.BIG_INTEGER);
+        assertRoundTrip(new Date(1234567890123L), TypeTag.DATE);
+        assertRoundTrip(new byte[] {0, -1, 127}, TypeTag.BYTE_ARRAY);
+        assertRoundTrip(new String[] {"a", null, ""}, TypeTag.STRING_ARRAY);
+        assertRoundTrip(new ArrayList<Object>(Arrays.<Object>asList("a", 1, null, new ArrayList<Object>(Arrays.asList(2L)))),
+                TypeTag.LIST);
+        assertRoundTrip(new HashSet<Object>(Arrays.<Object>asList("a", 1)), TypeTag.SET);
+
+        final Map<Object, Object> map = new HashMap<Object, Object>();
+        map.put("key", new String[] {"value"});
+        map.put(1, null);
+        final Object decoded = assertEncodedAs(map, TypeTag.MAP);
+        final Map<?, ?> decodedMap = (Map<?, ?>) decoded;
+        assertThat(decodedMap.size(), is(2));
+        assertThat((String[]) decodedMap.get("key"), is(new String[] {"value"}));
+        assertThat(decodedMap.containsKey(1), is(true));
+    }
+
+    /**
+     * コレクション・マップが、同じクラスと要素の順序で復元されることを確認するケース。
+     * <p/>
+     * 復元した値は、直列化前のクラスを指定して復元できること。
+     */
+    @Test
+    public void testCollectionTypes() {
+        assertSameType(new LinkedList<Object>(Arrays.<Object>asList("c", "a", "b")), TypeTag.LINKED_LIST);
+        assertSameType(new LinkedHashSet<Object>(Arrays.<Object>asList("c", "a", "b")), TypeTag.LINKED_HASH_SET);
+        assertSameType(new TreeSet<Object>(Arrays.<Object>asList("c", "a", "b")), TypeTag.TREE_SET);
+
+        final Map<Object, Object> linkedMap = new LinkedHashMap<Object, Object>();
+        linkedMap.put("c", 1);
+        linkedMap.put("a", new LinkedHashMap<Object, Object>(Collections.singletonMap("nested", 2)));
+        linkedMap.put("b", null);
+        final Map<?, ?> decodedLinkedMap = (Map<?, ?>) assertSameType(linkedMap, TypeTag.LINKED_HASH_MAP);
+        assertThat(decodedLinkedMap.get("a"), is(instanceOf(LinkedHashMap.class)));
+
+        final Map<Object, Object> treeMap = new TreeMap<Object, Object>();
+        treeMap.put("c", 1);
+        treeMap.put("a", 2);
+        assertSameType(treeMap, TypeTag.TREE_MAP);
+
+        assertSameType(new ArrayList<Object>(Arrays.<Object>asList("c", "a")), TypeTag.LIST);
+        assertSameType(new HashSet<Object>(Arrays.<Object>asList("c", "a")), TypeTag.SET);
+        assertSameType(new HashMap<Object, Object>(treeMap), TypeTag.MAP);
+    }
+
+    /**
+     * 型タグに対応するクラスそのものでないコレクション・マップは、型タグで直列化されないことを確認するケース。
+     * <p/>
+     * デフォルトでは例外となり、Java標準の直列化を許可した場合は同じクラスで復元されること。
+     */
+    @Test
+    public void testCollectionTypes_not_tagged() {
+        final List<Object> values = Arrays.<Object>asList(
+                Arrays.asList("a", "b"),
+                Collections.unmodifiableList(new ArrayList<Object>(Arrays.asList("a", "b"))),
+                new TreeSet<Object>(Collections.reverseOrder()),
+                Collections.singletonMap("a", "b"));
+        for (Object value : values) {
+            try {
+                sut.encode(value);
+                fail("型タグで表現できず、Java標準の直列化が許可されていないため、例外が発生する。 value = " + value.getClass());
+            } catch (RuntimeException e) {
+                assertThat(e.getCause(), is(instanceOf(NotSerializableException.class)));
+            }
+        }
+
+        sut.setJavaSerializationAllowed(true);
+        for (Object value : values) {
+            assertSameType(value, TypeTag.JAVA_SERIALIZED);
+        }
+    }
+
+    /**
+     * {@link Date}のサブクラスが、型タグで直列化され、同じクラスで復元されることを確認するケース。
+     */
+    @Test
+    public void testDateTypes() {
+        final Timestamp timestamp = new Timestamp(1234567890123L);
+        timestamp.setNanos(123456789);
+        final Timestamp decoded = (Timestamp) assertSameType(timestamp, TypeTag.TIMESTAMP);
+        assertThat(decoded.getNanos(), is(123456789));
+        assertThat(decoded.getTime(), is(1234567890123L));
+
+        final Timestamp negative = new Timestamp(-1234567890123L);
+        negative.setNanos(1);
+        assertSameType(negative, TypeTag.TIMESTAMP);
+
+        assertSameType(new java.sql.Date(1234567890123L), TypeTag.SQL_DATE);
+        assertSameType(new Time(1234567890123L), TypeTag.SQL_TIME);
+        assertSameType(new Date(1234567890123L), TypeTag.DATE);
+    }
+
+    /**
+     * ネストの深さが上限を超える場合は、直列化と復元がいずれも例外となることを確認するケース。
+     * <p/>
+     * 上限ちょうどの場合は直列化・復元できること。
+     */
+    @Test
+    public void testMaxDepth() {
+        sut.setMaxDepth(3);
+        final List<Object> depth3 = new ArrayList<Object>(Collections.singletonList(
+                new ArrayList<Object>(Collections.singletonList("value"))));
+        assertRoundTrip(depth3, TypeTag.LIST);
+
+        final List<Object> depth4 = new ArrayList<Object>(Collections.<Object>singletonList(depth3));
+        try {
+            sut.encode(depth4);
+            fail("ネストの深さが上限を超えるため、例外が発生する。");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), is(instanceOf(IOException.class)));
+        }
+
+        // 自身を要素に含むリストも、スタックを使い切らずに例外となる
+        final List<Object> cyclic = new ArrayList<Object>();
+        cyclic.add(cyclic);
+        try {
+            sut.encode(cyclic);
+            fail("ネストの深さが上限を超えるため、例外が発生する。");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), is(instanceOf(IOException.class)));
+        }
+
+        assertDecodeFails(new byte[] {1, TypeTag.LIST, 1, TypeTag.LIST, 1, TypeTag.LIST, 1, TypeTag.LIST, 0},
+                StreamCorruptedException.class);
+
+        // 上限を大きくしても、送信された深いネストでスタックを使い切らない
+        sut.setMaxDepth(32);
+        final byte[] deep = new byte[1 + 2 * 100000 + 1];
+        deep[0] = 1;
+        for (int i = 0; i < 100000; i++) {
+            deep[1 + 2 * i] = TypeTag.LIST;
+            deep[2 + 2 * i] = 1;
+        }
+        assertDecodeFails(deep, StreamCorruptedException.class);
+    }
+
+    /**
+     * 登録したコーデックで直列化され、元の値に復元されることを確認するケース。
+     */
+    @Test
+    public void testCodec() {
+        sut.setCodecs(Collections.<BinaryCodec<?>>singletonList(new PointCodec()));
+
+        final Point decoded = (Point) assertEncodedAs(new Point(-1, 2), TypeTag.CODEC);
+
+        assertThat(decoded.x, is(-1));
+        assertThat(decoded.y, is(2));
+    }
+
+    /**
+     * 直列化後のサイズが閾値未満の場合は圧縮せず、閾値以上の場合は圧縮することを確認するケース。
+     */
+    @Test
+    public void testCompression() {
+        sut.setCompressionThreshold(100);
+        final String small = repeat('a', 10);
+        final String large = repeat('a', 10000);
+
+        final byte[] uncompressed = sut.encode(small);
+        assertThat(uncompressed[0] & 0xFF, is(1));
+        assertThat(sut.decode(uncompressed, String.class), is(small));
+
+        final byte[] compressed = sut.encode(large);
+        assertThat(compressed[0] & 0xFF, is(0x81));
+        assertThat(compressed.length < 1000, is(true));
+        assertThat(sut.decode(compressed, String.class), is(large));
+    }
+
+    /**
+     * 展開後のサイズが上限を超える場合は、復元が例外となることを確認するケース。
+     * <p/>
+     * 上限ちょうどの場合は復元できること。
+     */
+    @Test
+    public void testDecompressedSizeLimit() {
+        // ヘッダを除いた直列化後のサイズは、型タグ(1)、長さ(2)、文字列(1997)の2000バイトとなる
+        final String value = repeat('a', 1997);
+        final byte[] encoded = sut.encode(value);
+        assertThat(encoded[0] & 0xFF, is(0x81));
+
+        sut.setMaxDecompressedSize(2000);
+        assertThat(sut.decode(encoded, String.class), is(value));
+
+        sut.setMaxDecompressedSize(1999);
+        assertDecodeFails(encoded, StreamCorruptedException.class);
+    }
+
+    /**
+     * デフォルトでは、型タグやコーデックで表現できないクラスの直列化と、
+     * Java標準の直列化で書き込まれた値の復元が例外となることを確認するケース。
+     */
+    @Test
+    public void testJavaSerializationNotAllowed() {
+        try {
+            sut.encode(new SerializableBean("value"));
+            fail("Java標準の直列化が許可されていないため、例外が発生する。");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), is(instanceOf(NotSerializableException.class)));
+        }
+
+        final CompactBinaryStateEncoder<CachedAesEncryptor.CachedAesContext> allowed =
+                new CompactBinaryStateEncoder<CachedAesEncryptor.CachedAesContext>();
+        allowed.setJavaSerializationAllowed(true);
+        assertDecodeFails(allowed.encode(new SerializableBean("value")), InvalidClassException.class);
+    }
+
+    /**
+     * Java標準の直列化を許可した場合、型タグやコーデックで表現できないクラスが
+     * Java標準の直列化で直列化され、元の値に復元されることを確認するケース。
+     * <p/>
+     * {@link java.io.Serializable}を実装しないクラスは、許可した場合も直列化できないこと。
+     */
+    @Test
+    public void testJavaSerializationAllowed() {
+        sut.setJavaSerializationAllowed(true);
+
+        final SerializableBean decoded = (SerializableBean) assertEncodedAs(
+                new SerializableBean("value"), TypeTag.JAVA_SERIALIZED);
+        assertThat(decoded.value, is("value"));
+
+        try {
+            sut.encode(new Object());
+            fail("Serializableを実装しないため、例外が発生する。");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), is(instanceOf(NotSerializableException.class)));
+        }
+    }
+
+    /**
+     * 不正な内容の復元が例外となることを確認するケース。
+     */
+    @Test
+    public void testMalformed() {
+        // 空
+        assertDecodeFails(new byte[0], StreamCorruptedException.class);
+        // ヘッダのみの圧縮データ
+        assertDecodeFails(new byte[] {(byte) 0x81}, StreamCorruptedException.class);
+        // 不正な圧縮データ
+        assertDecodeFails(new byte[] {(byte) 0x81, (byte) 0xFF, (byte) 0xFF}, DataFormatException.class);
+        // 途中で終わる圧縮データ
+        final byte[] compressed = sut.encode(repeat('a', 10000));
+        assertDecodeFails(Arrays.copyOf(compressed, compressed.length / 2), DataFormatException.class);
+        // 未対応のバージョン
+        assertDecodeFails(new byte[] {2, TypeTag.NULL}, StreamCorruptedException.class);
+        // 未知の型タグ
+        assertDecodeFails(new byte[] {1, 99}, StreamCorruptedException.class);
+        // 末尾に余分なデータ
+        assertDecodeFails(new byte[] {1, TypeTag.NULL, TypeTag.NULL}, StreamCorruptedException.class);
+        // 残りのバイト数を超える長さ
+        assertDecodeFails(new byte[] {1, TypeTag.STRING, 5, 'a'}, StreamCorruptedException.class);
+        // 途中で終わる可変長整数
+        assertDecodeFails(new byte[] {1, TypeTag.INTEGER, (byte) 0x80}, EOFException.class);
+        // 登録されていないコーデック
+        assertDecodeFails(new byte[] {1, TypeTag.CODEC, 0}, StreamCorruptedException.class);
+        // 文字列でない要素を含む文字列配列
+        assertDecodeFails(new byte[] {1, TypeTag.STRING_ARRAY, 1, TypeTag.INTEGER, 2}, StreamCorruptedException.class);
+        // 比較できない要素を含む自然順序のTreeSet
+        assertDecodeFails(new byte[] {1, TypeTag.TREE_SET, 2, TypeTag.INTEGER, 2, TypeTag.STRING, 0},
+                StreamCorruptedException.class);
+        // 範囲外のナノ秒
+        assertDecodeFails(new byte[] {1, TypeTag.TIMESTAMP, 0, (byte) 0x80, (byte) 0x94, (byte) 0xEB, (byte) 0xDC, 0x03},
+                StreamCorruptedException.class);
+        // 不正な数値
+        assertDecodeFails(new byte[] {1, TypeTag.BIG_DECIMAL, 1, 'x'}, StreamCorruptedException.class);
+        assertDecodeFails(new byte[] {1, TypeTag.BIG_INTEGER, 0}, StreamCorruptedException.class);
+
+        // 指定されたクラスと異なるクラス
+        try {
+            sut.decode(new byte[] {1, TypeTag.LIST, 0}, Map.class);
+            fail("指定されたクラスと異なるため、例外が発生する。");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), is(instanceOf(StreamCorruptedException.class)));
+        }
+    }
+
+    /**
+     * 暗号化を設定した場合、圧縮しない内容と圧縮する内容のいずれも暗号化され、元の値に復元されることを確認するケース。
+     */
+    @Test
+    public void testEncryption() {
+        final CachedAesEncryptor encryptor = new CachedAesEncryptor();
+        encryptor.setKey("1234567890123456");
+        sut.setEncryptor(encryptor);
+        final String small = "value";
+        final String large = repeat('a', 10000);
+
+        final byte[] encryptedSmall = sut.encode(small);
+        assertThat(encryptedSmall.length, is(12 + 1 + 1 + 1 + small.length() + 16));
+        assertThat(sut.decode(encryptedSmall, String.class), is(small));
+
+        final byte[] encryptedLarge = sut.encode(large);
+        assertThat(encryptedLarge.length < 1000, is(true));
+        assertThat(sut.decode(encryptedLarge, String.class), is(large));
+
+        encryptedSmall[encryptedSmall.length - 1] ^= 1;
+        try {
+            sut.decode(encryptedSmall, String.class);
+            fail("改ざんされているため、例外が発生する。");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("failed to decrypt."));
+        }
+    }
+
+    /**
+     * 値を直列化・復元し、元の値と等しいことを確認する。
+     *
+     * @param value 値
+     * @param tag 期待する型タグ
+     */
+    private void assertRoundTrip(final Object value, final int tag) {
+        final Object decoded = assertEncodedAs(value, tag);
+        if (value == null) {
+            assertThat(decoded, is(nullValue()));
+        } else {
+            assertThat(decoded, is(value));
+        }
+    }
+
+    /**
+     * 値を直列化し、直列化前のクラスを指定して復元した値が、元の値と同じクラスで等しいことを確認する。
+     * <p/>
+     * 要素の順序を持つコレクション・マップは、順序も等しいことを確認する。
+     *
+     * @param value 値
+     * @param tag 期待する型タグ
+     * @return 復元した値
+     */
+    private Object assertSameType(final Object value, final int tag) {
+        final byte[] encoded = sut.encode(value);
+        assertThat(encoded[1] & 0xFF, is(tag));
+        final Object decoded = sut.decode(encoded, value.getClass());
+        assertThat(decoded.getClass() == value.getClass(), is(true));
+        assertThat(decoded, is(value));
+        if (value instanceof Map) {
+            assertThat(new ArrayList<Object>(((Map<?, ?>) decoded).keySet()),
+                    is(new ArrayList<Object>(((Map<?, ?>) value).keySet())));
+        } else if (value instanceof Collection) {
+            assertThat(new ArrayList<Object>((Collection<?>) decoded),
+                    is(new ArrayList<Object>((Collection<?>) value)));
+        }
+        return decoded;
+    }
+
+    /**
+     * 値を直列化し、指定した型タグで書き込まれたことを確認してから復元する。
+     *
+     * @param value 値
+     * @param tag 期待する型タグ
+     * @return 復元した値
+     */
+    private Object assertEncodedAs(final Object value, final int tag) {
+        final byte[] encoded = sut.encode(value);
+        assertThat(encoded[0] & 0xFF, is(1));
+        assertThat(encoded[1] & 0xFF, is(tag));
+        return sut.decode(encoded, Object.class);
+    }
+
+    /**
+     * 復元が失敗することを確認する。
+     *
+     * @param encoded 復元する内容
+     * @param cause 期待する原因の例外
+     */
+    private void assertDecodeFails(final byte[] encoded, final Class<? extends Exception> cause) {
+        try {
+            sut.decode(encoded, Object.class);
+            fail("不正な内容のため、例外が発生する。 encoded = " + Arrays.toString(encoded));
+        } catch (RuntimeException e) {
+            assertThat(Arrays.toString(encoded), e.getCause(), is(instanceOf(cause)));
+        }
+    }
+
+    /**
+     * 同じ文字を繰り返した文字列を作成する。
+     *
+     * @param c 文字
+     * @param count 繰り返す数
+     * @return 文字列
+     */
+    private static String repeat(final char c, final int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /**
+     * コーデックで直列化するクラス。
+     */
+    private static final class Point {
+
+        /** X座標 */
+        private final int x;
+
+        /** Y座標 */
+        private final int y;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param x X座標
+         * @param y Y座標
+         */
+        Point(final int x, final int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * {@link Point}のコーデック。
+     */
+    private static final class PointCodec implements BinaryCodec<Point> {
+
+        @Override
+        public Class<Point> getType() {
+            return Point.class;
+        }
+
+        @Override
+        public void write(final Point value, final CompactBinaryWriter out) {
+            out.writeSignedVarint(value.x);
+            out.writeSignedVarint(value.y);
+        }
+
+        @Override
+        public Point read(final CompactBinaryReader in) throws IOException {
+            return new Point((int) in.readSignedVarint(), (int) in.readSignedVarint());
+        }
+    }
+
+    /**
+     * Java標準の直列化で直列化するクラス。
+     */
+    private static final class SerializableBean implements Serializable {
+
+        /** 値 */
+        private final String value;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param value 値
+         */
+        SerializableBean(final String value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package nablarch.common.web.session.encoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * {@link CompactBinaryStateEncoder}の形式でオブジェクトを書き込むクラス。
+ * <p/>
+ * 長さや数値は可変長整数(varint)で書き込み、よく使用されるJDKのクラスは型タグのみで表現する。
+ * <p/>
+ * コレクション・マップ・日付は、復元時に同じクラスとなるよう、型タグに対応するクラスそのものの場合のみ型タグで書き込む。
+ * サブクラスや、{@link java.util.Arrays#asList(Object[])}・{@link java.util.Collections}が返すクラス、
+ * {@link java.util.Comparator}を指定した{@link TreeSet}・{@link TreeMap}などは、
+ * 登録されたコーデックかJava標準の直列化で書き込む。
+ */
+public class CompactBinaryWriter {
+
+    /** 文字列の文字コード */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** 書き込み先 */
+    private byte[] buffer = new byte[256];
+
+    /** 書き込んだバイト数 */
+    private int size;
+
+    /** 登録されたコーデック */
+    private final List<BinaryCodec<?>> codecs;
+
+    /** Java標準の直列化へのフォールバックを許可する場合は{@code true} */
+    private final boolean javaSerializationAllowed;
+
+    /** ネストの深さの上限 */
+    private final int maxDepth;
+
+    /** 書き込み中の値のネストの深さ */
+    private int depth;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param codecs 登録されたコーデック
+     * @param javaSerializationAllowed Java標準の直列化へのフォールバックを許可する場合は{@code true}
+     * @param maxDepth ネストの深さの上限
+     */
+    CompactBinaryWriter(final List<BinaryCodec<?>> codecs, final boolean javaSerializationAllowed, final int maxDepth) {
+        this.codecs = codecs;
+        this.javaSerializationAllowed = javaSerializationAllowed;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * 1バイト書き込む。
+     *
+     * @param b 書き込む値
+     */
+    public void writeByte(final int b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+    }
+
+    /**
+     * バイト列を書き込む(長さは書き込まない)。
+     *
+     * @param bytes 書き込むバイト列
+     */
+    public void writeRawBytes(final byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * 符号なしの可変長整数を書き込む。
+     *
+     * @param value 書き込む値(0以上)
+     */
+    public void writeVarint(final long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        writeByte((int) v);
+    }
+
+    /**
+     * 符号付きの可変長整数(ZigZag形式)を書き込む。
+     *
+     * @param value 書き込む値
+     */
+    public void writeSignedVarint(final long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * 長さ付きでバイト列を書き込む。
+     *
+     * @param bytes 書き込むバイト列
+     */
+    public void writeBytes(final byte[] bytes) {
+        writeVarint(bytes.length);
+        writeRawBytes(bytes);
+    }
+
+    /**
+     * 長さ付きで文字列を書き込む。
+     *
+     * @param value 書き込む文字列
+     */
+    public void writeString(final String value) {
+        writeBytes(value.getBytes(UTF_8));
+    }
+
+    /**
+     * 型タグ付きでオブジェクトを書き込む。
+     * <p/>
+     * コレクションやマップの要素、コーデックから書き込むプロパティにも使用できる。
+     *
+     * @param value 書き込むオブジェクト
+     * @throws IOException ネストの深さが上限を超える場合や、書き込めないクラスの場合
+     */
+    public void writeValue(final Object value) throws IOException {
+        if (depth >= maxDepth) {
+            throw new IOException("nesting is too deep. max depth = [" + maxDepth + ']');
+        }
+        depth++;
+        try {
+            if (!writeTaggedValue(value) && !writeWithCodec(value)) {
+                writeFallback(value);
+            }
+        } finally {
+            depth--;
+        }
+    }
+
+    /**
+     * 書き込んだ内容を取得する。
+     *
+     * @return 書き込んだ内容
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * 書き込んだ内容を、コピーせずに{@link ByteBuffer}として取得する。
+     *
+     * @return 書き込んだ内容
+     */
+    ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, size);
+    }
+
+    /**
+     * 型タグで表現できるオブジェクトを書き込む。
+     *
+     * @param value 書き込むオブジェクト
+     * @return 書き込んだ場合は{@code true}
+     * @throws IOException 入出力例外
+     */
+    private boolean writeTaggedValue(final Object value) throws IOException {
+        if (value == null) {
+            writeByte(TypeTag.NULL);
+        } else if (value instanceof String) {
+            writeByte(TypeTag.STRING);
+            writeString((String) value);
+        } else if (value instanceof Integer) {
+            writeByte(TypeTag.INTEGER);
+            writeSignedVarint((Integer) value);
+        } else if (value instanceof Long) {
+            writeByte(TypeTag.LONG);
+            writeSignedVarint((Long) value);
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? TypeTag.TRUE : TypeTag.FALSE);
+        } else if (value instanceof Short) {
+            writeByte(TypeTag.SHORT);
+            writeSignedVarint((Short) value);
+        } else if (value instanceof Byte) {
+            writeByte(TypeTag.BYTE);
+            writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            writeByte(TypeTag.CHARACTER);
+            writeVarint((Character) value);
+        } else if (value instanceof Double) {
+            writeByte(TypeTag.DOUBLE);
+            writeFixed64(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Float) {
+            writeByte(TypeTag.FLOAT);
+            writeFixed32(Float.floatToIntBits((Float) value));
+        } else if (value.getClass() == BigDecimal.class) {
+            writeByte(TypeTag.BIG_DECIMAL);
+            writeString(value.toString());
+        } else if (value.getClass() == BigInteger.class) {
+            writeByte(TypeTag.BIG_INTEGER);
+            writeBytes(((BigInteger) value).toByteArray());
+        } else if (value instanceof byte[]) {
+            writeByte(TypeTag.BYTE_ARRAY);
+            writeBytes((byte[]) value);
+        } else if (value instanceof String[]) {
+            writeByte(TypeTag.STRING_ARRAY);
+            writeCollection(Arrays.asList((String[]) value));
+        } else {
+            return writeDate(value);
+        }
+        return true;
+    }
+
+    /**
+     * 日付を書き込む。
+     *
+     * @param value 書き込むオブジェクト
+     * @return 書き込んだ場合は{@code true}
+     */
+    private boolean writeDate(final Object value) {
+        final Class<?> type = value.getClass();
+        if (type == Date.class) {
+            writeByte(TypeTag.DATE);
+        } else if (type == Timestamp.class) {
+            writeByte(TypeTag.TIMESTAMP);
+            // ミリ秒未満の精度を保つため、ナノ秒も書き込む
+            writeSignedVarint(((Timestamp) value).getTime());
+            writeVarint(((Timestamp) value).getNanos());
+            return true;
+        } else if (type == java.sql.Date.class) {
+            writeByte(TypeTag.SQL_DATE);
+        } else if (type == Time.class) {
+            writeByte(TypeTag.SQL_TIME);
+        } else {
+            return false;
+        }
+        writeSignedVarint(((Date) value).getTime());
+        return true;
+    }
+
+    /**
+     * 登録されたコーデック、またはコレクション・マップとして書き込む。
+     *
+     * @param value 書き込むオブジェクト
+     * @return 書き込んだ場合は{@code true}
+     * @throws IOException 入出力例外
+     */
+    @SuppressWarnings("unchecked")
+    private boolean writeWithCodec(final Object value) throws IOException {
+        for (int i = 0; i < codecs.size(); i++) {
+            final BinaryCodec<Object> codec = (BinaryCodec<Object>) codecs.get(i);
+            if (codec.getType() == value.getClass()) {
+                writeByte(TypeTag.CODEC);
+                writeVarint(i);
+                codec.write(value, this);
+                return true;
+            }
+        }
+        final Class<?> type = value.getClass();
+        if (type == ArrayList.class) {
+            writeByte(TypeTag.LIST);
+        } else if (type == LinkedList.class) {
+            writeByte(TypeTag.LINKED_LIST);
+        } else if (type == HashSet.class) {
+            writeByte(TypeTag.SET);
+        } else if (type == LinkedHashSet.class) {
+            writeByte(TypeTag.LINKED_HASH_SET);
+        } else if (type == TreeSet.class && ((TreeSet<?>) value).comparator() == null) {
+            writeByte(TypeTag.TREE_SET);
+        } else if (type == HashMap.class) {
+            writeByte(TypeTag.MAP);
+        } else if (type == LinkedHashMap.class) {
+            writeByte(TypeTag.LINKED_HASH_MAP);
+        } else if (type == TreeMap.class && ((TreeMap<?, ?>) value).comparator() == null) {
+            writeByte(TypeTag.TREE_MAP);
+        } else {
+            return false;
+        }
+        if (value instanceof Collection) {
+            writeCollection((Collection<?>) value);
+        } else {
+            writeMap((Map<?, ?>) value);
+        }
+        return true;
+    }
+
+    /**
+     * 型タグで表現できないオブジェクトを、Java標準の直列化で書き込む。
+     *
+     * @param value 書き込むオブジェクト
+     * @throws IOException 入出力例外
+     */
+    private void writeFallback(final Object value) throws IOException {
+        if (!javaSerializationAllowed || !(value instanceof Serializable)) {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        writeByte(TypeTag.JAVA_SERIALIZED);
+        writeBytes(bytes.toByteArray());
+    }
+
+    /**
+     * コレクションの要素を、要素数付きで書き込む。
+     *
+     * @param collection 書き込むコレクション
+     * @throws IOException 入出力例外
+     */
+    private void writeCollection(final Collection<?> collection) throws IOException {
+        writeVarint(collection.size());
+        for (Object element : collection) {
+            writeValue(element);
+        }
+    }
+
+    /**
+     * マップのエントリを、エントリ数付きで書き込む。
+     *
+     * @param map 書き込むマップ
+     * @throws IOException 入出力例外
+     */
+    private void writeMap(final Map<?, ?> map) throws IOException {
+        writeVarint(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeValue(entry.getKey());
+            writeValue(entry.getValue());
+        }
+    }
+
+    /**
+     * 64ビットの値を固定長で書き込む。
+     *
+     * @param value 書き込む値
+     */
+    private void writeFixed64(final long value) {
+        writeFixed32((int) (value >>> 32));
+        writeFixed32((int) value);
+    }
+
+    /**
+     * 32ビットの値を固定長で書き込む。
+     *
+     * @param value 書き込む値
+     */
+    private void writeFixed32(final int value) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            writeByte(value >>> shift);
+        }
+    }
+
+    /**
+     * 書き込み先の容量を確保する。
+     *
+     * @param length 追加で書き込むバイト数
+     */
+    private void ensureCapacity(final int length) {
+        if (size + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+        }
+    }
+}
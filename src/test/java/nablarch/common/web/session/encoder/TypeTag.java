@@ -0,0 +1,102 @@
+package nablarch.common.web.session.encoder;
+
+/**
+ * {@link CompactBinaryStateEncoder}の形式で、値の種類を表す型タグ。
+ * <p/>
+ * 直列化した値の互換性を保つため、既存のタグの値は変更しないこと。
+ */
+final class TypeTag {
+
+    /** null */
+    static final int NULL = 0;
+
+    /** {@link String} */
+    static final int STRING = 1;
+
+    /** {@link Integer} */
+    static final int INTEGER = 2;
+
+    /** {@link Long} */
+    static final int LONG = 3;
+
+    /** {@link Boolean#TRUE} */
+    static final int TRUE = 4;
+
+    /** {@link Boolean#FALSE} */
+    static final int FALSE = 5;
+
+    /** {@link Short} */
+    static final int SHORT = 6;
+
+    /** {@link Byte} */
+    static final int BYTE = 7;
+
+    /** {@link Character} */
+    static final int CHARACTER = 8;
+
+    /** {@link Double} */
+    static final int DOUBLE = 9;
+
+    /** {@link Float} */
+    static final int FLOAT = 10;
+
+    /** {@link java.math.BigDecimal} */
+    static final int BIG_DECIMAL = 11;
+
+    /** {@link java.math.BigInteger} */
+    static final int BIG_INTEGER = 12;
+
+    /** {@link java.util.Date}(サブクラスを除く) */
+    static final int DATE = 13;
+
+    /** byte配列 */
+    static final int BYTE_ARRAY = 14;
+
+    /** {@link String}配列 */
+    static final int STRING_ARRAY = 15;
+
+    /** {@link java.util.ArrayList} */
+    static final int LIST = 16;
+
+    /** {@link java.util.HashSet} */
+    static final int SET = 17;
+
+    /** {@link java.util.HashMap} */
+    static final int MAP = 18;
+
+    /** 登録されたコーデックで直列化した値 */
+    static final int CODEC = 19;
+
+    /** Java標準の直列化で直列化した値 */
+    static final int JAVA_SERIALIZED = 20;
+
+    /** {@link java.util.LinkedList} */
+    static final int LINKED_LIST = 21;
+
+    /** {@link java.util.LinkedHashSet} */
+    static final int LINKED_HASH_SET = 22;
+
+    /** 自然順序の{@link java.util.TreeSet} */
+    static final int TREE_SET = 23;
+
+    /** {@link java.util.LinkedHashMap} */
+    static final int LINKED_HASH_MAP = 24;
+
+    /** 自然順序の{@link java.util.TreeMap} */
+    static final int TREE_MAP = 25;
+
+    /** {@link java.sql.Timestamp} */
+    static final int TIMESTAMP = 26;
+
+    /** {@link java.sql.Date} */
+    static final int SQL_DATE = 27;
+
+    /** {@link java.sql.Time} */
+    static final int SQL_TIME = 28;
+
+    /**
+     * インスタンス化しない。
+     */
+    private TypeTag() {
+    }
+}
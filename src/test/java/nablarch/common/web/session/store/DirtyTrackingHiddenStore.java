@@ -0,0 +1,183 @@
+package nablarch.common.web.session.store;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nablarch.common.web.session.SessionEntry;
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.web.HttpRequest;
+
+/**
+ * セッションの内容が変更されていない場合に、直列化・暗号化を省略する{@link HiddenStore}。
+ * <p/>
+ * 読み込み時のエントリを記録しておき、保存時に以下の条件をすべて満たす場合は、
+ * 直列化・暗号化を行わずにリクエストで受け取った値をそのまま画面に引き継ぐ。
+ * <ul>
+ *     <li>読み込み時と同じキーのエントリが、同じ順序で格納されていること</li>
+ *     <li>各エントリの値が、読み込み時と同一のインスタンスであること</li>
+ *     <li>各エントリの値が不変のクラス({@link String}、ラッパークラス、{@link BigDecimal}、{@link BigInteger}、列挙型)であること</li>
+ * </ul>
+ * 可変のクラスの値は、取得後に内容が変更されたかどうかを判定できないため、常に保存する。
+ * <p/>
+ * {@link HiddenStore}が出力する値には、有効期限やセッションIDは含まれないため、
+ * 受け取った値をそのまま引き継いでも、保存した場合と同じ内容となる。
+ */
+public class DirtyTrackingHiddenStore extends HiddenStore {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(DirtyTrackingHiddenStore.class);
+
+    /** 読み込み時のエントリをリクエストスコープに格納するキー */
+    static final String REQUEST_SCOPE_KEY = DirtyTrackingHiddenStore.class.getName();
+
+    /** HIDDENストアの値のパラメータ名 */
+    private String parameterName = "nablarch_hiddenStore";
+
+    /** 変更の検出を行う場合は{@code true} */
+    private boolean dirtyTracking = true;
+
+    /** 保存を省略した回数 */
+    private final AtomicLong skippedSaves = new AtomicLong();
+
+    /** 保存を行った回数 */
+    private final AtomicLong performedSaves = new AtomicLong();
+
+    @Override
+    public List<SessionEntry> load(final String sessionId, final ExecutionContext executionContext) {
+        final List<SessionEntry> entries = super.load(sessionId, executionContext);
+        if (dirtyTracking) {
+            final String[] values = ((HttpRequest) executionContext.getCurrentRequestObject()).getParam(parameterName);
+            if (values != null && values.length == 1 && !values[0].isEmpty()) {
+                executionContext.setRequestScopedVar(REQUEST_SCOPE_KEY, new Snapshot(values[0], entries));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void save(final String sessionId, final List<SessionEntry> entries,
+            final ExecutionContext executionContext) {
+        final Snapshot snapshot = executionContext.getRequestScopedVar(REQUEST_SCOPE_KEY);
+        if (dirtyTracking && snapshot != null && snapshot.isUnchanged(entries)) {
+            executionContext.setRequestScopedVar(parameterName, snapshot.value);
+            skippedSaves.incrementAndGet();
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.logDebug("hidden store is not changed. skipped saving. entries = [" + entries.size() + ']');
+            }
+            return;
+        }
+        super.save(sessionId, entries, executionContext);
+        performedSaves.incrementAndGet();
+    }
+
+    /**
+     * 値が不変のクラスかどうかを判定する。
+     *
+     * @param value 値
+     * @return 不変のクラスの場合は{@code true}
+     */
+    private static boolean isImmutable(final Object value) {
+        return value instanceof String
+                || value instanceof Integer
+                || value instanceof Long
+                || value instanceof Boolean
+                || value instanceof Short
+                || value instanceof Byte
+                || value instanceof Character
+                || value instanceof Double
+                || value instanceof Float
+                || value instanceof Enum
+                || (value != null && (value.getClass() == BigDecimal.class || value.getClass() == BigInteger.class));
+    }
+
+    /**
+     * 保存を省略した回数を取得する。
+     *
+     * @return 保存を省略した回数
+     */
+    public long getSkippedSaves() {
+        return skippedSaves.get();
+    }
+
+    /**
+     * 保存を行った回数を取得する。
+     *
+     * @return 保存を行った回数
+     */
+    public long getPerformedSaves() {
+        return performedSaves.get();
+    }
+
+    /**
+     * 変更の検出を行うかどうかを設定する。
+     * <p/>
+     * {@code false}を設定した場合は、{@link HiddenStore}と同様に常に保存する。デフォルトは{@code true}。
+     *
+     * @param dirtyTracking 変更の検出を行う場合は{@code true}
+     */
+    public void setDirtyTracking(final boolean dirtyTracking) {
+        this.dirtyTracking = dirtyTracking;
+    }
+
+    @Override
+    public void setParameterName(final String parameterName) {
+        super.setParameterName(parameterName);
+        this.parameterName = parameterName;
+    }
+
+    /**
+     * 読み込み時のHIDDENストアの値とエントリ。
+     */
+    private static final class Snapshot {
+
+        /** リクエストで受け取ったHIDDENストアの値 */
+        private final String value;
+
+        /** 読み込み時のエントリのキー */
+        private final List<String> keys;
+
+        /** 読み込み時のエントリの値 */
+        private final List<Object> values;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param value リクエストで受け取ったHIDDENストアの値
+         * @param entries 読み込み時のエントリ
+         */
+        Snapshot(final String value, final List<SessionEntry> entries) {
+            this.value = value;
+            keys = new ArrayList<String>(entries.size());
+            values = new ArrayList<Object>(entries.size());
+            for (SessionEntry entry : entries) {
+                keys.add(entry.getKey());
+                values.add(entry.getValue());
+            }
+        }
+
+        /**
+         * 保存するエントリが読み込み時から変更されていないかどうかを判定する。
+         *
+         * @param entries 保存するエントリ
+         * @return 変更されていない場合は{@code true}
+         */
+        boolean isUnchanged(final List<SessionEntry> entries) {
+            if (entries.size() != keys.size()) {
+                return false;
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                final SessionEntry entry = entries.get(i);
+                final Object loaded = values.get(i);
+                if (!entry.getKey().equals(keys.get(i)) || entry.getValue() != loaded || !isImmutable(loaded)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package nablarch.common.web.session.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+
+/**
+ * ローカルファイルにセッションを退避する{@link SessionSpillStore}。
+ * <p/>
+ * 書き込み途中で停止した場合に不完全なファイルを読み込まないよう、同じディレクトリの一時ファイルに書き込んだ後、
+ * アトミックな移動({@link StandardCopyOption#ATOMIC_MOVE})で置き換える。
+ * 読み込めないファイルは、起動のたびに復元に失敗しないよう、{@value #CORRUPT_SUFFIX}を付けたファイル名に移動して退避する。
+ * ファイルにはセッションストアの{@link nablarch.common.web.session.StateEncoder}で直列化した内容がそのまま書き込まれるため、
+ * 暗号化が必要な場合は、暗号化を行う{@link nablarch.common.web.session.StateEncoder}を使用すること。
+ */
+public class FileSessionSpillStore implements SessionSpillStore {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(FileSessionSpillStore.class);
+
+    /** 読み込めないファイルの移動先に付けるサフィックス */
+    static final String CORRUPT_SUFFIX = ".corrupt";
+
+    /** 退避先のファイル */
+    private File file;
+
+    @Override
+    public void write(final Iterator<SpilledSession> sessions) throws IOException {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("failed to create spill directory. dir = [" + dir + ']');
+        }
+        final File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        boolean moved = false;
+        try {
+            final FileOutputStream stream = new FileOutputStream(temp);
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            try {
+                while (sessions.hasNext()) {
+                    final SpilledSession session = sessions.next();
+                    out.writeBoolean(true);
+                    out.writeUTF(session.getSessionId());
+                    out.writeLong(session.getExpiresAt());
+                    out.writeInt(session.getEncoded().length);
+                    out.write(session.getEncoded());
+                }
+                out.writeBoolean(false);
+                out.flush();
+                // 置き換えた後に停止しても内容が失われないよう、移動の前にディスクへ書き込む
+                stream.getFD().sync();
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved && !temp.delete()) {
+                LOGGER.logWarn("failed to delete temporary spill file. file = [" + temp + ']');
+            }
+        }
+    }
+
+    @Override
+    public void read(final Receiver receiver) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (in.readBoolean()) {
+                final String sessionId = in.readUTF();
+                final long expiresAt = in.readLong();
+                final int length = in.readInt();
+                if (length < 0 || length > file.length()) {
+                    throw new IOException("invalid session length. length = [" + length + ']');
+                }
+                final byte[] encoded = new byte[length];
+                in.readFully(encoded);
+                receiver.receive(new SpilledSession(sessionId, expiresAt, encoded));
+            }
+        } catch (IOException e) {
+            in.close();
+            quarantine();
+            throw e;
+        } finally {
+            in.close();
+        }
+        if (!file.delete()) {
+            throw new IOException("failed to delete spill file. file = [" + file + ']');
+        }
+    }
+
+    /**
+     * 読み込めないファイルを、{@value #CORRUPT_SUFFIX}を付けたファイル名に移動する。
+     * <p/>
+     * 既に移動したファイルが存在する場合は置き換える。
+     *
+     * @throws IOException 移動に失敗した場合
+     */
+    private void quarantine() throws IOException {
+        final File corrupt = new File(file.getPath() + CORRUPT_SUFFIX);
+        Files.move(file.toPath(), corrupt.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        LOGGER.logWarn("spill file is corrupt. moved to [" + corrupt + ']');
+    }
+
+    /**
+     * 退避先のファイルのパスを設定する。
+     *
+     * @param file 退避先のファイルのパス
+     */
+    public void setFile(final String file) {
+        this.file = new File(file);
+    }
+}
@@ -0,0 +1,119 @@
+package nablarch.common.web.session.store;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * {@link FileSessionSpillStore}のテストクラス。
+ */
+public class FileSessionSpillStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FileSessionSpillStore sut = new FileSessionSpillStore();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "spill/offheap-session-store.dat");
+        sut.setFile(file.getPath());
+    }
+
+    /**
+     * 退避したセッションが読み込まれ、読み込んだファイルが削除されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testWriteAndRead() throws Exception {
+        sut.write(Arrays.asList(
+                new SpilledSession("session1", 100L, new byte[] {1, 2, 3}),
+                new SpilledSession("session2", 200L, new byte[0])).iterator());
+        assertThat(file.exists(), is(true));
+
+        final List<SpilledSession> sessions = read();
+        assertThat(sessions.size(), is(2));
+        assertThat(sessions.get(0).getSessionId(), is("session1"));
+        assertThat(sessions.get(0).getExpiresAt(), is(100L));
+        assertThat(sessions.get(0).getEncoded(), is(new byte[] {1, 2, 3}));
+        assertThat(sessions.get(1).getSessionId(), is("session2"));
+        assertThat(sessions.get(1).getEncoded().length, is(0));
+        assertThat(file.exists(), is(false));
+
+        // ファイルが存在しない場合は何も読み込まない。
+        assertThat(read().size(), is(0));
+    }
+
+    /**
+     * 前回退避したファイルが置き換えられ、一時ファイルが残らないことを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testWrite_replace() throws Exception {
+        sut.write(Arrays.asList(new SpilledSession("old", 100L, new byte[] {1})).iterator());
+        sut.write(Arrays.asList(new SpilledSession("new", 200L, new byte[] {2})).iterator());
+
+        assertThat(file.getParentFile().list().length, is(1));
+        final List<SpilledSession> sessions = read();
+        assertThat(sessions.size(), is(1));
+        assertThat(sessions.get(0).getSessionId(), is("new"));
+    }
+
+    /**
+     * 読み込めないファイルが移動され、次回の読み込みでは失敗しないことを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testRead_corrupt() throws Exception {
+        sut.write(Arrays.asList(new SpilledSession("session1", 100L, new byte[] {1, 2, 3})).iterator());
+        // 終端を切り詰め、途中までしか書き込まれていないファイルとする。
+        final FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.getChannel().truncate(file.length() - 3);
+        } finally {
+            out.close();
+        }
+
+        try {
+            read();
+            fail("ファイルが不完全なため、例外が発生する。");
+        } catch (IOException e) {
+            // OK
+        }
+        assertThat(file.exists(), is(false));
+        assertThat(new File(file.getPath() + FileSessionSpillStore.CORRUPT_SUFFIX).exists(), is(true));
+
+        assertThat(read().size(), is(0));
+    }
+
+    /**
+     * 退避したセッションを読み込む。
+     *
+     * @return 読み込んだセッション
+     * @throws IOException 入出力例外
+     */
+    private List<SpilledSession> read() throws IOException {
+        final List<SpilledSession> sessions = new ArrayList<SpilledSession>();
+        sut.read(new SessionSpillStore.Receiver() {
+            @Override
+            public void receive(final SpilledSession session) {
+                sessions.add(session);
+            }
+        });
+        return sessions;
+    }
+}
@@ -0,0 +1,601 @@
+package nablarch.common.web.session.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import nablarch.common.web.session.SessionEntry;
+import nablarch.common.web.session.SessionStore;
+import nablarch.core.date.SystemTimeUtil;
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.fw.ExecutionContext;
+
+/**
+ * 直列化したセッションを、ヒープ外のメモリに保持するセッションストア。
+ * <p/>
+ * HIDDENストアのように画面にセッションを出力しないため、通信量や暗号化のコストが発生せず、
+ * HTTPセッションと異なり、保持するセッションがGCの対象とならない。
+ * 本ストアを使用する場合、同じセッションIDのリクエストは同じサーバで処理されるよう、スティッキーセッションを構成すること。
+ * <p/>
+ * 保持領域は以下のように管理する。
+ * <ul>
+ *     <li>
+ *     セッションIDのハッシュ値でセグメントに分割し、セグメント単位でロックする。
+ *     </li>
+ *     <li>
+ *     各セグメントは{@link #setMaxBytes(long)}を分割したダイレクトバッファを固定長のブロックに区切って使用し、
+ *     セッションはブロック単位で格納する。断片化は発生せず、使用量は{@link #setMaxBytes(long)}を超えない。
+ *     </li>
+ *     <li>
+ *     空きブロックが不足した場合は、最も長い間アクセスされていないセッションから削除する(LRU)。
+ *     </li>
+ *     <li>
+ *     有効期限は保存時に{@link #getExpiresMilliSeconds()}から算出し、期限切れのセッションは読み込み時に削除する。
+ *     </li>
+ * </ul>
+ * {@link #setSpillStore(SessionSpillStore)}を設定した場合、{@link #spill()}で保持するセッションを退避し、
+ * {@link #warmUp()}で復元できる。
+ */
+public class OffHeapSessionStore extends SessionStore {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(OffHeapSessionStore.class);
+
+    /** 保持領域の上限サイズ */
+    private long maxBytes = 64L * 1024 * 1024;
+
+    /** セグメント数 */
+    private int segmentCount = 16;
+
+    /** ブロックのサイズ */
+    private int blockSize = 256;
+
+    /** 退避先 */
+    private SessionSpillStore spillStore;
+
+    /** セグメント */
+    private volatile Segment[] segments;
+
+    /**
+     * コンストラクタ。
+     */
+    public OffHeapSessionStore() {
+        super("offHeap");
+    }
+
+    @Override
+    public List<SessionEntry> load(final String sessionId, final ExecutionContext executionContext) {
+        final byte[] encoded = segmentFor(sessionId).get(sessionId, now());
+        if (encoded == null) {
+            return Collections.emptyList();
+        }
+        return decode(encoded);
+    }
+
+    @Override
+    public void save(final String sessionId, final List<SessionEntry> entries,
+            final ExecutionContext executionContext) {
+        segmentFor(sessionId).put(sessionId, encode(entries), now() + getExpiresMilliSeconds());
+    }
+
+    @Override
+    public void delete(final String sessionId, final ExecutionContext executionContext) {
+        segmentFor(sessionId).remove(sessionId);
+    }
+
+    @Override
+    public void invalidate(final String sessionId, final ExecutionContext executionContext) {
+        segmentFor(sessionId).remove(sessionId);
+    }
+
+    /**
+     * 保持するセッションを退避先に書き込む。
+     * <p/>
+     * 期限切れのセッションは書き込まない。退避先が設定されていない場合は何もしない。
+     *
+     * @throws IOException 入出力例外
+     */
+    public void spill() throws IOException {
+        if (spillStore == null) {
+            return;
+        }
+        final long now = now();
+        final Segment[] all = getSegments();
+        spillStore.write(new Iterator<SpilledSession>() {
+
+            /** 書き込み中のセグメントのインデックス */
+            private int index;
+
+            /** 書き込み中のセグメントのセッション */
+            private Iterator<SpilledSession> current = Collections.<SpilledSession>emptyList().iterator();
+
+            @Override
+            public boolean hasNext() {
+                // ロックを長時間保持しないよう、セグメント単位で内容をコピーする
+                while (!current.hasNext() && index < all.length) {
+                    current = all[index++].snapshot(now).iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public SpilledSession next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    /**
+     * 退避先からセッションを復元する。
+     * <p/>
+     * 期限切れのセッションは復元しない。退避先が設定されていない場合は何もしない。
+     *
+     * @throws IOException 入出力例外
+     */
+    public void warmUp() throws IOException {
+        if (spillStore == null) {
+            return;
+        }
+        final long now = now();
+        final int[] restored = new int[1];
+        spillStore.read(new SessionSpillStore.Receiver() {
+            @Override
+            public void receive(final SpilledSession session) {
+                if (session.getExpiresAt() > now) {
+                    segmentFor(session.getSessionId()).put(
+                            session.getSessionId(), session.getEncoded(), session.getExpiresAt());
+                    restored[0]++;
+                }
+            }
+        });
+        LOGGER.logInfo("off-heap session store warmed up. sessions = [" + restored[0] + ']');
+    }
+
+    /**
+     * 保持しているセッション数を取得する。
+     *
+     * @return セッション数(期限切れで未削除のものを含む)
+     */
+    public long getEntryCount() {
+        long count = 0;
+        for (Segment segment : getSegments()) {
+            count += segment.stat(Segment.ENTRIES);
+        }
+        return count;
+    }
+
+    /**
+     * 使用中の保持領域のサイズを取得する。
+     *
+     * @return 使用中のサイズ(ブロック単位で切り上げたサイズ)
+     */
+    public long getUsedBytes() {
+        long blocks = 0;
+        for (Segment segment : getSegments()) {
+            blocks += segment.stat(Segment.USED_BLOCKS);
+        }
+        return blocks * blockSize;
+    }
+
+    /**
+     * 読み込み時にセッションが見つかった回数を取得する。
+     *
+     * @return ヒット数
+     */
+    public long getHitCount() {
+        return sum(Segment.HITS);
+    }
+
+    /**
+     * 読み込み時にセッションが見つからなかった回数(期限切れを含む)を取得する。
+     *
+     * @return ミス数
+     */
+    public long getMissCount() {
+        return sum(Segment.MISSES);
+    }
+
+    /**
+     * 空きブロックの不足により削除したセッション数を取得する。
+     *
+     * @return 削除したセッション数
+     */
+    public long getEvictionCount() {
+        return sum(Segment.EVICTIONS);
+    }
+
+    /**
+     * 期限切れにより削除したセッション数を取得する。
+     *
+     * @return 削除したセッション数
+     */
+    public long getExpirationCount() {
+        return sum(Segment.EXPIRATIONS);
+    }
+
+    /**
+     * 全セグメントの統計値を合計する。
+     *
+     * @param stat 統計値の種類
+     * @return 合計
+     */
+    private long sum(final int stat) {
+        long total = 0;
+        for (Segment segment : getSegments()) {
+            total += segment.stat(stat);
+        }
+        return total;
+    }
+
+    /**
+     * セッションIDに対応するセグメントを取得する。
+     *
+     * @param sessionId セッションID
+     * @return セグメント
+     */
+    private Segment segmentFor(final String sessionId) {
+        final Segment[] all = getSegments();
+        final int hash = sessionId.hashCode();
+        return all[(hash ^ (hash >>> 16)) & (all.length - 1)];
+    }
+
+    /**
+     * セグメントを取得する。初回の呼び出し時にセグメントを生成する。
+     *
+     * @return セグメント
+     */
+    private Segment[] getSegments() {
+        Segment[] result = segments;
+        if (result == null) {
+            synchronized (this) {
+                result = segments;
+                if (result == null) {
+                    int count = 1;
+                    while (count < segmentCount) {
+                        count <<= 1;
+                    }
+                    final long blocksPerSegment = maxBytes / count / blockSize;
+                    if (blocksPerSegment < 1 || blocksPerSegment * blockSize > Integer.MAX_VALUE) {
+                        throw new IllegalStateException("invalid segment size. maxBytes = [" + maxBytes
+                                + "], segmentCount = [" + count + "], blockSize = [" + blockSize + ']');
+                    }
+                    result = new Segment[count];
+                    for (int i = 0; i < count; i++) {
+                        result[i] = new Segment((int) blocksPerSegment, blockSize);
+                    }
+                    segments = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 現在時刻を取得する。
+     *
+     * @return 現在時刻(エポックミリ秒)
+     */
+    private static long now() {
+        return SystemTimeUtil.getDate().getTime();
+    }
+
+    /**
+     * 保持領域の上限サイズを設定する。
+     * <p/>
+     * デフォルトは64MB。
+     *
+     * @param maxBytes 上限サイズ(バイト)
+     */
+    public void setMaxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * セグメント数を設定する。
+     * <p/>
+     * 2のべき乗に切り上げて使用する。デフォルトは16。
+     *
+     * @param segmentCount セグメント数
+     */
+    public void setSegmentCount(final int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * ブロックのサイズを設定する。
+     * <p/>
+     * セッションはブロック単位で格納されるため、直列化後のセッションの典型的なサイズに合わせて設定する。
+     * デフォルトは256バイト。
+     *
+     * @param blockSize ブロックのサイズ(バイト)
+     */
+    public void setBlockSize(final int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * 退避先を設定する。
+     *
+     * @param spillStore 退避先
+     */
+    public void setSpillStore(final SessionSpillStore spillStore) {
+        this.spillStore = spillStore;
+    }
+
+    /**
+     * セッションの格納位置。
+     */
+    private static final class Slot {
+
+        /** 格納したブロックの番号 */
+        private final int[] blocks;
+
+        /** 直列化したセッションのサイズ */
+        private final int length;
+
+        /** 有効期限(エポックミリ秒) */
+        private final long expiresAt;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param blocks 格納したブロックの番号
+         * @param length 直列化したセッションのサイズ
+         * @param expiresAt 有効期限(エポックミリ秒)
+         */
+        Slot(final int[] blocks, final int length, final long expiresAt) {
+            this.blocks = blocks;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * ロックの単位となるセグメント。
+     */
+    private static final class Segment {
+
+        /** 統計値の種類:セッション数 */
+        static final int ENTRIES = 0;
+
+        /** 統計値の種類:使用中のブロック数 */
+        static final int USED_BLOCKS = 1;
+
+        /** 統計値の種類:ヒット数 */
+        static final int HITS = 2;
+
+        /** 統計値の種類:ミス数 */
+        static final int MISSES = 3;
+
+        /** 統計値の種類:容量不足による削除数 */
+        static final int EVICTIONS = 4;
+
+        /** 統計値の種類:期限切れによる削除数 */
+        static final int EXPIRATIONS = 5;
+
+        /** ロック */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** セッションIDと格納位置(アクセス順) */
+        private final LinkedHashMap<String, Slot> slots = new LinkedHashMap<String, Slot>(16, 0.75f, true);
+
+        /** 保持領域 */
+        private final ByteBuffer buffer;
+
+        /** ブロックのサイズ */
+        private final int blockSize;
+
+        /** 空きブロックの番号 */
+        private final int[] freeBlocks;
+
+        /** 空きブロック数 */
+        private int freeCount;
+
+        /** ヒット数 */
+        private long hits;
+
+        /** ミス数 */
+        private long misses;
+
+        /** 容量不足による削除数 */
+        private long evictions;
+
+        /** 期限切れによる削除数 */
+        private long expirations;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param blockCount ブロック数
+         * @param blockSize ブロックのサイズ
+         */
+        Segment(final int blockCount, final int blockSize) {
+            this.blockSize = blockSize;
+            buffer = ByteBuffer.allocateDirect(blockCount * blockSize);
+            freeBlocks = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                freeBlocks[i] = blockCount - 1 - i;
+            }
+            freeCount = blockCount;
+        }
+
+        /**
+         * セッションを読み込む。
+         *
+         * @param sessionId セッションID
+         * @param now 現在時刻
+         * @return 直列化したセッション(存在しない場合、期限切れの場合は{@code null})
+         */
+        byte[] get(final String sessionId, final long now) {
+            lock.lock();
+            try {
+                final Slot slot = slots.get(sessionId);
+                if (slot == null) {
+                    misses++;
+                    return null;
+                }
+                if (slot.expiresAt <= now) {
+                    release(slots.remove(sessionId));
+                    expirations++;
+                    misses++;
+                    return null;
+                }
+                hits++;
+                return read(slot);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * セッションを格納する。
+         *
+         * @param sessionId セッションID
+         * @param encoded 直列化したセッション
+         * @param expiresAt 有効期限
+         */
+        void put(final String sessionId, final byte[] encoded, final long expiresAt) {
+            final int required = (encoded.length + blockSize - 1) / blockSize;
+            if (required > freeBlocks.length) {
+                throw new IllegalStateException("session is too large for off-heap session store. size = ["
+                        + encoded.length + "], segment capacity = [" + buffer.capacity() + ']');
+            }
+            lock.lock();
+            try {
+                final Slot old = slots.remove(sessionId);
+                if (old != null) {
+                    release(old);
+                }
+                final Iterator<Map.Entry<String, Slot>> eldest = slots.entrySet().iterator();
+                while (freeCount < required) {
+                    final Slot evicted = eldest.next().getValue();
+                    eldest.remove();
+                    release(evicted);
+                    evictions++;
+                }
+                final int[] blocks = new int[required];
+                for (int i = 0; i < required; i++) {
+                    blocks[i] = freeBlocks[--freeCount];
+                    final int offset = i * blockSize;
+                    buffer.limit(blocks[i] * blockSize + blockSize).position(blocks[i] * blockSize);
+                    buffer.put(encoded, offset, Math.min(blockSize, encoded.length - offset));
+                }
+                slots.put(sessionId, new Slot(blocks, encoded.length, expiresAt));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * セッションを削除する。
+         *
+         * @param sessionId セッションID
+         */
+        void remove(final String sessionId) {
+            lock.lock();
+            try {
+                final Slot slot = slots.remove(sessionId);
+                if (slot != null) {
+                    release(slot);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 期限切れでないセッションの内容をコピーする。
+         *
+         * @param now 現在時刻
+         * @return セッションの内容
+         */
+        List<SpilledSession> snapshot(final long now) {
+            lock.lock();
+            try {
+                final List<SpilledSession> result = new ArrayList<SpilledSession>(slots.size());
+                for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+                    final Slot slot = entry.getValue();
+                    if (slot.expiresAt > now) {
+                        result.add(new SpilledSession(entry.getKey(), slot.expiresAt, read(slot)));
+                    }
+                }
+                return result;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 統計値を取得する。
+         *
+         * @param stat 統計値の種類
+         * @return 統計値
+         */
+        long stat(final int stat) {
+            lock.lock();
+            try {
+                switch (stat) {
+                    case ENTRIES:
+                        return slots.size();
+                    case USED_BLOCKS:
+                        return freeBlocks.length - freeCount;
+                    case HITS:
+                        return hits;
+                    case MISSES:
+                        return misses;
+                    case EVICTIONS:
+                        return evictions;
+                    case EXPIRATIONS:
+                        return expirations;
+                    default:
+                        throw new IllegalArgumentException("unknown stat. stat = [" + stat + ']');
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 格納位置からセッションを読み込む。
+         *
+         * @param slot 格納位置
+         * @return 直列化したセッション
+         */
+        private byte[] read(final Slot slot) {
+            final byte[] encoded = new byte[slot.length];
+            for (int i = 0; i < slot.blocks.length; i++) {
+                final int offset = i * blockSize;
+                buffer.limit(slot.blocks[i] * blockSize + blockSize).position(slot.blocks[i] * blockSize);
+                buffer.get(encoded, offset, Math.min(blockSize, slot.length - offset));
+            }
+            return encoded;
+        }
+
+        /**
+         * 格納位置のブロックを解放する。
+         *
+         * @param slot 格納位置
+         */
+        private void release(final Slot slot) {
+            for (int block : slot.blocks) {
+                freeBlocks[freeCount++] = block;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package nablarch.common.web.session.store;
+
+import java.io.IOException;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.SystemRepository;
+
+/**
+ * アプリケーションの起動時に{@link OffHeapSessionStore}のセッションを復元し、停止時に退避するリスナー。
+ * <p/>
+ * {@link OffHeapSessionStore}はシステムリポジトリから取得するため、
+ * web.xmlでは、システムリポジトリを初期化するリスナー({@code NablarchServletContextListener}、
+ * {@code PrecompiledNablarchServletContextListener})の後に定義すること。
+ * 取得するコンポーネント名はコンテキストパラメータ{@value #COMPONENT_NAME_PARAM}で指定でき、
+ * デフォルトは{@value #DEFAULT_COMPONENT_NAME}。
+ */
+public class SessionSpillListener implements ServletContextListener {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(SessionSpillListener.class);
+
+    /** コンポーネント名を指定するコンテキストパラメータ */
+    static final String COMPONENT_NAME_PARAM = "offHeapSessionStore.componentName";
+
+    /** デフォルトのコンポーネント名 */
+    static final String DEFAULT_COMPONENT_NAME = "offHeapSessionStore";
+
+    @Override
+    public void contextInitialized(final ServletContextEvent event) {
+        final OffHeapSessionStore store = getStore(event);
+        try {
+            store.warmUp();
+        } catch (IOException e) {
+            // 復元できない場合も、セッションが空の状態で起動できるため処理を継続する
+            LOGGER.logWarn("failed to warm up off-heap session store.", e);
+        }
+    }
+
+    @Override
+    public void contextDestroyed(final ServletContextEvent event) {
+        final OffHeapSessionStore store = getStore(event);
+        try {
+            store.spill();
+        } catch (IOException e) {
+            LOGGER.logWarn("failed to spill off-heap session store.", e);
+        }
+    }
+
+    /**
+     * {@link OffHeapSessionStore}を取得する。
+     *
+     * @param event イベント
+     * @return {@link OffHeapSessionStore}
+     */
+    private static OffHeapSessionStore getStore(final ServletContextEvent event) {
+        String name = event.getServletContext().getInitParameter(COMPONENT_NAME_PARAM);
+        if (name == null) {
+            name = DEFAULT_COMPONENT_NAME;
+        }
+        final OffHeapSessionStore store = SystemRepository.get(name);
+        if (store == null) {
+            throw new IllegalStateException("off-heap session store was not found. component name = [" + name + ']');
+        }
+        return store;
+    }
+}
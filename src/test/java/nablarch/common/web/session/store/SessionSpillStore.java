@@ -0,0 +1,43 @@
+package nablarch.common.web.session.store;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * {@link OffHeapSessionStore}のセッションを、停止時に退避し、起動時に復元するための退避先。
+ */
+public interface SessionSpillStore {
+
+    /**
+     * セッションを退避する。
+     * <p/>
+     * 前回退避した内容は破棄する。
+     *
+     * @param sessions 退避するセッション
+     * @throws IOException 入出力例外
+     */
+    void write(Iterator<SpilledSession> sessions) throws IOException;
+
+    /**
+     * 退避したセッションを読み込む。
+     * <p/>
+     * 読み込んだ内容は、再度読み込まれないよう破棄する。
+     *
+     * @param receiver 読み込んだセッションの受け取り先
+     * @throws IOException 入出力例外
+     */
+    void read(Receiver receiver) throws IOException;
+
+    /**
+     * 読み込んだセッションの受け取り先。
+     */
+    interface Receiver {
+
+        /**
+         * 読み込んだセッションを受け取る。
+         *
+         * @param session 読み込んだセッション
+         */
+        void receive(SpilledSession session);
+    }
+}
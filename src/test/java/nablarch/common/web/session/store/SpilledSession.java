@@ -0,0 +1,56 @@
+package nablarch.common.web.session.store;
+
+/**
+ * {@link SessionSpillStore}に退避するセッション。
+ */
+public class SpilledSession {
+
+    /** セッションID */
+    private final String sessionId;
+
+    /** 有効期限(エポックミリ秒) */
+    private final long expiresAt;
+
+    /** 直列化したセッションの内容 */
+    private final byte[] encoded;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param sessionId セッションID
+     * @param expiresAt 有効期限(エポックミリ秒)
+     * @param encoded 直列化したセッションの内容
+     */
+    public SpilledSession(final String sessionId, final long expiresAt, final byte[] encoded) {
+        this.sessionId = sessionId;
+        this.expiresAt = expiresAt;
+        this.encoded = encoded;
+    }
+
+    /**
+     * セッションIDを取得する。
+     *
+     * @return セッションID
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * 有効期限を取得する。
+     *
+     * @return 有効期限(エポックミリ秒)
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * 直列化したセッションの内容を取得する。
+     *
+     * @return 直列化したセッションの内容
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+}
@@ -0,0 +1,43 @@
+package nablarch.core.log.basic;
+
+import java.util.Map;
+
+import nablarch.core.log.LogItem;
+
+/**
+ * {@link AsyncLogWriter}の委譲先で使用する{@link BasicLogFormatter}。
+ * <p/>
+ * {@link AsyncLogWriter}はバックグラウンドのスレッドでフォーマットを行うため、
+ * {@link BasicLogFormatter}ではスレッド名がバックグラウンドのスレッドの名前となる。
+ * 本クラスでは、スレッド名({@code $threadName$})にログを出力したスレッドの名前を出力する。
+ * {@link AsyncLogWriter}を経由しない場合は、{@link BasicLogFormatter}と同様に現在のスレッドの名前を出力する。
+ * <p/>
+ * 上記以外の設定は{@link BasicLogFormatter}と同じ。
+ */
+public class AsyncLogFormatter extends BasicLogFormatter {
+
+    @Override
+    protected Map<String, LogItem<LogContext>> getLogItems(final ObjectSettings settings) {
+        final Map<String, LogItem<LogContext>> logItems = super.getLogItems(settings);
+        logItems.put("$threadName$", new OriginThreadNameItem());
+        return logItems;
+    }
+
+    /**
+     * ログを出力したスレッドの名前を取得するクラス。
+     */
+    public static class OriginThreadNameItem implements LogItem<LogContext> {
+
+        /**
+         * ログを出力したスレッドの名前を取得する。
+         *
+         * @param context ログコンテキスト
+         * @return ログを出力したスレッドの名前
+         */
+        @Override
+        public String get(final LogContext context) {
+            final String threadName = AsyncLogWriter.getOriginThreadName();
+            return threadName != null ? threadName : Thread.currentThread().getName();
+        }
+    }
+}
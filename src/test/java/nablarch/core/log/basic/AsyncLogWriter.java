@@ -0,0 +1,360 @@
+package nablarch.core.log.basic;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import nablarch.core.util.ObjectUtil;
+
+/**
+ * ログの書き込みを、バックグラウンドのスレッドで非同期に行う{@link LogWriter}。
+ * <p/>
+ * リクエストスレッドは{@link LogContext}をロックを使用しないリングバッファに追加するだけで処理を戻し、
+ * フォーマットと出力はバックグラウンドのスレッドがまとめて委譲先の{@link LogWriter}で行う。
+ * {@link LogContext}は生成時に日時やリクエストIDなどを保持しているが、スレッド名はフォーマット時のスレッドから取得される。
+ * このため、追加時にリクエストスレッドの名前を保持し、委譲先に書き込む間は{@link #getOriginThreadName()}で取得できるようにする。
+ * スレッド名を出力する場合は、フォーマッタに{@link AsyncLogFormatter}を指定すること。
+ * {@link BasicLogFormatter}を指定した場合、スレッド名はバックグラウンドのスレッドの名前となる。
+ * <p/>
+ * プロパティファイルの記述ルールを下記に示す。
+ * <dl>
+ * <dt>writer.&lt;{@link LogWriter}の名称&gt;.delegateClassName</dt>
+ * <dd>委譲先の{@link LogWriter}のクラス名。必須。<br>
+ *     委譲先は本クラスと同じ名称で初期化されるため、委譲先の設定(フォーマッタ等)も同じ名称で記述する。</dd>
+ * <dt>writer.&lt;{@link LogWriter}の名称&gt;.bufferSize</dt>
+ * <dd>リングバッファの容量。オプション。<br>
+ *     2のべき乗に切り上げる。指定しなかった場合は8192。</dd>
+ * <dt>writer.&lt;{@link LogWriter}の名称&gt;.batchSize</dt>
+ * <dd>バックグラウンドのスレッドが1回に書き込む最大件数。オプション。<br>
+ *     指定しなかった場合は256。</dd>
+ * <dt>writer.&lt;{@link LogWriter}の名称&gt;.backPressure</dt>
+ * <dd>リングバッファが満杯の場合の動作。オプション。<br>
+ *     BLOCK:空きができるまで待つ(デフォルト)<br>
+ *     DROP_DEBUG:DEBUG以下のログは破棄し、それ以外は空きができるまで待つ<br>
+ *     SAMPLE:DEBUG以下のログはsampleRate件に1件だけ空きができるまで待ち、残りは破棄する。それ以外は空きができるまで待つ</dd>
+ * <dt>writer.&lt;{@link LogWriter}の名称&gt;.sampleRate</dt>
+ * <dd>backPressureがSAMPLEの場合に、残すログの割合(N件に1件)。オプション。<br>
+ *     指定しなかった場合は10。</dd>
+ * </dl>
+ * 破棄したログの件数は、バックグラウンドのスレッドがWARNレベルのログとして委譲先に出力する。
+ * 委譲先での書き込みに失敗したログは、バックグラウンドのスレッドを停止させないよう件数のみを数え、{@link #getFailedCount()}で取得できる。
+ * <p/>
+ * テストでは、{@link #awaitFlush(long, TimeUnit)}でログの出力を待ち合わせることができる。
+ */
+public class AsyncLogWriter implements LogWriter {
+
+    /** 初期化済みの{@link AsyncLogWriter} */
+    private static final List<AsyncLogWriter> WRITERS = new CopyOnWriteArrayList<AsyncLogWriter>();
+
+    /** 委譲先に書き込み中のログを出力したスレッドの名前 */
+    private static final ThreadLocal<String> ORIGIN_THREAD_NAME = new ThreadLocal<String>();
+
+    /** リングバッファが満杯の場合に待機する時間(ナノ秒) */
+    private static final long BLOCK_WAIT_NANOS = 100000L;
+
+    /** ログがない場合にバックグラウンドのスレッドが待機する時間(ナノ秒) */
+    private static final long IDLE_WAIT_NANOS = 10000000L;
+
+    /**
+     * リングバッファが満杯の場合の動作。
+     */
+    enum BackPressure {
+        /** 空きができるまで待つ */
+        BLOCK,
+        /** DEBUG以下のログは破棄する */
+        DROP_DEBUG,
+        /** DEBUG以下のログは一部を残して破棄する */
+        SAMPLE
+    }
+
+    /** 名称 */
+    private String name;
+
+    /** 委譲先の{@link LogWriter} */
+    private LogWriter delegate;
+
+    /** リングバッファ */
+    private LogRingBuffer<PendingLog> buffer;
+
+    /** バックグラウンドのスレッドが1回に書き込む最大件数 */
+    private int batchSize;
+
+    /** リングバッファが満杯の場合の動作 */
+    private BackPressure backPressure;
+
+    /** 残すログの割合(N件に1件) */
+    private int sampleRate;
+
+    /** SAMPLEの場合に、残すログを判定するためのカウンタ */
+    private final AtomicLong sampleCounter = new AtomicLong();
+
+    /** 破棄したログの件数 */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /** 委譲先での書き込みに失敗したログの件数 */
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /** 委譲先に書き込んだログの件数 */
+    private volatile long writtenCount;
+
+    /** バックグラウンドのスレッド */
+    private Thread worker;
+
+    /** バックグラウンドのスレッドの名前 */
+    private String workerName;
+
+    /** バックグラウンドのスレッドが待機中の場合は{@code true} */
+    private volatile boolean workerParked;
+
+    /** 終了処理が開始された場合は{@code true} */
+    private volatile boolean terminated;
+
+    @Override
+    public void initialize(final ObjectSettings settings) {
+        name = settings.getName();
+        final String delegateClassName = settings.getProp("delegateClassName");
+        if (delegateClassName == null) {
+            throw new IllegalArgumentException(
+                    "delegateClassName was not specified. writer name = [" + name + ']');
+        }
+        delegate = ObjectUtil.createInstance(delegateClassName);
+        delegate.initialize(settings);
+
+        buffer = new LogRingBuffer<PendingLog>(getIntProp(settings, "bufferSize", 8192));
+        batchSize = getIntProp(settings, "batchSize", 256);
+        sampleRate = getIntProp(settings, "sampleRate", 10);
+        final String backPressureName = settings.getProp("backPressure");
+        backPressure = backPressureName == null ? BackPressure.BLOCK : BackPressure.valueOf(backPressureName);
+
+        workerName = "AsyncLogWriter-" + name;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, workerName);
+        worker.setDaemon(true);
+        worker.start();
+        WRITERS.add(this);
+    }
+
+    @Override
+    public void write(final LogContext context) {
+        final PendingLog log = new PendingLog(context, Thread.currentThread().getName());
+        if (buffer.offer(log)) {
+            wakeUpWorker();
+            return;
+        }
+        if (backPressure != BackPressure.BLOCK && isDebugOrLower(context.getLevel())
+                && (backPressure == BackPressure.DROP_DEBUG || sampleCounter.incrementAndGet() % sampleRate != 0)) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        while (!buffer.offer(log)) {
+            if (terminated) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            wakeUpWorker();
+            LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+        }
+        wakeUpWorker();
+    }
+
+    @Override
+    public void terminate() {
+        WRITERS.remove(this);
+        terminated = true;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.terminate();
+    }
+
+    /**
+     * この時点までに追加されたログが、委譲先に書き込まれるまで待つ。
+     *
+     * @param timeout 最大待機時間
+     * @param unit 最大待機時間の単位
+     * @return 書き込まれた場合は{@code true}、タイムアウトした場合は{@code false}
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public boolean flush(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long target = buffer.getOfferedCount();
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (writtenCount < target) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            wakeUpWorker();
+            LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * 初期化済みのすべての{@link AsyncLogWriter}について、この時点までに追加されたログが書き込まれるまで待つ。
+     *
+     * @param timeout 最大待機時間
+     * @param unit 最大待機時間の単位
+     * @return 書き込まれた場合は{@code true}、タイムアウトした場合は{@code false}
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public static boolean awaitFlush(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (AsyncLogWriter writer : WRITERS) {
+            if (!writer.flush(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 委譲先に書き込み中のログを出力したスレッドの名前を取得する。
+     * <p/>
+     * バックグラウンドのスレッドが委譲先に書き込んでいる間のみ値を返す。
+     *
+     * @return ログを出力したスレッドの名前。書き込み中でない場合は{@code null}
+     */
+    public static String getOriginThreadName() {
+        return ORIGIN_THREAD_NAME.get();
+    }
+
+    /**
+     * 破棄したログの件数を取得する。
+     *
+     * @return 破棄したログの件数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * 委譲先での書き込みに失敗したログの件数を取得する。
+     *
+     * @return 書き込みに失敗したログの件数
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * バックグラウンドのスレッドで、リングバッファのログを委譲先に書き込む。
+     */
+    private void drainLoop() {
+        long reportedDrops = 0;
+        while (true) {
+            int written = 0;
+            PendingLog log;
+            while (written < batchSize && (log = buffer.poll()) != null) {
+                writeToDelegate(log.context, log.threadName);
+                written++;
+                writtenCount++;
+            }
+            final long drops = droppedCount.get();
+            if (drops != reportedDrops) {
+                writeToDelegate(new LogContext(AsyncLogWriter.class.getName(), LogLevel.WARN,
+                        "log records were dropped by back pressure. dropped = [" + (drops - reportedDrops) + ']', null),
+                        workerName);
+                reportedDrops = drops;
+            }
+            if (written > 0) {
+                continue;
+            }
+            if (terminated) {
+                return;
+            }
+            workerParked = true;
+            // 待機フラグを立てた後に追加されたログを取りこぼさないよう、待機前に再確認する
+            if (buffer.getPolledCount() == buffer.getOfferedCount()) {
+                LockSupport.parkNanos(IDLE_WAIT_NANOS);
+            }
+            workerParked = false;
+        }
+    }
+
+    /**
+     * 委譲先にログを書き込む。
+     * <p/>
+     * {@link AsyncLogFormatter}がログを出力したスレッドの名前を取得できるよう、
+     * 書き込む間は{@link #getOriginThreadName()}で名前を返す。
+     * 委譲先で発生した例外はバックグラウンドのスレッドを停止させないよう、件数を数えて処理を継続する。
+     *
+     * @param context ログエントリ
+     * @param threadName ログを出力したスレッドの名前
+     */
+    private void writeToDelegate(final LogContext context, final String threadName) {
+        ORIGIN_THREAD_NAME.set(threadName);
+        try {
+            delegate.write(context);
+        } catch (RuntimeException e) {
+            failedCount.incrementAndGet();
+        } finally {
+            ORIGIN_THREAD_NAME.remove();
+        }
+    }
+
+    /**
+     * 待機中のバックグラウンドのスレッドを起こす。
+     */
+    private void wakeUpWorker() {
+        if (workerParked) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * DEBUG以下のログレベルかどうかを判定する。
+     *
+     * @param level ログレベル
+     * @return DEBUG以下の場合は{@code true}
+     */
+    private static boolean isDebugOrLower(final LogLevel level) {
+        return level == LogLevel.DEBUG || level == LogLevel.TRACE;
+    }
+
+    /**
+     * リングバッファに追加したログ。
+     */
+    private static final class PendingLog {
+
+        /** ログエントリ */
+        private final LogContext context;
+
+        /** ログを出力したスレッドの名前 */
+        private final String threadName;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param context ログエントリ
+         * @param threadName ログを出力したスレッドの名前
+         */
+        PendingLog(final LogContext context, final String threadName) {
+            this.context = context;
+            this.threadName = threadName;
+        }
+    }
+
+    /**
+     * 数値のプロパティを取得する。
+     *
+     * @param settings 設定
+     * @param propName プロパティ名
+     * @param defaultValue 指定されなかった場合の値
+     * @return プロパティの値
+     */
+    private static int getIntProp(final ObjectSettings settings, final String propName, final int defaultValue) {
+        final String value = settings.getProp(propName);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,109 @@
+package nablarch.core.log.basic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 複数のスレッドから追加し、単一のスレッドから取り出す、ロックを使用しない固定長のリングバッファ。
+ * <p/>
+ * スロットごとにシーケンス番号を持ち、追加側は末尾の位置をCASで確保する。
+ *
+ * @param <E> 要素の型
+ */
+class LogRingBuffer<E> {
+
+    /** 要素 */
+    private final AtomicReferenceArray<E> elements;
+
+    /** スロットごとのシーケンス番号 */
+    private final AtomicLongArray sequences;
+
+    /** インデックスのマスク */
+    private final int mask;
+
+    /** 次に追加する位置 */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** 次に取り出す位置(取り出し側のスレッドのみが更新する) */
+    private volatile long head;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param capacity 容量(2のべき乗に切り上げる)
+     */
+    LogRingBuffer(final int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        elements = new AtomicReferenceArray<E>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * 要素を追加する。
+     *
+     * @param element 要素
+     * @return 追加できた場合は{@code true}、満杯の場合は{@code false}
+     */
+    boolean offer(final E element) {
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) position & mask;
+            final long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 要素を取り出す。
+     * <p/>
+     * 取り出し側の単一のスレッドからのみ呼び出すこと。
+     *
+     * @return 要素(空の場合は{@code null})
+     */
+    E poll() {
+        final long position = head;
+        final int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        final E element = elements.get(index);
+        elements.lazySet(index, null);
+        sequences.lazySet(index, position + mask + 1);
+        head = position + 1;
+        return element;
+    }
+
+    /**
+     * これまでに追加された要素数を取得する。
+     *
+     * @return 追加された要素数
+     */
+    long getOfferedCount() {
+        return tail.get();
+    }
+
+    /**
+     * これまでに取り出された要素数を取得する。
+     *
+     * @return 取り出された要素数
+     */
+    long getPolledCount() {
+        return head;
+    }
+}
@@ -0,0 +1,876 @@
+package nablarch.core.repository.di.precompiled;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.di.ComponentFactory;
+
+/**
+ * コンポーネント設定ファイル(XML)から、コンポーネントを構築する{@link PrecompiledComponentLoader}のソースコードを生成するツール。
+ * <p/>
+ * ビルド時(テストクラスのコンパイル後)に実行し、生成したソースコードをコンパイルする。
+ * 設定値の型変換やインジェクションするsetterの解決は生成時に行うため、
+ * 生成したクラスは起動時にXMLの解析やリフレクションを行わない。
+ * <p/>
+ * 重複したコンポーネント名は後の定義で上書きする({@code DuplicateDefinitionPolicy.OVERRIDE}と同じ)。
+ * {@code autowireType}が省略された場合は、DIコンテナと同様に型によるインジェクション(インタフェース型のプロパティで、
+ * 型が一致するコンポーネントが1つだけ存在する場合にインジェクションする)を行う。
+ * <p/>
+ * 以下の定義を含む設定ファイルはサポートしない。サポートしない定義を含む設定ファイルは生成をスキップするため、
+ * 実行時はXMLから読み込むことになる。
+ * <ul>
+ *     <li>{@code config-file}、{@code map}要素、環境依存値({@code ${...}})</li>
+ *     <li>{@link ComponentFactory}を実装したコンポーネント</li>
+ *     <li>publicでないクラス、引数なしのpublicなコンストラクタを持たないクラス</li>
+ *     <li>{@code autowireType="ByName"}</li>
+ * </ul>
+ * 引数には、出力先ディレクトリと設定ファイルのパス(クラスパス上のパス、複数指定可)を指定する。
+ */
+public final class ComponentLoaderGenerator {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(ComponentLoaderGenerator.class);
+
+    /** 設定値の変換先として選択する型(優先順) */
+    private static final List<Class<?>> LITERAL_TYPES = Arrays.<Class<?>>asList(
+            String.class, int.class, Integer.class, long.class, Long.class, boolean.class, Boolean.class, String[].class);
+
+    /** 設定ファイルとクラスを読み込むクラスローダ */
+    private final ClassLoader classLoader;
+
+    /** 読み込んだ設定ファイル */
+    private final List<String> sourceFiles = new ArrayList<String>();
+
+    /** 全てのコンポーネント定義 */
+    private final List<Definition> definitions = new ArrayList<Definition>();
+
+    /** トップレベルのコンポーネント定義 */
+    private final List<Definition> topLevelDefinitions = new ArrayList<Definition>();
+
+    /** 名前付きのコンポーネント定義(重複した名前は後の定義で上書きする) */
+    private final Map<String, Definition> namedDefinitions = new LinkedHashMap<String, Definition>();
+
+    /**
+     * コンストラクタ。
+     *
+     * @param classLoader 設定ファイルとクラスを読み込むクラスローダ
+     */
+    ComponentLoaderGenerator(final ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * 引数で指定された設定ファイルから、ソースコードを生成する。
+     *
+     * @param args 出力先ディレクトリ、設定ファイルのパス(複数指定可)
+     * @throws IOException ソースコードの出力に失敗した場合
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException(
+                    "usage: ComponentLoaderGenerator <output directory> <component configuration file>...");
+        }
+        final File outputDir = new File(args[0]);
+        try {
+            for (int i = 1; i < args.length; i++) {
+                final String configFile = args[i];
+                final String source;
+                try {
+                    source = new ComponentLoaderGenerator(PrecompiledComponentLoader.getClassLoader()).generate(configFile);
+                } catch (IllegalStateException e) {
+                    // 生成できない設定ファイルは、実行時にXMLから読み込む
+                    LOGGER.logWarn("skipped precompiling component configuration. file = [" + configFile
+                            + "], cause = [" + e.getMessage() + ']');
+                    continue;
+                }
+                final String className = PrecompiledComponentLoader.classNameOf(configFile);
+                final File file = new File(outputDir, className.replace('.', File.separatorChar) + ".java");
+                write(file, source);
+                LOGGER.logInfo("precompiled component configuration. file = [" + configFile
+                        + "], class = [" + className + ']');
+            }
+        } finally {
+            // 非同期に出力するログを、終了前に出力する
+            LoggerManager.terminate();
+        }
+    }
+
+    /**
+     * 設定ファイルから、ソースコードを生成する。
+     *
+     * @param configFile 設定ファイルのパス
+     * @return ソースコード
+     * @throws IllegalStateException サポートしない定義を含む場合
+     */
+    String generate(final String configFile) {
+        parse(configFile);
+        final Set<Definition> live = collectLiveDefinitions();
+        for (Definition definition : live) {
+            for (Property property : definition.properties) {
+                property.setter = findSetter(definition, property);
+            }
+        }
+        for (Definition definition : live) {
+            if (definition.autowire) {
+                autowire(definition, live);
+            }
+        }
+        return new SourceWriter(configFile, live).write();
+    }
+
+    /**
+     * 設定ファイルを読み込む。インポートした設定ファイルは、インポートした位置で読み込む。
+     *
+     * @param file 設定ファイルのパス
+     */
+    private void parse(final String file) {
+        if (sourceFiles.contains(file)) {
+            return;
+        }
+        sourceFiles.add(file);
+        final Element root = readDocument(file).getDocumentElement();
+        for (Element element : childElements(root)) {
+            final String name = element.getNodeName();
+            if (name.equals("import")) {
+                parse(requiredAttribute(element, "file"));
+            } else if (name.equals("component")) {
+                topLevelDefinitions.add(parseComponent(element));
+            } else {
+                throw unsupported("element <" + name + "> in " + file);
+            }
+        }
+    }
+
+    /**
+     * 設定ファイルを読み込み、DOMを構築する。
+     *
+     * @param file 設定ファイルのパス
+     * @return DOM
+     */
+    private Document readDocument(final String file) {
+        final InputStream in = classLoader.getResourceAsStream(file);
+        if (in == null) {
+            throw new IllegalStateException("component configuration was not found. file = [" + file + ']');
+        }
+        try {
+            try {
+                return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+            } finally {
+                in.close();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("failed to parse component configuration. file = [" + file + ']', e);
+        } catch (SAXException e) {
+            throw new IllegalStateException("failed to parse component configuration. file = [" + file + ']', e);
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to read component configuration. file = [" + file + ']', e);
+        }
+    }
+
+    /**
+     * {@code component}要素を読み込む。
+     *
+     * @param element {@code component}要素
+     * @return コンポーネント定義
+     */
+    private Definition parseComponent(final Element element) {
+        final String className = requiredAttribute(element, "class");
+        final String name = optionalAttribute(element, "name");
+        final String autowireType = optionalAttribute(element, "autowireType");
+        if (autowireType != null && !autowireType.equals("ByType") && !autowireType.equals("None")) {
+            throw unsupported("autowireType [" + autowireType + "] of component [" + className + ']');
+        }
+        final Definition definition = new Definition(definitions.size(), name, loadComponentClass(className),
+                !"None".equals(autowireType));
+        definitions.add(definition);
+        if (name != null) {
+            namedDefinitions.put(name, definition);
+        }
+        for (Element child : childElements(element)) {
+            if (!child.getNodeName().equals("property")) {
+                throw unsupported("element <" + child.getNodeName() + "> in component [" + className + ']');
+            }
+            definition.properties.add(parseProperty(child));
+        }
+        return definition;
+    }
+
+    /**
+     * {@code property}要素を読み込む。
+     *
+     * @param element {@code property}要素
+     * @return プロパティ
+     */
+    private Property parseProperty(final Element element) {
+        final String name = requiredAttribute(element, "name");
+        final String value = optionalAttribute(element, "value");
+        final String ref = optionalAttribute(element, "ref");
+        final List<Element> children = childElements(element);
+        if (value != null && ref == null && children.isEmpty()) {
+            return new Property(name, literal(value));
+        }
+        if (ref != null && value == null && children.isEmpty()) {
+            return new Property(name, new Value(ValueType.REFERENCE, ref, null, null));
+        }
+        if (value == null && ref == null && children.size() == 1) {
+            final Element child = children.get(0);
+            if (child.getNodeName().equals("component")) {
+                return new Property(name, new Value(ValueType.COMPONENT, null, parseComponent(child), null));
+            }
+            if (child.getNodeName().equals("list") && child.getAttributes().getLength() == 0) {
+                return new Property(name, parseList(child));
+            }
+        }
+        throw unsupported("definition of property [" + name + ']');
+    }
+
+    /**
+     * {@code list}要素を読み込む。
+     *
+     * @param element {@code list}要素
+     * @return リストの値
+     */
+    private Value parseList(final Element element) {
+        final List<Value> elements = new ArrayList<Value>();
+        for (Element child : childElements(element)) {
+            final String name = child.getNodeName();
+            if (name.equals("component")) {
+                elements.add(new Value(ValueType.COMPONENT, null, parseComponent(child), null));
+            } else if (name.equals("component-ref")) {
+                elements.add(new Value(ValueType.REFERENCE, requiredAttribute(child, "name"), null, null));
+            } else if (name.equals("value")) {
+                elements.add(literal(child.getTextContent()));
+            } else {
+                throw unsupported("element <" + name + "> in list");
+            }
+        }
+        return new Value(ValueType.LIST, null, null, elements);
+    }
+
+    /**
+     * 設定値を生成する。
+     *
+     * @param value 設定値
+     * @return 設定値
+     */
+    private static Value literal(final String value) {
+        if (value.contains("${")) {
+            throw unsupported("environment configuration value [" + value + ']');
+        }
+        return new Value(ValueType.LITERAL, value, null, null);
+    }
+
+    /**
+     * コンポーネントのクラスを読み込む。
+     *
+     * @param className クラス名
+     * @return クラス
+     */
+    private Class<?> loadComponentClass(final String className) {
+        final Class<?> type;
+        try {
+            type = Class.forName(className, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("component class was not found. class = [" + className + ']', e);
+        }
+        if (ComponentFactory.class.isAssignableFrom(type)) {
+            throw unsupported("component factory [" + className + ']');
+        }
+        if (type.getCanonicalName() == null || Modifier.isAbstract(type.getModifiers()) || !isPublic(type)) {
+            throw unsupported("non-public or abstract component class [" + className + ']');
+        }
+        try {
+            type.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw unsupported("component class without public default constructor [" + className + ']');
+        }
+        return type;
+    }
+
+    /**
+     * コンポーネントを生成するコンポーネント定義を取得する。
+     * <p/>
+     * 上書きされていないトップレベルの定義と、その定義から参照される定義が対象となる。
+     *
+     * @return コンポーネント定義(定義順)
+     */
+    private Set<Definition> collectLiveDefinitions() {
+        final Set<Definition> live = new HashSet<Definition>();
+        for (Definition definition : topLevelDefinitions) {
+            if (definition.name == null || namedDefinitions.get(definition.name) == definition) {
+                markLive(definition, live);
+            }
+        }
+        final Set<Definition> ordered = new LinkedHashSet<Definition>();
+        for (Definition definition : definitions) {
+            if (live.contains(definition)) {
+                ordered.add(definition);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * コンポーネント定義と、その定義から参照される定義を生成対象とする。
+     *
+     * @param definition コンポーネント定義
+     * @param live 生成対象のコンポーネント定義
+     */
+    private void markLive(final Definition definition, final Set<Definition> live) {
+        if (!live.add(definition)) {
+            return;
+        }
+        for (Property property : definition.properties) {
+            markLive(property.value, live);
+        }
+    }
+
+    /**
+     * 値から参照されるコンポーネント定義を生成対象とする。
+     *
+     * @param value 値
+     * @param live 生成対象のコンポーネント定義
+     */
+    private void markLive(final Value value, final Set<Definition> live) {
+        switch (value.type) {
+            case REFERENCE:
+                markLive(resolve(value.text), live);
+                break;
+            case COMPONENT:
+                markLive(value.component, live);
+                break;
+            case LIST:
+                for (Value element : value.elements) {
+                    markLive(element, live);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 名前でコンポーネント定義を取得する。
+     *
+     * @param name コンポーネント名
+     * @return コンポーネント定義
+     */
+    private Definition resolve(final String name) {
+        final Definition definition = namedDefinitions.get(name);
+        if (definition == null) {
+            throw new IllegalStateException("referenced component was not found. name = [" + name + ']');
+        }
+        return definition;
+    }
+
+    /**
+     * プロパティに値を設定するsetterを取得する。
+     *
+     * @param definition コンポーネント定義
+     * @param property プロパティ
+     * @return setter
+     */
+    private Method findSetter(final Definition definition, final Property property) {
+        final String setterName = "set" + Character.toUpperCase(property.name.charAt(0)) + property.name.substring(1);
+        final List<Method> setters = new ArrayList<Method>();
+        for (Method method : definition.type.getMethods()) {
+            if (method.getName().equals(setterName) && method.getParameterTypes().length == 1
+                    && !Modifier.isStatic(method.getModifiers())) {
+                setters.add(method);
+            }
+        }
+        if (property.value.type == ValueType.LITERAL) {
+            // 設定値は、文字列、数値、真偽値、文字列の配列の順に変換先の型を選択する
+            for (Class<?> literalType : LITERAL_TYPES) {
+                for (Method setter : setters) {
+                    if (setter.getParameterTypes()[0] == literalType) {
+                        return setter;
+                    }
+                }
+            }
+        } else {
+            final Class<?> valueType = typeOf(property.value);
+            for (Method setter : setters) {
+                if (setter.getParameterTypes()[0].isAssignableFrom(valueType)) {
+                    return setter;
+                }
+            }
+        }
+        throw new IllegalStateException("setter was not found. component = [" + definition.type.getName()
+                + "], property = [" + property.name + ']');
+    }
+
+    /**
+     * 値の型を取得する。
+     *
+     * @param value 値
+     * @return 型
+     */
+    private Class<?> typeOf(final Value value) {
+        switch (value.type) {
+            case REFERENCE:
+                return resolve(value.text).type;
+            case COMPONENT:
+                return value.component.type;
+            default:
+                return ArrayList.class;
+        }
+    }
+
+    /**
+     * 型によるインジェクションを行うプロパティを追加する。
+     *
+     * @param definition コンポーネント定義
+     * @param live 生成対象のコンポーネント定義
+     */
+    private static void autowire(final Definition definition, final Set<Definition> live) {
+        final Set<String> explicit = new HashSet<String>();
+        for (Property property : definition.properties) {
+            explicit.add(property.name);
+        }
+        for (Method method : definition.type.getMethods()) {
+            final String methodName = method.getName();
+            if (!methodName.startsWith("set") || methodName.length() == 3 || method.getParameterTypes().length != 1
+                    || Modifier.isStatic(method.getModifiers()) || !method.getParameterTypes()[0].isInterface()) {
+                continue;
+            }
+            final String propertyName = Character.toLowerCase(methodName.charAt(3)) + methodName.substring(4);
+            if (explicit.contains(propertyName)) {
+                continue;
+            }
+            Definition candidate = null;
+            int candidates = 0;
+            for (Definition other : live) {
+                if (method.getParameterTypes()[0].isAssignableFrom(other.type)) {
+                    candidate = other;
+                    candidates++;
+                }
+            }
+            if (candidates == 1 && candidate != definition) {
+                final Property property = new Property(propertyName, new Value(ValueType.COMPONENT, null, candidate, null));
+                property.setter = method;
+                definition.properties.add(property);
+                explicit.add(propertyName);
+            }
+        }
+    }
+
+    /**
+     * 子要素を取得する。
+     *
+     * @param element 要素
+     * @return 子要素
+     */
+    private static List<Element> childElements(final Element element) {
+        final List<Element> children = new ArrayList<Element>();
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * 必須の属性を取得する。
+     *
+     * @param element 要素
+     * @param name 属性名
+     * @return 属性値
+     */
+    private static String requiredAttribute(final Element element, final String name) {
+        final String value = optionalAttribute(element, name);
+        if (value == null) {
+            throw new IllegalStateException("attribute [" + name + "] is required. element = [" + element.getNodeName() + ']');
+        }
+        return value;
+    }
+
+    /**
+     * 任意の属性を取得する。
+     *
+     * @param element 要素
+     * @param name 属性名
+     * @return 属性値(指定されていない場合は{@code null})
+     */
+    private static String optionalAttribute(final Element element, final String name) {
+        return element.hasAttribute(name) ? element.getAttribute(name) : null;
+    }
+
+    /**
+     * クラスがpublicで、外側のクラスからアクセスできるか否か。
+     *
+     * @param type クラス
+     * @return アクセスできる場合は{@code true}
+     */
+    private static boolean isPublic(final Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getEnclosingClass()) {
+            if (!Modifier.isPublic(c.getModifiers())
+                    || (c.getEnclosingClass() != null && !Modifier.isStatic(c.getModifiers()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * サポートしない定義であることを示す例外を生成する。
+     *
+     * @param definition 定義
+     * @return 例外
+     */
+    private static IllegalStateException unsupported(final String definition) {
+        return new IllegalStateException("unsupported definition: " + definition);
+    }
+
+    /**
+     * ソースコードをファイルに出力する。
+     *
+     * @param file 出力先
+     * @param source ソースコード
+     * @throws IOException 出力に失敗した場合
+     */
+    private static void write(final File file, final String source) throws IOException {
+        final File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("failed to create directory. dir = [" + dir + ']');
+        }
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(source);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * ソースコードを出力するクラス。
+     */
+    private final class SourceWriter {
+
+        /** 設定ファイルのパス */
+        private final String configFile;
+
+        /** 生成対象のコンポーネント定義 */
+        private final Set<Definition> live;
+
+        /** ソースコード */
+        private final StringBuilder source = new StringBuilder();
+
+        /** リストの変数の数 */
+        private int listCount;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param configFile 設定ファイルのパス
+         * @param live 生成対象のコンポーネント定義
+         */
+        SourceWriter(final String configFile, final Set<Definition> live) {
+            this.configFile = configFile;
+            this.live = live;
+        }
+
+        /**
+         * ソースコードを出力する。
+         *
+         * @return ソースコード
+         */
+        String write() {
+            final String className = PrecompiledComponentLoader.classNameOf(configFile);
+            final int dot = className.lastIndexOf('.');
+            if (dot >= 0) {
+                line("package " + className.substring(0, dot) + ";");
+                line("");
+            }
+            line("import java.util.ArrayList;");
+            line("import java.util.Arrays;");
+            line("import java.util.LinkedHashMap;");
+            line("import java.util.List;");
+            line("import java.util.Map;");
+            line("");
+            line("import nablarch.core.repository.di.precompiled.PrecompiledComponentLoader;");
+            line("");
+            line("/**");
+            line(" * {@code " + configFile + "}から生成した{@link PrecompiledComponentLoader}。");
+            line(" * <p/>");
+            line(" * {@link nablarch.core.repository.di.precompiled.ComponentLoaderGenerator}が生成したため、編集しないこと。");
+            line(" */");
+            line("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            line("public final class " + className.substring(dot + 1) + " extends PrecompiledComponentLoader {");
+            line("");
+            line("    @Override");
+            line("    protected List<String> getSourceFiles() {");
+            final StringBuilder files = new StringBuilder();
+            for (String file : sourceFiles) {
+                files.append(files.length() == 0 ? "" : ", ").append(quote(file));
+            }
+            line("        return Arrays.asList(" + files + ");");
+            line("    }");
+            line("");
+            line("    @Override");
+            line("    protected String getDigest() {");
+            line("        return " + quote(PrecompiledComponentLoader.digest(sourceFiles, classLoader)) + ";");
+            line("    }");
+            line("");
+            line("    @Override");
+            line("    public Map<String, Object> load() {");
+            for (Definition definition : live) {
+                final String typeName = definition.type.getCanonicalName();
+                line("        final " + typeName + ' ' + definition.variable() + " = new " + typeName + "();");
+            }
+            for (Definition definition : live) {
+                for (Property property : definition.properties) {
+                    final String value = expression(property.value, property.setter.getParameterTypes()[0]);
+                    line("        " + definition.variable() + '.' + property.setter.getName() + '(' + value + ");");
+                }
+            }
+            line("");
+            line("        final Map<String, Object> components = new LinkedHashMap<String, Object>();");
+            for (Map.Entry<String, Definition> entry : namedDefinitions.entrySet()) {
+                if (live.contains(entry.getValue())) {
+                    line("        components.put(" + quote(entry.getKey()) + ", " + entry.getValue().variable() + ");");
+                }
+            }
+            line("        return components;");
+            line("    }");
+            line("}");
+            return source.toString();
+        }
+
+        /**
+         * 値を表す式を取得する。リストの場合は、リストを構築するコードを出力した上で変数名を返す。
+         *
+         * @param value 値
+         * @param type 設定先の型
+         * @return 式
+         */
+        private String expression(final Value value, final Class<?> type) {
+            switch (value.type) {
+                case REFERENCE:
+                    return resolve(value.text).variable();
+                case COMPONENT:
+                    return value.component.variable();
+                case LIST:
+                    final String variable = "l" + listCount++;
+                    line("        final List " + variable + " = new ArrayList();");
+                    for (Value element : value.elements) {
+                        if (element.type == ValueType.LIST) {
+                            throw unsupported("nested list");
+                        }
+                        line("        " + variable + ".add(" + expression(element, String.class) + ");");
+                    }
+                    return variable;
+                default:
+                    return literalExpression(value.text, type);
+            }
+        }
+
+        /**
+         * 設定値を、設定先の型のリテラルに変換する。
+         *
+         * @param value 設定値
+         * @param type 設定先の型
+         * @return リテラル
+         */
+        private String literalExpression(final String value, final Class<?> type) {
+            if (type == String.class) {
+                return quote(value);
+            }
+            if (type == String[].class) {
+                final StringBuilder array = new StringBuilder("new String[] {");
+                final String[] elements = value.split(",");
+                for (int i = 0; i < elements.length; i++) {
+                    array.append(i == 0 ? "" : ", ").append(quote(elements[i].trim()));
+                }
+                return array.append('}').toString();
+            }
+            final String trimmed = value.trim();
+            try {
+                if (type == int.class || type == Integer.class) {
+                    return String.valueOf(Integer.parseInt(trimmed));
+                }
+                if (type == long.class || type == Long.class) {
+                    return Long.parseLong(trimmed) + "L";
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException("invalid number [" + value + ']', e);
+            }
+            if (trimmed.equals("true") || trimmed.equals("false")) {
+                return trimmed;
+            }
+            throw new IllegalStateException("invalid boolean [" + value + ']');
+        }
+
+        /**
+         * 文字列リテラルに変換する。
+         *
+         * @param value 文字列
+         * @return 文字列リテラル
+         */
+        private String quote(final String value) {
+            final StringBuilder quoted = new StringBuilder("\"");
+            for (char c : value.toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    quoted.append('\\').append(c);
+                } else if (c < 0x20 || c > 0x7e) {
+                    quoted.append(String.format("\\u%04x", (int) c));
+                } else {
+                    quoted.append(c);
+                }
+            }
+            return quoted.append('"').toString();
+        }
+
+        /**
+         * 1行出力する。
+         *
+         * @param line 行
+         */
+        private void line(final String line) {
+            source.append(line).append('\n');
+        }
+    }
+
+    /**
+     * 値の種類。
+     */
+    private enum ValueType {
+        /** 設定値 */
+        LITERAL,
+        /** コンポーネントの参照 */
+        REFERENCE,
+        /** ネストしたコンポーネント */
+        COMPONENT,
+        /** リスト */
+        LIST
+    }
+
+    /**
+     * プロパティに設定する値。
+     */
+    private static final class Value {
+
+        /** 値の種類 */
+        private final ValueType type;
+
+        /** 設定値または参照するコンポーネント名 */
+        private final String text;
+
+        /** ネストしたコンポーネントの定義 */
+        private final Definition component;
+
+        /** リストの要素 */
+        private final List<Value> elements;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param type 値の種類
+         * @param text 設定値または参照するコンポーネント名
+         * @param component ネストしたコンポーネントの定義
+         * @param elements リストの要素
+         */
+        Value(final ValueType type, final String text, final Definition component, final List<Value> elements) {
+            this.type = type;
+            this.text = text;
+            this.component = component;
+            this.elements = elements;
+        }
+    }
+
+    /**
+     * プロパティ。
+     */
+    private static final class Property {
+
+        /** プロパティ名 */
+        private final String name;
+
+        /** 値 */
+        private final Value value;
+
+        /** setter */
+        private Method setter;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param name プロパティ名
+         * @param value 値
+         */
+        Property(final String name, final Value value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    /**
+     * コンポーネント定義。
+     */
+    private static final class Definition {
+
+        /** 定義順の番号 */
+        private final int id;
+
+        /** コンポーネント名(名前がない場合は{@code null}) */
+        private final String name;
+
+        /** クラス */
+        private final Class<?> type;
+
+        /** 型によるインジェクションを行う場合は{@code true} */
+        private final boolean autowire;
+
+        /** プロパティ */
+        private final List<Property> properties = new ArrayList<Property>();
+
+        /**
+         * コンストラクタ。
+         *
+         * @param id 定義順の番号
+         * @param name コンポーネント名
+         * @param type クラス
+         * @param autowire 型によるインジェクションを行う場合は{@code true}
+         */
+        Definition(final int id, final String name, final Class<?> type, final boolean autowire) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+            this.autowire = autowire;
+        }
+
+        /**
+         * 生成したコンポーネントを保持する変数名を取得する。
+         *
+         * @return 変数名
+         */
+        String variable() {
+            return "c" + id;
+        }
+    }
+}
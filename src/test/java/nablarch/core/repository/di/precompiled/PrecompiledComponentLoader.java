@@ -0,0 +1,172 @@
+package nablarch.core.repository.di.precompiled;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.ObjectLoader;
+
+/**
+ * ビルド時にコンポーネント設定ファイル(XML)から生成した{@link ObjectLoader}の基底クラス。
+ * <p/>
+ * サブクラスは{@link ComponentLoaderGenerator}が生成する。
+ * 生成したクラスはXMLの解析やリフレクションを行わずにコンポーネントを構築するため、起動時間を短縮できる。
+ * <p/>
+ * 生成時の設定ファイルのダイジェストを保持し、{@link #find(String)}で取得する際に現在の設定ファイルと比較する。
+ * 設定ファイルが生成後に変更されていた場合は使用しない。
+ */
+public abstract class PrecompiledComponentLoader implements ObjectLoader {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(PrecompiledComponentLoader.class);
+
+    /** 生成するクラスの単純名の接尾辞 */
+    static final String CLASS_NAME_SUFFIX = "ComponentLoader";
+
+    /**
+     * 生成元の設定ファイルのパスを取得する。
+     *
+     * @return 設定ファイルのパス(インポートした設定ファイルを含む)
+     */
+    protected abstract List<String> getSourceFiles();
+
+    /**
+     * 生成時の設定ファイルのダイジェストを取得する。
+     *
+     * @return ダイジェスト
+     */
+    protected abstract String getDigest();
+
+    /**
+     * 生成元の設定ファイルが生成後に変更されていないか否か。
+     *
+     * @return 変更されていない場合は{@code true}
+     */
+    public boolean isUpToDate() {
+        return getDigest().equals(digest(getSourceFiles(), getClass().getClassLoader()));
+    }
+
+    /**
+     * 設定ファイルから生成した{@link PrecompiledComponentLoader}を取得する。
+     *
+     * @param configFile 設定ファイルのパス
+     * @return 生成した{@link PrecompiledComponentLoader}。生成されていない場合や、設定ファイルが生成後に変更されていた場合は{@code null}
+     */
+    public static PrecompiledComponentLoader find(final String configFile) {
+        final String className = classNameOf(configFile);
+        final Class<?> loaderClass;
+        try {
+            loaderClass = Class.forName(className, true, getClassLoader());
+        } catch (ClassNotFoundException e) {
+            LOGGER.logDebug("precompiled component loader was not found. class = [" + className + ']');
+            return null;
+        }
+        final PrecompiledComponentLoader loader;
+        try {
+            loader = (PrecompiledComponentLoader) loaderClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("failed to instantiate precompiled component loader. class = [" + className + ']', e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("failed to instantiate precompiled component loader. class = [" + className + ']', e);
+        }
+        if (!loader.isUpToDate()) {
+            LOGGER.logWarn("component configuration has been modified since precompiled. use xml configuration. file = ["
+                    + configFile + ']');
+            return null;
+        }
+        return loader;
+    }
+
+    /**
+     * 設定ファイルから生成するクラスの名前を取得する。
+     * <p/>
+     * 設定ファイルのディレクトリをパッケージとし、ファイル名をキャメルケースにした名前に{@value #CLASS_NAME_SUFFIX}を付与する。
+     * 例えば、{@code nablarch/fw/web/new-handler-queue-configuration.xml}の場合は
+     * {@code nablarch.fw.web.NewHandlerQueueConfigurationComponentLoader}となる。
+     *
+     * @param configFile 設定ファイルのパス
+     * @return 完全修飾クラス名
+     */
+    public static String classNameOf(final String configFile) {
+        final String path = configFile.startsWith("/") ? configFile.substring(1) : configFile;
+        final int slash = path.lastIndexOf('/');
+        String fileName = path.substring(slash + 1);
+        if (fileName.endsWith(".xml")) {
+            fileName = fileName.substring(0, fileName.length() - ".xml".length());
+        }
+        final StringBuilder name = new StringBuilder();
+        if (slash >= 0) {
+            name.append(path.substring(0, slash).replace('/', '.')).append('.');
+        }
+        final int start = name.length();
+        boolean upper = true;
+        for (char c : fileName.toCharArray()) {
+            if (!Character.isJavaIdentifierPart(c)) {
+                upper = true;
+                continue;
+            }
+            name.append(upper ? Character.toUpperCase(c) : c);
+            upper = false;
+        }
+        if (name.length() == start || !Character.isJavaIdentifierStart(name.charAt(start))) {
+            name.insert(start, 'C');
+        }
+        return name.append(CLASS_NAME_SUFFIX).toString();
+    }
+
+    /**
+     * 設定ファイルのダイジェストを計算する。
+     *
+     * @param files 設定ファイルのパス
+     * @param classLoader 設定ファイルを読み込むクラスローダ
+     * @return ダイジェスト(16進数)
+     */
+    static String digest(final List<String> files, final ClassLoader classLoader) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] buffer = new byte[8192];
+        for (String file : files) {
+            final InputStream in = classLoader.getResourceAsStream(file);
+            if (in == null) {
+                // 生成元の設定ファイルが存在しない場合は、どのダイジェストとも一致しない値とする
+                return "";
+            }
+            try {
+                try {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to read component configuration. file = [" + file + ']', e);
+            }
+            digest.update((byte) 0);
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 設定ファイルと生成したクラスを読み込むクラスローダを取得する。
+     *
+     * @return クラスローダ
+     */
+    static ClassLoader getClassLoader() {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader == null ? PrecompiledComponentLoader.class.getClassLoader() : classLoader;
+    }
+}
@@ -0,0 +1,44 @@
+package nablarch.core.repository.disposal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+
+/**
+ * 設定された{@link Disposable}を、アプリケーションの停止時に解放するクラス。
+ * <p/>
+ * 設定された順に解放する。解放に失敗したコンポーネントがあっても、後続のコンポーネントの解放は継続する。
+ * 停止時の呼び出しは{@code nablarch.fw.web.servlet.ApplicationDisposalListener}が行う。
+ */
+public class BasicApplicationDisposer {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(BasicApplicationDisposer.class);
+
+    /** 解放するコンポーネント */
+    private List<Disposable> disposableList = new ArrayList<Disposable>();
+
+    /**
+     * 解放するコンポーネントを設定する。
+     *
+     * @param disposableList 解放するコンポーネント
+     */
+    public void setDisposableList(final List<Disposable> disposableList) {
+        this.disposableList = disposableList;
+    }
+
+    /**
+     * 設定されたコンポーネントを解放する。
+     */
+    public void dispose() {
+        for (Disposable disposable : disposableList) {
+            try {
+                disposable.dispose();
+            } catch (Exception e) {
+                LOGGER.logWarn("failed to dispose component. component = [" + disposable.getClass().getName() + ']', e);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package nablarch.core.repository.disposal;
+
+/**
+ * アプリケーションの停止時に、保持しているリソース(スレッド、MBeanなど)を解放するコンポーネント。
+ * <p/>
+ * {@link BasicApplicationDisposer}に設定したコンポーネントが、停止時に解放される。
+ */
+public interface Disposable {
+
+    /**
+     * 保持しているリソースを解放する。
+     *
+     * @throws Exception 解放に失敗した場合
+     */
+    void dispose() throws Exception;
+}
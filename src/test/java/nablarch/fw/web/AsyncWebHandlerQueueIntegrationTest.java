@@ -0,0 +1,221 @@
+package nablarch.fw.web;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.MultipartContent;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import nablarch.fw.web.servlet.AsyncRequestExecutor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * 新ハンドラ構成のハンドラキューを、サーブレットの非同期処理を使用して
+ * コンテナのリクエストスレッドとは別のスレッドで実行した場合に、Nablarchが正しく動作することを確認する結合テストクラス。
+ * <p/>
+ * マルチパートリクエスト({@code /action/MultipartAction/*})を非同期処理の対象とする。
+ */
+@RunWith(Arquillian.class)
+public class AsyncWebHandlerQueueIntegrationTest extends WebHandlerQueueIntegrationTestSupport {
+
+    @Deployment
+    public static WebArchive createDeployment() {
+        return ShrinkWrap.create(WebArchive.class)
+                .setWebXML(new File("src/test/webapp/WEB-INF/async-handler-queue-web.xml"));
+    }
+
+    /**
+     * 非同期処理で、セッションに格納した情報が後続のリクエストで正しく復元できることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testAsync_session() throws Exception {
+        // NABLARCH_SIDやJSESSIONIDを生成するため、リクエストを送信
+        HttpRequest request = httpTransport.createRequestFactory()
+                .buildGetRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/PutSession")));
+        HttpResponse response = request.execute();
+        assertThat(response.getStatusCode(), is(200));
+
+        final MultipartContent content = createMultipartContent(folder.newFile("multipart.txt"));
+        final MultipartContent.Part part = new MultipartContent.Part(new ByteArrayContent(null, "AANrZXkAAAAQABBqYXZhLmxhbmcuU3RyaW5njmDwr5d2mkeZFXpTJHZGxg==".getBytes()));
+        part.setHeaders(new HttpHeaders().set("Content-Disposition", String.format("form-data; name=\"%s\"", "_HIDDEN_STORE_")));
+        content.addPart(part);
+
+        request = httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/GetSession")), content);
+        request.getHeaders().set("Cookie", response.getHeaders().get("Set-Cookie"));
+        response = request.execute();
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.parseAsString(), is("value"));
+    }
+
+    /**
+     * リクエストボディの送信が遅いアップロードが多数同時に行われた場合に、
+     * コンテナのリクエストスレッドではなく{@link AsyncRequestExecutor}のスレッドで処理されることを、同期処理と比較して確認するケース。
+     * <p/>
+     * 同期処理では、リクエストボディの受信を待つ間コンテナのリクエストスレッドが占有される。
+     * 非同期処理では、ハンドラキュー(リクエストボディの受信を含む)は全て{@link AsyncRequestExecutor}のスレッドで実行され、
+     * コンテナのリクエストスレッドはすぐに解放される。
+     * 同時に処理される数はコンテナや{@link AsyncRequestExecutor}のスレッド数とタイミングに依存するため、確認しない。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testAsync_slow_uploads() throws Exception {
+        final int clients = 32;
+        final File file = folder.newFile("multipart.txt");
+        final FileWriter writer = new FileWriter(file);
+        for (int i = 0; i < 100; i++) {
+            writer.write("test");
+        }
+        writer.close();
+
+        // 他のケースのリクエストの完了を待つ。
+        awaitServerLong("asyncRequestExecutor", "activeCount", 0);
+
+        // 同期処理:コンテナのリクエストスレッドで処理し、AsyncRequestExecutorは使用しない。
+        long completed = getServerLong("asyncRequestExecutor", "completedCount");
+        uploadSlowly("action/MultipartAction/SyncStreamUpload", file, clients);
+        assertThat(getServerLong("asyncRequestExecutor", "completedCount"), is(completed));
+
+        // 非同期処理:全てのアップロードがAsyncRequestExecutorのスレッドで処理される。
+        completed = getServerLong("asyncRequestExecutor", "completedCount");
+        uploadSlowly("action/MultipartAction/StreamUpload", file, clients);
+        // 完了数はレスポンスの送信後に加算されるため、実行中のリクエストがなくなるまで待つ。
+        awaitServerLong("asyncRequestExecutor", "activeCount", 0);
+        assertThat(getServerLong("asyncRequestExecutor", "completedCount"), is(completed + clients));
+        assertThat(getServerLong("asyncRequestExecutor", "rejectedCount"), is(0L));
+    }
+
+    /**
+     * リクエストボディの送信が遅いアップロードを、指定したクライアント数で同時に行い、全てのアップロードの完了を待つ。
+     *
+     * @param path リクエストパス
+     * @param file アップロードファイル
+     * @param clients クライアント数
+     * @throws Exception
+     */
+    private void uploadSlowly(final String path, final File file, final int clients) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(clients);
+        final List<Future<String>> results = new ArrayList<Future<String>>();
+        try {
+            for (int i = 0; i < clients; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        final HttpRequest request = httpTransport.createRequestFactory().buildPostRequest(
+                                new GenericUrl(new URL(baseUrl, path)),
+                                new SlowContent(createMultipartContent(file), 1000));
+                        request.setReadTimeout(60000);
+                        return request.execute().parseAsString();
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertThat(result.get(), is("400"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * サーバ側のコンポーネントの数値のプロパティが、期待する値になるまで待つ。
+     *
+     * @param component コンポーネント名
+     * @param property プロパティ名
+     * @param expected 期待する値
+     * @throws Exception
+     */
+    private void awaitServerLong(final String component, final String property, final long expected) throws Exception {
+        final long deadline = System.currentTimeMillis() + 5000;
+        long actual;
+        while ((actual = getServerLong(component, property)) != expected) {
+            if (System.currentTimeMillis() > deadline) {
+                assertThat(component + "." + property, actual, is(expected));
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * リクエストボディの前半を送信した後、指定した時間待ってから残りを送信する{@link HttpContent}。
+     */
+    private static final class SlowContent implements HttpContent {
+
+        /** 送信する内容 */
+        private final HttpContent content;
+
+        /** 待ち時間(ミリ秒) */
+        private final long delayMillis;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param content 送信する内容
+         * @param delayMillis 待ち時間(ミリ秒)
+         */
+        SlowContent(final HttpContent content, final long delayMillis) {
+            this.content = content;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public long getLength() throws IOException {
+            return content.getLength();
+        }
+
+        @Override
+        public String getType() {
+            return content.getType();
+        }
+
+        @Override
+        public boolean retrySupported() {
+            return false;
+        }
+
+        @Override
+        public void writeTo(final OutputStream out) throws IOException {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            content.writeTo(body);
+            final byte[] bytes = body.toByteArray();
+            out.write(bytes, 0, bytes.length / 2);
+            out.flush();
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            out.write(bytes, bytes.length / 2, bytes.length - bytes.length / 2);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,742 @@
+package nablarch.fw.web;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpMediaType;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.MultipartContent;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import nablarch.fw.web.app.MultipartAction;
+import nablarch.fw.web.instrumentation.HandlerInstrumentationMXBean;
+import nablarch.fw.web.instrumentation.HandlerStatistics;
+import nablarch.fw.web.upload.CountingMultipartParser;
+import nablarch.fw.web.upload.TempStorage;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.InflaterInputStream;
+
+import static junit.framework.TestCase.fail;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * 新ハンドラ構成に本モジュールで追加したハンドラを組み込んだ構成で、
+ * Nablarchが正しく動作することを確認する結合テストクラス。
+ * <p/>
+ * 標準ハンドラ構成には含まれないハンドラに依存するケースをこのクラスに追加していく。
+ */
+@RunWith(Arquillian.class)
+public class ExtendedWebHandlerQueueIntegrationTest extends WebHandlerQueueIntegrationTestSupport {
+
+    @Deployment
+    public static WebArchive createDeployment() {
+        return ShrinkWrap.create(WebArchive.class)
+                .setWebXML(new File("src/test/webapp/WEB-INF/extended-handler-queue-web.xml"));
+    }
+
+    /**
+     * ハンドラキューの各ハンドラの処理時間が、リクエストパスごとに計測されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testHandlerInstrumentation() throws Exception {
+        final HandlerInstrumentationMXBean mbean = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName("nablarch:type=HandlerInstrumentation,name=webFrontController"),
+                HandlerInstrumentationMXBean.class);
+        final File file = folder.newFile("multipart.txt");
+
+        // MBeanは最初のリクエストの処理時に登録されるため、一度リクエストを送信してから計測結果をクリアする。
+        final HttpRequest request = httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/Upload")), createMultipartContent(file));
+        assertThat(request.execute().parseAsString(), is("SUCCESS"));
+        mbean.reset();
+
+        final HttpResponse response = request.execute();
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.parseAsString(), is("SUCCESS"));
+
+        // 外側のハンドラはレスポンスの返却後に計測結果を記録するため、記録されるまで確認を繰り返す。
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            final HandlerStatistics errorHandler = findStatistics(mbean, "GlobalErrorHandler");
+            final HandlerStatistics mapping = findStatistics(mbean, "CachedHttpRequestJavaPackageMapping");
+            if (errorHandler != null && mapping != null) {
+                assertThat(errorHandler.getCount() >= 1, is(true));
+                assertThat(mapping.getCount() >= 1, is(true));
+                // 外側のハンドラの処理時間には、後続のハンドラの処理時間が含まれる。
+                assertThat(errorHandler.getWallTimeMax() >= mapping.getWallTimeMax(), is(true));
+                assertThat(errorHandler.getSelfWallTimeMean() <= errorHandler.getWallTimeMean(), is(true));
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail("handler statistics not recorded. statistics = " + mbean.getStatistics());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * 業務Actionが存在しないリクエストパスに対して、繰り返しNOT FOUNDが返却されることを確認するケース。
+     * <p/>
+     * 2回目以降のリクエストは、キャッシュした解決結果から404とする。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testDispatch_not_found() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                httpTransport.createRequestFactory()
+                        .buildGetRequest(new GenericUrl(new URL(baseUrl, "action/NoSuchAction/Index")))
+                        .execute();
+                fail("業務Actionが存在しないため、NOT FOUND(404)が送出される。");
+            } catch (final HttpResponseException e) {
+                assertThat(e.getStatusCode(), is(404));
+            }
+        }
+    }
+
+    /**
+     * マルチパートリクエストのパラメータの前後の空白(全角スペースを含む)が、{@link nablarch.fw.web.handler.FusedNormalizationHandler}で除去されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_normalization() throws Exception {
+        final MultipartContent content = new MultipartContent();
+        content.setMediaType(new HttpMediaType("multipart/form-data").setParameter("boundary", "__END_OF_PART__"));
+        final MultipartContent.Part part = new MultipartContent.Part(new ByteArrayContent(null, " \u3000value\t ".getBytes("UTF-8")));
+        part.setHeaders(new HttpHeaders().set("Content-Disposition", String.format("form-data; name=\"%s\"", "key")));
+        content.addPart(part);
+
+        final HttpRequest request = httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/Echo")), content);
+        final HttpResponse response = request.execute();
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.parseAsString(), is("value"));
+    }
+
+    /**
+     * Hiddenセッションの内容を変更しないリクエストでは、セッションの保存が省略されることを確認するケース。
+     * <p/>
+     * 値を格納し直すリクエストでは、保存が行われること。
+     * 保存の回数はサーバ側の{@link nablarch.common.web.session.store.DirtyTrackingHiddenStore}から取得する。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testSession_skip_saving_unchanged() throws Exception {
+        final long skipped = getServerLong("hiddenStore", "skippedSaves");
+        final long performed = getServerLong("hiddenStore", "performedSaves");
+
+        HttpResponse response = executeWithHiddenStore("action/MultipartAction/GetSession");
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.parseAsString(), is("value"));
+        assertThat(getServerLong("hiddenStore", "skippedSaves"), is(skipped + 1));
+        assertLogContains("hidden store is not changed. skipped saving. entries = [1]");
+
+        response = executeWithHiddenStore("action/MultipartAction/PutSession");
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(getServerLong("hiddenStore", "skippedSaves"), is(skipped + 1));
+        assertThat(getServerLong("hiddenStore", "performedSaves") > performed, is(true));
+    }
+
+    /**
+     * ヒープ外のメモリに保持するセッションストアに格納した値が、後続のリクエストで取得できることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testSession_off_heap_store() throws Exception {
+        final long hits = getServerLong("offHeapSessionStore", "hitCount");
+
+        HttpRequest request = httpTransport.createRequestFactory()
+                .buildGetRequest(new GenericUrl(new URL(baseUrl, "action/SessionAction/PutOffHeap")));
+        HttpResponse response = request.execute();
+        assertThat(response.getStatusCode(), is(200));
+
+        request = httpTransport.createRequestFactory()
+                .buildGetRequest(new GenericUrl(new URL(baseUrl, "action/SessionAction/GetOffHeap")));
+        request.getHeaders().set("Cookie", response.getHeaders().get("Set-Cookie"));
+        response = request.execute();
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.parseAsString(), is("offHeapValue"));
+        assertThat(getServerLong("offHeapSessionStore", "hitCount"), is(hits + 1));
+        assertThat(getServerLong("offHeapSessionStore", "usedBytes") > 0, is(true));
+    }
+
+    /**
+     * ヒープ外のメモリに保持するセッションストアに格納した順序を持つマップと日時が、
+     * 独自のバイナリ形式で直列化され、同じクラスと順序で後続のリクエストで取得できることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testSession_off_heap_store_compact_binary() throws Exception {
+        HttpRequest request = httpTransport.createRequestFactory()
+                .buildGetRequest(new GenericUrl(new URL(baseUrl, "action/SessionAction/PutOffHeapMap")));
+        HttpResponse response = request.execute();
+        assertThat(response.getStatusCode(), is(200));
+
+        request = httpTransport.createRequestFactory()
+                .buildGetRequest(new GenericUrl(new URL(baseUrl, "action/SessionAction/GetOffHeapMap")));
+        request.getHeaders().set("Cookie", response.getHeaders().get("Set-Cookie"));
+        response = request.execute();
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.parseAsString(), is("java.util.LinkedHashMap:[c, updated, a]:java.sql.Timestamp:123456789"));
+    }
+
+    /**
+     * Accept-Encodingに応じてレスポンスが圧縮され、閾値未満のレスポンスは圧縮されないことを確認するケース。
+     * <p/>
+     * 圧縮に使用する{@link java.util.zip.Deflater}が、リクエストごとに生成されないことも確認する。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testResponseCompression() throws Exception {
+        final GenericUrl url = new GenericUrl(new URL(baseUrl, "action/MultipartAction/Page?size=100000"));
+        final int expectedLength = 100000 + "<html><body><form><input type=\"hidden\" name=\"_HIDDEN_STORE_\" value=\"\"></form></body></html>".length();
+
+        // デフォルトでは「Accept-Encoding: gzip」が送信される。
+        HttpResponse response = httpTransport.createRequestFactory()
+                .buildGetRequest(url)
+                .execute();
+        assertThat(response.getContentEncoding(), is("gzip"));
+        assertThat(response.getHeaders().getFirstHeaderStringValue("Vary"), containsString("Accept-Encoding"));
+        assertThat(response.parseAsString().length(), is(expectedLength));
+
+        final long created = getServerLong("responseCompressionHandler", "deflaterPool.createdCount");
+        for (int i = 0; i < 10; i++) {
+            httpTransport.createRequestFactory().buildGetRequest(url).execute().parseAsString();
+        }
+        assertThat(getServerLong("responseCompressionHandler", "deflaterPool.createdCount"), is(created));
+
+        HttpRequest request = httpTransport.createRequestFactory().buildGetRequest(url);
+        request.getHeaders().setAcceptEncoding("deflate");
+        response = request.execute();
+        assertThat(response.getContentEncoding(), is("deflate"));
+        final InputStream inflated = new InflaterInputStream(response.getContent());
+        int length = 0;
+        try {
+            while (inflated.read() != -1) {
+                length++;
+            }
+        } finally {
+            inflated.close();
+        }
+        assertThat(length, is(expectedLength));
+
+        request = httpTransport.createRequestFactory().buildGetRequest(url);
+        request.getHeaders().setAcceptEncoding("identity");
+        response = request.execute();
+        assertThat(response.getContentEncoding(), is(nullValue()));
+        assertThat(response.parseAsString().length(), is(expectedLength));
+
+        // 閾値未満のレスポンスは圧縮しない。
+        response = httpTransport.createRequestFactory()
+                .buildGetRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/Page?size=10")))
+                .execute();
+        assertThat(response.getContentEncoding(), is(nullValue()));
+    }
+
+    /**
+     * 圧縮するレスポンスのバッファがプールから取得され、リクエストの終了時までに返却されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testBufferPool() throws Exception {
+        final GenericUrl url = new GenericUrl(new URL(baseUrl, "action/MultipartAction/Page?size=100000"));
+        final long leaks = getServerLong("bufferPoolHandler", "bufferPool.leakCount");
+        final long acquired = getServerLong("bufferPoolHandler", "bufferPool.acquireCount");
+
+        for (int i = 0; i < 10; i++) {
+            final HttpResponse response = httpTransport.createRequestFactory()
+                    .buildGetRequest(url)
+                    .execute();
+            assertThat(response.getContentEncoding(), is("gzip"));
+            response.parseAsString();
+        }
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName("nablarch:type=BufferPool,name=bufferPool")), is(true));
+        assertThat(getServerLong("bufferPoolHandler", "bufferPool.acquireCount") - acquired >= 20, is(true));
+        assertThat(Double.parseDouble(getServerProperty("bufferPoolHandler", "bufferPool.hitRate")) > 0, is(true));
+
+        // バッファはレスポンスの送信後に返却されるため、返却されるまで確認を繰り返す。
+        final long deadline = System.currentTimeMillis() + 5000;
+        long outstanding;
+        while ((outstanding = getServerLong("bufferPoolHandler", "bufferPool.outstandingCount")) != 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("buffers not released. outstanding = " + outstanding);
+            }
+            Thread.sleep(10);
+        }
+        assertThat(getServerLong("bufferPoolHandler", "bufferPool.leakCount"), is(leaks));
+    }
+
+    /**
+     * アップロードしたファイルが、業務Actionの実行前に設定したプロセッサで処理されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_part_processors() throws Exception {
+        final File file = folder.newFile("image.png");
+        final byte[] content = "\u0089PNG\r\n\u001a\ndummy image".getBytes("ISO-8859-1");
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(content);
+        out.close();
+        final StringBuilder checksum = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+            checksum.append(String.format("%02x", b));
+        }
+
+        final com.google.api.client.http.HttpResponse response = httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/Inspect")), createMultipartContent(file))
+                .execute();
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.parseAsString(), is(checksum + ":image/png"));
+        assertThat(new File(MultipartAction.getUploadDir(), "uploadFile").length(), is((long) content.length));
+    }
+
+    /**
+     * ストリーミングモードで、パート数が上限を超えた場合に、
+     * REQUEST ENTITY TOO LARGEが返却されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_streaming_too_many_parts() throws Exception {
+        try {
+            final HttpRequest request = httpTransport.createRequestFactory()
+                    .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/StreamUpload")), createFieldsContent(20, 10, 10));
+            request.execute();
+            fail("パート数が上限を超えたため、REQUEST ENTITY TOO LARGE(413)が送出される。");
+        } catch (final HttpResponseException e) {
+            assertThat(e.getStatusCode(), is(413));
+        }
+    }
+
+    /**
+     * ストリーミングモードで、パラメータのサイズが上限を超えた場合に、
+     * REQUEST ENTITY TOO LARGEが返却されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_streaming_too_large_field() throws Exception {
+        try {
+            final HttpRequest request = httpTransport.createRequestFactory()
+                    .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/StreamUpload")), createFieldsContent(1, 10, 2000));
+            request.execute();
+            fail("パラメータのサイズが上限を超えたため、REQUEST ENTITY TOO LARGE(413)が送出される。");
+        } catch (final HttpResponseException e) {
+            assertThat(e.getStatusCode(), is(413));
+        }
+    }
+
+    /**
+     * ストリーミングモードで、パートのヘッダのサイズが上限を超えた場合に、
+     * BAD REQUESTが返却されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_streaming_too_large_header() throws Exception {
+        try {
+            final HttpRequest request = httpTransport.createRequestFactory()
+                    .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/StreamUpload")), createFieldsContent(1, 2000, 10));
+            request.execute();
+            fail("パートのヘッダのサイズが上限を超えたため、BAD REQUEST(400)が送出される。");
+        } catch (final HttpResponseException e) {
+            assertThat(e.getStatusCode(), is(400));
+        }
+    }
+
+    /**
+     * 大量のパートを送信するクライアントと、アップロードを行うクライアントが同時に接続した場合に、
+     * 上限を超えたリクエストのみが拒否され、一時ファイルのサイズと読み込みバッファのサイズが上限内に収まることを確認するケース。
+     * <p/>
+     * アップロードを行うクライアントは、同時に送信するリクエストのサイズの合計が
+     * 一時ファイルを作成する処理中のリクエストの合計サイズの上限(10000バイト)を超えない数とする。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_abusive_clients() throws Exception {
+        final File file = folder.newFile("multipart.txt");
+        final FileWriter writer = new FileWriter(file);
+        for (int i = 0; i < 100; i++) {
+            writer.write("test");
+        }
+        writer.close();
+
+        final int floodClients = 32;
+        final int uploadClients = 4;
+        final ExecutorService floodExecutor = Executors.newFixedThreadPool(floodClients);
+        final ExecutorService uploadExecutor = Executors.newFixedThreadPool(uploadClients);
+        final List<Future<Integer>> floods = new ArrayList<Future<Integer>>();
+        final List<Future<Integer>> uploads = new ArrayList<Future<Integer>>();
+        try {
+            for (int i = 0; i < 160; i++) {
+                floods.add(floodExecutor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return execute(httpTransport.createRequestFactory().buildPostRequest(
+                                new GenericUrl(new URL(baseUrl, "action/MultipartAction/StreamUpload")), createFieldsContent(100, 10, 10)));
+                    }
+                }));
+                uploads.add(uploadExecutor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return execute(httpTransport.createRequestFactory().buildPostRequest(
+                                new GenericUrl(new URL(baseUrl, "action/MultipartAction/Upload")), createMultipartContent(file)));
+                    }
+                }));
+            }
+            // 大量のパートを送信したリクエストはパート数の上限を超えるため413、アップロードは全て成功する。
+            for (Future<Integer> flood : floods) {
+                assertThat(flood.get(), is(413));
+            }
+            for (Future<Integer> upload : uploads) {
+                assertThat(upload.get(), is(200));
+            }
+        } finally {
+            floodExecutor.shutdownNow();
+            uploadExecutor.shutdownNow();
+        }
+
+        assertThat(getServerLong("multipartHandler", "peakInFlightBytes") <= 10000, is(true));
+        awaitInFlightBytesReleased();
+        // 読み込みバッファは同時に接続したクライアントの数までしか保持しない。
+        // プールから取得するバッファの容量は、最小の容量(64KB)の2倍未満となる。
+        final long peakBufferedBytes = getServerLong("multipartHandler", "peakBufferedBytes");
+        assertThat("peak buffered bytes: " + peakBufferedBytes,
+                peakBufferedBytes <= (long) floodClients * 2 * 64 * 1024, is(true));
+        assertThat(getServerLong("multipartHandler", "bufferedBytes"), is(0L));
+    }
+
+    /**
+     * ストリーミングモードで、数百MBのファイルが一時ファイルを経由せずにアップロードされることを確認するケース。
+     * <p/>
+     * 一時ファイルへの書き込みが発生しないこと、及びリクエストボディが読み込みバッファを経由して転送され、
+     * ボディ全体がヒープ上に保持されないことを確認する。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_streaming() throws Exception {
+        final long fileSize = 300L * 1024 * 1024;
+        final File file = createSparseFile("multipart.txt", fileSize);
+        final CountingMultipartParser parser = new CountingMultipartParser();
+        final long streamed = getServerLong("multipartHandler", "streamedBytes");
+
+        final HttpRequest request = httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/StreamUpload")), createMultipartContent(file));
+        final com.google.api.client.http.HttpResponse response = request.execute();
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.parseAsString(), is(String.valueOf(fileSize)));
+        assertThat(new File(MultipartAction.getUploadDir(), "uploadFile").length(), is(fileSize));
+
+        // 一時ファイルへの書き込みは行われない。
+        assertThat(parser.getWriteCount(), is(0));
+        // リクエストボディは全て読み込みバッファを経由して読み込まれる。
+        assertThat(getServerLong("multipartHandler", "streamedBytes") - streamed >= fileSize, is(true));
+        // 読み込みバッファとして保持するサイズは、アップロードしたファイルのサイズに比べてごく小さい。
+        final long peakBufferedBytes = getServerLong("multipartHandler", "peakBufferedBytes");
+        assertThat("peak buffered bytes: " + peakBufferedBytes, peakBufferedBytes < fileSize / 100, is(true));
+        assertThat(getServerLong("multipartHandler", "bufferedBytes"), is(0L));
+    }
+
+    /**
+     * ストリーミングモードで、ファイルより前に送信されたフォームのフィールドが、
+     * 業務Actionの実行前にリクエストパラメータとして読み込まれることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_streaming_leading_fields() throws Exception {
+        final File file = folder.newFile("multipart.txt");
+        final FileWriter writer = new FileWriter(file);
+        for (int i = 0; i < 100; i++) {
+            writer.write("test");
+        }
+        writer.close();
+
+        final HttpRequest request = httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/StreamEcho")), createMultipartContent(file));
+        final com.google.api.client.http.HttpResponse response = request.execute();
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.parseAsString(), is("value:400"));
+    }
+
+    /**
+     * ストリーミングモードで、ヘッダのないパートを含む場合に、
+     * BAD REQUESTが返却されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_streaming_no_headers() throws Exception {
+        final String body = "--__END_OF_PART__\r\n"
+                + "\r\n"
+                + "value\r\n"
+                + "--__END_OF_PART__--\r\n";
+        try {
+            final HttpRequest request = httpTransport.createRequestFactory()
+                    .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/StreamUpload")),
+                            new ByteArrayContent("multipart/form-data; boundary=__END_OF_PART__", body.getBytes("UTF-8")));
+            request.execute();
+            fail("パラメータ名のないパートを含むため、BAD REQUEST(400)が送出される。");
+        } catch (final HttpResponseException e) {
+            assertThat(e.getStatusCode(), is(400));
+        }
+    }
+
+    /**
+     * ストリーミングモードで、マルチパートリクエストにboundaryが設定されていない場合に、
+     * BAD REQUESTが返却されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_streaming_nothing_boundary() throws Exception {
+        final File file = folder.newFile("multipart.txt");
+        try {
+            final HttpRequest request = httpTransport.createRequestFactory()
+                    .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/StreamUpload")), createCustomMultipartContent(file));
+            request.execute();
+            fail("boundaryが設定されていないため、BAD REQUEST(400)が送出される。");
+        } catch (final HttpResponseException e) {
+            assertThat(e.getStatusCode(), is(400));
+        }
+    }
+
+    /**
+     * ストリーミングモードで{@link TempStorage}に保存したパートが、
+     * サイズに応じてヒープ上または一時ファイルに保持され、移動できることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_temp_storage() throws Exception {
+        final File uploadFile = new File(MultipartAction.getUploadDir(), "uploadFile");
+
+        // 小さなパートはヒープ上に保持する。
+        final File small = folder.newFile("small.txt");
+        final FileWriter writer = new FileWriter(small);
+        for (int i = 0; i < 100; i++) {
+            writer.write("test");
+        }
+        writer.close();
+        HttpRequest request = httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/StreamStore")), createMultipartContent(small));
+        assertThat(request.execute().parseAsString(), is("400:true"));
+        assertThat(uploadFile.length(), is(400L));
+
+        // 上限を超えるパートは一時ファイルに保持し、リネームで移動する。
+        request = httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/StreamStore")), createMultipartContent(createSparseFile("medium.txt", 5000)));
+        assertThat(request.execute().parseAsString(), is("5000:false"));
+        assertThat(uploadFile.length(), is(5000L));
+
+        assertThat(getServerLong("tempStorage", "inMemoryBytes"), is(0L));
+        // 移動した時点で、一時ファイルのために予約したサイズは解放される。
+        awaitInFlightBytesReleased();
+    }
+
+    /**
+     * ストリーミングモードで{@link TempStorage}に保存するパートの一時ファイルのサイズが、
+     * 一時ファイルを作成する処理中のリクエストの合計サイズの上限(10000バイト)の対象となることを確認するケース。
+     * <p/>
+     * 上限を超えるパートはREQUEST ENTITY TOO LARGEとなり、書き込んだ一時ファイルの分の予約は解放されること。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_temp_storage_quota() throws Exception {
+        try {
+            httpTransport.createRequestFactory()
+                    .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/StreamStore")), createMultipartContent(createLargeFile("large.txt")))
+                    .execute();
+            fail("一時ファイルのサイズが上限を超えたため、REQUEST ENTITY TOO LARGE(413)が送出される。");
+        } catch (final HttpResponseException e) {
+            assertThat(e.getStatusCode(), is(413));
+        }
+        assertThat(getServerLong("multipartHandler", "peakInFlightBytes") <= 10000, is(true));
+        awaitInFlightBytesReleased();
+        assertThat(new File(MultipartAction.getUploadDir(), "uploadFile").exists(), is(false));
+    }
+
+    /**
+     * 業務Actionで移動されなかった一時ファイルが、リクエストスレッドではなく{@link TempStorage}のリーパーで処理されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_async_cleaning() throws Exception {
+        final long reaped = getServerLong("tempStorage", "reapedCount");
+        final File file = folder.newFile("multipart.txt");
+
+        final HttpRequest request = httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/Echo")), createMultipartContent(file));
+        final com.google.api.client.http.HttpResponse response = request.execute();
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.parseAsString(), is("value"));
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (getServerLong("tempStorage", "reapedCount") == reaped || getServerLong("tempStorage", "tempDiskBytes") > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("temp file not reaped. temp disk bytes = [" + getServerLong("tempStorage", "tempDiskBytes") + ']');
+            }
+            Thread.sleep(10);
+        }
+        assertThat(getServerLong("tempStorage", "pendingReapCount"), is(0L));
+        assertThat(getServerLong("tempStorage", "reapLatency.count") > 0, is(true));
+    }
+
+    /**
+     * {@link FileHttpResponse}で返却したファイルが、Rangeリクエストに応じて部分的にダウンロードできることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testDownload_range() throws Exception {
+        final FileWriter writer = new FileWriter(new File(MultipartAction.getUploadDir(), "uploadFile"));
+        writer.write("0123456789");
+        writer.close();
+        final GenericUrl url = new GenericUrl(new URL(baseUrl, "action/MultipartAction/Download"));
+
+        com.google.api.client.http.HttpResponse response = httpTransport.createRequestFactory()
+                .buildGetRequest(url)
+                .execute();
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.getHeaders().getFirstHeaderStringValue("Accept-Ranges"), is("bytes"));
+        assertThat(response.getHeaders().getContentLength(), is(10L));
+        assertThat(response.parseAsString(), is("0123456789"));
+
+        HttpRequest request = httpTransport.createRequestFactory().buildGetRequest(url);
+        request.getHeaders().setRange("bytes=1-3");
+        response = request.execute();
+        assertThat(response.getStatusCode(), is(206));
+        assertThat(response.getHeaders().getContentRange(), is("bytes 1-3/10"));
+        assertThat(response.parseAsString(), is("123"));
+
+        request = httpTransport.createRequestFactory().buildGetRequest(url);
+        request.getHeaders().setRange("bytes=-4");
+        response = request.execute();
+        assertThat(response.getStatusCode(), is(206));
+        assertThat(response.getHeaders().getContentRange(), is("bytes 6-9/10"));
+        assertThat(response.parseAsString(), is("6789"));
+
+        try {
+            request = httpTransport.createRequestFactory().buildGetRequest(url);
+            request.getHeaders().setRange("bytes=10-");
+            request.execute();
+            fail("範囲がファイルサイズを超えるため、REQUESTED RANGE NOT SATISFIABLE(416)が送出される。");
+        } catch (final HttpResponseException e) {
+            assertThat(e.getStatusCode(), is(416));
+            assertThat(e.getHeaders().getContentRange(), is("bytes */10"));
+        }
+    }
+
+    /**
+     * Hiddenセッションの値をパラメータに設定したマルチパートリクエストを送信する。
+     *
+     * @param path リクエストパス
+     * @return レスポンス
+     * @throws Exception
+     */
+    private HttpResponse executeWithHiddenStore(final String path) throws Exception {
+        final MultipartContent content = createMultipartContent(folder.newFile());
+        final MultipartContent.Part part = new MultipartContent.Part(new ByteArrayContent(null, "AANrZXkAAAAQABBqYXZhLmxhbmcuU3RyaW5njmDwr5d2mkeZFXpTJHZGxg==".getBytes()));
+        part.setHeaders(new HttpHeaders().set("Content-Disposition", String.format("form-data; name=\"%s\"", "_HIDDEN_STORE_")));
+        content.addPart(part);
+        return httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, path)), content)
+                .execute();
+    }
+
+    /**
+     * 一時ファイルを作成する処理中のリクエストの合計サイズ(予約済みのサイズ)が、全て解放されるまで待つ。
+     * <p/>
+     * 一時ファイルはレスポンスの返却後にリーパーで処理されるため、解放されるまで確認を繰り返す。
+     * @throws Exception
+     */
+    private void awaitInFlightBytesReleased() throws Exception {
+        final long deadline = System.currentTimeMillis() + 5000;
+        long inFlightBytes;
+        while ((inFlightBytes = getServerLong("multipartHandler", "inFlightBytes")) > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("in-flight bytes not released. in-flight bytes = [" + inFlightBytes + ']');
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * リクエストを送信し、ステータスコードを取得する。
+     *
+     * @param request リクエスト
+     * @return ステータスコード
+     * @throws Exception
+     */
+    private static int execute(final HttpRequest request) throws Exception {
+        try {
+            return request.execute().getStatusCode();
+        } catch (final HttpResponseException e) {
+            return e.getStatusCode();
+        }
+    }
+
+    /**
+     * アップロードのリクエストパスで計測された、指定したハンドラの統計値を取得する。
+     *
+     * @param mbean {@link HandlerInstrumentationMXBean}
+     * @param handlerName ハンドラ名
+     * @return 統計値(計測されていない場合は{@code null})
+     */
+    private static HandlerStatistics findStatistics(final HandlerInstrumentationMXBean mbean, final String handlerName) {
+        for (HandlerStatistics statistics : mbean.getStatistics()) {
+            if (statistics.getPath().endsWith("/MultipartAction/Upload")
+                    && statistics.getHandlerName().equals(handlerName)) {
+                return statistics;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,84 @@
+package nablarch.fw.web;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import nablarch.fw.web.app.MultipartAction;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * ウェブアプリケーションにおける、新ハンドラ構成に本モジュールで追加したハンドラを組み込んだ構成の負荷テストクラス。
+ * <p/>
+ * デプロイメントは{@link ExtendedWebHandlerQueueIntegrationTest}と同一とする。
+ */
+@RunWith(Arquillian.class)
+public class ExtendedWebHandlerQueueLoadTest extends WebHandlerQueueLoadTestSupport {
+
+    @Deployment
+    public static WebArchive createDeployment() {
+        return ExtendedWebHandlerQueueIntegrationTest.createDeployment();
+    }
+
+    @Override
+    protected String defaultRequestMix() {
+        return "streamUpload=1,echo=2,putSession=1,getSession=4";
+    }
+
+    /**
+     * 2GBを超えるファイルが、ダウンロードできることを確認するケース。
+     * <p/>
+     * ファイル全体が{@link nablarch.fw.web.handler.FileHttpResponseHandler}によってレスポンスに書き込まれることを確認する。
+     * 2GBのファイルを転送するため、結合テストではなく負荷テストとして実行する。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testDownload_large_file() throws Exception {
+        final long written = getServerLong("fileHttpResponseHandler", "writtenBytes");
+        final long fileSize = (2L << 30) + 4096;
+        final File uploadFile = new File(MultipartAction.getUploadDir(), "uploadFile");
+        final RandomAccessFile file = new RandomAccessFile(uploadFile, "rw");
+        try {
+            file.setLength(fileSize);
+        } finally {
+            file.close();
+        }
+
+        try {
+            final HttpResponse response = httpTransport.createRequestFactory()
+                    .buildGetRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/Download")))
+                    .setReadTimeout(0)
+                    .execute();
+            assertThat(response.getStatusCode(), is(200));
+            assertThat(response.getHeaders().getContentLength(), is(fileSize));
+
+            long received = 0;
+            final byte[] buffer = new byte[65536];
+            final InputStream content = response.getContent();
+            try {
+                for (int read = content.read(buffer); read != -1; read = content.read(buffer)) {
+                    received += read;
+                }
+            } finally {
+                content.close();
+            }
+            assertThat(received, is(fileSize));
+            assertThat(getServerLong("fileHttpResponseHandler", "writtenBytes") - written, is(fileSize));
+        } finally {
+            uploadFile.delete();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package nablarch.fw.web;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * ファイルの内容をボディとする{@link HttpResponse}。
+ * <p/>
+ * ボディはヒープに読み込まず、{@link nablarch.fw.web.handler.FileHttpResponseHandler}が
+ * 固定長のバッファを経由してレスポンスに転送する。
+ * このため、本クラスを返す業務Actionのハンドラキューには{@link nablarch.fw.web.handler.FileHttpResponseHandler}を設定すること。
+ * <p/>
+ * ファイルを指定した場合は、転送時にファイルを開き、転送後に閉じる。
+ * {@link FileChannel}を指定した場合は、指定された範囲を転送し、転送後に閉じる。
+ * Content-Typeのデフォルトは{@code application/octet-stream}。
+ */
+public class FileHttpResponse extends HttpResponse {
+
+    /** ボディとするファイル({@link FileChannel}を指定した場合は{@code null}) */
+    private final File file;
+
+    /** ボディとする{@link FileChannel}(ファイルを指定した場合は{@code null}) */
+    private final FileChannel channel;
+
+    /** ボディの開始位置 */
+    private final long position;
+
+    /** ボディの長さ(ファイルの末尾までの場合は-1) */
+    private final long length;
+
+    /**
+     * ファイル全体をボディとするレスポンスを生成する。
+     *
+     * @param file ファイル
+     */
+    public FileHttpResponse(final File file) {
+        this(file, null, 0, -1);
+    }
+
+    /**
+     * {@link FileChannel}の指定された範囲をボディとするレスポンスを生成する。
+     *
+     * @param channel {@link FileChannel}
+     * @param position ボディの開始位置
+     * @param length ボディの長さ
+     */
+    public FileHttpResponse(final FileChannel channel, final long position, final long length) {
+        this(null, channel, position, length);
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("position and length must not be negative. position = ["
+                    + position + "], length = [" + length + ']');
+        }
+    }
+
+    /**
+     * コンストラクタ。
+     *
+     * @param file ファイル
+     * @param channel {@link FileChannel}
+     * @param position ボディの開始位置
+     * @param length ボディの長さ
+     */
+    private FileHttpResponse(final File file, final FileChannel channel, final long position, final long length) {
+        super(200);
+        this.file = file;
+        this.channel = channel;
+        this.position = position;
+        this.length = length;
+        setContentType("application/octet-stream");
+    }
+
+    /**
+     * ボディを読み込む{@link FileChannel}を取得する。ファイルを指定した場合は、ファイルを開く。
+     *
+     * @return {@link FileChannel}
+     * @throws java.io.FileNotFoundException ファイルが存在しない場合
+     * @throws IOException ファイルを開けない場合
+     */
+    public FileChannel openChannel() throws IOException {
+        if (channel != null) {
+            return channel;
+        }
+        return new FileInputStream(file).getChannel();
+    }
+
+    /**
+     * ボディの開始位置を取得する。
+     *
+     * @return ボディの開始位置
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * ボディの長さを取得する。
+     *
+     * @param opened {@link #openChannel()}で取得した{@link FileChannel}
+     * @return ボディの長さ
+     * @throws IOException ファイルのサイズを取得できない場合
+     */
+    public long getLength(final FileChannel opened) throws IOException {
+        return length >= 0 ? length : Math.max(opened.size() - position, 0);
+    }
+}
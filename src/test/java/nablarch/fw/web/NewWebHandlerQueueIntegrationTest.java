@@ -3,6 +3,7 @@ package nablarch.fw.web;
 import com.google.api.client.http.ByteArrayContent;
 import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpMediaType;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.MultipartContent;
@@ -14,10 +15,23 @@ import org.jboss.shrinkwrap.api.spec.WebArchive;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import nablarch.core.repository.di.DiContainer;
+import nablarch.core.repository.di.config.DuplicateDefinitionPolicy;
+import nablarch.core.repository.di.config.xml.XmlComponentDefinitionLoader;
+import nablarch.core.repository.di.precompiled.PrecompiledComponentLoader;
+
 import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.net.URL;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -70,5 +84,105 @@ public class NewWebHandlerQueueIntegrationTest extends WebHandlerQueueIntegratio
         assertThat(response.getStatusCode(), is(200));
         assertThat(response.parseAsString(), is("value"));
     }
-}
 
+    /**
+     * マルチパートリクエストのパラメータの前後の空白が除去されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testMultipart_normalization() throws Exception {
+        final MultipartContent content = new MultipartContent();
+        content.setMediaType(new HttpMediaType("multipart/form-data").setParameter("boundary", "__END_OF_PART__"));
+        final MultipartContent.Part part = new MultipartContent.Part(new ByteArrayContent(null, " \tvalue\r\n ".getBytes("UTF-8")));
+        part.setHeaders(new HttpHeaders().set("Content-Disposition", String.format("form-data; name=\"%s\"", "key")));
+        content.addPart(part);
+
+        final HttpRequest request = httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/Echo")), content);
+        final HttpResponse response = request.execute();
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.parseAsString(), is("value"));
+    }
+
+    /**
+     * ビルド時に設定ファイルから生成したクラスで構築したコンポーネントが、
+     * 設定ファイル(XML)から構築したコンポーネントとクラス・プロパティの値ともに一致することを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testPrecompiledComponentLoader() throws Exception {
+        final String configFile = "nablarch/fw/web/new-handler-queue-configuration.xml";
+        final PrecompiledComponentLoader loader = PrecompiledComponentLoader.find(configFile);
+        assertThat(loader, is(notNullValue()));
+
+        final Map<String, Object> precompiled = loader.load();
+        final Map<String, Object> xml = new DiContainer(
+                new XmlComponentDefinitionLoader(configFile, DuplicateDefinitionPolicy.OVERRIDE)).load();
+        assertThat(precompiled.containsKey("webFrontController"), is(true));
+        final Map<Object, Object> compared = new IdentityHashMap<Object, Object>();
+        for (Map.Entry<String, Object> entry : precompiled.entrySet()) {
+            assertThat(entry.getKey(), xml.containsKey(entry.getKey()), is(true));
+            assertSameComponent(entry.getKey(), xml.get(entry.getKey()), entry.getValue(), compared);
+        }
+    }
+
+    /**
+     * コンポーネントのクラスと、プロパティの値(フィールドの値)が一致することを確認する。
+     * <p/>
+     * コンポーネントが参照するコンポーネントやリスト・マップの要素も再帰的に確認する。
+     * Javaの標準ライブラリのクラス(文字列、数値、コレクション以外)は、実行時の状態を持つためクラスのみを確認する。
+     *
+     * @param path 確認している値の位置(アサーションのメッセージ)
+     * @param expected 設定ファイル(XML)から構築した値
+     * @param actual 生成したクラスで構築した値
+     * @param compared 確認済みの値(キーは生成したクラスで構築した値)
+     * @throws Exception フィールドの値を取得できない場合
+     */
+    private static void assertSameComponent(String path, Object expected, Object actual, Map<Object, Object> compared)
+            throws Exception {
+        if (expected == null || actual == null) {
+            assertThat(path, actual, is(expected));
+            return;
+        }
+        assertThat(path, (Object) actual.getClass(), is((Object) expected.getClass()));
+        if (expected == actual || compared.put(actual, expected) != null) {
+            return;
+        }
+        final Class<?> type = actual.getClass();
+        if (type.isArray()) {
+            assertThat(path + ".length", Array.getLength(actual), is(Array.getLength(expected)));
+            for (int i = 0; i < Array.getLength(actual); i++) {
+                assertSameComponent(path + '[' + i + ']', Array.get(expected, i), Array.get(actual, i), compared);
+            }
+        } else if (actual instanceof Collection) {
+            assertThat(path + ".size", ((Collection<?>) actual).size(), is(((Collection<?>) expected).size()));
+            final Iterator<?> expectedElements = ((Collection<?>) expected).iterator();
+            int i = 0;
+            for (Object element : (Collection<?>) actual) {
+                assertSameComponent(path + '[' + i++ + ']', expectedElements.next(), element, compared);
+            }
+        } else if (actual instanceof Map) {
+            assertThat(path + ".keys", ((Map<?, ?>) actual).keySet(), is((Object) ((Map<?, ?>) expected).keySet()));
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) actual).entrySet()) {
+                assertSameComponent(path + '[' + entry.getKey() + ']', ((Map<?, ?>) expected).get(entry.getKey()),
+                        entry.getValue(), compared);
+            }
+        } else if (actual instanceof CharSequence || actual instanceof Number || actual instanceof Boolean
+                || actual instanceof Character || actual instanceof Enum || actual instanceof Class) {
+            assertThat(path, actual, is(expected));
+        } else if (!type.getName().startsWith("java.") && !type.getName().startsWith("javax.")) {
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    assertSameComponent(path + '.' + field.getName(), field.get(expected), field.get(actual), compared);
+                }
+            }
+        }
+    }
+}
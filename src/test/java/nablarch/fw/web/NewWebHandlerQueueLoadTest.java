@@ -0,0 +1,25 @@
+package nablarch.fw.web;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.runner.RunWith;
+
+/**
+ * ウェブアプリケーションにおけるNablarch5以降の標準ハンドラ構成の負荷テストクラス。
+ * <p/>
+ * デプロイメントは{@link NewWebHandlerQueueIntegrationTest}と同一とする。
+ */
+@RunWith(Arquillian.class)
+public class NewWebHandlerQueueLoadTest extends WebHandlerQueueLoadTestSupport {
+
+    @Deployment
+    public static WebArchive createDeployment() {
+        return NewWebHandlerQueueIntegrationTest.createDeployment();
+    }
+
+    @Override
+    protected String defaultRequestMix() {
+        return "upload=1,echo=2,putSession=1,getSession=4";
+    }
+}
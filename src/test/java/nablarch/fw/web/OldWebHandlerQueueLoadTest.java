@@ -0,0 +1,26 @@
+package nablarch.fw.web;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.runner.RunWith;
+
+/**
+ * ウェブアプリケーションにおけるNablarch5より前の標準ハンドラ構成の負荷テストクラス。
+ * <p/>
+ * デプロイメントは{@link OldWebHandlerQueueIntegrationTest}と同一とする。
+ * セッションストアを使用しないため、セッションを使用するリクエストは含めない。
+ */
+@RunWith(Arquillian.class)
+public class OldWebHandlerQueueLoadTest extends WebHandlerQueueLoadTestSupport {
+
+    @Deployment
+    public static WebArchive createDeployment() {
+        return OldWebHandlerQueueIntegrationTest.createDeployment();
+    }
+
+    @Override
+    protected String defaultRequestMix() {
+        return "upload=1,echo=2";
+    }
+}
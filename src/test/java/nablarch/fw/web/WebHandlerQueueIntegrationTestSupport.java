@@ -7,7 +7,10 @@ import static org.junit.Assert.assertThat;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import com.google.api.client.http.ByteArrayContent;
 import com.google.api.client.http.FileContent;
@@ -22,6 +25,8 @@ import com.google.api.client.http.javanet.NetHttpTransport;
 import org.jboss.arquillian.container.test.api.RunAsClient;
 import org.jboss.arquillian.test.api.ArquillianResource;
 
+import nablarch.core.log.basic.AsyncLogWriter;
+import nablarch.fw.web.app.MultipartAction;
 import nablarch.fw.web.upload.CustomMultipartContent;
 import nablarch.fw.web.upload.MockMultipartParser;
 import nablarch.test.support.log.app.OnMemoryLogWriter;
@@ -49,12 +54,13 @@ public abstract class WebHandlerQueueIntegrationTestSupport {
     @Before
     public void setUp() throws Exception {
         // アップロードファイルが作成されていれば削除する。
-        final File file = new File(System.getProperty("java.io.tmpdir"), "uploadFile");
+        final File file = new File(MultipartAction.getUploadDir(), "uploadFile");
         if (file.exists()) {
             file.delete();
         }
 
-        // ログをクリア
+        // 前のケースのログが書き込まれるのを待ってから、ログをクリア
+        AsyncLogWriter.awaitFlush(5, TimeUnit.SECONDS);
         OnMemoryLogWriter.clear();
     }
 
@@ -74,8 +80,8 @@ public abstract class WebHandlerQueueIntegrationTestSupport {
 
         assertThat(response.getStatusCode(), is(200));
         assertThat(response.parseAsString(), is("SUCCESS"));
-        assertThat(new File(System.getProperty("java.io.tmpdir"), "uploadFile").exists(), is(true));
-        OnMemoryLogWriter.assertLogContains("writer.memory", "name='uploadFile', fileName='multipart.txt', contentType='application/octet-stream'");
+        assertThat(new File(MultipartAction.getUploadDir(), "uploadFile").exists(), is(true));
+        assertLogContains("name='uploadFile', fileName='multipart.txt', contentType='application/octet-stream'");
     }
 
     /**
@@ -137,14 +143,74 @@ public abstract class WebHandlerQueueIntegrationTestSupport {
             fail("一時ファイルの作成に失敗したため、INTERNAL SERVER ERROR(500)が送出される。");
         } catch (final HttpResponseException e) {
             assertThat(e.getStatusCode(), is(500));
-            Thread.sleep(100); // ログ出力される前にassertされるのを防ぐため
-            OnMemoryLogWriter.assertLogContains(
-                    "writer.memory",
+            assertLogContains(
                     "FATAL",
                     "[500 InternalError] java.io.IOException");
         }
     }
 
+    /**
+     * 非同期に出力したログのスレッド名が、バックグラウンドのスレッドではなく
+     * ログを出力したリクエストスレッドの名前となることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testLog_thread_name() throws Exception {
+        final String threadName = httpTransport.createRequestFactory()
+                .buildGetRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/ThreadName")))
+                .execute()
+                .parseAsString();
+
+        assertThat(threadName, not(startsWith("AsyncLogWriter-")));
+        assertLogContains("[" + threadName + "] INFO", "thread name action.");
+    }
+
+    /**
+     * サーバ側のシステムリポジトリに登録されたコンポーネントのプロパティの値を取得する。
+     * <p/>
+     * クライアントとして実行するテストのシステムリポジトリはサーバ側のものとは異なるため、
+     * {@link nablarch.fw.web.app.StatisticsAction}にリクエストを送信して取得する。
+     *
+     * @param component コンポーネント名
+     * @param property プロパティ名(ネストしたプロパティは「.」で区切る)
+     * @return プロパティの値の文字列表現
+     * @throws IOException 入出力例外
+     */
+    protected String getServerProperty(final String component, final String property) throws IOException {
+        final GenericUrl url = new GenericUrl(new URL(baseUrl, "action/StatisticsAction/Get"));
+        url.set("component", component);
+        url.set("property", property);
+        return httpTransport.createRequestFactory().buildGetRequest(url).execute().parseAsString();
+    }
+
+    /**
+     * サーバ側のシステムリポジトリに登録されたコンポーネントの、数値のプロパティの値を取得する。
+     *
+     * @param component コンポーネント名
+     * @param property プロパティ名(ネストしたプロパティは「.」で区切る)
+     * @return プロパティの値
+     * @throws IOException 入出力例外
+     */
+    protected long getServerLong(final String component, final String property) throws IOException {
+        return Long.parseLong(getServerProperty(component, property));
+    }
+
+    /**
+     * サーバ側のシステムリポジトリに登録されたコンポーネントの、引数のないメソッドを呼び出す。
+     *
+     * @param component コンポーネント名
+     * @param method メソッド名
+     * @return 戻り値の文字列表現
+     * @throws IOException 入出力例外
+     */
+    protected String invokeServer(final String component, final String method) throws IOException {
+        final GenericUrl url = new GenericUrl(new URL(baseUrl, "action/StatisticsAction/Invoke"));
+        url.set("component", component);
+        url.set("method", method);
+        return httpTransport.createRequestFactory().buildGetRequest(url).execute().parseAsString();
+    }
+
     /**
      * {@link MultipartContent}を作成する。
      *
@@ -152,7 +218,7 @@ public abstract class WebHandlerQueueIntegrationTestSupport {
      * @return {@link MultipartContent}
      * @throws IOException 入出力例外
      */
-    protected MultipartContent createMultipartContent(final File file) throws IOException {
+    protected static MultipartContent createMultipartContent(final File file) throws IOException {
         final MultipartContent content = new MultipartContent();
         content.setMediaType(new HttpMediaType("multipart/form-data")
                 .setParameter("boundary", "__END_OF_PART__"));
@@ -168,6 +234,31 @@ public abstract class WebHandlerQueueIntegrationTestSupport {
         return content.addPart(part);
     }
 
+    /**
+     * パラメータのみから成る{@link MultipartContent}を作成する。
+     *
+     * @param count パラメータの数
+     * @param nameSize パラメータ名の長さ
+     * @param valueSize 値の長さ
+     * @return {@link MultipartContent}
+     */
+    protected static MultipartContent createFieldsContent(final int count, final int nameSize, final int valueSize) {
+        final MultipartContent content = new MultipartContent();
+        content.setMediaType(new HttpMediaType("multipart/form-data")
+                .setParameter("boundary", "__END_OF_PART__"));
+
+        final char[] name = new char[nameSize];
+        Arrays.fill(name, 'k');
+        final char[] value = new char[valueSize];
+        Arrays.fill(value, 'v');
+        for (int i = 0; i < count; i++) {
+            final MultipartContent.Part part = new MultipartContent.Part(new ByteArrayContent(null, new String(value).getBytes()));
+            part.setHeaders(new HttpHeaders().set("Content-Disposition", String.format("form-data; name=\"%s\"", new String(name))));
+            content.addPart(part);
+        }
+        return content;
+    }
+
     /**
      * {@link CustomMultipartContent}を作成する。
      *
@@ -200,4 +291,50 @@ public abstract class WebHandlerQueueIntegrationTestSupport {
         filewriter.close();
         return file;
     }
+
+    /**
+     * 指定されたサイズのファイルを作成する。
+     * <p/>
+     * ファイルの内容はすべて0となる。
+     *
+     * @param fileName ファイル名
+     * @param size ファイルサイズ
+     * @return ファイル
+     * @throws IOException 入出力例外
+     */
+    protected File createSparseFile(final String fileName, final long size) throws IOException {
+        final File file = folder.newFile(fileName);
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+        } finally {
+            randomAccessFile.close();
+        }
+        return file;
+    }
+
+    /**
+     * ログが出力されていることを確認する。
+     * <p/>
+     * ログは非同期に出力され、またレスポンスの返却後に出力される場合もあるため、
+     * 出力されるまでログの書き込みを待ち合わせて確認を繰り返す。
+     *
+     * @param expected 出力されていることを期待する文字列
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    protected static void assertLogContains(final String... expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            AsyncLogWriter.awaitFlush(5, TimeUnit.SECONDS);
+            try {
+                OnMemoryLogWriter.assertLogContains("writer.memory", expected);
+                return;
+            } catch (AssertionError e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
 }
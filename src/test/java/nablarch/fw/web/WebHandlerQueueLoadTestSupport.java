@@ -0,0 +1,382 @@
+package nablarch.fw.web;
+
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.MultipartContent;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.test.api.ArquillianResource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nablarch.fw.web.load.LoadGenerator;
+
+/**
+ * ウェブアプリケーションの標準ハンドラ構成に負荷をかけ、スループットと処理時間の分布を計測する負荷テストをサポートするクラス。
+ * <p/>
+ * 結合テストと同じデプロイメントを使用し、{@link WebHandlerQueueIntegrationTestSupport}と同じリクエストを送信する。
+ * 負荷テストは時間がかかるため通常のビルドでは実行せず、{@code mvn test -P load-test}で実行する。
+ * <p/>
+ * 以下のシステムプロパティで負荷を指定できる。
+ * <ul>
+ *     <li>{@code loadtest.concurrency}:同時実行数。デフォルトは16。</li>
+ *     <li>{@code loadtest.warmup}:ウォームアップ期間(秒)。デフォルトは5。</li>
+ *     <li>{@code loadtest.duration}:計測期間(秒)。デフォルトは30。</li>
+ *     <li>{@code loadtest.rate}:全スレッドの合計の送信レート(リクエスト/秒)。デフォルトは0(制限しない)。</li>
+ *     <li>{@code loadtest.mix}:リクエストの種類と重み(例:{@code echo=2,getSession=1})。
+ *     デフォルトは{@link #defaultRequestMix()}。指定できる種類は{@link #createScenario(String)}を参照。</li>
+ * </ul>
+ * 結果は{@code target/load-test/<クラス名>.properties}に出力する。
+ * ベースライン({@code src/test/load-baseline/<クラス名>.properties})が存在する場合は結果と比較し、
+ * スループットの低下またはいずれかの種類のp99の増加が許容率({@code loadtest.tolerance}、デフォルトは0.2)を超えた場合は失敗とする。
+ * {@code loadtest.updateBaseline}に{@code true}を指定した場合は、比較せずに結果をベースラインとして保存する。
+ * エラーとなったリクエストがある場合は、ベースラインの有無に関わらず失敗とする。
+ */
+public abstract class WebHandlerQueueLoadTestSupport {
+
+    /** Hiddenセッションに"key"="value"を格納した値 */
+    private static final String HIDDEN_STORE_VALUE = "AANrZXkAAAAQABBqYXZhLmxhbmcuU3RyaW5njmDwr5d2mkeZFXpTJHZGxg==";
+
+    /** ベースラインを格納するディレクトリ */
+    private static final File BASELINE_DIR = new File("src/test/load-baseline");
+
+    /** 結果を出力するディレクトリ */
+    private static final File RESULT_DIR = new File("target/load-test");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @ArquillianResource
+    protected URL baseUrl;
+
+    protected HttpTransport httpTransport = new NetHttpTransport();
+
+    /**
+     * {@code loadtest.mix}が指定されていない場合のリクエストの種類と重みを取得する。
+     *
+     * @return リクエストの種類と重み(例:{@code echo=2,getSession=1})
+     */
+    protected abstract String defaultRequestMix();
+
+    /**
+     * 指定された負荷をかけ、結果がベースラインから悪化していないことを確認する。
+     * @throws Exception
+     */
+    @Test
+    @RunAsClient
+    public void testLoad() throws Exception {
+        final LoadGenerator generator = new LoadGenerator()
+                .setConcurrency(Integer.getInteger("loadtest.concurrency", 16))
+                .setWarmupMillis(Integer.getInteger("loadtest.warmup", 5) * 1000L)
+                .setDurationMillis(Integer.getInteger("loadtest.duration", 30) * 1000L)
+                .setRate(Integer.getInteger("loadtest.rate", 0));
+        for (Map.Entry<String, Integer> entry : parseRequestMix(System.getProperty("loadtest.mix", defaultRequestMix())).entrySet()) {
+            generator.addScenario(entry.getKey(), entry.getValue(), createScenario(entry.getKey()));
+        }
+
+        final LoadGenerator.Result result = generator.run();
+        System.out.println("[" + getClass().getSimpleName() + "]" + System.getProperty("line.separator") + result);
+
+        final Properties current = toProperties(result.toMap());
+        store(current, new File(RESULT_DIR, getClass().getSimpleName() + ".properties"));
+
+        if (result.getErrorCount() > 0) {
+            final AssertionError error = new AssertionError(result.getErrorCount() + " request(s) failed.");
+            error.initCause(result.getFirstError());
+            throw error;
+        }
+
+        final File baselineFile = new File(BASELINE_DIR, getClass().getSimpleName() + ".properties");
+        if (Boolean.getBoolean("loadtest.updateBaseline")) {
+            store(current, baselineFile);
+            return;
+        }
+        if (!baselineFile.exists()) {
+            System.out.println("baseline was not found. skip comparison. file = [" + baselineFile + ']');
+            return;
+        }
+        final List<String> regressions = compare(load(baselineFile), current,
+                Double.parseDouble(System.getProperty("loadtest.tolerance", "0.2")));
+        if (!regressions.isEmpty()) {
+            fail("load test result regressed from baseline. " + regressions);
+        }
+    }
+
+    /**
+     * サーバ側のシステムリポジトリに登録されたコンポーネントの、数値のプロパティの値を取得する。
+     * <p/>
+     * クライアントとして実行するテストのシステムリポジトリはサーバ側のものとは異なるため、
+     * {@link nablarch.fw.web.app.StatisticsAction}にリクエストを送信して取得する。
+     *
+     * @param component コンポーネント名
+     * @param property プロパティ名(ネストしたプロパティは「.」で区切る)
+     * @return プロパティの値
+     * @throws IOException 入出力例外
+     */
+    protected long getServerLong(final String component, final String property) throws IOException {
+        final GenericUrl url = new GenericUrl(new URL(baseUrl, "action/StatisticsAction/Get"));
+        url.set("component", component);
+        url.set("property", property);
+        return Long.parseLong(httpTransport.createRequestFactory().buildGetRequest(url).execute().parseAsString());
+    }
+
+    /**
+     * リクエストの種類を生成する。
+     * <p/>
+     * 以下の種類を指定できる。
+     * <ul>
+     *     <li>{@code upload}:ファイルアップロード({@code MultipartAction/Upload})</li>
+     *     <li>{@code streamUpload}:ストリーミングモードのファイルアップロード({@code MultipartAction/StreamUpload})。
+     *     ストリーミングモードに対応したマルチパートハンドラを使用する構成でのみ指定できる。</li>
+     *     <li>{@code echo}:マルチパートのパラメータの取得({@code MultipartAction/Echo})</li>
+     *     <li>{@code putSession}:セッションへの格納({@code MultipartAction/PutSession})</li>
+     *     <li>{@code getSession}:Hiddenセッションからの取得({@code MultipartAction/GetSession})。
+     *     セッションストアを使用しない旧ハンドラ構成では指定できない。</li>
+     * </ul>
+     *
+     * @param name リクエストの種類
+     * @return リクエストの種類
+     * @throws IOException アップロードするファイルの作成に失敗した場合
+     */
+    protected LoadGenerator.Scenario createScenario(final String name) throws IOException {
+        final File file = createUploadFile();
+        if (name.equals("upload")) {
+            return new LoadGenerator.Scenario() {
+                @Override
+                public void execute() throws Exception {
+                    assertResponse(post("action/MultipartAction/Upload", WebHandlerQueueIntegrationTestSupport.createMultipartContent(file), null), "SUCCESS");
+                }
+            };
+        }
+        if (name.equals("streamUpload")) {
+            return new LoadGenerator.Scenario() {
+                @Override
+                public void execute() throws Exception {
+                    assertResponse(post("action/MultipartAction/StreamUpload", WebHandlerQueueIntegrationTestSupport.createMultipartContent(file), null),
+                            String.valueOf(file.length()));
+                }
+            };
+        }
+        if (name.equals("echo")) {
+            return new LoadGenerator.Scenario() {
+                @Override
+                public void execute() throws Exception {
+                    assertResponse(post("action/MultipartAction/Echo", WebHandlerQueueIntegrationTestSupport.createMultipartContent(file), null), "value");
+                }
+            };
+        }
+        if (name.equals("putSession")) {
+            return new LoadGenerator.Scenario() {
+                @Override
+                public void execute() throws Exception {
+                    putSession();
+                }
+            };
+        }
+        if (name.equals("getSession")) {
+            // NABLARCH_SIDやJSESSIONIDは、スレッドごとに最初のリクエストで生成する
+            final ThreadLocal<Object> cookie = new ThreadLocal<Object>();
+            return new LoadGenerator.Scenario() {
+                @Override
+                public void execute() throws Exception {
+                    if (cookie.get() == null) {
+                        cookie.set(putSession());
+                    }
+                    final MultipartContent content = WebHandlerQueueIntegrationTestSupport.createMultipartContent(file);
+                    final MultipartContent.Part part = new MultipartContent.Part(new ByteArrayContent(null, HIDDEN_STORE_VALUE.getBytes()));
+                    part.setHeaders(new HttpHeaders().set("Content-Disposition", String.format("form-data; name=\"%s\"", "_HIDDEN_STORE_")));
+                    content.addPart(part);
+                    assertResponse(post("action/MultipartAction/GetSession", content, cookie.get()), "value");
+                }
+            };
+        }
+        throw new IllegalArgumentException("unknown request type. name = [" + name + ']');
+    }
+
+    /**
+     * セッションに値を格納するリクエストを送信する。
+     *
+     * @return レスポンスのSet-Cookieヘッダ
+     * @throws IOException 送信に失敗した場合
+     */
+    private Object putSession() throws IOException {
+        final HttpResponse response = httpTransport.createRequestFactory()
+                .buildGetRequest(new GenericUrl(new URL(baseUrl, "action/MultipartAction/PutSession")))
+                .execute();
+        try {
+            assertThat(response.getStatusCode(), is(200));
+            return response.getHeaders().get("Set-Cookie");
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    /**
+     * マルチパートリクエストを送信する。
+     *
+     * @param path リクエストパス
+     * @param content リクエストボディ
+     * @param cookie Cookieヘッダ(送信しない場合は{@code null})
+     * @return レスポンス
+     * @throws IOException 送信に失敗した場合
+     */
+    private HttpResponse post(final String path, final MultipartContent content, final Object cookie) throws IOException {
+        final com.google.api.client.http.HttpRequest request = httpTransport.createRequestFactory()
+                .buildPostRequest(new GenericUrl(new URL(baseUrl, path)), content);
+        if (cookie != null) {
+            request.getHeaders().set("Cookie", cookie);
+        }
+        return request.execute();
+    }
+
+    /**
+     * レスポンスボディが期待した値であることを確認する。
+     *
+     * @param response レスポンス
+     * @param expected 期待するレスポンスボディ
+     * @throws IOException 受信に失敗した場合
+     */
+    private static void assertResponse(final HttpResponse response, final String expected) throws IOException {
+        assertThat(response.parseAsString(), is(expected));
+    }
+
+    /**
+     * アップロードするファイルを作成する。
+     *
+     * @return ファイル
+     * @throws IOException 作成に失敗した場合
+     */
+    private File createUploadFile() throws IOException {
+        final File file = folder.newFile();
+        final FileWriter writer = new FileWriter(file);
+        try {
+            for (int i = 0; i < 25; i++) {
+                writer.write("test");
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * リクエストの種類と重みを解析する。
+     *
+     * @param mix リクエストの種類と重み(例:{@code echo=2,getSession=1}。重みを省略した場合は1)
+     * @return リクエストの種類ごとの重み
+     */
+    static Map<String, Integer> parseRequestMix(final String mix) {
+        final Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        for (String entry : mix.split(",")) {
+            final String[] pair = entry.trim().split("=");
+            if (pair[0].length() != 0) {
+                result.put(pair[0].trim(), pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 結果をベースラインと比較し、許容率を超えて悪化した項目を取得する。
+     * <p/>
+     * スループット({@code throughput})は低下を、処理時間のp99({@code *.p99})は増加を悪化とする。
+     * ベースラインに存在しない項目は比較しない。
+     *
+     * @param baseline ベースライン
+     * @param current 結果
+     * @param tolerance 許容率
+     * @return 悪化した項目
+     */
+    static List<String> compare(final Properties baseline, final Properties current, final double tolerance) {
+        final List<String> regressions = new ArrayList<String>();
+        for (String key : baseline.stringPropertyNames()) {
+            final String value = current.getProperty(key);
+            if (value == null || !(key.equals("throughput") || key.endsWith(".p99"))) {
+                continue;
+            }
+            final double expected = Double.parseDouble(baseline.getProperty(key));
+            final double actual = Double.parseDouble(value);
+            final boolean regressed = key.equals("throughput")
+                    ? actual < expected * (1 - tolerance)
+                    : actual > expected * (1 + tolerance);
+            if (regressed) {
+                regressions.add(key + ": baseline = [" + baseline.getProperty(key) + "], actual = [" + value + ']');
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * 結果を{@link Properties}に変換する。
+     *
+     * @param result 結果
+     * @return {@link Properties}
+     */
+    private static Properties toProperties(final Map<String, Number> result) {
+        final Properties properties = new Properties();
+        for (Map.Entry<String, Number> entry : result.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+        return properties;
+    }
+
+    /**
+     * {@link Properties}をファイルから読み込む。
+     *
+     * @param file ファイル
+     * @return {@link Properties}
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private static Properties load(final File file) throws IOException {
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    /**
+     * {@link Properties}をファイルに出力する。
+     *
+     * @param properties {@link Properties}
+     * @param file ファイル
+     * @throws IOException 出力に失敗した場合
+     */
+    private static void store(final Properties properties, final File file) throws IOException {
+        final File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("failed to create directory. dir = [" + dir + ']');
+        }
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "load test result (latency in microseconds)");
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -1,10 +1,18 @@
 package nablarch.fw.web.app;
 
 import nablarch.common.web.session.SessionUtil;
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
 import nablarch.fw.ExecutionContext;
+import nablarch.fw.web.FileHttpResponse;
 import nablarch.fw.web.HttpRequest;
 import nablarch.fw.web.HttpResponse;
 import nablarch.fw.web.upload.PartInfo;
+import nablarch.fw.web.upload.PartProcessingResults;
+import nablarch.fw.web.upload.StoredPart;
+import nablarch.fw.web.upload.StreamingPart;
+import nablarch.fw.web.upload.StreamingParts;
+import nablarch.fw.web.upload.TempStorage;
 
 import java.io.File;
 
@@ -13,6 +21,28 @@ import java.io.File;
  */
 public class MultipartAction {
 
+    /** アップロードファイルの移動先ディレクトリを指定するシステムプロパティ */
+    public static final String UPLOAD_DIR_PROPERTY = "nablarch.test.uploadDir";
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(MultipartAction.class);
+
+    /**
+     * アップロードファイルの移動先ディレクトリを取得する。
+     * <p/>
+     * テストを並列に実行する場合に他のJVMと競合しないよう、システムプロパティ{@value #UPLOAD_DIR_PROPERTY}で指定できる。
+     * 指定されていない場合は{@code java.io.tmpdir}とする。
+     *
+     * @return アップロードファイルの移動先ディレクトリ
+     */
+    public static File getUploadDir() {
+        final File dir = new File(System.getProperty(UPLOAD_DIR_PROPERTY, System.getProperty("java.io.tmpdir")));
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IllegalStateException("failed to create upload directory. dir = [" + dir + ']');
+        }
+        return dir;
+    }
+
     /**
      * アップロードファイルを一時ディレクトリから移動する。
      *
@@ -22,11 +52,140 @@ public class MultipartAction {
      */
     public HttpResponse doUpload(HttpRequest request, ExecutionContext context) {
         PartInfo partInfo = request.getPart("uploadFile").get(0);
-        partInfo.moveTo(new File(System.getProperty("java.io.tmpdir")), "uploadFile");
+        TempStorage.moveTo(partInfo, getUploadDir(), "uploadFile");
 
         return new HttpResponse().write("SUCCESS");
     }
 
+    /**
+     * 業務Actionの実行前に処理された、アップロードファイルのチェックサムと判定したContent-Typeを返す。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return チェックサムとContent-Typeを返すレスポンス
+     */
+    public HttpResponse doInspect(HttpRequest request, ExecutionContext context) {
+        final PartInfo partInfo = request.getPart("uploadFile").get(0);
+        final PartProcessingResults results = PartProcessingResults.get(context);
+        final String result = results.get(partInfo, "checksum") + ":" + results.get(partInfo, "sniffedContentType");
+        TempStorage.moveTo(partInfo, getUploadDir(), "uploadFile");
+        return new HttpResponse().write(result);
+    }
+
+    /**
+     * アップロードファイルを、一時ファイルを経由せずに一時ディレクトリへ転送する。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return 転送したバイト数を返すレスポンス
+     */
+    public HttpResponse doStreamUpload(HttpRequest request, ExecutionContext context) {
+        final StreamingParts parts = StreamingParts.get(context);
+        long size = 0;
+        for (StreamingPart part = parts.next(); part != null; part = parts.next()) {
+            if ("uploadFile".equals(part.getName())) {
+                size = part.transferTo(getUploadDir(), "uploadFile");
+            }
+        }
+        return new HttpResponse().write(String.valueOf(size));
+    }
+
+    /**
+     * ストリーミングモードで、ファイルより前に送信されたパラメータ"key"の値と、アップロードファイルのサイズを返す。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return パラメータの値とファイルのサイズを返すレスポンス
+     */
+    public HttpResponse doStreamEcho(HttpRequest request, ExecutionContext context) {
+        final StreamingParts parts = StreamingParts.get(context);
+        long size = 0;
+        for (StreamingPart part = parts.next(); part != null; part = parts.next()) {
+            if ("uploadFile".equals(part.getName())) {
+                size = part.transferTo(getUploadDir(), "uploadFile");
+            }
+        }
+        return new HttpResponse().write(request.getParam("key")[0] + ":" + size);
+    }
+
+    /**
+     * {@link #doStreamUpload(HttpRequest, ExecutionContext)}と同じ処理を行う。
+     * <p/>
+     * 非同期処理を行う構成で、コンテナのリクエストスレッドで処理した場合と比較するために使用する。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return 転送したバイト数を返すレスポンス
+     */
+    public HttpResponse doSyncStreamUpload(HttpRequest request, ExecutionContext context) {
+        return doStreamUpload(request, context);
+    }
+
+    /**
+     * アップロードファイルを{@link nablarch.fw.web.upload.TempStorage}に保存した後、一時ディレクトリへ移動する。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return 保存したサイズと、ヒープ上に保持していたか否かを返すレスポンス
+     */
+    public HttpResponse doStreamStore(HttpRequest request, ExecutionContext context) {
+        final StreamingParts parts = StreamingParts.get(context);
+        StoredPart stored = null;
+        for (StreamingPart part = parts.next(); part != null; part = parts.next()) {
+            if ("uploadFile".equals(part.getName())) {
+                stored = parts.store(part);
+            }
+        }
+        final String result = stored.getSize() + ":" + stored.isInMemory();
+        stored.moveTo(getUploadDir(), "uploadFile");
+        return new HttpResponse().write(result);
+    }
+
+    /**
+     * アップロードしたファイルをダウンロードする。
+     * <p/>
+     * ファイルの内容はヒープに読み込まず、{@link nablarch.fw.web.handler.FileHttpResponseHandler}がレスポンスに転送する。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return アップロードしたファイルを返すレスポンス
+     */
+    public HttpResponse doDownload(HttpRequest request, ExecutionContext context) {
+        final FileHttpResponse response = new FileHttpResponse(new File(getUploadDir(), "uploadFile"));
+        response.setHeader("Content-Disposition", "attachment; filename=\"uploadFile\"");
+        return response;
+    }
+
+    /**
+     * パラメータ"size"で指定した長さの値をHiddenストアに格納したHTMLを返す。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return HTML
+     */
+    public HttpResponse doPage(HttpRequest request, ExecutionContext context) {
+        final int size = Integer.parseInt(request.getParam("size")[0]);
+        final StringBuilder value = new StringBuilder(size + 8);
+        for (int i = 0; value.length() < size; i++) {
+            value.append(Integer.toString(i, 36));
+        }
+        value.setLength(size);
+        return new HttpResponse().setContentType("text/html;charset=UTF-8")
+                .write("<html><body><form><input type=\"hidden\" name=\"_HIDDEN_STORE_\" value=\"" + value
+                        + "\"></form></body></html>");
+    }
+
+    /**
+     * パラメータ"key"の値をそのまま返す。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return パラメータの値を返すレスポンス
+     */
+    public HttpResponse doEcho(HttpRequest request, ExecutionContext context) {
+        return new HttpResponse().write(request.getParam("key")[0]);
+    }
+
     /**
      * セッションからパラメータを取得する。
      *
@@ -50,4 +209,16 @@ public class MultipartAction {
         SessionUtil.put(context, "key", "value");
         return new HttpResponse();
     }
+
+    /**
+     * ログを出力し、リクエストを処理したスレッドの名前を返す。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return レスポンス
+     */
+    public HttpResponse doThreadName(HttpRequest request, ExecutionContext context) {
+        LOGGER.logInfo("thread name action.");
+        return new HttpResponse().write(Thread.currentThread().getName());
+    }
 }
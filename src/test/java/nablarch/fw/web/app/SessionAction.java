@@ -0,0 +1,77 @@
+package nablarch.fw.web.app;
+
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nablarch.common.web.session.SessionUtil;
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.HttpResponse;
+
+/**
+ * セッションストアの指定を伴うセッション操作用の業務Actionクラス。
+ */
+public class SessionAction {
+
+    /**
+     * ヒープ外のメモリに保持するセッションストアから値を取得する。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return レスポンス
+     */
+    public HttpResponse doGetOffHeap(HttpRequest request, ExecutionContext context) {
+        String key = SessionUtil.orNull(context, "offHeapKey");
+        return new HttpResponse().write(String.valueOf(key));
+    }
+
+    /**
+     * ヒープ外のメモリに保持するセッションストアに値を保存する。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return レスポンス
+     */
+    public HttpResponse doPutOffHeap(HttpRequest request, ExecutionContext context) {
+        SessionUtil.put(context, "offHeapKey", "offHeapValue", "offHeap");
+        return new HttpResponse();
+    }
+
+    /**
+     * ヒープ外のメモリに保持するセッションストアから、順序を持つマップを取得する。
+     * <p/>
+     * マップのクラス、キーの順序、マップに格納した日時のクラスとナノ秒を返す。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return レスポンス
+     */
+    public HttpResponse doGetOffHeapMap(HttpRequest request, ExecutionContext context) {
+        Map<String, Object> map = SessionUtil.orNull(context, "offHeapMap");
+        if (map == null) {
+            return new HttpResponse().write("null");
+        }
+        Object updated = map.get("updated");
+        return new HttpResponse().write(map.getClass().getName() + ':' + map.keySet() + ':'
+                + updated.getClass().getName() + ':' + ((Timestamp) updated).getNanos());
+    }
+
+    /**
+     * ヒープ外のメモリに保持するセッションストアに、順序を持つマップを保存する。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return レスポンス
+     */
+    public HttpResponse doPutOffHeapMap(HttpRequest request, ExecutionContext context) {
+        Timestamp updated = new Timestamp(0);
+        updated.setNanos(123456789);
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("c", "3");
+        map.put("updated", updated);
+        map.put("a", "1");
+        SessionUtil.put(context, "offHeapMap", map, "offHeap");
+        return new HttpResponse();
+    }
+}
@@ -0,0 +1,117 @@
+package nablarch.fw.web.app;
+
+import java.lang.reflect.Method;
+
+import nablarch.core.repository.SystemRepository;
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.web.HttpErrorResponse;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.HttpResponse;
+
+/**
+ * サーバ側のシステムリポジトリに登録されたコンポーネントの統計値を返す業務Actionクラス。
+ * <p/>
+ * クライアントとして実行するテスト({@code @RunAsClient})から、サーバ側のコンポーネントの状態を確認するために使用する。
+ * <ul>
+ *     <li>{@code component}:コンポーネント名</li>
+ *     <li>{@code property}:プロパティ名(ネストしたプロパティは「.」で区切る。例:{@code bufferPool.leakCount})</li>
+ * </ul>
+ */
+public class StatisticsAction {
+
+    /**
+     * コンポーネントのプロパティの値を返す。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return プロパティの値を返すレスポンス
+     */
+    public HttpResponse doGet(HttpRequest request, ExecutionContext context) {
+        Object value = getComponent(request);
+        for (String property : getParam(request, "property").split("\\.")) {
+            value = invoke(value, getterName(value, property));
+        }
+        return new HttpResponse().write(String.valueOf(value));
+    }
+
+    /**
+     * コンポーネントの引数のないメソッドを呼び出し、戻り値を返す。
+     * <p/>
+     * 統計値のリセットなど、計測の前にサーバ側の状態を初期化するために使用する。
+     * 呼び出すメソッドは{@code method}で指定する。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return メソッドの戻り値を返すレスポンス
+     */
+    public HttpResponse doInvoke(HttpRequest request, ExecutionContext context) {
+        return new HttpResponse().write(String.valueOf(invoke(getComponent(request), getParam(request, "method"))));
+    }
+
+    /**
+     * リクエストパラメータ{@code component}で指定されたコンポーネントを取得する。
+     *
+     * @param request リクエスト
+     * @return コンポーネント
+     */
+    private static Object getComponent(HttpRequest request) {
+        final String name = getParam(request, "component");
+        final Object component = SystemRepository.get(name);
+        if (component == null) {
+            throw new HttpErrorResponse(404);
+        }
+        return component;
+    }
+
+    /**
+     * リクエストパラメータを取得する。
+     *
+     * @param request リクエスト
+     * @param name パラメータ名
+     * @return パラメータの値
+     */
+    private static String getParam(HttpRequest request, String name) {
+        final String[] values = request.getParam(name);
+        if (values == null || values.length == 0) {
+            throw new HttpErrorResponse(400);
+        }
+        return values[0];
+    }
+
+    /**
+     * プロパティのgetterのメソッド名を取得する。
+     *
+     * @param target 対象のオブジェクト
+     * @param property プロパティ名
+     * @return メソッド名
+     */
+    private static String getterName(Object target, String property) {
+        final String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (Method method : target.getClass().getMethods()) {
+            if (method.getName().equals("is" + suffix) && method.getParameterTypes().length == 0) {
+                return method.getName();
+            }
+        }
+        return "get" + suffix;
+    }
+
+    /**
+     * 引数のないpublicメソッドを呼び出す。
+     *
+     * @param target 対象のオブジェクト
+     * @param methodName メソッド名
+     * @return 戻り値
+     */
+    private static Object invoke(Object target, String methodName) {
+        try {
+            final Method method = target.getClass().getMethod(methodName);
+            method.setAccessible(true);
+            return method.invoke(target);
+        } catch (NoSuchMethodException e) {
+            throw new HttpErrorResponse(404);
+        } catch (Exception e) {
+            throw new IllegalStateException("failed to invoke method. target = ["
+                    + target.getClass().getName() + "], method = [" + methodName + ']', e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package nablarch.fw.web.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import nablarch.fw.ExecutionContext;
+
+/**
+ * リクエスト内で{@link BufferPool}から取得したバッファ(リース)を管理するクラス。
+ * <p/>
+ * {@link BufferPoolHandler}がリクエストごとに生成し、リクエストスコープに格納する。
+ * 取得したバッファは使用後に{@link #release(ByteBuffer)}で返却すること。
+ * 返却されなかったバッファは、リクエストの終了時に{@link BufferPoolHandler}がリークとして計上し、プールには戻さずに破棄する。
+ * <pre>
+ * {@code
+ * BufferLeases leases = BufferLeases.get(context);
+ * ByteBuffer buffer = leases != null ? leases.acquireHeap(8192) : ByteBuffer.allocate(8192);
+ * try {
+ *     // バッファを使用する
+ * } finally {
+ *     if (leases != null) {
+ *         leases.release(buffer);
+ *     }
+ * }
+ * }
+ * </pre>
+ * 1つのリクエストを複数のスレッドで処理する場合もあるため、本クラスのメソッドはスレッドセーフとする。
+ */
+public class BufferLeases {
+
+    /** リクエストスコープに格納する際のキー */
+    static final String REQUEST_SCOPE_KEY = BufferLeases.class.getName();
+
+    /** バッファを取得するプール */
+    private final BufferPool pool;
+
+    /** 返却されていないバッファ */
+    private final List<ByteBuffer> leased = new ArrayList<ByteBuffer>();
+
+    /**
+     * コンストラクタ。
+     *
+     * @param pool バッファを取得するプール
+     */
+    BufferLeases(final BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * 処理中のリクエストの{@link BufferLeases}を取得する。
+     *
+     * @param context 実行コンテキスト
+     * @return {@link BufferLeases}({@link BufferPoolHandler}が設定されていない場合は{@code null})
+     */
+    public static BufferLeases get(final ExecutionContext context) {
+        return context.getRequestScopedVar(REQUEST_SCOPE_KEY);
+    }
+
+    /**
+     * ヒープの{@link ByteBuffer}を取得する。
+     *
+     * @param minCapacity 最小の容量
+     * @return クリアされた{@link ByteBuffer}(容量は{@code minCapacity}以上)
+     * @see BufferPool#acquireHeap(int)
+     */
+    public ByteBuffer acquireHeap(final int minCapacity) {
+        return lease(pool.acquireHeap(minCapacity));
+    }
+
+    /**
+     * ダイレクトの{@link ByteBuffer}を取得する。
+     *
+     * @param minCapacity 最小の容量
+     * @return クリアされた{@link ByteBuffer}(容量は{@code minCapacity}以上)
+     */
+    public ByteBuffer acquireDirect(final int minCapacity) {
+        return lease(pool.acquireDirect(minCapacity));
+    }
+
+    /**
+     * バッファを返却する。
+     * <p/>
+     * 本クラスから取得していないバッファや、返却済みのバッファの場合は何もしない。
+     *
+     * @param buffer 本クラスから取得したバッファ
+     */
+    public void release(final ByteBuffer buffer) {
+        synchronized (leased) {
+            if (!remove(buffer)) {
+                return;
+            }
+        }
+        pool.release(buffer);
+    }
+
+    /**
+     * 返却されていないバッファを、プールに戻さずに全て破棄する。
+     * <p/>
+     * 返却されていないバッファは、後続の処理(非同期の書き込みなど)がまだ参照している可能性がある。
+     * プールに戻すと他のリクエストに同じバッファを貸し出すことになるため、破棄してGCに任せる。
+     *
+     * @return 破棄したバッファの数
+     */
+    int discardAll() {
+        synchronized (leased) {
+            final int count = leased.size();
+            leased.clear();
+            return count;
+        }
+    }
+
+    /**
+     * 取得したバッファを記録する。
+     *
+     * @param buffer バッファ
+     * @return バッファ
+     */
+    private ByteBuffer lease(final ByteBuffer buffer) {
+        synchronized (leased) {
+            leased.add(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * 返却されていないバッファから削除する。
+     * <p/>
+     * {@link ByteBuffer#equals(Object)}は内容を比較するため、同一性で検索する。
+     *
+     * @param buffer バッファ
+     * @return 削除した場合は{@code true}
+     */
+    private boolean remove(final ByteBuffer buffer) {
+        for (int i = leased.size() - 1; i >= 0; i--) {
+            if (leased.get(i) == buffer) {
+                leased.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,535 @@
+package nablarch.fw.web.buffer;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * リクエストの処理で使用する{@link ByteBuffer}(ヒープ・ダイレクト)のプール。
+ * <p/>
+ * バッファの容量は、{@link #setMinBufferSize(int)}から{@link #setMaxBufferSize(int)}までの2のべき乗に切り上げ、
+ * 種類と容量(サイズクラス)ごとにプールする。上限を超える容量のバッファはプールせずに毎回生成する。
+ * <p/>
+ * 返却されたバッファは、まず返却したスレッドのキャッシュに保持し、キャッシュが一杯の場合は共有のプールに保持する。
+ * 共有のプールはスレッドIDで分割(ストライプ)し、スレッド間の競合を抑える。
+ * 仮想スレッドは短命で数が多いため、スレッドごとのキャッシュは使用しない。
+ * <p/>
+ * リクエスト内では{@link BufferLeases}から取得すること。
+ * 返却し忘れたバッファは、リクエストの終了時に{@link BufferPoolHandler}がプールに戻さずに破棄し、{@link #getLeakCount()}に計上する。
+ */
+public class BufferPool implements BufferPoolMXBean {
+
+    /** ヒープの{@link ByteBuffer} */
+    private static final int HEAP = 0;
+
+    /** ダイレクトの{@link ByteBuffer} */
+    private static final int DIRECT = 1;
+
+    /** バッファの種類の数 */
+    private static final int KIND_COUNT = 2;
+
+    /** {@code Thread#isVirtual()}(仮想スレッドが使用できないJVMでは{@code null}) */
+    private static final Method IS_VIRTUAL = findIsVirtual();
+
+    /** スレッドごとのキャッシュを使用しないスレッドの{@link LocalCache} */
+    private static final LocalCache DISABLED = new LocalCache(0, 0);
+
+    /** 最小のバッファの容量 */
+    private int minBufferSize = 1024;
+
+    /** プールする最大のバッファの容量 */
+    private int maxBufferSize = 1024 * 1024;
+
+    /** スレッドごとにキャッシュするバッファの数(サイズクラスごと) */
+    private int threadLocalCacheSize = 2;
+
+    /** 共有のプールの分割数 */
+    private int stripeCount = Runtime.getRuntime().availableProcessors();
+
+    /** 共有のプールに保持するバッファの数の上限(分割したプール・サイズクラスごと) */
+    private int maxPooledPerStripe = 16;
+
+    /** 明示的に返却されず、破棄されたバッファの数 */
+    private final AtomicLong leakCount = new AtomicLong();
+
+    /** 初期化済みのプール */
+    private volatile Pools pools;
+
+    /**
+     * 最小のバッファの容量を設定する。デフォルトは1024。
+     * <p/>
+     * 2のべき乗に切り上げる。
+     *
+     * @param minBufferSize 最小のバッファの容量
+     */
+    public void setMinBufferSize(final int minBufferSize) {
+        this.minBufferSize = minBufferSize;
+    }
+
+    /**
+     * プールする最大のバッファの容量を設定する。デフォルトは1MB。
+     * <p/>
+     * 2のべき乗に切り上げる。これを超える容量のバッファはプールしない。
+     *
+     * @param maxBufferSize プールする最大のバッファの容量
+     */
+    public void setMaxBufferSize(final int maxBufferSize) {
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * スレッドごとにキャッシュするバッファの数を、種類・サイズクラスごとに設定する。デフォルトは2。
+     * <p/>
+     * 0を指定した場合は、スレッドごとのキャッシュを使用しない。
+     *
+     * @param threadLocalCacheSize スレッドごとにキャッシュするバッファの数
+     */
+    public void setThreadLocalCacheSize(final int threadLocalCacheSize) {
+        this.threadLocalCacheSize = threadLocalCacheSize;
+    }
+
+    /**
+     * 共有のプールの分割数を設定する。デフォルトはCPU数。
+     * <p/>
+     * 2のべき乗に切り上げる。
+     *
+     * @param stripeCount 分割数
+     */
+    public void setStripeCount(final int stripeCount) {
+        this.stripeCount = stripeCount;
+    }
+
+    /**
+     * 共有のプールに保持するバッファの数の上限を、分割したプール・種類・サイズクラスごとに設定する。デフォルトは16。
+     * <p/>
+     * 0を指定した場合は、共有のプールを使用しない。
+     *
+     * @param maxPooledPerStripe 保持するバッファの数の上限
+     */
+    public void setMaxPooledPerStripe(final int maxPooledPerStripe) {
+        this.maxPooledPerStripe = maxPooledPerStripe;
+    }
+
+    /**
+     * ヒープの{@link ByteBuffer}を取得する。
+     * <p/>
+     * {@link ByteBuffer#array()}の先頭から使用できる。
+     *
+     * @param minCapacity 最小の容量
+     * @return クリアされた{@link ByteBuffer}(容量は{@code minCapacity}以上)
+     */
+    public ByteBuffer acquireHeap(final int minCapacity) {
+        return acquire(HEAP, minCapacity);
+    }
+
+    /**
+     * ダイレクトの{@link ByteBuffer}を取得する。
+     *
+     * @param minCapacity 最小の容量
+     * @return クリアされた{@link ByteBuffer}(容量は{@code minCapacity}以上)
+     */
+    public ByteBuffer acquireDirect(final int minCapacity) {
+        return acquire(DIRECT, minCapacity);
+    }
+
+    /**
+     * バッファを返却する。
+     * <p/>
+     * 返却したバッファは、以降使用してはならない。
+     *
+     * @param buffer 本クラスから取得したバッファ
+     */
+    public void release(final ByteBuffer buffer) {
+        final Pools current = getPools();
+        final Stripe stripe = current.stripe();
+        stripe.releaseCount.incrementAndGet();
+        final int kind = buffer.isDirect() ? DIRECT : HEAP;
+        final int sizeClass = current.sizeClass(buffer.capacity());
+        if (sizeClass < 0 || current.classSize(sizeClass) != buffer.capacity()) {
+            return;
+        }
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        final int index = kind * current.classCount + sizeClass;
+        if (current.localCache.get().offer(index, buffer)) {
+            return;
+        }
+        if (stripe.offer(index, buffer, maxPooledPerStripe)) {
+            stripe.pooledBytes.addAndGet(buffer.capacity());
+        }
+    }
+
+    /**
+     * 明示的に返却されず、破棄されたバッファの数を計上する。
+     * <p/>
+     * 破棄されたバッファは、{@link #getOutstandingCount()}に含めない。
+     *
+     * @param count バッファの数
+     */
+    void recordLeaks(final int count) {
+        leakCount.addAndGet(count);
+    }
+
+    @Override
+    public long getAcquireCount() {
+        long total = 0;
+        for (Stripe stripe : getPools().stripes) {
+            total += stripe.acquireCount.get();
+        }
+        return total;
+    }
+
+    @Override
+    public long getThreadLocalHitCount() {
+        long total = 0;
+        for (Stripe stripe : getPools().stripes) {
+            total += stripe.threadLocalHitCount.get();
+        }
+        return total;
+    }
+
+    @Override
+    public long getSharedHitCount() {
+        long total = 0;
+        for (Stripe stripe : getPools().stripes) {
+            total += stripe.sharedHitCount.get();
+        }
+        return total;
+    }
+
+    @Override
+    public long getAllocateCount() {
+        long total = 0;
+        for (Stripe stripe : getPools().stripes) {
+            total += stripe.allocateCount.get();
+        }
+        return total;
+    }
+
+    @Override
+    public double getHitRate() {
+        final long acquired = getAcquireCount();
+        return acquired == 0 ? 0 : (double) (getThreadLocalHitCount() + getSharedHitCount()) / acquired;
+    }
+
+    @Override
+    public long getOutstandingCount() {
+        long total = 0;
+        for (Stripe stripe : getPools().stripes) {
+            total += stripe.acquireCount.get() - stripe.releaseCount.get();
+        }
+        return total - leakCount.get();
+    }
+
+    @Override
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    @Override
+    public long getPooledBytes() {
+        long total = 0;
+        for (Stripe stripe : getPools().stripes) {
+            total += stripe.pooledBytes.get();
+        }
+        return total;
+    }
+
+    /**
+     * バッファを取得する。プールにない場合は生成する。
+     *
+     * @param kind バッファの種類
+     * @param minCapacity 最小の容量
+     * @return クリアされたバッファ
+     */
+    private ByteBuffer acquire(final int kind, final int minCapacity) {
+        final Pools current = getPools();
+        final Stripe stripe = current.stripe();
+        stripe.acquireCount.incrementAndGet();
+        final int sizeClass = current.sizeClass(minCapacity);
+        if (sizeClass < 0) {
+            stripe.allocateCount.incrementAndGet();
+            return allocate(kind, minCapacity);
+        }
+        final int index = kind * current.classCount + sizeClass;
+        ByteBuffer buffer = current.localCache.get().poll(index);
+        if (buffer != null) {
+            stripe.threadLocalHitCount.incrementAndGet();
+            return buffer;
+        }
+        buffer = stripe.poll(index);
+        if (buffer != null) {
+            stripe.pooledBytes.addAndGet(-buffer.capacity());
+            stripe.sharedHitCount.incrementAndGet();
+            return buffer;
+        }
+        stripe.allocateCount.incrementAndGet();
+        return allocate(kind, current.classSize(sizeClass));
+    }
+
+    /**
+     * 初期化済みのプールを取得する。初回の呼び出し時に初期化する。
+     *
+     * @return プール
+     */
+    private Pools getPools() {
+        Pools result = pools;
+        if (result == null) {
+            synchronized (this) {
+                result = pools;
+                if (result == null) {
+                    result = new Pools(minBufferSize, maxBufferSize, stripeCount, threadLocalCacheSize);
+                    pools = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * バッファを生成する。
+     *
+     * @param kind バッファの種類
+     * @param capacity 容量
+     * @return バッファ
+     */
+    private static ByteBuffer allocate(final int kind, final int capacity) {
+        return kind == DIRECT ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * 2のべき乗に切り上げた値の指数を取得する。
+     *
+     * @param value 値
+     * @return 指数
+     */
+    private static int ceilLog2(final int value) {
+        return value <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(value - 1);
+    }
+
+    /**
+     * {@code Thread#isVirtual()}を取得する。
+     *
+     * @return {@code Thread#isVirtual()}(仮想スレッドが使用できないJVMでは{@code null})
+     */
+    private static Method findIsVirtual() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 現在のスレッドが仮想スレッドか否か。
+     *
+     * @return 仮想スレッドの場合は{@code true}
+     */
+    private static boolean isVirtualThread() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(Thread.currentThread());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 設定値から初期化したプール。
+     */
+    private static final class Pools {
+
+        /** 最小のサイズクラスの容量の指数 */
+        private final int minShift;
+
+        /** サイズクラスの数 */
+        private final int classCount;
+
+        /** 分割した共有のプール */
+        private final Stripe[] stripes;
+
+        /** スレッドごとのキャッシュ */
+        private final ThreadLocal<LocalCache> localCache;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param minBufferSize 最小のバッファの容量
+         * @param maxBufferSize プールする最大のバッファの容量
+         * @param stripeCount 共有のプールの分割数
+         * @param threadLocalCacheSize スレッドごとにキャッシュするバッファの数
+         */
+        Pools(final int minBufferSize, final int maxBufferSize, final int stripeCount,
+                final int threadLocalCacheSize) {
+            minShift = ceilLog2(minBufferSize);
+            classCount = Math.max(ceilLog2(maxBufferSize) - minShift + 1, 1);
+            stripes = new Stripe[1 << ceilLog2(Math.max(stripeCount, 1))];
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe(KIND_COUNT * classCount);
+            }
+            localCache = new ThreadLocal<LocalCache>() {
+                @Override
+                protected LocalCache initialValue() {
+                    if (threadLocalCacheSize <= 0 || isVirtualThread()) {
+                        return DISABLED;
+                    }
+                    return new LocalCache(KIND_COUNT * classCount, threadLocalCacheSize);
+                }
+            };
+        }
+
+        /**
+         * 容量に対応するサイズクラスを取得する。
+         *
+         * @param capacity 容量
+         * @return サイズクラス(プールしない容量の場合は-1)
+         */
+        int sizeClass(final int capacity) {
+            final int sizeClass = Math.max(ceilLog2(capacity) - minShift, 0);
+            return sizeClass < classCount ? sizeClass : -1;
+        }
+
+        /**
+         * サイズクラスの容量を取得する。
+         *
+         * @param sizeClass サイズクラス
+         * @return 容量
+         */
+        int classSize(final int sizeClass) {
+            return 1 << (minShift + sizeClass);
+        }
+
+        /**
+         * 現在のスレッドが使用する共有のプールを取得する。
+         *
+         * @return 共有のプール
+         */
+        Stripe stripe() {
+            return stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        }
+    }
+
+    /**
+     * 分割した共有のプールの1つ。統計値もスレッド間の競合を抑えるため分割して保持する。
+     */
+    private static final class Stripe {
+
+        /** 種類・サイズクラスごとのバッファ */
+        private final ArrayDeque<ByteBuffer>[] queues;
+
+        /** 取得した回数 */
+        private final AtomicLong acquireCount = new AtomicLong();
+
+        /** スレッドごとのキャッシュから取得した回数 */
+        private final AtomicLong threadLocalHitCount = new AtomicLong();
+
+        /** 共有のプールから取得した回数 */
+        private final AtomicLong sharedHitCount = new AtomicLong();
+
+        /** 生成した回数 */
+        private final AtomicLong allocateCount = new AtomicLong();
+
+        /** 返却された回数 */
+        private final AtomicLong releaseCount = new AtomicLong();
+
+        /** 保持しているバッファの合計サイズ */
+        private final AtomicLong pooledBytes = new AtomicLong();
+
+        /**
+         * コンストラクタ。
+         *
+         * @param size 種類・サイズクラスの数
+         */
+        @SuppressWarnings("unchecked")
+        Stripe(final int size) {
+            queues = new ArrayDeque[size];
+            for (int i = 0; i < size; i++) {
+                queues[i] = new ArrayDeque<ByteBuffer>();
+            }
+        }
+
+        /**
+         * バッファを取り出す。
+         *
+         * @param index 種類・サイズクラスのインデックス
+         * @return バッファ(保持していない場合は{@code null})
+         */
+        synchronized ByteBuffer poll(final int index) {
+            return queues[index].pollLast();
+        }
+
+        /**
+         * バッファを保持する。
+         *
+         * @param index 種類・サイズクラスのインデックス
+         * @param buffer バッファ
+         * @param max 保持する数の上限
+         * @return 保持した場合は{@code true}
+         */
+        synchronized boolean offer(final int index, final ByteBuffer buffer, final int max) {
+            if (queues[index].size() >= max) {
+                return false;
+            }
+            queues[index].addLast(buffer);
+            return true;
+        }
+    }
+
+    /**
+     * スレッドごとのキャッシュ。
+     */
+    private static final class LocalCache {
+
+        /** 種類・サイズクラスごとのバッファ */
+        private final ByteBuffer[][] buffers;
+
+        /** 種類・サイズクラスごとの保持している数 */
+        private final int[] counts;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param size 種類・サイズクラスの数
+         * @param capacity 種類・サイズクラスごとに保持する数
+         */
+        LocalCache(final int size, final int capacity) {
+            buffers = new ByteBuffer[size][capacity];
+            counts = new int[size];
+        }
+
+        /**
+         * バッファを取り出す。
+         *
+         * @param index 種類・サイズクラスのインデックス
+         * @return バッファ(保持していない場合は{@code null})
+         */
+        ByteBuffer poll(final int index) {
+            if (counts.length == 0 || counts[index] == 0) {
+                return null;
+            }
+            final int last = --counts[index];
+            final ByteBuffer buffer = buffers[index][last];
+            buffers[index][last] = null;
+            return buffer;
+        }
+
+        /**
+         * バッファを保持する。
+         *
+         * @param index 種類・サイズクラスのインデックス
+         * @param buffer バッファ
+         * @return 保持した場合は{@code true}
+         */
+        boolean offer(final int index, final ByteBuffer buffer) {
+            if (counts.length == 0 || counts[index] == buffers[index].length) {
+                return false;
+            }
+            buffers[index][counts[index]++] = buffer;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package nablarch.fw.web.buffer;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.disposal.Disposable;
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+
+/**
+ * 後続ハンドラが{@link BufferPool}からバッファを取得できるよう、{@link BufferLeases}をリクエストスコープに格納するハンドラ。
+ * <p/>
+ * リクエストの終了時に返却されていないバッファは、{@link BufferPool#getLeakCount()}に計上し、プールには戻さずに破棄する。
+ * 返却されていないバッファは後続の処理がまだ参照している可能性があり、プールに戻すと他のリクエストと共有されてしまうため。
+ * <p/>
+ * 最初のリクエストの処理時に、{@link BufferPool}をMBeanとしてプラットフォームMBeanサーバに登録し、
+ * アプリケーションの停止時に{@link #dispose()}で登録を解除する。
+ * <p/>
+ * バッファを使用するハンドラより前(ハンドラキューの先頭)に設定すること。
+ */
+public class BufferPoolHandler implements Handler<Object, Object>, Disposable {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(BufferPoolHandler.class);
+
+    /** バッファのプール */
+    private BufferPool bufferPool = new BufferPool();
+
+    /** MBeanの登録名 */
+    private String jmxName = "nablarch:type=BufferPool,name=bufferPool";
+
+    /** MBeanの登録を試みた場合は{@code true} */
+    private volatile boolean registered;
+
+    /** 登録したMBeanの名前(登録していない場合は{@code null}) */
+    private ObjectName registeredName;
+
+    /**
+     * バッファのプールを設定する。
+     *
+     * @param bufferPool バッファのプール
+     */
+    public void setBufferPool(final BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * バッファのプールを取得する。
+     *
+     * @return バッファのプール
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * MBeanの登録名を設定する。
+     * <p/>
+     * デフォルトは{@code nablarch:type=BufferPool,name=bufferPool}。
+     * 同じ名前で登録済みのMBeanは、登録を解除してから登録する。
+     *
+     * @param jmxName MBeanの登録名
+     */
+    public void setJmxName(final String jmxName) {
+        this.jmxName = jmxName;
+    }
+
+    @Override
+    public Object handle(final Object data, final ExecutionContext context) {
+        if (!registered) {
+            register();
+        }
+        final BufferLeases leases = new BufferLeases(bufferPool);
+        context.setRequestScopedVar(BufferLeases.REQUEST_SCOPE_KEY, leases);
+        try {
+            return context.handleNext(data);
+        } finally {
+            final int leaked = leases.discardAll();
+            if (leaked > 0) {
+                bufferPool.recordLeaks(leaked);
+                LOGGER.logDebug("buffers were not released by the request. discarded = [" + leaked + ']');
+            }
+        }
+    }
+
+    /**
+     * MBeanを登録する。
+     * <p/>
+     * 登録に失敗した場合もバッファのプールは使用する。
+     */
+    private synchronized void register() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(jmxName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(bufferPool, name);
+            registeredName = name;
+        } catch (JMException e) {
+            LOGGER.logWarn("failed to register buffer pool MBean. name = [" + jmxName + "]", e);
+        }
+    }
+
+    /**
+     * 登録したMBeanの登録を解除する。
+     * <p/>
+     * 再デプロイ時に、停止したアプリケーションの{@link BufferPool}がMBeanサーバから参照され続けないようにする。
+     *
+     * @throws JMException 登録の解除に失敗した場合
+     */
+    @Override
+    public synchronized void dispose() throws JMException {
+        if (registeredName == null) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(registeredName)) {
+            server.unregisterMBean(registeredName);
+        }
+        registeredName = null;
+    }
+}
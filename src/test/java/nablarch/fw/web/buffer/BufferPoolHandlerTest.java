@@ -0,0 +1,112 @@
+package nablarch.fw.web.buffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+
+/**
+ * {@link BufferPoolHandler}のテストクラス。
+ */
+public class BufferPoolHandlerTest {
+
+    /** テストで使用するMBeanの登録名 */
+    private static final String JMX_NAME = "nablarch:type=BufferPool,name=bufferPoolHandlerTest";
+
+    private final BufferPoolHandler sut = new BufferPoolHandler();
+
+    {
+        final BufferPool pool = new BufferPool();
+        pool.setThreadLocalCacheSize(0);
+        pool.setStripeCount(1);
+        sut.setBufferPool(pool);
+        sut.setJmxName(JMX_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut.dispose();
+    }
+
+    /**
+     * 返却されたバッファがプールに戻され、次のリクエストで再利用されることを確認するケース。
+     */
+    @Test
+    public void testHandle_released() {
+        final ByteBuffer first = handle(true);
+        final ByteBuffer second = handle(true);
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(sut.getBufferPool().getLeakCount(), is(0L));
+        assertThat(sut.getBufferPool().getOutstandingCount(), is(0L));
+    }
+
+    /**
+     * リクエストの終了時に返却されていないバッファは、リークとして計上され、
+     * プールに戻されずに次のリクエストで再利用されないことを確認するケース。
+     */
+    @Test
+    public void testHandle_leaked() {
+        final ByteBuffer leaked = handle(false);
+        final ByteBuffer next = handle(true);
+
+        assertThat(next, is(not(sameInstance(leaked))));
+        assertThat(sut.getBufferPool().getLeakCount(), is(1L));
+        assertThat(sut.getBufferPool().getOutstandingCount(), is(0L));
+        assertThat(sut.getBufferPool().getAllocateCount(), is(2L));
+    }
+
+    /**
+     * 最初のリクエストの処理時にMBeanが登録され、解放時に登録が解除されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testDispose() throws Exception {
+        final ObjectName name = new ObjectName(JMX_NAME);
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(false));
+
+        handle(true);
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(true));
+
+        sut.dispose();
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(false));
+    }
+
+    /**
+     * バッファを取得するハンドラを後続に設定して、リクエストを処理する。
+     *
+     * @param release 取得したバッファを返却する場合は{@code true}
+     * @return 取得したバッファ
+     */
+    private ByteBuffer handle(final boolean release) {
+        final ByteBuffer[] acquired = new ByteBuffer[1];
+        final List<Handler<?, ?>> handlerQueue = new ArrayList<Handler<?, ?>>();
+        handlerQueue.add(sut);
+        handlerQueue.add(new Handler<Object, Object>() {
+            @Override
+            public Object handle(final Object data, final ExecutionContext context) {
+                final BufferLeases leases = BufferLeases.get(context);
+                acquired[0] = leases.acquireHeap(1024);
+                if (release) {
+                    leases.release(acquired[0]);
+                }
+                return null;
+            }
+        });
+        new ExecutionContext().setHandlerQueue(handlerQueue).handleNext(new Object());
+        return acquired[0];
+    }
+}
@@ -0,0 +1,63 @@
+package nablarch.fw.web.buffer;
+
+/**
+ * {@link BufferPool}の統計値をJMXで公開するためのインタフェース。
+ */
+public interface BufferPoolMXBean {
+
+    /**
+     * バッファを取得した回数を取得する。
+     *
+     * @return 取得した回数
+     */
+    long getAcquireCount();
+
+    /**
+     * スレッドごとのキャッシュから取得した回数を取得する。
+     *
+     * @return 取得した回数
+     */
+    long getThreadLocalHitCount();
+
+    /**
+     * 共有のプールから取得した回数を取得する。
+     *
+     * @return 取得した回数
+     */
+    long getSharedHitCount();
+
+    /**
+     * プールから取得できず、新たに生成した回数を取得する。
+     *
+     * @return 生成した回数
+     */
+    long getAllocateCount();
+
+    /**
+     * プールから取得できた割合を取得する。
+     *
+     * @return 割合(0~1。取得していない場合は0)
+     */
+    double getHitRate();
+
+    /**
+     * 返却されていないバッファの数を取得する。破棄したバッファ({@link #getLeakCount()})は含まない。
+     *
+     * @return バッファの数
+     */
+    long getOutstandingCount();
+
+    /**
+     * 明示的に返却されず、リクエストの終了時に{@link BufferPoolHandler}が破棄したバッファの数を取得する。
+     *
+     * @return バッファの数
+     */
+    long getLeakCount();
+
+    /**
+     * 共有のプールに保持しているバッファの合計サイズを取得する。スレッドごとのキャッシュは含まない。
+     *
+     * @return 合計サイズ(バイト)
+     */
+    long getPooledBytes();
+}
@@ -0,0 +1,333 @@
+package nablarch.fw.web.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import nablarch.fw.web.buffer.BufferLeases;
+
+/**
+ * 書き込まれた内容を圧縮してレスポンスに出力する{@link ServletOutputStream}。
+ * <p/>
+ * 閾値までは書き込まれた内容を保持し、閾値を超えた時点で圧縮するか否かを決定する。
+ * 閾値に達しないまま{@link #close()}された場合は、圧縮せずに出力する。
+ * 圧縮する場合は、書き込まれた内容を逐次圧縮して出力するため、ボディ全体を保持することはない。
+ * <p/>
+ * 書き込まれた内容を保持するバッファと、圧縮した内容を書き込むバッファは、
+ * {@link BufferLeases}が指定された場合はプールから取得し、{@link #close()}または{@link #discard()}で返却する。
+ */
+class CompressingServletOutputStream extends ServletOutputStream {
+
+    /** gzip形式のヘッダ(圧縮方式:deflate、フラグ・更新日時・追加フラグなし、OS:不明) */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /** 圧縮した内容を書き込むバッファのサイズ */
+    private static final int DEFLATE_BUFFER_SIZE = 8192;
+
+    /** 圧縮するか否かを決定するレスポンス */
+    private final CompressingServletResponse response;
+
+    /** {@link Deflater}のプール */
+    private final DeflaterPool deflaterPool;
+
+    /** gzip形式で圧縮する場合は{@code true}、zlib形式で圧縮する場合は{@code false} */
+    private final boolean gzip;
+
+    /** バッファを取得したリース(プールから取得しない場合は{@code null}) */
+    private final BufferLeases leases;
+
+    /** 圧縮する最小のバイト数 */
+    private final int threshold;
+
+    /** {@link #pending}を取得したバッファ */
+    private ByteBuffer pendingBuffer;
+
+    /** 圧縮するか否かを決定するまで書き込まれた内容を保持するバッファ */
+    private byte[] pending;
+
+    /** {@link #pending}に保持しているバイト数 */
+    private int pendingCount;
+
+    /** {@link #deflateBuffer}を取得したバッファ */
+    private ByteBuffer deflateByteBuffer;
+
+    /** 圧縮した内容を書き込むバッファ */
+    private byte[] deflateBuffer;
+
+    /** 出力先(圧縮するか否かを決定するまでは{@code null}) */
+    private OutputStream out;
+
+    /** 圧縮に使用している{@link Deflater}(圧縮しない場合は{@code null}) */
+    private Deflater deflater;
+
+    /** gzip形式のトレーラに出力する、圧縮前の内容のCRC-32 */
+    private CRC32 crc;
+
+    /** 圧縮前のバイト数 */
+    private long inputBytes;
+
+    /** クローズ済みの場合は{@code true} */
+    private boolean closed;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param response 圧縮するか否かを決定するレスポンス
+     * @param deflaterPool {@link Deflater}のプール
+     * @param gzip gzip形式で圧縮する場合は{@code true}、zlib形式で圧縮する場合は{@code false}
+     * @param threshold 圧縮する最小のバイト数
+     * @param leases バッファを取得するリース(プールから取得しない場合は{@code null})
+     */
+    CompressingServletOutputStream(final CompressingServletResponse response, final DeflaterPool deflaterPool,
+            final boolean gzip, final int threshold, final BufferLeases leases) {
+        this.response = response;
+        this.deflaterPool = deflaterPool;
+        this.gzip = gzip;
+        this.threshold = threshold;
+        this.leases = leases;
+        if (leases != null) {
+            pendingBuffer = leases.acquireHeap(threshold);
+            pending = pendingBuffer.array();
+        } else {
+            pending = new byte[threshold];
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream has already been closed.");
+        }
+        if (out == null) {
+            if (pendingCount + len < threshold) {
+                System.arraycopy(b, off, pending, pendingCount, len);
+                pendingCount += len;
+                return;
+            }
+            start(true);
+        }
+        if (deflater != null) {
+            deflate(b, off, len);
+        } else {
+            out.write(b, off, len);
+        }
+    }
+
+    /**
+     * 出力をフラッシュする。
+     * <p/>
+     * 圧縮するか否かを決定する前は、閾値に達するまで出力しない。
+     * ただし、Content-Lengthが設定されている場合はその値から決定して出力する。
+     * 圧縮している場合は、それまでに書き込まれた内容を圧縮して出力する(SYNC_FLUSH)。
+     *
+     * @throws IOException 出力に失敗した場合
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (out == null) {
+            final long contentLength = response.getDeclaredContentLength();
+            if (contentLength < 0) {
+                return;
+            }
+            start(contentLength >= threshold);
+        }
+        if (deflater != null) {
+            drain(Deflater.SYNC_FLUSH);
+        }
+        out.flush();
+    }
+
+    /**
+     * 圧縮を完了する。{@link Deflater}とバッファはプールに返却する。
+     * <p/>
+     * 出力先のストリームはクローズしない。
+     *
+     * @throws IOException 出力に失敗した場合
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (out == null) {
+                start(false);
+            }
+            if (deflater == null) {
+                return;
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                final int count = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+                out.write(deflateBuffer, 0, count);
+            }
+            if (crc != null) {
+                writeIntLE(out, (int) crc.getValue());
+                writeIntLE(out, (int) inputBytes);
+            }
+        } finally {
+            releaseBuffers();
+        }
+    }
+
+    /**
+     * 書き込まれた内容を破棄し、以降は何も出力しない。{@link Deflater}とバッファはプールに返却する。
+     */
+    void discard() {
+        closed = true;
+        pendingCount = 0;
+        releaseBuffers();
+    }
+
+    /**
+     * 書き込まれた内容を破棄する。圧縮するか否かを決定した後は破棄できない。
+     *
+     * @throws IllegalStateException 圧縮するか否かを決定した後の場合
+     */
+    void resetBuffer() {
+        if (out != null) {
+            throw new IllegalStateException("response body has already been written.");
+        }
+        pendingCount = 0;
+    }
+
+    /**
+     * 圧縮するか否かを決定した場合は{@code true}。
+     *
+     * @return 圧縮するか否かを決定した場合は{@code true}
+     */
+    boolean isStarted() {
+        return out != null;
+    }
+
+    /**
+     * 圧縮するか否かを決定し、保持していた内容を出力する。
+     *
+     * @param largeEnough ボディのサイズが閾値以上の場合は{@code true}
+     * @throws IOException 出力に失敗した場合
+     */
+    private void start(final boolean largeEnough) throws IOException {
+        final boolean compress = response.decide(largeEnough);
+        out = response.getResponse().getOutputStream();
+        if (compress) {
+            deflater = deflaterPool.borrow(gzip);
+            if (leases != null) {
+                deflateByteBuffer = leases.acquireHeap(DEFLATE_BUFFER_SIZE);
+                deflateBuffer = deflateByteBuffer.array();
+            } else {
+                deflateBuffer = new byte[DEFLATE_BUFFER_SIZE];
+            }
+            if (gzip) {
+                crc = new CRC32();
+                out.write(GZIP_HEADER);
+            }
+        }
+        if (pendingCount > 0) {
+            if (deflater != null) {
+                deflate(pending, 0, pendingCount);
+            } else {
+                out.write(pending, 0, pendingCount);
+            }
+            pendingCount = 0;
+        }
+    }
+
+    /**
+     * 書き込まれた内容を圧縮して出力する。
+     *
+     * @param b 書き込まれた内容
+     * @param off 開始位置
+     * @param len バイト数
+     * @throws IOException 出力に失敗した場合
+     */
+    private void deflate(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        inputBytes += len;
+        if (crc != null) {
+            crc.update(b, off, len);
+        }
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            final int count = deflater.deflate(deflateBuffer, 0, deflateBuffer.length, Deflater.NO_FLUSH);
+            if (count > 0) {
+                out.write(deflateBuffer, 0, count);
+            }
+        }
+    }
+
+    /**
+     * {@link Deflater}が保持している内容を出力する。
+     *
+     * @param flush フラッシュモード
+     * @throws IOException 出力に失敗した場合
+     */
+    private void drain(final int flush) throws IOException {
+        int count;
+        do {
+            count = deflater.deflate(deflateBuffer, 0, deflateBuffer.length, flush);
+            out.write(deflateBuffer, 0, count);
+        } while (count == deflateBuffer.length);
+    }
+
+    /**
+     * {@link Deflater}をプールに、バッファをリースに返却する。
+     */
+    private void releaseBuffers() {
+        if (deflater != null) {
+            deflaterPool.release(deflater, gzip);
+            deflater = null;
+        }
+        if (leases != null) {
+            if (pendingBuffer != null) {
+                leases.release(pendingBuffer);
+                pendingBuffer = null;
+                pending = null;
+            }
+            if (deflateByteBuffer != null) {
+                leases.release(deflateByteBuffer);
+                deflateByteBuffer = null;
+                deflateBuffer = null;
+            }
+        }
+    }
+
+    /**
+     * 4バイトの整数をリトルエンディアンで出力する。
+     *
+     * @param target 出力先
+     * @param value 値
+     * @throws IOException 出力に失敗した場合
+     */
+    private static void writeIntLE(final OutputStream target, final int value) throws IOException {
+        target.write(value & 0xff);
+        target.write((value >>> 8) & 0xff);
+        target.write((value >>> 16) & 0xff);
+        target.write((value >>> 24) & 0xff);
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void setWriteListener(final WriteListener writeListener) {
+        throw new UnsupportedOperationException("non-blocking write is not supported by compressed response.");
+    }
+}
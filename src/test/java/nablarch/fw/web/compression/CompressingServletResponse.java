@@ -0,0 +1,221 @@
+package nablarch.fw.web.compression;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import nablarch.fw.web.buffer.BufferLeases;
+
+/**
+ * ボディを圧縮する{@link HttpServletResponse}。
+ * <p/>
+ * Content-Lengthはボディを書き込むまでラップしたレスポンスに設定せず、圧縮しないことを決定した時点で設定する。
+ * 圧縮する場合は、Content-Lengthを設定せずにContent-Encodingを設定する。
+ */
+class CompressingServletResponse extends HttpServletResponseWrapper {
+
+    /** Content-Lengthヘッダ */
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    /** 圧縮方式を決定したハンドラ */
+    private final ResponseCompressionHandler handler;
+
+    /** Content-Encodingに設定する値 */
+    private final String encoding;
+
+    /** ボディを圧縮するストリーム */
+    private final CompressingServletOutputStream stream;
+
+    /** 設定されたContent-Length(設定されていない場合は-1) */
+    private long declaredContentLength = -1;
+
+    /** {@link #getOutputStream()}を呼び出した場合は{@code true} */
+    private boolean streamUsed;
+
+    /** {@link #getWriter()}で取得したライタ */
+    private PrintWriter writer;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param response ラップするレスポンス
+     * @param handler 圧縮方式を決定したハンドラ
+     * @param encoding Content-Encodingに設定する値({@code gzip}または{@code deflate})
+     * @param leases バッファを取得するリース(プールから取得しない場合は{@code null})
+     */
+    CompressingServletResponse(final HttpServletResponse response, final ResponseCompressionHandler handler,
+            final String encoding, final BufferLeases leases) {
+        super(response);
+        this.handler = handler;
+        this.encoding = encoding;
+        stream = new CompressingServletOutputStream(this, handler.getDeflaterPool(), encoding.equals("gzip"),
+                handler.getThreshold(), leases);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called.");
+        }
+        streamUsed = true;
+        return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (streamUsed) {
+                throw new IllegalStateException("getOutputStream() has already been called.");
+            }
+            writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        stream.flush();
+        if (stream.isStarted()) {
+            super.flushBuffer();
+        }
+    }
+
+    @Override
+    public void resetBuffer() {
+        stream.resetBuffer();
+        super.resetBuffer();
+    }
+
+    @Override
+    public void reset() {
+        stream.resetBuffer();
+        declaredContentLength = -1;
+        super.reset();
+    }
+
+    @Override
+    public void sendError(final int sc) throws IOException {
+        stream.discard();
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(final int sc, final String msg) throws IOException {
+        stream.discard();
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(final String location) throws IOException {
+        stream.discard();
+        super.sendRedirect(location);
+    }
+
+    @Override
+    public void setContentLength(final int len) {
+        declaredContentLength = len;
+    }
+
+    @Override
+    public void setContentLengthLong(final long len) {
+        declaredContentLength = len;
+    }
+
+    @Override
+    public void setHeader(final String name, final String value) {
+        if (!captureContentLength(name, value)) {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(final String name, final String value) {
+        if (!captureContentLength(name, value)) {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(final String name, final int value) {
+        if (!captureContentLength(name, String.valueOf(value))) {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addIntHeader(final String name, final int value) {
+        if (!captureContentLength(name, String.valueOf(value))) {
+            super.addIntHeader(name, value);
+        }
+    }
+
+    /**
+     * Content-Lengthヘッダの場合は、値を保持する。
+     *
+     * @param name ヘッダ名
+     * @param value 値
+     * @return Content-Lengthヘッダの場合は{@code true}
+     */
+    private boolean captureContentLength(final String name, final String value) {
+        if (!CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            return false;
+        }
+        try {
+            declaredContentLength = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            declaredContentLength = -1;
+        }
+        return true;
+    }
+
+    /**
+     * 設定されたContent-Lengthを取得する。
+     *
+     * @return Content-Length(設定されていない場合は-1)
+     */
+    long getDeclaredContentLength() {
+        return declaredContentLength;
+    }
+
+    /**
+     * ボディを圧縮するか否かを決定し、ヘッダを設定する。
+     *
+     * @param largeEnough ボディのサイズが閾値以上の場合は{@code true}
+     * @return 圧縮する場合は{@code true}
+     */
+    boolean decide(final boolean largeEnough) {
+        final HttpServletResponse response = (HttpServletResponse) getResponse();
+        final boolean compressible = handler.isCompressible(response);
+        if (compressible) {
+            response.addHeader("Vary", "Accept-Encoding");
+        }
+        final boolean compress = compressible && largeEnough
+                && (declaredContentLength < 0 || declaredContentLength >= handler.getThreshold());
+        if (compress) {
+            response.setHeader("Content-Encoding", encoding);
+        } else if (declaredContentLength >= 0) {
+            // 2GBを超える場合もあるため、setContentLength(int)は使用しない
+            response.setHeader(CONTENT_LENGTH, String.valueOf(declaredContentLength));
+        }
+        return compress;
+    }
+
+    /**
+     * ボディの出力を完了する。
+     *
+     * @throws IOException 出力に失敗した場合
+     */
+    void finish() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        stream.close();
+    }
+}
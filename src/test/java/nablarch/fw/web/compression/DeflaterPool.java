@@ -0,0 +1,113 @@
+package nablarch.fw.web.compression;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * {@link Deflater}のプール。
+ * <p/>
+ * {@link Deflater}はネイティブメモリ上に圧縮用の領域を確保するため、レスポンスごとに生成・破棄せず、
+ * {@link Deflater#reset()}して再利用する。
+ * gzip形式(ヘッダなしのdeflate)とzlib形式({@code Content-Encoding: deflate})で、異なる{@link Deflater}を使用する。
+ * <p/>
+ * プールの上限を超えて返却された{@link Deflater}は、{@link Deflater#end()}で領域を解放する。
+ */
+public class DeflaterPool {
+
+    /** gzip形式で使用する{@link Deflater} */
+    private final Queue<Deflater> gzipPool = new ConcurrentLinkedQueue<Deflater>();
+
+    /** gzip形式で使用する{@link Deflater}のプール数 */
+    private final AtomicInteger gzipPooledCount = new AtomicInteger();
+
+    /** zlib形式で使用する{@link Deflater} */
+    private final Queue<Deflater> zlibPool = new ConcurrentLinkedQueue<Deflater>();
+
+    /** zlib形式で使用する{@link Deflater}のプール数 */
+    private final AtomicInteger zlibPooledCount = new AtomicInteger();
+
+    /** 生成した{@link Deflater}の数 */
+    private final AtomicLong createdCount = new AtomicLong();
+
+    /** 圧縮レベル */
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    /** 形式ごとにプールする{@link Deflater}の上限数 */
+    private int maxPoolSize = 64;
+
+    /**
+     * 圧縮レベル(0~9)を設定する。デフォルトは{@link Deflater#DEFAULT_COMPRESSION}(6)。
+     * <p/>
+     * 設定後に生成する{@link Deflater}に適用する。
+     *
+     * @param level 圧縮レベル
+     */
+    public void setLevel(final int level) {
+        this.level = level;
+    }
+
+    /**
+     * 形式ごとにプールする{@link Deflater}の上限数を設定する。デフォルトは64。
+     * <p/>
+     * 0を指定した場合は、プールせずに毎回生成・解放する。
+     *
+     * @param maxPoolSize 上限数
+     */
+    public void setMaxPoolSize(final int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * {@link Deflater}を取得する。プールが空の場合は生成する。
+     *
+     * @param gzip gzip形式で使用する場合は{@code true}、zlib形式で使用する場合は{@code false}
+     * @return {@link Deflater}
+     */
+    public Deflater borrow(final boolean gzip) {
+        final Deflater deflater = (gzip ? gzipPool : zlibPool).poll();
+        if (deflater != null) {
+            (gzip ? gzipPooledCount : zlibPooledCount).decrementAndGet();
+            return deflater;
+        }
+        createdCount.incrementAndGet();
+        return new Deflater(level, gzip);
+    }
+
+    /**
+     * {@link Deflater}を返却する。
+     *
+     * @param deflater {@link #borrow(boolean)}で取得した{@link Deflater}
+     * @param gzip {@link #borrow(boolean)}に指定した値
+     */
+    public void release(final Deflater deflater, final boolean gzip) {
+        final AtomicInteger pooledCount = gzip ? gzipPooledCount : zlibPooledCount;
+        if (pooledCount.incrementAndGet() > maxPoolSize) {
+            pooledCount.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        (gzip ? gzipPool : zlibPool).offer(deflater);
+    }
+
+    /**
+     * 生成した{@link Deflater}の数を取得する。
+     *
+     * @return 生成した{@link Deflater}の数
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * プールしている{@link Deflater}の数を取得する。
+     *
+     * @return プールしている{@link Deflater}の数(gzip形式とzlib形式の合計)
+     */
+    public int getPooledCount() {
+        return gzipPooledCount.get() + zlibPooledCount.get();
+    }
+}
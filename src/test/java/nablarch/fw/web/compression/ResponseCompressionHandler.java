@@ -0,0 +1,249 @@
+package nablarch.fw.web.compression;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.http.HttpServletResponse;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.buffer.BufferLeases;
+import nablarch.fw.web.handler.HttpResponseHandler;
+import nablarch.fw.web.instrumentation.HandlerInstrumentation;
+import nablarch.fw.web.servlet.ServletExecutionContext;
+
+/**
+ * Accept-Encodingに応じて、レスポンスのボディをgzipまたはdeflateで圧縮するハンドラ。
+ * <p/>
+ * {@link ServletExecutionContext}が保持するレスポンスは変更できないため、
+ * 後続ハンドラには、ボディを圧縮するレスポンスを保持する{@link ServletExecutionContext}を新たに生成して渡す。
+ * {@code HttpResponseHandler}がレスポンスに書き込む内容(JSPの出力を含む)は、逐次圧縮して出力するため、
+ * ボディ全体をヒープ上に保持することはない。圧縮に使用する{@link java.util.zip.Deflater}は{@link DeflaterPool}で再利用する。
+ * {@link nablarch.fw.web.buffer.BufferPoolHandler}が設定されている場合、圧縮に使用するバッファはプールから取得する。
+ * <p/>
+ * 以下のレスポンスは圧縮しない。
+ * <ul>
+ *     <li>ボディが閾値({@link #setThreshold(int)})未満の場合</li>
+ *     <li>Content-Typeが圧縮済みの形式({@link #setExcludedContentTypes(List)})の場合</li>
+ *     <li>既にContent-Encodingが設定されている場合</li>
+ *     <li>Rangeリクエストに対応する(Accept-Rangesが設定されている)場合や、ステータスコードが204・206・304の場合</li>
+ *     <li>HEADリクエストの場合</li>
+ * </ul>
+ * 圧縮の対象となるContent-Typeの場合は、圧縮の有無に関わらず{@code Vary: Accept-Encoding}を設定する。
+ * <p/>
+ * 本ハンドラは{@link HttpResponseHandler}の直前に設定すること。直前に設定されていない場合は、{@link IllegalStateException}を送出する。
+ * 新たに生成した{@link ServletExecutionContext}は、サーブレットのリクエスト・セッションに保持する値(リクエストスコープ、
+ * セッションスコープ)のみを引き継ぎ、それ以外の実行コンテキストの状態は引き継がない。
+ * このため、実行コンテキストに状態を設定するハンドラ({@code SessionStoreHandler}など)は本ハンドラより後に設定すること。
+ * 後続ハンドラには、本ハンドラが受け取った{@link HttpRequest}をそのまま渡す(リクエストを再度解析しない)。
+ */
+public class ResponseCompressionHandler implements Handler<HttpRequest, Object> {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(ResponseCompressionHandler.class);
+
+    /** デフォルトの圧縮しないContent-Type */
+    private static final List<String> DEFAULT_EXCLUDED_CONTENT_TYPES = Arrays.asList(
+            "image/png", "image/jpeg", "image/gif", "image/webp", "video/*", "audio/*",
+            "application/zip", "application/gzip", "application/x-gzip", "application/pdf",
+            "application/octet-stream", "font/woff", "font/woff2");
+
+    /** 圧縮する最小のバイト数 */
+    private int threshold = 1024;
+
+    /** 圧縮しないContent-Type(小文字) */
+    private List<String> excludedContentTypes = DEFAULT_EXCLUDED_CONTENT_TYPES;
+
+    /** {@link java.util.zip.Deflater}のプール */
+    private DeflaterPool deflaterPool = new DeflaterPool();
+
+    /**
+     * 圧縮する最小のバイト数を設定する。デフォルトは1024。
+     * <p/>
+     * 圧縮するか否かを決定するまで、この大きさのバッファにボディを保持する。
+     *
+     * @param threshold 圧縮する最小のバイト数
+     */
+    public void setThreshold(final int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * 圧縮しないContent-Typeを設定する。
+     * <p/>
+     * {@code video/*}のように、サブタイプに{@code *}を指定できる。
+     * デフォルトは、画像・動画・音声・アーカイブ・PDF・フォントなど、圧縮済みの形式。
+     *
+     * @param excludedContentTypes 圧縮しないContent-Type
+     */
+    public void setExcludedContentTypes(final List<String> excludedContentTypes) {
+        final List<String> lowerCase = new ArrayList<String>(excludedContentTypes.size());
+        for (String contentType : excludedContentTypes) {
+            lowerCase.add(contentType.trim().toLowerCase(Locale.ENGLISH));
+        }
+        this.excludedContentTypes = lowerCase;
+    }
+
+    /**
+     * {@link java.util.zip.Deflater}のプールを設定する。
+     *
+     * @param deflaterPool {@link java.util.zip.Deflater}のプール
+     */
+    public void setDeflaterPool(final DeflaterPool deflaterPool) {
+        this.deflaterPool = deflaterPool;
+    }
+
+    /**
+     * {@link java.util.zip.Deflater}のプールを取得する。
+     *
+     * @return {@link java.util.zip.Deflater}のプール
+     */
+    public DeflaterPool getDeflaterPool() {
+        return deflaterPool;
+    }
+
+    /**
+     * 圧縮する最小のバイト数を取得する。
+     *
+     * @return 圧縮する最小のバイト数
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public Object handle(final HttpRequest request, final ExecutionContext context) {
+        if (!(context instanceof ServletExecutionContext) || request.getMethod().equalsIgnoreCase("HEAD")) {
+            return context.handleNext(request);
+        }
+        final ServletExecutionContext servletContext = (ServletExecutionContext) context;
+        final String encoding = negotiate(servletContext.getServletRequest().getHeader("Accept-Encoding"));
+        if (encoding == null) {
+            return context.handleNext(request);
+        }
+
+        checkPlacement(context);
+        final CompressingServletResponse response = new CompressingServletResponse(
+                servletContext.getServletResponse(), this, encoding, BufferLeases.get(context));
+        final ServletExecutionContext compressingContext = new ServletExecutionContext(
+                servletContext.getServletRequest(), response, servletContext.getServletContext());
+        compressingContext.setHandlerQueue(context.getHandlerQueue());
+        try {
+            return compressingContext.handleNext(request);
+        } finally {
+            try {
+                response.finish();
+            } catch (IOException e) {
+                // クライアントが切断した場合など。レスポンスはコミット済みのため、エラー画面には遷移できない
+                LOGGER.logDebug("failed to finish compressed response. cause = [" + e.getMessage() + ']');
+            }
+        }
+    }
+
+    /**
+     * 本ハンドラが{@link HttpResponseHandler}の直前に設定されていることを確認する。
+     * <p/>
+     * {@link HandlerInstrumentation}で計測している場合は、ラップされた元のハンドラで判定する。
+     *
+     * @param context 実行コンテキスト
+     * @throws IllegalStateException 直前に設定されていない場合
+     */
+    static void checkPlacement(final ExecutionContext context) {
+        final List<Handler> handlerQueue = context.getHandlerQueue();
+        Object next = handlerQueue.isEmpty() ? null : handlerQueue.get(0);
+        if (next instanceof HandlerInstrumentation.InstrumentedHandler) {
+            next = ((HandlerInstrumentation.InstrumentedHandler) next).getDelegate();
+        }
+        if (!(next instanceof HttpResponseHandler)) {
+            throw new IllegalStateException("ResponseCompressionHandler must be placed immediately before HttpResponseHandler."
+                    + " next handler = [" + (next == null ? null : next.getClass().getName()) + ']');
+        }
+    }
+
+    /**
+     * Accept-Encodingから圧縮方式を決定する。
+     * <p/>
+     * gzipとdeflateのうち、qの値が大きい方を選択する。同じ場合はgzipを選択する。
+     *
+     * @param acceptEncoding Accept-Encoding
+     * @return 圧縮方式({@code gzip}または{@code deflate}。圧縮しない場合は{@code null})
+     */
+    static String negotiate(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        float gzip = -1;
+        float deflate = -1;
+        float wildcard = -1;
+        for (String element : acceptEncoding.split(",")) {
+            final String[] params = element.split(";");
+            final String coding = params[0].trim().toLowerCase(Locale.ENGLISH);
+            float q = 1;
+            for (int i = 1; i < params.length; i++) {
+                final String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = Math.max(gzip, q);
+            } else if (coding.equals("deflate")) {
+                deflate = q;
+            } else if (coding.equals("*")) {
+                wildcard = q;
+            }
+        }
+        if (gzip < 0) {
+            gzip = wildcard;
+        }
+        if (deflate < 0) {
+            deflate = wildcard;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return "gzip";
+        }
+        return deflate > 0 ? "deflate" : null;
+    }
+
+    /**
+     * レスポンスのボディを圧縮できるか否か。
+     *
+     * @param response ボディを書き込む前のレスポンス
+     * @return 圧縮できる場合は{@code true}
+     */
+    boolean isCompressible(final HttpServletResponse response) {
+        final int status = response.getStatus();
+        if (status == HttpServletResponse.SC_NO_CONTENT || status == HttpServletResponse.SC_PARTIAL_CONTENT
+                || status == HttpServletResponse.SC_NOT_MODIFIED) {
+            return false;
+        }
+        if (response.getHeader("Content-Encoding") != null || response.getHeader("Accept-Ranges") != null) {
+            return false;
+        }
+        final String contentType = response.getContentType();
+        if (contentType == null) {
+            return true;
+        }
+        final int parameterIndex = contentType.indexOf(';');
+        final String mimeType = (parameterIndex < 0 ? contentType : contentType.substring(0, parameterIndex))
+                .trim().toLowerCase(Locale.ENGLISH);
+        for (String excluded : excludedContentTypes) {
+            if (excluded.endsWith("/*")
+                    ? mimeType.startsWith(excluded.substring(0, excluded.length() - 1))
+                    : mimeType.equals(excluded)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,63 @@
+package nablarch.fw.web.compression;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.handler.GlobalErrorHandler;
+import nablarch.fw.web.handler.HttpResponseHandler;
+import nablarch.fw.web.instrumentation.HandlerInstrumentation;
+
+/**
+ * {@link ResponseCompressionHandler}のテストクラス。
+ */
+public class ResponseCompressionHandlerTest {
+
+    /**
+     * 後続のハンドラが{@link HttpResponseHandler}の場合は、設定位置が正しいと判定されることを確認するケース。
+     * <p/>
+     * 処理時間を計測するハンドラでラップされている場合も、元のハンドラで判定すること。
+     */
+    @Test
+    public void testCheckPlacement() {
+        ResponseCompressionHandler.checkPlacement(new ExecutionContext().setHandlerQueue(
+                Arrays.<Handler>asList(new HttpResponseHandler(), new GlobalErrorHandler())));
+
+        final List<Handler> wrapped = new HandlerInstrumentation(10, false, false).wrap(
+                Arrays.<Handler>asList(new HttpResponseHandler(), new GlobalErrorHandler()));
+        ResponseCompressionHandler.checkPlacement(new ExecutionContext().setHandlerQueue(wrapped));
+    }
+
+    /**
+     * 後続のハンドラが{@link HttpResponseHandler}でない場合に、例外が送出されることを確認するケース。
+     */
+    @Test
+    public void testCheckPlacement_invalid() {
+        assertInvalidPlacement(Arrays.<Handler>asList(new GlobalErrorHandler(), new HttpResponseHandler()),
+                GlobalErrorHandler.class.getName());
+        assertInvalidPlacement(Arrays.<Handler>asList(), "null");
+    }
+
+    /**
+     * 設定位置が正しくないと判定されることを確認する。
+     *
+     * @param handlerQueue 後続のハンドラキュー
+     * @param nextHandler 例外のメッセージに含まれる後続のハンドラ
+     */
+    private static void assertInvalidPlacement(final List<Handler> handlerQueue, final String nextHandler) {
+        try {
+            ResponseCompressionHandler.checkPlacement(new ExecutionContext().setHandlerQueue(handlerQueue));
+            fail("HttpResponseHandlerの直前に設定されていないため、例外が発生する。");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("ResponseCompressionHandler must be placed immediately before HttpResponseHandler."
+                    + " next handler = [" + nextHandler + ']'));
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package nablarch.fw.web.handler;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.Interceptor;
+import nablarch.fw.web.HttpErrorResponse;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.HttpResponse;
+
+/**
+ * リクエストパスと業務Actionのメソッドの対応をキャッシュする{@link HttpRequestJavaPackageMapping}。
+ * <p/>
+ * リクエストパスとHTTPメソッドの組ごとに、初回のリクエストで業務Actionのクラスとメソッドを解決し、
+ * 以降のリクエストではクラスの検索やリフレクションによるメソッドの検索を行わない。
+ * 業務Actionの生成とメソッドの呼び出しには、{@link LambdaMetafactory}で生成した呼び出し用のクラスを使用する。
+ * <p/>
+ * {@link HttpRequestJavaPackageMapping}と同様に、業務Actionを呼び出すハンドラをハンドラキューの末尾に追加し、
+ * {@link ExecutionContext#handleNext(Object)}で呼び出す。
+ * ただし、追加するハンドラは{@link HttpMethodBinding}ではないため、以下の点が異なる。
+ * <ul>
+ *     <li>ハンドラキューに追加されたハンドラの型から、業務Actionのクラスや呼び出すメソッドは取得できない</li>
+ *     <li>{@link HttpMethodBinding}をサブクラス化して追加した処理は行われない</li>
+ * </ul>
+ * これらに依存する業務Actionは、本クラスではなく{@link HttpRequestJavaPackageMapping}で呼び出すこと。
+ * <p/>
+ * 以下の場合は、従来どおり{@link HttpRequestJavaPackageMapping}に処理を委譲する。
+ * <ul>
+ *     <li>メソッドにインターセプタ({@link Interceptor}が付与されたアノテーション)が設定されている場合</li>
+ *     <li>業務Actionが{@link Handler}を実装している場合</li>
+ *     <li>リクエストパスに対応するメソッドを一意に解決できない場合</li>
+ * </ul>
+ * キャッシュするリクエストパスの数は{@link #setMaxCachedRoutes(int)}で制限する。
+ * <p/>
+ * リクエストパスに対応する業務Actionのクラスが存在しない場合は404を返す。
+ * この結果は、上記のキャッシュとは別に、最近使用されたものを{@link #setMaxNotFoundRoutes(int)}件まで保持する。
+ * 存在しないリクエストパスを大量に送信された場合でも、業務Actionのルートのキャッシュは使い切られない。
+ */
+public class CachedHttpRequestJavaPackageMapping implements Handler<HttpRequest, Object> {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(CachedHttpRequestJavaPackageMapping.class);
+
+    /** 業務Actionのメソッドの引数 */
+    private static final Class<?>[] ACTION_PARAMETER_TYPES = {HttpRequest.class, ExecutionContext.class};
+
+    /** 委譲先の{@link HttpRequestJavaPackageMapping}に処理を委譲するルート */
+    private static final Route DELEGATE = new Route();
+
+    /** 業務Actionのクラスが存在しないルート */
+    private static final Route NOT_FOUND = new Route();
+
+    /** 委譲先 */
+    private final HttpRequestJavaPackageMapping delegate = new HttpRequestJavaPackageMapping();
+
+    /** ルート(キーはHTTPメソッドとリクエストパス) */
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+
+    /** キャッシュしたルートの数 */
+    private final AtomicInteger cachedRoutes = new AtomicInteger();
+
+    /** 業務Actionのクラスが存在しないルート(キーはHTTPメソッドとリクエストパス、最近使用された順) */
+    private final Map<String, Boolean> notFoundRoutes = Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                    return size() > maxNotFoundRoutes;
+                }
+            });
+
+    /** ベースURI */
+    private String baseUri = "";
+
+    /** ベースパッケージ */
+    private String basePackage = "";
+
+    /** キャッシュするルートの数の上限 */
+    private int maxCachedRoutes = 10000;
+
+    /** 保持する業務Actionのクラスが存在しないルートの数の上限 */
+    private volatile int maxNotFoundRoutes = 1000;
+
+    /**
+     * ベースURIを設定する。
+     *
+     * @param baseUri ベースURI
+     */
+    public void setBaseUri(final String baseUri) {
+        this.baseUri = baseUri.endsWith("/") ? baseUri : baseUri + '/';
+        delegate.setBaseUri(baseUri);
+    }
+
+    /**
+     * ベースパッケージを設定する。
+     *
+     * @param basePackage ベースパッケージ
+     */
+    public void setBasePackage(final String basePackage) {
+        this.basePackage = basePackage;
+        delegate.setBasePackage(basePackage);
+    }
+
+    /**
+     * キャッシュするルートの数の上限を設定する。
+     * <p/>
+     * 上限に達した後は、キャッシュされていないリクエストパスは都度解決する。デフォルトは10000。
+     *
+     * @param maxCachedRoutes キャッシュするルートの数の上限
+     */
+    public void setMaxCachedRoutes(final int maxCachedRoutes) {
+        this.maxCachedRoutes = maxCachedRoutes;
+    }
+
+    /**
+     * 保持する業務Actionのクラスが存在しないルートの数の上限を設定する。
+     * <p/>
+     * 上限を超えた場合は、最も長く使用されていないものから破棄する。
+     * {@code 0}を指定した場合は保持しない。デフォルトは1000。
+     *
+     * @param maxNotFoundRoutes 保持する業務Actionのクラスが存在しないルートの数の上限
+     */
+    public void setMaxNotFoundRoutes(final int maxNotFoundRoutes) {
+        this.maxNotFoundRoutes = maxNotFoundRoutes;
+    }
+
+    /**
+     * キャッシュしたルートの数を取得する。
+     *
+     * @return キャッシュしたルートの数
+     */
+    public int getCachedRouteCount() {
+        return cachedRoutes.get();
+    }
+
+    /**
+     * 保持している業務Actionのクラスが存在しないルートの数を取得する。
+     *
+     * @return 業務Actionのクラスが存在しないルートの数
+     */
+    public int getNotFoundRouteCount() {
+        return notFoundRoutes.size();
+    }
+
+    @Override
+    public Object handle(final HttpRequest request, final ExecutionContext context) {
+        final String key = request.getMethod() + ' ' + request.getRequestPath();
+        Route route = routes.get(key);
+        if (route == null) {
+            if (notFoundRoutes.get(key) != null) {
+                throw new HttpErrorResponse(HttpResponse.Status.NOT_FOUND.getStatusCode());
+            }
+            route = resolve(request.getMethod(), request.getRequestPath());
+            if (route == NOT_FOUND) {
+                notFoundRoutes.put(key, Boolean.TRUE);
+                throw new HttpErrorResponse(HttpResponse.Status.NOT_FOUND.getStatusCode());
+            }
+            if (cachedRoutes.get() < maxCachedRoutes && routes.putIfAbsent(key, route) == null) {
+                cachedRoutes.incrementAndGet();
+            }
+        }
+        if (route == DELEGATE) {
+            return delegate.handle(request, context);
+        }
+        context.addHandler(route);
+        return context.handleNext(request);
+    }
+
+    /**
+     * リクエストパスに対応するルートを解決する。
+     *
+     * @param httpMethod HTTPメソッド
+     * @param path リクエストパス
+     * @return ルート
+     */
+    private Route resolve(final String httpMethod, final String path) {
+        if (!path.startsWith(baseUri)) {
+            return DELEGATE;
+        }
+        final String resource = path.substring(baseUri.length());
+        final int lastSlash = resource.lastIndexOf('/');
+        if (lastSlash <= 0 || lastSlash == resource.length() - 1) {
+            return DELEGATE;
+        }
+        final String className = basePackage + '.' + resource.substring(0, lastSlash).replace('/', '.');
+        final Class<?> actionClass;
+        try {
+            actionClass = Class.forName(className, false, classLoader());
+        } catch (ClassNotFoundException e) {
+            return NOT_FOUND;
+        } catch (LinkageError e) {
+            return DELEGATE;
+        }
+        if (!Modifier.isPublic(actionClass.getModifiers()) || Handler.class.isAssignableFrom(actionClass)) {
+            return DELEGATE;
+        }
+        final Method method = findMethod(actionClass, httpMethod, resource.substring(lastSlash + 1));
+        if (method == null || hasInterceptor(method)) {
+            return DELEGATE;
+        }
+        try {
+            return compile(actionClass, method);
+        } catch (Throwable e) {
+            LOGGER.logWarn("failed to compile action route. use reflection instead. method = [" + method + "]", e);
+            return reflect(actionClass, method);
+        }
+    }
+
+    /**
+     * リソース名に対応する業務Actionのメソッドを検索する。
+     * <p/>
+     * 「HTTPメソッド名(小文字)+リソース名」のメソッドを優先し、存在しない場合は「do+リソース名」のメソッドとする。
+     * メソッド名の大文字・小文字は区別しない。
+     *
+     * @param actionClass 業務Actionのクラス
+     * @param httpMethod HTTPメソッド
+     * @param resourceName リソース名
+     * @return メソッド(一意に解決できない場合は{@code null})
+     */
+    private static Method findMethod(final Class<?> actionClass, final String httpMethod, final String resourceName) {
+        final Method method = findMethod(actionClass, httpMethod.toLowerCase(Locale.ENGLISH) + resourceName);
+        return method != null ? method : findMethod(actionClass, "do" + resourceName);
+    }
+
+    /**
+     * 業務Actionのメソッドを検索する。
+     *
+     * @param actionClass 業務Actionのクラス
+     * @param methodName メソッド名
+     * @return メソッド(一意に解決できない場合は{@code null})
+     */
+    private static Method findMethod(final Class<?> actionClass, final String methodName) {
+        Method found = null;
+        for (Method method : actionClass.getMethods()) {
+            if (!method.getName().equalsIgnoreCase(methodName)) {
+                continue;
+            }
+            if (found != null || Modifier.isStatic(method.getModifiers())
+                    || !Arrays.equals(method.getParameterTypes(), ACTION_PARAMETER_TYPES)
+                    || method.getReturnType().isPrimitive()) {
+                return null;
+            }
+            found = method;
+        }
+        return found;
+    }
+
+    /**
+     * メソッドにインターセプタが設定されているか否か。
+     *
+     * @param method メソッド
+     * @return インターセプタが設定されている場合は{@code true}
+     */
+    private static boolean hasInterceptor(final Method method) {
+        for (Annotation annotation : method.getAnnotations()) {
+            if (annotation.annotationType().isAnnotationPresent(Interceptor.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 業務Actionの生成とメソッドの呼び出しを行うクラスを生成する。
+     *
+     * @param actionClass 業務Actionのクラス
+     * @param method メソッド
+     * @return ルート
+     * @throws Throwable 生成に失敗した場合
+     */
+    private static Route compile(final Class<?> actionClass, final Method method) throws Throwable {
+        if (Class.forName(actionClass.getName(), false, CachedHttpRequestJavaPackageMapping.class.getClassLoader())
+                != actionClass) {
+            throw new IllegalStateException("action class is not visible from " + CachedHttpRequestJavaPackageMapping.class);
+        }
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        final MethodHandle constructor = lookup.findConstructor(actionClass, MethodType.methodType(void.class));
+        final CallSite factorySite = LambdaMetafactory.metafactory(lookup, "create",
+                MethodType.methodType(ActionFactory.class),
+                MethodType.methodType(Object.class),
+                constructor,
+                MethodType.methodType(actionClass));
+
+        final MethodHandle target = lookup.unreflect(method);
+        final CallSite invokerSite = LambdaMetafactory.metafactory(lookup, "invoke",
+                MethodType.methodType(ActionInvoker.class),
+                MethodType.methodType(Object.class, Object.class, HttpRequest.class, ExecutionContext.class),
+                target,
+                MethodType.methodType(method.getReturnType(), actionClass, HttpRequest.class, ExecutionContext.class));
+
+        return new Route((ActionFactory) factorySite.getTarget().invokeWithArguments(),
+                (ActionInvoker) invokerSite.getTarget().invokeWithArguments());
+    }
+
+    /**
+     * リフレクションで業務Actionの生成とメソッドの呼び出しを行うルートを生成する。
+     *
+     * @param actionClass 業務Actionのクラス
+     * @param method メソッド
+     * @return ルート
+     */
+    private static Route reflect(final Class<?> actionClass, final Method method) {
+        final Constructor<?> constructor;
+        try {
+            constructor = actionClass.getConstructor();
+        } catch (NoSuchMethodException e) {
+            return DELEGATE;
+        }
+        return new Route(
+                new ActionFactory() {
+                    @Override
+                    public Object create() {
+                        try {
+                            return constructor.newInstance();
+                        } catch (InvocationTargetException e) {
+                            throw rethrow(e.getCause());
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                },
+                new ActionInvoker() {
+                    @Override
+                    public Object invoke(final Object action, final HttpRequest request, final ExecutionContext context) {
+                        try {
+                            return method.invoke(action, request, context);
+                        } catch (InvocationTargetException e) {
+                            throw rethrow(e.getCause());
+                        } catch (IllegalAccessException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * 業務Actionで発生した例外を送出する。
+     *
+     * @param cause 業務Actionで発生した例外
+     * @return 呼び出し元で{@code throw}するための戻り値(実際には返らない)
+     */
+    private static RuntimeException rethrow(final Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new RuntimeException(cause);
+    }
+
+    /**
+     * 業務Actionのクラスをロードするクラスローダを取得する。
+     *
+     * @return クラスローダ
+     */
+    private static ClassLoader classLoader() {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        return contextClassLoader != null ? contextClassLoader : CachedHttpRequestJavaPackageMapping.class.getClassLoader();
+    }
+
+    /**
+     * 業務Actionを生成するインタフェース。
+     */
+    interface ActionFactory {
+
+        /**
+         * 業務Actionを生成する。
+         *
+         * @return 業務Action
+         */
+        Object create();
+    }
+
+    /**
+     * 業務Actionのメソッドを呼び出すインタフェース。
+     */
+    interface ActionInvoker {
+
+        /**
+         * 業務Actionのメソッドを呼び出す。
+         *
+         * @param action 業務Action
+         * @param request リクエスト
+         * @param context 実行コンテキスト
+         * @return メソッドの戻り値
+         */
+        Object invoke(Object action, HttpRequest request, ExecutionContext context);
+    }
+
+    /**
+     * リクエストパスに対応する業務Actionの呼び出し方法。
+     * <p/>
+     * ハンドラキューに追加され、リクエストごとに業務Actionを生成してメソッドを呼び出す。
+     */
+    private static final class Route implements Handler<HttpRequest, Object> {
+
+        /** 業務Actionを生成するインタフェース */
+        private final ActionFactory factory;
+
+        /** 業務Actionのメソッドを呼び出すインタフェース */
+        private final ActionInvoker invoker;
+
+        /**
+         * 業務Actionを呼び出さないルートを生成する。
+         */
+        Route() {
+            this(null, null);
+        }
+
+        /**
+         * コンストラクタ。
+         *
+         * @param factory 業務Actionを生成するインタフェース
+         * @param invoker 業務Actionのメソッドを呼び出すインタフェース
+         */
+        Route(final ActionFactory factory, final ActionInvoker invoker) {
+            this.factory = factory;
+            this.invoker = invoker;
+        }
+
+        @Override
+        public Object handle(final HttpRequest request, final ExecutionContext context) {
+            return invoker.invoke(factory.create(), request, context);
+        }
+    }
+}
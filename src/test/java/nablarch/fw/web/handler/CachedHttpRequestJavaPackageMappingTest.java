@@ -0,0 +1,134 @@
+package nablarch.fw.web.handler;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.web.HttpErrorResponse;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.HttpResponse;
+import nablarch.fw.web.MockHttpRequest;
+
+/**
+ * {@link CachedHttpRequestJavaPackageMapping}のテストクラス。
+ */
+public class CachedHttpRequestJavaPackageMappingTest {
+
+    /** テスト用の業務Actionのリクエストパス */
+    private static final String ACTION_PATH = "/action/CachedHttpRequestJavaPackageMappingTest$TestAction/";
+
+    private final CachedHttpRequestJavaPackageMapping sut = new CachedHttpRequestJavaPackageMapping();
+
+    {
+        sut.setBaseUri("/action/");
+        sut.setBasePackage("nablarch.fw.web.handler");
+    }
+
+    /**
+     * 業務Actionを呼び出すハンドラがハンドラキューに追加され、
+     * 後続のハンドラとして業務Actionが呼び出されることを確認するケース。
+     */
+    @Test
+    public void testHandle_handlerQueue() {
+        final List<Handler<?, ?>> added = new ArrayList<Handler<?, ?>>();
+        for (int i = 0; i < 2; i++) {
+            final ExecutionContext context = new ExecutionContext() {
+                @Override
+                public ExecutionContext addHandler(final Handler<?, ?> handler) {
+                    added.add(handler);
+                    return super.addHandler(handler);
+                }
+            };
+            context.setRequestScopedVar("value", "queued" + i);
+            final HttpResponse response = handle("Queue", context);
+            assertThat(response.getStatusCode(), is(200));
+            assertThat(context.<String>getRequestScopedVar("result"), is("queued" + i));
+        }
+        assertThat(added.size(), is(2));
+        assertThat(sut.getCachedRouteCount(), is(1));
+    }
+
+    /**
+     * 業務Actionのクラスが存在しないリクエストパスは404となり、
+     * 業務Actionのルートとは別に、上限までの件数だけ保持されることを確認するケース。
+     */
+    @Test
+    public void testHandle_notFound() {
+        sut.setMaxCachedRoutes(1);
+        sut.setMaxNotFoundRoutes(2);
+        for (int i = 0; i < 5; i++) {
+            assertNotFound("/action/NoSuchAction" + i + "/Index");
+        }
+        assertNotFound("/action/NoSuchAction4/Index");
+        assertThat(sut.getNotFoundRouteCount(), is(2));
+        assertThat(sut.getCachedRouteCount(), is(0));
+
+        // 存在しないリクエストパスで、業務Actionのルートのキャッシュが使い切られない。
+        assertThat(handle("Queue", new ExecutionContext()).getStatusCode(), is(200));
+        assertThat(sut.getCachedRouteCount(), is(1));
+    }
+
+    /**
+     * 保持する件数の上限に0を指定した場合、業務Actionのクラスが存在しないリクエストパスを保持しないことを確認するケース。
+     */
+    @Test
+    public void testHandle_notFound_notCached() {
+        sut.setMaxNotFoundRoutes(0);
+        assertNotFound("/action/NoSuchAction/Index");
+        assertNotFound("/action/NoSuchAction/Index");
+        assertThat(sut.getNotFoundRouteCount(), is(0));
+    }
+
+    /**
+     * テスト用の業務Actionを呼び出す。
+     *
+     * @param method 業務Actionのメソッド名(doを除く)
+     * @param context 実行コンテキスト
+     * @return レスポンス
+     */
+    private HttpResponse handle(final String method, final ExecutionContext context) {
+        final List<Handler<?, ?>> handlerQueue = new ArrayList<Handler<?, ?>>();
+        handlerQueue.add(sut);
+        context.setHandlerQueue(handlerQueue);
+        return context.handleNext(new MockHttpRequest().setMethod("GET").setRequestPath(ACTION_PATH + method));
+    }
+
+    /**
+     * リクエストパスが404となることを確認する。
+     *
+     * @param path リクエストパス
+     */
+    private void assertNotFound(final String path) {
+        try {
+            sut.handle(new MockHttpRequest().setMethod("GET").setRequestPath(path), new ExecutionContext());
+            fail("業務Actionのクラスが存在しないため、例外が発生する。");
+        } catch (HttpErrorResponse e) {
+            assertThat(e.getResponse().getStatusCode(), is(404));
+        }
+    }
+
+    /**
+     * テスト用の業務Action。
+     */
+    public static class TestAction {
+
+        /**
+         * リクエストスコープの値をコピーする。
+         *
+         * @param request リクエスト
+         * @param context 実行コンテキスト
+         * @return レスポンス
+         */
+        public HttpResponse doQueue(HttpRequest request, ExecutionContext context) {
+            context.setRequestScopedVar("result", context.getRequestScopedVar("value"));
+            return new HttpResponse();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package nablarch.fw.web.handler;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletResponse;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.web.FileHttpResponse;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.HttpResponse;
+import nablarch.fw.web.buffer.BufferLeases;
+import nablarch.fw.web.servlet.ServletExecutionContext;
+
+/**
+ * 後続ハンドラが返した{@link FileHttpResponse}のボディを、ヒープに読み込まずにクライアントに転送するハンドラ。
+ * <p/>
+ * ボディは固定長のバッファを経由してサーブレットの出力ストリームに書き込むため、
+ * ファイルサイズに関わらずヒープの使用量は増加しない。
+ * サーブレットAPIはソケットのチャネルを公開しないため、OSのsendfileなどによるゼロコピー転送は行わない。
+ * バッファは、{@link nablarch.fw.web.buffer.BufferPoolHandler}が設定されている場合はプールから取得する。
+ * <p/>
+ * Rangeヘッダ({@code bytes=先頭-末尾}、{@code bytes=先頭-}、{@code bytes=-末尾からのバイト数})が指定された場合は、
+ * 指定された範囲を206で返す。範囲がファイルサイズを超える場合は416とする。
+ * 複数の範囲が指定された場合やIf-Rangeヘッダが指定された場合は、Rangeヘッダを無視してファイル全体を返す。
+ * HEADリクエストの場合は、ヘッダのみを返す。
+ * <p/>
+ * レスポンスに書き込んだボディのバイト数は、{@link #getWrittenBytes()}で取得できる。
+ * <p/>
+ * 本ハンドラはレスポンスを直接書き込むため、{@link HttpResponseHandler}の直後に設定すること。
+ * {@link FileHttpResponse}に設定されたヘッダはレスポンスに書き込むが、Cookieは書き込まない。
+ */
+public class FileHttpResponseHandler implements Handler<HttpRequest, Object> {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(FileHttpResponseHandler.class);
+
+    /** 範囲がファイルサイズを超えることを表す値 */
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    /** 転送に使用するバッファのサイズ */
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    /** レスポンスに書き込んだボディのバイト数 */
+    private final AtomicLong writtenBytes = new AtomicLong();
+
+    @Override
+    public Object handle(final HttpRequest request, final ExecutionContext context) {
+        final Object result = context.handleNext(request);
+        if (!(result instanceof FileHttpResponse) || !(context instanceof ServletExecutionContext)) {
+            return result;
+        }
+        final FileHttpResponse response = (FileHttpResponse) result;
+        final FileChannel channel;
+        try {
+            channel = response.openChannel();
+        } catch (FileNotFoundException e) {
+            LOGGER.logDebug("file was not found. cause = [" + e.getMessage() + ']');
+            return new HttpResponse(HttpResponse.Status.NOT_FOUND.getStatusCode());
+        } catch (IOException e) {
+            throw new RuntimeException("failed to open file.", e);
+        }
+        try {
+            return write(request, response, channel, ((ServletExecutionContext) context).getServletResponse(),
+                    BufferLeases.get(context));
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * {@link FileHttpResponse}をレスポンスに書き込む。
+     *
+     * @param request リクエスト
+     * @param response {@link FileHttpResponse}
+     * @param channel ボディを読み込む{@link FileChannel}
+     * @param servletResponse サーブレットのレスポンス
+     * @param leases バッファを取得するリース(プールから取得しない場合は{@code null})
+     * @return {@link HttpResponseHandler}に返すレスポンス
+     */
+    private HttpResponse write(final HttpRequest request, final FileHttpResponse response,
+            final FileChannel channel, final HttpServletResponse servletResponse, final BufferLeases leases) {
+        final long size;
+        try {
+            size = response.getLength(channel);
+        } catch (IOException e) {
+            throw new RuntimeException("failed to get file size.", e);
+        }
+        final long[] range = request.getHeader("If-Range") == null ? parseRange(request.getHeader("Range"), size) : null;
+        if (range == UNSATISFIABLE) {
+            final HttpResponse unsatisfiable = new HttpResponse(416);
+            unsatisfiable.setHeader("Content-Range", "bytes */" + size);
+            return unsatisfiable;
+        }
+
+        final int status = range == null ? response.getStatusCode() : 206;
+        final long start = range == null ? 0 : range[0];
+        final long length = range == null ? size : range[1] - range[0] + 1;
+        servletResponse.setStatus(status);
+        for (Map.Entry<String, String> header : response.getHeaderMap().entrySet()) {
+            if (!header.getKey().equalsIgnoreCase("Content-Length")) {
+                servletResponse.setHeader(header.getKey(), header.getValue());
+            }
+        }
+        servletResponse.setHeader("Accept-Ranges", "bytes");
+        if (range != null) {
+            servletResponse.setHeader("Content-Range", "bytes " + start + '-' + (start + length - 1) + '/' + size);
+        }
+        // 2GBを超える場合もあるため、setContentLength(int)は使用しない
+        servletResponse.setHeader("Content-Length", String.valueOf(length));
+
+        try {
+            if (!request.getMethod().equalsIgnoreCase("HEAD")) {
+                transfer(channel, response.getPosition() + start, length, servletResponse.getOutputStream(), leases);
+            }
+            servletResponse.flushBuffer();
+        } catch (IOException e) {
+            // クライアントが切断した場合など。レスポンスはコミット済みのため、エラー画面には遷移できない
+            LOGGER.logDebug("failed to write file response. cause = [" + e.getMessage() + ']');
+        }
+        // レスポンスはコミット済みのため、HttpResponseHandlerは何も書き込まない
+        return new HttpResponse(status);
+    }
+
+    /**
+     * Rangeヘッダを解析する。
+     *
+     * @param header Rangeヘッダ
+     * @param size ファイルサイズ
+     * @return 範囲の先頭と末尾(Rangeヘッダを無視する場合は{@code null}、範囲がファイルサイズを超える場合は{@link #UNSATISFIABLE})
+     */
+    static long[] parseRange(final String header, final long size) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        final String spec = header.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        final String first = spec.substring(0, dash).trim();
+        final String last = spec.substring(dash + 1).trim();
+        try {
+            final long start;
+            final long end;
+            if (first.isEmpty()) {
+                if (last.isEmpty()) {
+                    return null;
+                }
+                final long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(size - suffix, 0);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (last.isEmpty()) {
+                    end = size - 1;
+                } else {
+                    final long requestedEnd = Long.parseLong(last);
+                    if (requestedEnd < start) {
+                        return null;
+                    }
+                    end = Math.min(requestedEnd, size - 1);
+                }
+            }
+            if (start < 0 || start >= size) {
+                return UNSATISFIABLE;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@link FileChannel}の指定された範囲を、バッファを経由して出力ストリームに書き込む。
+     *
+     * @param channel 転送元
+     * @param position 転送元の開始位置
+     * @param length 転送するバイト数
+     * @param out 転送先
+     * @param leases バッファを取得するリース(プールから取得しない場合は{@code null})
+     * @throws IOException 転送に失敗した場合
+     */
+    private void transfer(final FileChannel channel, final long position, final long length,
+            final OutputStream out, final BufferLeases leases) throws IOException {
+        final ByteBuffer buffer = leases != null
+                ? leases.acquireHeap(TRANSFER_BUFFER_SIZE) : ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+        try {
+            long transferred = 0;
+            while (transferred < length) {
+                buffer.clear();
+                if (buffer.remaining() > length - transferred) {
+                    buffer.limit((int) (length - transferred));
+                }
+                final int count = channel.read(buffer, position + transferred);
+                if (count <= 0) {
+                    throw new EOFException("file was truncated during transfer. expected = [" + length
+                            + "], transferred = [" + transferred + ']');
+                }
+                out.write(buffer.array(), 0, count);
+                transferred += count;
+                writtenBytes.addAndGet(count);
+            }
+        } finally {
+            if (leases != null) {
+                leases.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * レスポンスに書き込んだボディのバイト数を取得する。
+     *
+     * @return 書き込んだバイト数
+     */
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    /**
+     * {@link FileChannel}をクローズする。クローズに失敗した場合は、ログを出力して処理を続行する。
+     *
+     * @param channel {@link FileChannel}
+     */
+    private static void closeQuietly(final FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.logWarn("failed to close file.", e);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package nablarch.fw.web.handler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.handler.normalizer.Normalizer;
+
+/**
+ * リクエストパラメータの前後の空白の除去と文字種の正規化を、1回の走査で行うハンドラ。
+ * <p/>
+ * {@link NormalizationHandler}は正規化処理ごとにパラメータを走査し、変更がない場合も新しい文字列を生成する。
+ * 本ハンドラは以下の正規化を1回の走査にまとめ、変更が不要な値は元の{@link String}のインスタンスをそのまま使用する。
+ * 全てのパラメータに変更がない場合は、パラメータのマップも置き換えない。
+ * <ul>
+ *     <li>前後の空白({@link Character#isWhitespace(char)}が{@code true}となる文字)の除去</li>
+ *     <li>全角英数記号(U+FF01~U+FF5E)と全角スペース(U+3000)の半角への変換</li>
+ * </ul>
+ * デフォルトでは前後の空白の除去のみを行う。
+ * <p/>
+ * 上記以外の正規化が必要な場合は、{@link #setNormalizers(List)}で{@link Normalizer}を設定する。
+ * 設定した{@link Normalizer}は、本ハンドラの正規化の後に適用する。
+ */
+public class FusedNormalizationHandler implements Handler<HttpRequest, Object> {
+
+    /** 全角英数記号の先頭 */
+    private static final char FULL_WIDTH_ASCII_FIRST = '\uFF01';
+
+    /** 全角英数記号の末尾 */
+    private static final char FULL_WIDTH_ASCII_LAST = '\uFF5E';
+
+    /** 全角英数記号と対応する半角文字の差 */
+    private static final int FULL_WIDTH_ASCII_OFFSET = FULL_WIDTH_ASCII_FIRST - '!';
+
+    /** 全角スペース */
+    private static final char FULL_WIDTH_SPACE = '\u3000';
+
+    /** 前後の空白を除去する場合は{@code true} */
+    private boolean trim = true;
+
+    /** 全角英数記号を半角に変換する場合は{@code true} */
+    private boolean halfWidthAscii;
+
+    /** 正規化しないパラメータ名のパターン */
+    private Pattern excludedParameterPattern;
+
+    /** 追加で適用する{@link Normalizer} */
+    private List<Normalizer> normalizers = new ArrayList<Normalizer>();
+
+    /**
+     * 前後の空白を除去するか否かを設定する。デフォルトは{@code true}。
+     *
+     * @param trim 前後の空白を除去する場合は{@code true}
+     */
+    public void setTrim(final boolean trim) {
+        this.trim = trim;
+    }
+
+    /**
+     * 全角英数記号と全角スペースを半角に変換するか否かを設定する。デフォルトは{@code false}。
+     *
+     * @param halfWidthAscii 半角に変換する場合は{@code true}
+     */
+    public void setHalfWidthAscii(final boolean halfWidthAscii) {
+        this.halfWidthAscii = halfWidthAscii;
+    }
+
+    /**
+     * 正規化しないパラメータ名のパターン(正規表現)を設定する。
+     * <p/>
+     * パスワードなど、入力値をそのまま扱う必要があるパラメータを指定する。
+     *
+     * @param excludedParameterPattern 正規化しないパラメータ名のパターン
+     */
+    public void setExcludedParameterPattern(final String excludedParameterPattern) {
+        this.excludedParameterPattern = Pattern.compile(excludedParameterPattern);
+    }
+
+    /**
+     * 追加で適用する{@link Normalizer}を設定する。
+     *
+     * @param normalizers {@link Normalizer}のリスト
+     */
+    public void setNormalizers(final List<Normalizer> normalizers) {
+        this.normalizers = normalizers;
+    }
+
+    @Override
+    public Object handle(final HttpRequest request, final ExecutionContext context) {
+        final Map<String, String[]> params = request.getParamMap();
+        Map<String, String[]> normalized = null;
+        for (Map.Entry<String, String[]> entry : params.entrySet()) {
+            final String[] values = entry.getValue();
+            final String[] result = normalize(entry.getKey(), values);
+            if (result != values) {
+                if (normalized == null) {
+                    normalized = new LinkedHashMap<String, String[]>(params);
+                }
+                normalized.put(entry.getKey(), result);
+            }
+        }
+        if (normalized != null) {
+            request.setParamMap(normalized);
+        }
+        return context.handleNext(request);
+    }
+
+    /**
+     * パラメータの値を正規化する。
+     *
+     * @param name パラメータ名
+     * @param values パラメータの値
+     * @return 正規化した値(変更がない場合は引数の配列)
+     */
+    String[] normalize(final String name, final String[] values) {
+        if (values == null || (excludedParameterPattern != null && excludedParameterPattern.matcher(name).matches())) {
+            return values;
+        }
+        String[] result = values;
+        for (int i = 0; i < values.length; i++) {
+            final String value = values[i];
+            final String normalized = value == null ? null : normalize(value);
+            if (normalized != value) {
+                if (result == values) {
+                    result = values.clone();
+                }
+                result[i] = normalized;
+            }
+        }
+        for (Normalizer normalizer : normalizers) {
+            if (normalizer.canNormalize(name)) {
+                result = normalizer.normalize(result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 文字列を正規化する。
+     *
+     * @param value 文字列
+     * @return 正規化した文字列(変更がない場合は引数のインスタンス)
+     */
+    String normalize(final String value) {
+        final int length = value.length();
+        int start = 0;
+        int end = length;
+        if (trim) {
+            while (start < end && Character.isWhitespace(map(value.charAt(start)))) {
+                start++;
+            }
+            while (end > start && Character.isWhitespace(map(value.charAt(end - 1)))) {
+                end--;
+            }
+        }
+        int firstMapped = -1;
+        if (halfWidthAscii) {
+            for (int i = start; i < end; i++) {
+                final char c = value.charAt(i);
+                if (map(c) != c) {
+                    firstMapped = i;
+                    break;
+                }
+            }
+        }
+        if (firstMapped < 0) {
+            return start == 0 && end == length ? value : value.substring(start, end);
+        }
+        final char[] chars = new char[end - start];
+        value.getChars(start, end, chars, 0);
+        for (int i = firstMapped - start; i < chars.length; i++) {
+            chars[i] = map(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 文字種の正規化を適用した文字を取得する。
+     *
+     * @param c 文字
+     * @return 正規化した文字(正規化しない場合は引数の文字)
+     */
+    private char map(final char c) {
+        if (!halfWidthAscii || c < FULL_WIDTH_SPACE) {
+            return c;
+        }
+        if (c >= FULL_WIDTH_ASCII_FIRST && c <= FULL_WIDTH_ASCII_LAST) {
+            return (char) (c - FULL_WIDTH_ASCII_OFFSET);
+        }
+        return c == FULL_WIDTH_SPACE ? ' ' : c;
+    }
+}
@@ -0,0 +1,230 @@
+package nablarch.fw.web.handler;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.MockHttpRequest;
+import nablarch.fw.web.handler.normalizer.Normalizer;
+
+import org.junit.Test;
+
+/**
+ * {@link FusedNormalizationHandler}のテストクラス。
+ */
+public class FusedNormalizationHandlerTest {
+
+    private final FusedNormalizationHandler sut = new FusedNormalizationHandler();
+
+    /**
+     * 前後の空白が除去され、変更が不要な値は元のインスタンスがそのまま使用されることを確認するケース。
+     */
+    @Test
+    public void testTrim() {
+        final String clean = "value";
+        final String[] cleanValues = {clean};
+        final String[] dirtyValues = {" \tvalue\r\n", clean};
+        final Map<String, String[]> params = params("clean", cleanValues, "dirty", dirtyValues);
+
+        final Map<String, String[]> result = handle(params);
+
+        assertThat(result.get("dirty"), is(new String[] {"value", "value"}));
+        assertThat(result.get("dirty")[1], sameInstance(clean));
+        assertThat(result.get("clean"), sameInstance(cleanValues));
+        // 元のパラメータは変更しない。
+        assertThat(dirtyValues[0], is(" \tvalue\r\n"));
+        assertThat(params.get("dirty"), sameInstance(dirtyValues));
+    }
+
+    /**
+     * 全てのパラメータが正規化済みの場合、パラメータのマップと値のインスタンスが置き換えられないことを確認するケース。
+     */
+    @Test
+    public void testAlreadyNormalized() {
+        final String[] values = {"value", "", "a b"};
+        final Map<String, String[]> params = params("key", values, "empty", new String[0]);
+
+        final Map<String, String[]> result = handle(params);
+
+        assertThat(result, sameInstance(params));
+        assertThat(result.get("key"), sameInstance(values));
+        assertThat(result.get("key")[0], sameInstance(values[0]));
+    }
+
+    /**
+     * 空白のみから成る値が空文字列となり、値が{@code null}の要素はそのまま残ることを確認するケース。
+     */
+    @Test
+    public void testWhitespaceOnly() {
+        final Map<String, String[]> result = handle(params("key", new String[] {" 　\t ", null, " "}));
+
+        assertThat(result.get("key")[0], is(""));
+        assertThat(result.get("key")[1], is(nullValue()));
+        assertThat(result.get("key")[2], is(""));
+    }
+
+    /**
+     * {@code trim}に{@code false}を設定した場合、前後の空白が除去されないことを確認するケース。
+     */
+    @Test
+    public void testTrimDisabled() {
+        sut.setTrim(false);
+        final String[] values = {" value "};
+
+        final Map<String, String[]> result = handle(params("key", values));
+
+        assertThat(result.get("key"), sameInstance(values));
+    }
+
+    /**
+     * {@code halfWidthAscii}に{@code true}を設定した場合、全角英数記号と全角スペースが半角に変換されることを確認するケース。
+     * <p/>
+     * 全角スペースは、変換後の空白として前後から除去される。範囲外の全角文字は変換しない。
+     */
+    @Test
+    public void testHalfWidthAscii() {
+        sut.setHalfWidthAscii(true);
+        final String unchanged = "ascii";
+
+        final Map<String, String[]> result = handle(params("key", new String[] {
+                "　Ａｂｃ　１２３！～　",
+                "あＡ",
+                unchanged}));
+
+        assertThat(result.get("key")[0], is("Abc 123!~"));
+        assertThat(result.get("key")[1], is("あA"));
+        assertThat(result.get("key")[2], sameInstance(unchanged));
+    }
+
+    /**
+     * {@code halfWidthAscii}がデフォルト({@code false})の場合、全角英数記号は変換されないことを確認するケース。
+     * <p/>
+     * 全角スペースは空白として前後から除去されるが、値の途中の全角スペースは変換しない。
+     */
+    @Test
+    public void testHalfWidthAsciiDisabled() {
+        final Map<String, String[]> result = handle(params("key", new String[] {"　Ａ　１　"}));
+
+        assertThat(result.get("key")[0], is("Ａ　１"));
+    }
+
+    /**
+     * {@code excludedParameterPattern}に一致するパラメータは正規化されないことを確認するケース。
+     * <p/>
+     * パラメータ名全体がパターンに一致する場合のみ対象外とする。
+     */
+    @Test
+    public void testExcludedParameterPattern() {
+        sut.setHalfWidthAscii(true);
+        sut.setExcludedParameterPattern(".*\\.password");
+        sut.setNormalizers(Arrays.<Normalizer>asList(new SuffixNormalizer(".*", "!")));
+        final String[] password = {" ｐass "};
+
+        final Map<String, String[]> result = handle(params(
+                "form.password", password,
+                "form.password.confirm", new String[] {" ｐass "}));
+
+        assertThat(result.get("form.password"), sameInstance(password));
+        assertThat(result.get("form.password.confirm"), is(new String[] {"pass!"}));
+    }
+
+    /**
+     * 設定した{@link Normalizer}が、本ハンドラの正規化の後に設定順に適用され、
+     * 対象外のパラメータには適用されないことを確認するケース。
+     */
+    @Test
+    public void testNormalizers() {
+        sut.setNormalizers(Arrays.<Normalizer>asList(
+                new SuffixNormalizer("code", "-1"),
+                new SuffixNormalizer("code|name", "-2")));
+        final String[] other = {"other"};
+
+        final Map<String, String[]> result = handle(params(
+                "code", new String[] {" a "},
+                "name", new String[] {"b"},
+                "other", other));
+
+        assertThat(result.get("code"), is(new String[] {"a-1-2"}));
+        assertThat(result.get("name"), is(new String[] {"b-2"}));
+        assertThat(result.get("other"), sameInstance(other));
+    }
+
+    /**
+     * パラメータを正規化する。
+     *
+     * @param params パラメータ
+     * @return 後続のハンドラに渡されたリクエストのパラメータ
+     */
+    private Map<String, String[]> handle(final Map<String, String[]> params) {
+        final MockHttpRequest request = new MockHttpRequest();
+        request.setParamMap(params);
+        final HttpRequest[] next = new HttpRequest[1];
+        sut.handle(request, new ExecutionContext().addHandler(new Handler<HttpRequest, Object>() {
+            @Override
+            public Object handle(final HttpRequest request, final ExecutionContext context) {
+                next[0] = request;
+                return null;
+            }
+        }));
+        return next[0].getParamMap();
+    }
+
+    /**
+     * パラメータを作成する。
+     *
+     * @param namesAndValues パラメータ名と値の組
+     * @return パラメータ
+     */
+    private static Map<String, String[]> params(final Object... namesAndValues) {
+        final Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            params.put((String) namesAndValues[i], (String[]) namesAndValues[i + 1]);
+        }
+        return params;
+    }
+
+    /**
+     * パラメータ名がパターンに一致する値の末尾に、文字列を付加する{@link Normalizer}。
+     */
+    private static final class SuffixNormalizer implements Normalizer {
+
+        /** 対象のパラメータ名のパターン */
+        private final String pattern;
+
+        /** 付加する文字列 */
+        private final String suffix;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param pattern 対象のパラメータ名のパターン
+         * @param suffix 付加する文字列
+         */
+        SuffixNormalizer(final String pattern, final String suffix) {
+            this.pattern = pattern;
+            this.suffix = suffix;
+        }
+
+        @Override
+        public boolean canNormalize(final String key) {
+            return key.matches(pattern);
+        }
+
+        @Override
+        public String[] normalize(final String[] value) {
+            final String[] result = new String[value.length];
+            for (int i = 0; i < value.length; i++) {
+                result[i] = value[i] + suffix;
+            }
+            return result;
+        }
+    }
+}
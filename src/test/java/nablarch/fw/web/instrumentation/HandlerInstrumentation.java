@@ -0,0 +1,350 @@
+package nablarch.fw.web.instrumentation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.web.HttpRequest;
+
+/**
+ * ハンドラキューの各ハンドラをラップし、リクエストパス・ハンドラごとに処理時間とアロケーションを記録するクラス。
+ * <p/>
+ * ラップしたハンドラは、{@link Handler#handle(Object, ExecutionContext)}を元のハンドラに委譲する{@link InstrumentedHandler}となる。
+ * {@link InstrumentedHandler}は{@link Handler}以外のインタフェースを実装しないため、
+ * ハンドラキューからクラスやインタフェースでハンドラを検索する処理では、元のハンドラは見つからなくなる点に注意すること。
+ * 元のハンドラは{@link InstrumentedHandler#getDelegate()}で取得できる。
+ * <p/>
+ * 以下の値を記録する。自身の値は、同じスレッドで呼び出された後続のハンドラでの値を差し引いて算出する。
+ * <ul>
+ *     <li>経過時間(後続のハンドラを含む)</li>
+ *     <li>自身の経過時間</li>
+ *     <li>自身のCPU時間(JVMがサポートし、有効な場合のみ)</li>
+ *     <li>自身のアロケーション(JVMがスレッド単位の計測をサポートし、有効な場合のみ)</li>
+ * </ul>
+ * リクエストパスの種類が{@code maxRequestPaths}を超えた場合、以降のリクエストパスは{@value #OTHER_PATHS}として集計する。
+ */
+public class HandlerInstrumentation implements HandlerInstrumentationMXBean {
+
+    /** 上限を超えたリクエストパスを集計するパス */
+    static final String OTHER_PATHS = "<other>";
+
+    /** ハンドラ名 */
+    private final List<String> handlerNames = new ArrayList<String>();
+
+    /** リクエストパスごとの計測値 */
+    private final ConcurrentMap<String, HandlerMetrics[]> metricsByPath = new ConcurrentHashMap<String, HandlerMetrics[]>();
+
+    /** 呼び出し中のハンドラ */
+    private final ThreadLocal<Frame> currentFrame = new ThreadLocal<Frame>();
+
+    /** リクエストパスの種類の上限 */
+    private final int maxRequestPaths;
+
+    /** CPU時間の計測に使用する{@link ThreadMXBean}(計測しない場合は{@code null}) */
+    private final ThreadMXBean cpuTimeBean;
+
+    /** アロケーションの計測に使用する{@link ThreadMXBean}(計測しない場合は{@code null}) */
+    private final com.sun.management.ThreadMXBean allocationBean;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param maxRequestPaths リクエストパスの種類の上限
+     * @param cpuTimeEnabled CPU時間を計測する場合は{@code true}
+     * @param allocationEnabled アロケーションを計測する場合は{@code true}
+     */
+    public HandlerInstrumentation(final int maxRequestPaths, final boolean cpuTimeEnabled,
+            final boolean allocationEnabled) {
+        this.maxRequestPaths = maxRequestPaths;
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        cpuTimeBean = cpuTimeEnabled && threadBean.isCurrentThreadCpuTimeSupported()
+                && threadBean.isThreadCpuTimeEnabled() ? threadBean : null;
+        com.sun.management.ThreadMXBean allocation = null;
+        if (allocationEnabled && threadBean instanceof com.sun.management.ThreadMXBean) {
+            allocation = (com.sun.management.ThreadMXBean) threadBean;
+            if (!allocation.isThreadAllocatedMemorySupported() || !allocation.isThreadAllocatedMemoryEnabled()) {
+                allocation = null;
+            }
+        }
+        allocationBean = allocation;
+    }
+
+    /**
+     * ハンドラキューの各ハンドラをラップする。
+     * <p/>
+     * 1つのインスタンスで、1つのハンドラキューのみラップできる。
+     *
+     * @param handlerQueue ハンドラキュー
+     * @return ラップしたハンドラキュー
+     */
+    public synchronized List<Handler> wrap(final List<Handler> handlerQueue) {
+        if (!handlerNames.isEmpty()) {
+            throw new IllegalStateException("handler queue has already been wrapped.");
+        }
+        final List<Handler> wrapped = new ArrayList<Handler>(handlerQueue.size());
+        for (Handler handler : handlerQueue) {
+            handlerNames.add(handler.getClass().getSimpleName());
+            wrapped.add(wrap(handler, wrapped.size()));
+        }
+        return wrapped;
+    }
+
+    @Override
+    public List<HandlerStatistics> getStatistics() {
+        final List<HandlerStatistics> result = new ArrayList<HandlerStatistics>();
+        for (Map.Entry<String, HandlerMetrics[]> entry : metricsByPath.entrySet()) {
+            final HandlerMetrics[] metrics = entry.getValue();
+            for (int i = 0; i < metrics.length; i++) {
+                if (metrics[i].wallTime.snapshot().getCount() > 0) {
+                    result.add(metrics[i].toStatistics(entry.getKey(), i, handlerNames.get(i)));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getRequestPaths() {
+        return new ArrayList<String>(metricsByPath.keySet());
+    }
+
+    @Override
+    public void reset() {
+        metricsByPath.clear();
+    }
+
+    /**
+     * ハンドラをラップする。
+     *
+     * @param handler ハンドラ
+     * @param index ハンドラキュー上の位置
+     * @return ラップしたハンドラ
+     */
+    @SuppressWarnings("unchecked")
+    private Handler wrap(final Handler handler, final int index) {
+        return new InstrumentedHandler(this, (Handler<Object, Object>) handler, index);
+    }
+
+    /**
+     * 計測しながらハンドラを呼び出す。
+     *
+     * @param handler ハンドラ
+     * @param index ハンドラキュー上の位置
+     * @param data 入力データ
+     * @param context 実行コンテキスト
+     * @return ハンドラの戻り値
+     */
+    Object invokeHandle(final Handler<Object, Object> handler, final int index, final Object data,
+            final ExecutionContext context) {
+        final Frame parent = currentFrame.get();
+        final Frame frame = new Frame(parent == null ? requestPathOf(data) : parent.path);
+        currentFrame.set(frame);
+        final long startAllocated = allocatedBytes();
+        final long startCpu = cpuTime();
+        final long startWall = System.nanoTime();
+        try {
+            return handler.handle(data, context);
+        } finally {
+            final long wall = System.nanoTime() - startWall;
+            final long cpu = cpuTime() - startCpu;
+            final long allocated = allocatedBytes() - startAllocated;
+            if (parent == null) {
+                currentFrame.remove();
+            } else {
+                currentFrame.set(parent);
+                parent.childWall += wall;
+                parent.childCpu += cpu;
+                parent.childAllocated += allocated;
+            }
+            metricsFor(frame.path)[index].record(
+                    wall, wall - frame.childWall, cpu - frame.childCpu, allocated - frame.childAllocated);
+        }
+    }
+
+    /**
+     * リクエストパスに対応する計測値を取得する。
+     *
+     * @param path リクエストパス
+     * @return ハンドラごとの計測値
+     */
+    private HandlerMetrics[] metricsFor(final String path) {
+        HandlerMetrics[] metrics = metricsByPath.get(path);
+        if (metrics != null) {
+            return metrics;
+        }
+        final String key = metricsByPath.size() >= maxRequestPaths ? OTHER_PATHS : path;
+        if (key != path) {
+            // 上限を超えた後は、集計用の計測値が作成済みであれば新たに生成しない
+            metrics = metricsByPath.get(key);
+            if (metrics != null) {
+                return metrics;
+            }
+        }
+        metrics = new HandlerMetrics[handlerNames.size()];
+        for (int i = 0; i < metrics.length; i++) {
+            metrics[i] = new HandlerMetrics();
+        }
+        final HandlerMetrics[] existing = metricsByPath.putIfAbsent(key, metrics);
+        return existing == null ? metrics : existing;
+    }
+
+    /**
+     * 入力データからリクエストパスを取得する。
+     *
+     * @param data 入力データ
+     * @return リクエストパス(HTTPリクエストでない場合は{@value #OTHER_PATHS})
+     */
+    private static String requestPathOf(final Object data) {
+        if (data instanceof HttpRequest) {
+            return ((HttpRequest) data).getRequestPath();
+        }
+        return OTHER_PATHS;
+    }
+
+    /**
+     * 現在のスレッドのCPU時間を取得する。
+     *
+     * @return CPU時間(計測しない場合は0)
+     */
+    private long cpuTime() {
+        return cpuTimeBean == null ? 0 : cpuTimeBean.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * 現在のスレッドのアロケーションを取得する。
+     *
+     * @return アロケーション(計測しない場合は0)
+     */
+    private long allocatedBytes() {
+        return allocationBean == null ? 0 : allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * 呼び出し中のハンドラの情報。
+     */
+    private static final class Frame {
+
+        /** リクエストパス */
+        private final String path;
+
+        /** 後続のハンドラでの経過時間 */
+        private long childWall;
+
+        /** 後続のハンドラでのCPU時間 */
+        private long childCpu;
+
+        /** 後続のハンドラでのアロケーション */
+        private long childAllocated;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param path リクエストパス
+         */
+        Frame(final String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * ハンドラの計測値。
+     */
+    private static final class HandlerMetrics {
+
+        /** 経過時間(後続のハンドラを含む) */
+        private final LatencyHistogram wallTime = new LatencyHistogram();
+
+        /** 自身の経過時間 */
+        private final LatencyHistogram selfWallTime = new LatencyHistogram();
+
+        /** 自身のCPU時間 */
+        private final LatencyHistogram selfCpuTime = new LatencyHistogram();
+
+        /** 自身のアロケーション */
+        private final LatencyHistogram selfAllocatedBytes = new LatencyHistogram();
+
+        /**
+         * 計測値を記録する。
+         *
+         * @param wall 経過時間
+         * @param selfWall 自身の経過時間
+         * @param selfCpu 自身のCPU時間
+         * @param selfAllocated 自身のアロケーション
+         */
+        void record(final long wall, final long selfWall, final long selfCpu, final long selfAllocated) {
+            wallTime.record(wall);
+            selfWallTime.record(selfWall);
+            selfCpuTime.record(selfCpu);
+            selfAllocatedBytes.record(selfAllocated);
+        }
+
+        /**
+         * 統計値に変換する。
+         *
+         * @param path リクエストパス
+         * @param index ハンドラキュー上の位置
+         * @param handlerName ハンドラ名
+         * @return 統計値
+         */
+        HandlerStatistics toStatistics(final String path, final int index, final String handlerName) {
+            final LatencyHistogram.Snapshot wall = wallTime.snapshot();
+            final LatencyHistogram.Snapshot selfWall = selfWallTime.snapshot();
+            final LatencyHistogram.Snapshot selfCpu = selfCpuTime.snapshot();
+            final LatencyHistogram.Snapshot selfAllocated = selfAllocatedBytes.snapshot();
+            return new HandlerStatistics(path, index, handlerName, wall.getCount(),
+                    wall.getMean(), wall.getPercentile(99), wall.getMax(),
+                    selfWall.getMean(), selfWall.getPercentile(50), selfWall.getPercentile(99),
+                    selfCpu.getMean(), selfCpu.getPercentile(99),
+                    selfAllocated.getMean(), selfAllocated.getPercentile(99));
+        }
+    }
+
+    /**
+     * 処理を元のハンドラに委譲し、処理時間とアロケーションを記録するハンドラ。
+     */
+    public static final class InstrumentedHandler implements Handler<Object, Object> {
+
+        /** 計測を行う{@link HandlerInstrumentation} */
+        private final HandlerInstrumentation instrumentation;
+
+        /** 元のハンドラ */
+        private final Handler<Object, Object> delegate;
+
+        /** ハンドラキュー上の位置 */
+        private final int index;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param instrumentation 計測を行う{@link HandlerInstrumentation}
+         * @param delegate 元のハンドラ
+         * @param index ハンドラキュー上の位置
+         */
+        InstrumentedHandler(final HandlerInstrumentation instrumentation, final Handler<Object, Object> delegate,
+                final int index) {
+            this.instrumentation = instrumentation;
+            this.delegate = delegate;
+            this.index = index;
+        }
+
+        @Override
+        public Object handle(final Object data, final ExecutionContext context) {
+            return instrumentation.invokeHandle(delegate, index, data, context);
+        }
+
+        /**
+         * 元のハンドラを取得する。
+         *
+         * @return 元のハンドラ
+         */
+        public Handler<Object, Object> getDelegate() {
+            return delegate;
+        }
+    }
+}
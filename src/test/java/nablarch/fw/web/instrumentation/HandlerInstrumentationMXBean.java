@@ -0,0 +1,28 @@
+package nablarch.fw.web.instrumentation;
+
+import java.util.List;
+
+/**
+ * ハンドラ単位の処理時間・アロケーションの統計値をJMXで公開するためのインタフェース。
+ */
+public interface HandlerInstrumentationMXBean {
+
+    /**
+     * 統計値を取得する。
+     *
+     * @return リクエストパス・ハンドラごとの統計値
+     */
+    List<HandlerStatistics> getStatistics();
+
+    /**
+     * 統計値を記録したリクエストパスを取得する。
+     *
+     * @return リクエストパス
+     */
+    List<String> getRequestPaths();
+
+    /**
+     * 統計値を破棄する。
+     */
+    void reset();
+}
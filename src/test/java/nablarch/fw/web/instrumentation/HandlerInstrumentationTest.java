@@ -0,0 +1,157 @@
+package nablarch.fw.web.instrumentation;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.handler.GlobalErrorHandler;
+import nablarch.fw.web.HttpResponse;
+import nablarch.fw.web.MockHttpRequest;
+import nablarch.fw.web.handler.HttpRequestJavaPackageMapping;
+
+/**
+ * {@link HandlerInstrumentation}のテストクラス。
+ */
+public class HandlerInstrumentationTest {
+
+    private final HandlerInstrumentation sut = new HandlerInstrumentation(10, true, true);
+
+    /**
+     * 各ハンドラが元のハンドラに委譲するハンドラでラップされ、
+     * 後続のハンドラを含む処理時間と自身の処理時間が記録されることを確認するケース。
+     */
+    @Test
+    public void testWrap() {
+        final Handler<Object, Object> outer = new Handler<Object, Object>() {
+            @Override
+            public Object handle(final Object data, final ExecutionContext context) {
+                return "outer:" + context.handleNext(data);
+            }
+        };
+        final Handler<Object, Object> inner = new Handler<Object, Object>() {
+            @Override
+            public Object handle(final Object data, final ExecutionContext context) {
+                sleep(20);
+                return "inner";
+            }
+        };
+        final List<Handler> wrapped = sut.wrap(Arrays.<Handler>asList(outer, inner));
+
+        assertThat(wrapped.get(0), is(instanceOf(HandlerInstrumentation.InstrumentedHandler.class)));
+        assertThat(((HandlerInstrumentation.InstrumentedHandler) wrapped.get(0)).getDelegate(), is(sameInstance(outer)));
+        assertThat(((HandlerInstrumentation.InstrumentedHandler) wrapped.get(1)).getDelegate(), is(sameInstance(inner)));
+
+        final Object result = new ExecutionContext().setHandlerQueue(wrapped)
+                .handleNext(new MockHttpRequest().setRequestPath("/action/Test"));
+
+        assertThat(result, is((Object) "outer:inner"));
+        assertThat(sut.getRequestPaths(), is(Arrays.asList("/action/Test")));
+        final HandlerStatistics outerStatistics = find(0);
+        final HandlerStatistics innerStatistics = find(1);
+        assertThat(outerStatistics.getCount(), is(1L));
+        assertThat(innerStatistics.getCount(), is(1L));
+        assertThat(outerStatistics.getWallTimeMax() >= innerStatistics.getWallTimeMax(), is(true));
+        // 後続のハンドラの処理時間は、自身の処理時間に含めない
+        assertThat(outerStatistics.getSelfWallTimeMean() < innerStatistics.getSelfWallTimeMean(), is(true));
+    }
+
+    /**
+     * ハンドラで発生した例外がそのまま送出され、処理時間が記録されることを確認するケース。
+     */
+    @Test
+    public void testWrap_exception() {
+        final IllegalStateException exception = new IllegalStateException("error");
+        final Handler<Object, Object> outer = new Handler<Object, Object>() {
+            @Override
+            public Object handle(final Object data, final ExecutionContext context) {
+                return context.handleNext(data);
+            }
+        };
+        final Handler<Object, Object> inner = new Handler<Object, Object>() {
+            @Override
+            public Object handle(final Object data, final ExecutionContext context) {
+                throw exception;
+            }
+        };
+        final List<Handler> wrapped = sut.wrap(Arrays.<Handler>asList(outer, inner));
+
+        try {
+            new ExecutionContext().setHandlerQueue(wrapped).handleNext(new MockHttpRequest().setRequestPath("/action/Test"));
+            fail("ハンドラで例外が発生するため、例外が送出される。");
+        } catch (IllegalStateException e) {
+            assertThat(e, is(sameInstance(exception)));
+        }
+        assertThat(find(0).getCount(), is(1L));
+        assertThat(find(1).getCount(), is(1L));
+    }
+
+    /**
+     * 旧ハンドラ構成のハンドラ(サーブレットに依存しないもの)をラップした場合も、
+     * 業務Actionへのディスパッチが行われ、各ハンドラの処理時間が記録されることを確認するケース。
+     */
+    @Test
+    public void testWrap_oldHandlerQueue() {
+        final HttpRequestJavaPackageMapping mapping = new HttpRequestJavaPackageMapping();
+        mapping.setBaseUri("/action/");
+        mapping.setBasePackage("nablarch.fw.web.app");
+        final List<Handler> wrapped = sut.wrap(Arrays.<Handler>asList(new GlobalErrorHandler(), mapping));
+
+        final HttpResponse response = new ExecutionContext().setHandlerQueue(wrapped)
+                .handleNext(new MockHttpRequest().setMethod("GET").setRequestPath("/action/MultipartAction/ThreadName"));
+
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(find(0).getHandlerName(), is("GlobalErrorHandler"));
+        assertThat(find(1).getHandlerName(), is("HttpRequestJavaPackageMapping"));
+        assertThat(find(0).getCount(), is(1L));
+        assertThat(find(1).getCount(), is(1L));
+    }
+
+    /**
+     * ハンドラキューは1度だけラップできることを確認するケース。
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testWrap_twice() {
+        final List<Handler> handlerQueue = new ArrayList<Handler>();
+        handlerQueue.add(new GlobalErrorHandler());
+        sut.wrap(handlerQueue);
+        sut.wrap(handlerQueue);
+    }
+
+    /**
+     * 指定した位置のハンドラの統計値を取得する。
+     *
+     * @param index ハンドラキュー上の位置
+     * @return 統計値
+     */
+    private HandlerStatistics find(final int index) {
+        for (HandlerStatistics statistics : sut.getStatistics()) {
+            if (statistics.getHandlerIndex() == index) {
+                return statistics;
+            }
+        }
+        throw new AssertionError("statistics not found. index = [" + index + ']');
+    }
+
+    /**
+     * 指定した時間スリープする。
+     *
+     * @param millis スリープする時間(ミリ秒)
+     */
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
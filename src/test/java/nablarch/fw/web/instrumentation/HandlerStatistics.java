@@ -0,0 +1,250 @@
+package nablarch.fw.web.instrumentation;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * リクエストパス・ハンドラごとの統計値。
+ * <p/>
+ * 時間はナノ秒、アロケーションはバイト単位。
+ * 「自身の」値は、後続のハンドラでの値を除いたものを表す。
+ */
+public class HandlerStatistics {
+
+    /** リクエストパス */
+    private final String path;
+
+    /** ハンドラキュー上の位置 */
+    private final int handlerIndex;
+
+    /** ハンドラ名 */
+    private final String handlerName;
+
+    /** 処理件数 */
+    private final long count;
+
+    /** 経過時間の平均(後続のハンドラを含む) */
+    private final double wallTimeMean;
+
+    /** 経過時間の99パーセンタイル(後続のハンドラを含む) */
+    private final long wallTimeP99;
+
+    /** 経過時間の最大値(後続のハンドラを含む) */
+    private final long wallTimeMax;
+
+    /** 自身の経過時間の平均 */
+    private final double selfWallTimeMean;
+
+    /** 自身の経過時間の中央値 */
+    private final long selfWallTimeP50;
+
+    /** 自身の経過時間の99パーセンタイル */
+    private final long selfWallTimeP99;
+
+    /** 自身のCPU時間の平均 */
+    private final double selfCpuTimeMean;
+
+    /** 自身のCPU時間の99パーセンタイル */
+    private final long selfCpuTimeP99;
+
+    /** 自身のアロケーションの平均 */
+    private final double selfAllocatedBytesMean;
+
+    /** 自身のアロケーションの99パーセンタイル */
+    private final long selfAllocatedBytesP99;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param path リクエストパス
+     * @param handlerIndex ハンドラキュー上の位置
+     * @param handlerName ハンドラ名
+     * @param count 処理件数
+     * @param wallTimeMean 経過時間の平均
+     * @param wallTimeP99 経過時間の99パーセンタイル
+     * @param wallTimeMax 経過時間の最大値
+     * @param selfWallTimeMean 自身の経過時間の平均
+     * @param selfWallTimeP50 自身の経過時間の中央値
+     * @param selfWallTimeP99 自身の経過時間の99パーセンタイル
+     * @param selfCpuTimeMean 自身のCPU時間の平均
+     * @param selfCpuTimeP99 自身のCPU時間の99パーセンタイル
+     * @param selfAllocatedBytesMean 自身のアロケーションの平均
+     * @param selfAllocatedBytesP99 自身のアロケーションの99パーセンタイル
+     */
+    public HandlerStatistics(final String path, final int handlerIndex, final String handlerName, final long count,
+            final double wallTimeMean, final long wallTimeP99, final long wallTimeMax,
+            final double selfWallTimeMean, final long selfWallTimeP50, final long selfWallTimeP99,
+            final double selfCpuTimeMean, final long selfCpuTimeP99,
+            final double selfAllocatedBytesMean, final long selfAllocatedBytesP99) {
+        this.path = path;
+        this.handlerIndex = handlerIndex;
+        this.handlerName = handlerName;
+        this.count = count;
+        this.wallTimeMean = wallTimeMean;
+        this.wallTimeP99 = wallTimeP99;
+        this.wallTimeMax = wallTimeMax;
+        this.selfWallTimeMean = selfWallTimeMean;
+        this.selfWallTimeP50 = selfWallTimeP50;
+        this.selfWallTimeP99 = selfWallTimeP99;
+        this.selfCpuTimeMean = selfCpuTimeMean;
+        this.selfCpuTimeP99 = selfCpuTimeP99;
+        this.selfAllocatedBytesMean = selfAllocatedBytesMean;
+        this.selfAllocatedBytesP99 = selfAllocatedBytesP99;
+    }
+
+    /**
+     * JMXのプロキシで、{@link CompositeData}から復元する。
+     *
+     * @param data {@link CompositeData}
+     * @return 統計値
+     */
+    public static HandlerStatistics from(final CompositeData data) {
+        return new HandlerStatistics(
+                (String) data.get("path"),
+                (Integer) data.get("handlerIndex"),
+                (String) data.get("handlerName"),
+                (Long) data.get("count"),
+                (Double) data.get("wallTimeMean"),
+                (Long) data.get("wallTimeP99"),
+                (Long) data.get("wallTimeMax"),
+                (Double) data.get("selfWallTimeMean"),
+                (Long) data.get("selfWallTimeP50"),
+                (Long) data.get("selfWallTimeP99"),
+                (Double) data.get("selfCpuTimeMean"),
+                (Long) data.get("selfCpuTimeP99"),
+                (Double) data.get("selfAllocatedBytesMean"),
+                (Long) data.get("selfAllocatedBytesP99"));
+    }
+
+    /**
+     * リクエストパスを取得する。
+     *
+     * @return リクエストパス
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * ハンドラキュー上の位置を取得する。
+     *
+     * @return ハンドラキュー上の位置
+     */
+    public int getHandlerIndex() {
+        return handlerIndex;
+    }
+
+    /**
+     * ハンドラ名を取得する。
+     *
+     * @return ハンドラ名(クラスの単純名)
+     */
+    public String getHandlerName() {
+        return handlerName;
+    }
+
+    /**
+     * 処理件数を取得する。
+     *
+     * @return 処理件数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 経過時間(後続のハンドラを含む)の平均を取得する。
+     *
+     * @return 経過時間の平均
+     */
+    public double getWallTimeMean() {
+        return wallTimeMean;
+    }
+
+    /**
+     * 経過時間(後続のハンドラを含む)の99パーセンタイルを取得する。
+     *
+     * @return 経過時間の99パーセンタイル
+     */
+    public long getWallTimeP99() {
+        return wallTimeP99;
+    }
+
+    /**
+     * 経過時間(後続のハンドラを含む)の最大値を取得する。
+     *
+     * @return 経過時間の最大値
+     */
+    public long getWallTimeMax() {
+        return wallTimeMax;
+    }
+
+    /**
+     * 自身の経過時間の平均を取得する。
+     *
+     * @return 自身の経過時間の平均
+     */
+    public double getSelfWallTimeMean() {
+        return selfWallTimeMean;
+    }
+
+    /**
+     * 自身の経過時間の中央値を取得する。
+     *
+     * @return 自身の経過時間の中央値
+     */
+    public long getSelfWallTimeP50() {
+        return selfWallTimeP50;
+    }
+
+    /**
+     * 自身の経過時間の99パーセンタイルを取得する。
+     *
+     * @return 自身の経過時間の99パーセンタイル
+     */
+    public long getSelfWallTimeP99() {
+        return selfWallTimeP99;
+    }
+
+    /**
+     * 自身のCPU時間の平均を取得する。
+     *
+     * @return 自身のCPU時間の平均(計測しない場合は0)
+     */
+    public double getSelfCpuTimeMean() {
+        return selfCpuTimeMean;
+    }
+
+    /**
+     * 自身のCPU時間の99パーセンタイルを取得する。
+     *
+     * @return 自身のCPU時間の99パーセンタイル(計測しない場合は0)
+     */
+    public long getSelfCpuTimeP99() {
+        return selfCpuTimeP99;
+    }
+
+    /**
+     * 自身のアロケーションの平均を取得する。
+     *
+     * @return 自身のアロケーションの平均(計測しない場合は0)
+     */
+    public double getSelfAllocatedBytesMean() {
+        return selfAllocatedBytesMean;
+    }
+
+    /**
+     * 自身のアロケーションの99パーセンタイルを取得する。
+     *
+     * @return 自身のアロケーションの99パーセンタイル(計測しない場合は0)
+     */
+    public long getSelfAllocatedBytesP99() {
+        return selfAllocatedBytesP99;
+    }
+
+    @Override
+    public String toString() {
+        return "HandlerStatistics{path='" + path + "', handler='" + handlerName + "', count=" + count
+                + ", wallTimeMean=" + wallTimeMean + ", selfWallTimeMean=" + selfWallTimeMean
+                + ", selfCpuTimeMean=" + selfCpuTimeMean + ", selfAllocatedBytesMean=" + selfAllocatedBytesMean + '}';
+    }
+}
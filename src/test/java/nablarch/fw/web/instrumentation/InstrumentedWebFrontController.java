@@ -0,0 +1,166 @@
+package nablarch.fw.web.instrumentation;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.disposal.Disposable;
+import nablarch.fw.web.servlet.WebFrontController;
+
+/**
+ * ハンドラキューの各ハンドラの処理時間とアロケーションを計測する{@link WebFrontController}。
+ * <p/>
+ * 最初のリクエストの処理時に、ハンドラキューの各ハンドラを{@link HandlerInstrumentation}でラップし、
+ * 計測結果を参照する{@link HandlerInstrumentationMXBean}をプラットフォームMBeanサーバに登録する。
+ * ハンドラの動作は変更しない。
+ * <p/>
+ * 登録したMBeanは、{@link #dispose()}で登録を解除する。
+ * アプリケーションの停止時に解除されるよう、{@link nablarch.core.repository.disposal.BasicApplicationDisposer}に設定すること。
+ * <p/>
+ * 計測を行わない場合は、本クラスではなく{@link WebFrontController}を使用すること。
+ */
+public class InstrumentedWebFrontController extends WebFrontController implements Disposable {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(InstrumentedWebFrontController.class);
+
+    /** MBeanの登録名 */
+    private String jmxName = "nablarch:type=HandlerInstrumentation,name=webFrontController";
+
+    /** リクエストパスの種類の上限 */
+    private int maxRequestPaths = 1000;
+
+    /** CPU時間を計測する場合は{@code true} */
+    private boolean cpuTimeEnabled = true;
+
+    /** アロケーションを計測する場合は{@code true} */
+    private boolean allocationEnabled = true;
+
+    /** 計測を行う{@link HandlerInstrumentation} */
+    private volatile HandlerInstrumentation instrumentation;
+
+    /** 登録したMBeanの名前(登録していない場合は{@code null}) */
+    private ObjectName registeredName;
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        if (instrumentation == null) {
+            instrument();
+        }
+        super.doFilter(request, response, chain);
+    }
+
+    /**
+     * 登録したMBeanの登録を解除する。
+     *
+     * @throws JMException 登録の解除に失敗した場合
+     */
+    @Override
+    public synchronized void dispose() throws JMException {
+        if (registeredName == null) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(registeredName)) {
+            server.unregisterMBean(registeredName);
+        }
+        registeredName = null;
+    }
+
+    /**
+     * 計測結果を取得する{@link HandlerInstrumentation}を取得する。
+     *
+     * @return {@link HandlerInstrumentation}(最初のリクエストの処理前は{@code null})
+     */
+    public HandlerInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * MBeanの登録名を設定する。
+     * <p/>
+     * デフォルトは{@code nablarch:type=HandlerInstrumentation,name=webFrontController}。
+     * 同じ名前で登録済みのMBeanは、登録を解除してから登録する。
+     *
+     * @param jmxName MBeanの登録名
+     */
+    public void setJmxName(final String jmxName) {
+        this.jmxName = jmxName;
+    }
+
+    /**
+     * リクエストパスの種類の上限を設定する。
+     * <p/>
+     * 上限を超えたリクエストパスは、まとめて1つのパスとして集計する。デフォルトは1000。
+     *
+     * @param maxRequestPaths リクエストパスの種類の上限
+     */
+    public void setMaxRequestPaths(final int maxRequestPaths) {
+        this.maxRequestPaths = maxRequestPaths;
+    }
+
+    /**
+     * CPU時間を計測するか否かを設定する。デフォルトは{@code true}。
+     *
+     * @param cpuTimeEnabled CPU時間を計測する場合は{@code true}
+     */
+    public void setCpuTimeEnabled(final boolean cpuTimeEnabled) {
+        this.cpuTimeEnabled = cpuTimeEnabled;
+    }
+
+    /**
+     * アロケーションを計測するか否かを設定する。デフォルトは{@code true}。
+     *
+     * @param allocationEnabled アロケーションを計測する場合は{@code true}
+     */
+    public void setAllocationEnabled(final boolean allocationEnabled) {
+        this.allocationEnabled = allocationEnabled;
+    }
+
+    /**
+     * ハンドラキューをラップし、MBeanを登録する。
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private synchronized void instrument() {
+        if (instrumentation != null) {
+            return;
+        }
+        final HandlerInstrumentation created = new HandlerInstrumentation(
+                maxRequestPaths, cpuTimeEnabled, allocationEnabled);
+        setHandlerQueue(created.wrap((List) getHandlerQueue()));
+        register(created);
+        instrumentation = created;
+    }
+
+    /**
+     * MBeanを登録する。
+     * <p/>
+     * 登録に失敗した場合も計測は継続する。
+     *
+     * @param mbean 登録するMBean
+     */
+    private void register(final HandlerInstrumentationMXBean mbean) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(jmxName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+            registeredName = name;
+        } catch (JMException e) {
+            LOGGER.logWarn("failed to register handler instrumentation MBean. name = [" + jmxName + "]", e);
+        }
+    }
+}
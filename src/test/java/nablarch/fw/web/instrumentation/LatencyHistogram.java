@@ -0,0 +1,191 @@
+package nablarch.fw.web.instrumentation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ロックを使用せずに値を記録する、対数線形のヒストグラム。
+ * <p/>
+ * 2のべき乗ごとの区間を{@value #SUB_BUCKET_COUNT}個に等分したバケットで値を数える。
+ * パーセンタイルの誤差は最大で1/{@value #SUB_BUCKET_COUNT}(12.5%)となる。
+ * 負の値は0として記録する。
+ */
+public class LatencyHistogram {
+
+    /** 2のべき乗ごとの区間を分割するビット数 */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /** 2のべき乗ごとの区間の分割数 */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** バケット数 */
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    /** バケットごとの件数 */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /** 件数 */
+    private final AtomicLong count = new AtomicLong();
+
+    /** 合計 */
+    private final AtomicLong sum = new AtomicLong();
+
+    /** 最大値 */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 値を記録する。
+     *
+     * @param value 値
+     */
+    public void record(final long value) {
+        final long v = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long current;
+        while ((current = max.get()) < v) {
+            if (max.compareAndSet(current, v)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 記録した値のスナップショットを取得する。
+     * <p/>
+     * 記録中の値は、一部の統計値にのみ反映される場合がある。
+     *
+     * @return スナップショット
+     */
+    public Snapshot snapshot() {
+        final long[] copied = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copied[i] = counts.get(i);
+        }
+        return new Snapshot(copied, count.get(), sum.get(), max.get());
+    }
+
+    /**
+     * 値に対応するバケットのインデックスを取得する。
+     *
+     * @param value 値(0以上)
+     * @return インデックス
+     */
+    static int indexOf(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * バケットに含まれる値の上限を取得する。
+     *
+     * @param index インデックス
+     * @return 上限
+     */
+    static long upperBoundOf(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long sub = index % SUB_BUCKET_COUNT;
+        return ((SUB_BUCKET_COUNT + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * ヒストグラムのスナップショット。
+     */
+    public static class Snapshot {
+
+        /** バケットごとの件数 */
+        private final long[] counts;
+
+        /** 件数 */
+        private final long count;
+
+        /** 合計 */
+        private final long sum;
+
+        /** 最大値 */
+        private final long max;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param counts バケットごとの件数
+         * @param count 件数
+         * @param sum 合計
+         * @param max 最大値
+         */
+        Snapshot(final long[] counts, final long count, final long sum, final long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * 件数を取得する。
+         *
+         * @return 件数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * 合計を取得する。
+         *
+         * @return 合計
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * 最大値を取得する。
+         *
+         * @return 最大値
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * 平均値を取得する。
+         *
+         * @return 平均値(記録がない場合は0)
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * パーセンタイル値を取得する。
+         *
+         * @param percentile パーセンタイル(0～100)
+         * @return パーセンタイル値(バケットの上限。ただし最大値を超えない)
+         */
+        public long getPercentile(final double percentile) {
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = Math.max((long) Math.ceil(total * percentile / 100), 1);
+            long accumulated = 0;
+            for (int i = 0; i < counts.length; i++) {
+                accumulated += counts[i];
+                if (accumulated >= rank) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
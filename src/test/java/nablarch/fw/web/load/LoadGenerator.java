@@ -0,0 +1,362 @@
+package nablarch.fw.web.load;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nablarch.fw.web.instrumentation.LatencyHistogram;
+
+/**
+ * 複数のスレッドからリクエストを送信し、スループットと処理時間の分布を計測する負荷生成器。
+ * <p/>
+ * 各スレッドは、{@link #addScenario(String, int, Scenario)}で設定した重みに従ってリクエストの種類を選択し、送信を繰り返す。
+ * 処理時間は{@link LatencyHistogram}にマイクロ秒で記録する。
+ * ウォームアップ期間中に開始したリクエストは記録しない。
+ * <p/>
+ * {@link #setRate(int)}で送信レートを指定した場合は、各スレッドが予定した時刻にリクエストを開始する。
+ * 前のリクエストの遅延により予定した時刻を過ぎた場合も、処理時間は予定した時刻から計測する。
+ * これにより、サーバの停滞中に送信されなかったリクエストの待ち時間(coordinated omission)も分布に反映される。
+ */
+public class LoadGenerator {
+
+    /**
+     * リクエストの種類。
+     * <p/>
+     * 複数のスレッドから同時に呼び出される。
+     */
+    public interface Scenario {
+
+        /**
+         * リクエストを送信し、レスポンスを検証する。
+         *
+         * @throws Exception 送信に失敗した場合や、期待したレスポンスでない場合
+         */
+        void execute() throws Exception;
+    }
+
+    /** 名前ごとのリクエストの種類 */
+    private final Map<String, Scenario> scenarios = new LinkedHashMap<String, Scenario>();
+
+    /** リクエストの種類ごとの重み */
+    private final List<Integer> weights = new ArrayList<Integer>();
+
+    /** 重みの合計 */
+    private int totalWeight;
+
+    /** 同時実行数 */
+    private int concurrency = 16;
+
+    /** ウォームアップ期間(ミリ秒) */
+    private long warmupMillis = 5000;
+
+    /** 計測期間(ミリ秒) */
+    private long durationMillis = 30000;
+
+    /** 全スレッドの合計の送信レート(リクエスト/秒)。0の場合は、レスポンスを受信次第次のリクエストを送信する */
+    private int rate;
+
+    /**
+     * リクエストの種類を追加する。
+     *
+     * @param name 名前
+     * @param weight 重み(1以上)
+     * @param scenario リクエストの種類
+     * @return 本オブジェクト
+     */
+    public LoadGenerator addScenario(final String name, final int weight, final Scenario scenario) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive. name = [" + name + "], weight = [" + weight + ']');
+        }
+        if (scenarios.put(name, scenario) != null) {
+            throw new IllegalArgumentException("duplicate scenario. name = [" + name + ']');
+        }
+        weights.add(weight);
+        totalWeight += weight;
+        return this;
+    }
+
+    /**
+     * 同時実行数を設定する。デフォルトは16。
+     *
+     * @param concurrency 同時実行数
+     * @return 本オブジェクト
+     */
+    public LoadGenerator setConcurrency(final int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * ウォームアップ期間を設定する。デフォルトは5秒。
+     *
+     * @param warmupMillis ウォームアップ期間(ミリ秒)
+     * @return 本オブジェクト
+     */
+    public LoadGenerator setWarmupMillis(final long warmupMillis) {
+        this.warmupMillis = warmupMillis;
+        return this;
+    }
+
+    /**
+     * 計測期間を設定する。デフォルトは30秒。
+     *
+     * @param durationMillis 計測期間(ミリ秒)
+     * @return 本オブジェクト
+     */
+    public LoadGenerator setDurationMillis(final long durationMillis) {
+        this.durationMillis = durationMillis;
+        return this;
+    }
+
+    /**
+     * 全スレッドの合計の送信レートを設定する。デフォルトは0(レスポンスを受信次第次のリクエストを送信する)。
+     *
+     * @param rate 送信レート(リクエスト/秒)
+     * @return 本オブジェクト
+     */
+    public LoadGenerator setRate(final int rate) {
+        this.rate = rate;
+        return this;
+    }
+
+    /**
+     * 負荷を生成し、結果を取得する。
+     *
+     * @return 結果
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public Result run() throws InterruptedException {
+        if (scenarios.isEmpty()) {
+            throw new IllegalStateException("no scenario was added.");
+        }
+        final List<String> names = new ArrayList<String>(scenarios.keySet());
+        final LatencyHistogram[] histograms = new LatencyHistogram[names.size()];
+        final AtomicLong[] errors = new AtomicLong[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            histograms[i] = new LatencyHistogram();
+            errors[i] = new AtomicLong();
+        }
+        final AtomicReference<Throwable> firstError = new AtomicReference<Throwable>();
+
+        final long start = System.nanoTime();
+        final long measureStart = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        final long end = measureStart + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        final long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(concurrency) / rate : 0;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                final int worker = i;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final Random random = new Random(worker);
+                        // 送信レートを指定した場合は、スレッドごとに開始時刻をずらす
+                        long intended = start + interval * worker / concurrency;
+                        while (true) {
+                            final long now = System.nanoTime();
+                            final long begin;
+                            if (interval > 0) {
+                                if (intended > now) {
+                                    sleepNanos(intended - now);
+                                }
+                                begin = intended;
+                                intended += interval;
+                            } else {
+                                begin = now;
+                            }
+                            if (begin >= end || Thread.currentThread().isInterrupted()) {
+                                return;
+                            }
+                            final int index = choose(random);
+                            boolean success = true;
+                            try {
+                                scenarios.get(names.get(index)).execute();
+                            } catch (Throwable e) {
+                                success = false;
+                                firstError.compareAndSet(null, e);
+                            }
+                            if (begin >= measureStart) {
+                                histograms[index].record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+                                if (!success) {
+                                    errors[index].incrementAndGet();
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if (!executor.awaitTermination(warmupMillis + durationMillis + TimeUnit.MINUTES.toMillis(1), TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+            throw new IllegalStateException("load generator did not finish in time.");
+        }
+
+        final long measured = Math.max(System.nanoTime() - measureStart, 1);
+        final Map<String, LatencyHistogram.Snapshot> latencies = new LinkedHashMap<String, LatencyHistogram.Snapshot>();
+        final Map<String, Long> errorCounts = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < names.size(); i++) {
+            latencies.put(names.get(i), histograms[i].snapshot());
+            errorCounts.put(names.get(i), errors[i].get());
+        }
+        return new Result(measured, latencies, errorCounts, firstError.get());
+    }
+
+    /**
+     * 重みに従ってリクエストの種類を選択する。
+     *
+     * @param random 乱数
+     * @return リクエストの種類のインデックス
+     */
+    private int choose(final Random random) {
+        int value = random.nextInt(totalWeight);
+        for (int i = 0; i < weights.size(); i++) {
+            value -= weights.get(i);
+            if (value < 0) {
+                return i;
+            }
+        }
+        return weights.size() - 1;
+    }
+
+    /**
+     * 指定された時間待機する。割り込まれた場合は、割り込み状態を設定して復帰する。
+     *
+     * @param nanos 待機時間(ナノ秒)
+     */
+    private static void sleepNanos(final long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 負荷生成の結果。
+     */
+    public static class Result {
+
+        /** 計測期間(ナノ秒) */
+        private final long measuredNanos;
+
+        /** リクエストの種類ごとの処理時間(マイクロ秒) */
+        private final Map<String, LatencyHistogram.Snapshot> latencies;
+
+        /** リクエストの種類ごとのエラー件数 */
+        private final Map<String, Long> errors;
+
+        /** 最初に発生したエラー */
+        private final Throwable firstError;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param measuredNanos 計測期間(ナノ秒)
+         * @param latencies リクエストの種類ごとの処理時間
+         * @param errors リクエストの種類ごとのエラー件数
+         * @param firstError 最初に発生したエラー
+         */
+        Result(final long measuredNanos, final Map<String, LatencyHistogram.Snapshot> latencies,
+                final Map<String, Long> errors, final Throwable firstError) {
+            this.measuredNanos = measuredNanos;
+            this.latencies = latencies;
+            this.errors = errors;
+            this.firstError = firstError;
+        }
+
+        /**
+         * スループットを取得する。
+         *
+         * @return スループット(リクエスト/秒)
+         */
+        public double getThroughput() {
+            long count = 0;
+            for (LatencyHistogram.Snapshot latency : latencies.values()) {
+                count += latency.getCount();
+            }
+            return count * (double) TimeUnit.SECONDS.toNanos(1) / measuredNanos;
+        }
+
+        /**
+         * リクエストの種類ごとの処理時間を取得する。
+         *
+         * @return リクエストの種類ごとの処理時間(マイクロ秒)
+         */
+        public Map<String, LatencyHistogram.Snapshot> getLatencies() {
+            return latencies;
+        }
+
+        /**
+         * エラー件数の合計を取得する。
+         *
+         * @return エラー件数
+         */
+        public long getErrorCount() {
+            long count = 0;
+            for (Long error : errors.values()) {
+                count += error;
+            }
+            return count;
+        }
+
+        /**
+         * 最初に発生したエラーを取得する。ウォームアップ期間中のエラーを含む。
+         *
+         * @return 最初に発生したエラー(発生していない場合は{@code null})
+         */
+        public Throwable getFirstError() {
+            return firstError;
+        }
+
+        /**
+         * 結果を、ベースラインとして保存できる形式で取得する。
+         * <p/>
+         * キーは{@code throughput}と、リクエストの種類ごとの{@code <名前>.count}、{@code <名前>.errors}、
+         * {@code <名前>.p50}、{@code <名前>.p90}、{@code <名前>.p99}、{@code <名前>.p999}、{@code <名前>.max}。
+         * 処理時間の単位はマイクロ秒。
+         *
+         * @return 結果
+         */
+        public Map<String, Number> toMap() {
+            final Map<String, Number> result = new LinkedHashMap<String, Number>();
+            result.put("throughput", getThroughput());
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : latencies.entrySet()) {
+                final String name = entry.getKey();
+                final LatencyHistogram.Snapshot latency = entry.getValue();
+                result.put(name + ".count", latency.getCount());
+                result.put(name + ".errors", errors.get(name));
+                result.put(name + ".p50", latency.getPercentile(50));
+                result.put(name + ".p90", latency.getPercentile(90));
+                result.put(name + ".p99", latency.getPercentile(99));
+                result.put(name + ".p999", latency.getPercentile(99.9));
+                result.put(name + ".max", latency.getMax());
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder report = new StringBuilder();
+            report.append(String.format("throughput: %.1f req/s%n", getThroughput()));
+            report.append(String.format("%-16s%10s%8s%10s%10s%10s%10s%10s%n",
+                    "scenario", "count", "errors", "p50(us)", "p90(us)", "p99(us)", "p99.9(us)", "max(us)"));
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : latencies.entrySet()) {
+                final LatencyHistogram.Snapshot latency = entry.getValue();
+                report.append(String.format("%-16s%10d%8d%10d%10d%10d%10d%10d%n", entry.getKey(), latency.getCount(),
+                        errors.get(entry.getKey()), latency.getPercentile(50), latency.getPercentile(90),
+                        latency.getPercentile(99), latency.getPercentile(99.9), latency.getMax()));
+            }
+            return report.toString();
+        }
+    }
+}
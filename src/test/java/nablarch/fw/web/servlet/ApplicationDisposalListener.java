@@ -0,0 +1,33 @@
+package nablarch.fw.web.servlet;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import nablarch.core.repository.SystemRepository;
+import nablarch.core.repository.disposal.BasicApplicationDisposer;
+
+/**
+ * アプリケーションの停止時に、システムリポジトリの{@value #DISPOSER_NAME}に設定したコンポーネントを解放するリスナー。
+ * <p/>
+ * 再デプロイ時にスレッドやMBeanが残り、クラスローダが解放されなくなることを防ぐ。
+ * サーブレットコンテナは定義と逆の順にリスナーの停止処理を呼び出すため、web.xmlではシステムリポジトリを初期化するリスナーの後に定義すること。
+ * {@value #DISPOSER_NAME}が定義されていない場合は何もしない。
+ */
+public class ApplicationDisposalListener implements ServletContextListener {
+
+    /** 解放処理を行うコンポーネントの名前 */
+    static final String DISPOSER_NAME = "disposer";
+
+    @Override
+    public void contextInitialized(final ServletContextEvent event) {
+        // 起動時には何もしない
+    }
+
+    @Override
+    public void contextDestroyed(final ServletContextEvent event) {
+        final BasicApplicationDisposer disposer = SystemRepository.get(DISPOSER_NAME);
+        if (disposer != null) {
+            disposer.dispose();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package nablarch.fw.web.servlet;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import nablarch.core.ThreadContext;
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.SystemRepository;
+
+/**
+ * サーブレットの非同期処理を使用して、コンテナのリクエストスレッドとは別のスレッドでハンドラキューを実行する
+ * {@link RepositoryBasedWebFrontController}。
+ * <p/>
+ * 対象のリクエストは{@link ServletRequest#startAsync(ServletRequest, ServletResponse)}で非同期処理を開始し、
+ * {@link AsyncRequestExecutor}のスレッド(仮想スレッドまたはスレッドプール)でハンドラキューを実行する。
+ * コンテナのリクエストスレッドはすぐに解放されるため、アップロードの受信やバックエンドの応答を待つリクエストが
+ * コンテナのスレッドを占有しない。
+ * <p/>
+ * 本クラスが行うのは処理を実行するスレッドの付け替えであり、ノンブロッキングI/Oではない。
+ * ハンドラキューはリクエストボディを従来どおりブロッキングI/Oで読み込むため、処理中のリクエストは
+ * 完了するまで{@link AsyncRequestExecutor}のスレッドを1つ占有する。
+ * 仮想スレッドが使用できないJava 8(GlassFish 4.1など)ではスレッドプールを使用するため、
+ * 同時に処理できるリクエストの数は、コンテナのスレッド数ではなく{@link AsyncRequestExecutor#setMaxThreads(int)}で
+ * 制限されることになる。
+ * <p/>
+ * 1つのリクエストのハンドラキューは1つのスレッドで実行するため、{@link nablarch.fw.ExecutionContext}や
+ * セッションの扱いは同期実行の場合と変わらない。スレッドを再利用する場合に備え、
+ * 実行後に{@link ThreadContext}をクリアする。
+ * <p/>
+ * 以下の初期化パラメータを指定できる。
+ * <ul>
+ *     <li>{@code asyncRequestPattern}:非同期で処理するリクエストパス(コンテキストパスを除く)の正規表現。
+ *     省略した場合は全てのリクエストを対象とする。
+ *     JSPへのフォワードなど、非同期処理に対応しないリクエストは対象から除外すること。</li>
+ *     <li>{@code executorName}:{@link AsyncRequestExecutor}のコンポーネント名。デフォルトは{@code asyncRequestExecutor}。
+ *     コンポーネントが定義されていない場合は、デフォルト設定の{@link AsyncRequestExecutor}を使用する。</li>
+ *     <li>{@code asyncTimeout}:非同期処理のタイムアウト(ミリ秒)。デフォルトは0(タイムアウトしない)。</li>
+ * </ul>
+ * 非同期処理がサポートされないリクエスト(非同期処理に対応しないフィルタを経由した場合など)は、
+ * コンテナのリクエストスレッドで処理する。
+ * {@link AsyncRequestExecutor}の同時実行数の上限を超えた場合は、コンテナのリクエストスレッドでは処理せずに503を返す。
+ * 503としたリクエストの数は{@link AsyncRequestExecutor#getRejectedCount()}で取得できる。
+ * <p/>
+ * 本フィルタを使用する場合は、web.xmlのフィルタ定義に{@code <async-supported>true</async-supported>}を指定すること。
+ * {@link AsyncRequestExecutor}をコンポーネントとして定義する場合は、アプリケーションの停止時に解放されるよう、
+ * {@code disposer}の解放対象に追加すること。
+ */
+public class AsyncRepositoryBasedWebFrontController extends RepositoryBasedWebFrontController {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(AsyncRepositoryBasedWebFrontController.class);
+
+    /** 非同期で処理するリクエストパスのパターン */
+    private Pattern asyncRequestPattern;
+
+    /** 非同期処理のタイムアウト(ミリ秒) */
+    private long asyncTimeout;
+
+    /** ハンドラキューを実行する{@link AsyncRequestExecutor} */
+    private AsyncRequestExecutor executor;
+
+    /** {@link #executor}を本クラスで生成した場合は{@code true} */
+    private boolean ownExecutor;
+
+    @Override
+    public void init(final FilterConfig config) throws ServletException {
+        super.init(config);
+        final String pattern = config.getInitParameter("asyncRequestPattern");
+        asyncRequestPattern = pattern == null ? null : Pattern.compile(pattern);
+        final String timeout = config.getInitParameter("asyncTimeout");
+        asyncTimeout = timeout == null ? 0 : Long.parseLong(timeout);
+
+        final String executorName = config.getInitParameter("executorName");
+        executor = SystemRepository.get(executorName == null ? "asyncRequestExecutor" : executorName);
+        if (executor == null) {
+            executor = new AsyncRequestExecutor();
+            ownExecutor = true;
+        }
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        if (!isAsyncTarget(request)) {
+            super.doFilter(request, response, chain);
+            return;
+        }
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(asyncTimeout);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                process(asyncContext, chain);
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOGGER.logInfo("asynchronous execution was rejected. cause = [" + e.getMessage() + "]");
+            sendError(asyncContext.getResponse(), HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            asyncContext.complete();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+        super.destroy();
+    }
+
+    /**
+     * 非同期で処理するリクエストか否か。
+     *
+     * @param request リクエスト
+     * @return 非同期で処理する場合は{@code true}
+     */
+    private boolean isAsyncTarget(final ServletRequest request) {
+        if (!request.isAsyncSupported() || !(request instanceof HttpServletRequest)) {
+            return false;
+        }
+        if (asyncRequestPattern == null) {
+            return true;
+        }
+        final HttpServletRequest httpRequest = (HttpServletRequest) request;
+        final String path = httpRequest.getRequestURI().substring(httpRequest.getContextPath().length());
+        return asyncRequestPattern.matcher(path).matches();
+    }
+
+    /**
+     * ハンドラキューを実行し、非同期処理を完了する。
+     *
+     * @param asyncContext 非同期処理のコンテキスト
+     * @param chain フィルタチェーン
+     */
+    private void process(final AsyncContext asyncContext, final FilterChain chain) {
+        try {
+            super.doFilter(asyncContext.getRequest(), asyncContext.getResponse(), chain);
+        } catch (Throwable e) {
+            LOGGER.logWarn("an error occurred while processing an asynchronous request.", e);
+            sendError(asyncContext.getResponse(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            ThreadContext.clear();
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // タイムアウトなどにより、コンテナが既に非同期処理を完了している。
+                LOGGER.logDebug("asynchronous request has already been completed.");
+            }
+        }
+    }
+
+    /**
+     * レスポンスが確定していない場合は、指定したステータスコードを返す。
+     *
+     * @param response レスポンス
+     * @param statusCode ステータスコード
+     */
+    private static void sendError(final ServletResponse response, final int statusCode) {
+        if (response.isCommitted() || !(response instanceof HttpServletResponse)) {
+            return;
+        }
+        try {
+            ((HttpServletResponse) response).sendError(statusCode);
+        } catch (IOException e) {
+            LOGGER.logDebug("failed to send error response. cause = [" + e.getMessage() + "]");
+        }
+    }
+}
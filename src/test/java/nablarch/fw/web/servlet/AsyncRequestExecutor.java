@@ -0,0 +1,254 @@
+package nablarch.fw.web.servlet;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.disposal.Disposable;
+
+/**
+ * {@link AsyncRepositoryBasedWebFrontController}で、ハンドラキューを実行する{@link Executor}。
+ * <p/>
+ * 仮想スレッドが使用できるJVMでは、リクエストごとに仮想スレッドを生成して実行する。
+ * 使用できない場合(Java 8など)、または{@link #setVirtualThreadsEnabled(boolean)}で無効にした場合は、
+ * スレッドプールのスレッドで実行する。
+ * <p/>
+ * いずれの場合も、同時に実行するリクエストの数は{@link #setMaxThreads(int)}で制限し、
+ * 上限を超えた場合は{@link RejectedExecutionException}を送出する。受け付けなかったリクエストの数は
+ * {@link #getRejectedCount()}で取得できる。
+ * <p/>
+ * アプリケーションの停止時は{@link #dispose()}で実行を終了する。
+ */
+public class AsyncRequestExecutor implements Executor, Disposable {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(AsyncRequestExecutor.class);
+
+    /** 実行中のリクエストの数 */
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    /** 実行中のリクエストの数の最大値 */
+    private final AtomicInteger peakActiveCount = new AtomicInteger();
+
+    /** 実行が完了したリクエストの数 */
+    private final AtomicLong completedCount = new AtomicLong();
+
+    /** 受け付けなかったリクエストの数 */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /** 仮想スレッドを使用する場合は{@code true} */
+    private boolean virtualThreadsEnabled = true;
+
+    /** 同時に実行するリクエストの数の上限 */
+    private int maxThreads = 200;
+
+    /** 実行に使用する{@link ExecutorService} */
+    private volatile ExecutorService executor;
+
+    /** 仮想スレッドを使用している場合は{@code true} */
+    private volatile boolean virtualThreads;
+
+    /**
+     * 仮想スレッドを使用するか否かを設定する。
+     * <p/>
+     * 仮想スレッドが使用できないJVMでは、{@code true}を設定してもスレッドプールを使用する。デフォルトは{@code true}。
+     *
+     * @param virtualThreadsEnabled 仮想スレッドを使用する場合は{@code true}
+     */
+    public void setVirtualThreadsEnabled(final boolean virtualThreadsEnabled) {
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+    }
+
+    /**
+     * 同時に実行するリクエストの数の上限を設定する。
+     * <p/>
+     * スレッドプールを使用する場合は、スレッド数の上限となる。デフォルトは200。
+     *
+     * @param maxThreads 同時に実行するリクエストの数の上限
+     */
+    public void setMaxThreads(final int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (!tryAcquire()) {
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("too many asynchronous requests. max = [" + maxThreads + "]");
+        }
+        try {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        completedCount.incrementAndGet();
+                        activeCount.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            activeCount.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 実行を終了する。
+     * <p/>
+     * 実行中のリクエストの完了は待たない。
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * 実行を終了する。{@link #shutdown()}と同じ。
+     */
+    @Override
+    public void dispose() {
+        shutdown();
+    }
+
+    /**
+     * 仮想スレッドを使用しているか否か。
+     *
+     * @return 仮想スレッドを使用している場合は{@code true}
+     */
+    public boolean isVirtualThreads() {
+        getExecutor();
+        return virtualThreads;
+    }
+
+    /**
+     * 実行中のリクエストの数を取得する。
+     *
+     * @return 実行中のリクエストの数
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * 実行中のリクエストの数の最大値を取得する。
+     *
+     * @return 実行中のリクエストの数の最大値
+     */
+    public int getPeakActiveCount() {
+        return peakActiveCount.get();
+    }
+
+    /**
+     * 実行が完了したリクエストの数を取得する。
+     *
+     * @return 実行が完了したリクエストの数
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * 受け付けなかったリクエストの数を取得する。
+     *
+     * @return 受け付けなかったリクエストの数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * 実行中のリクエストの数の最大値を、現在の値にリセットする。
+     */
+    public void resetPeakActiveCount() {
+        peakActiveCount.set(activeCount.get());
+    }
+
+    /**
+     * 上限を超えない場合のみ、実行中のリクエストの数を加算する。
+     *
+     * @return 加算した場合は{@code true}
+     */
+    private boolean tryAcquire() {
+        while (true) {
+            final int current = activeCount.get();
+            if (current >= maxThreads) {
+                return false;
+            }
+            if (activeCount.compareAndSet(current, current + 1)) {
+                int peak;
+                while ((peak = peakActiveCount.get()) < current + 1) {
+                    if (peakActiveCount.compareAndSet(peak, current + 1)) {
+                        break;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 実行に使用する{@link ExecutorService}を取得する。初回の呼び出し時に生成する。
+     *
+     * @return {@link ExecutorService}
+     */
+    private ExecutorService getExecutor() {
+        ExecutorService result = executor;
+        if (result == null) {
+            synchronized (this) {
+                result = executor;
+                if (result == null) {
+                    result = createExecutor();
+                    executor = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@link ExecutorService}を生成する。
+     *
+     * @return {@link ExecutorService}
+     */
+    private ExecutorService createExecutor() {
+        if (virtualThreadsEnabled) {
+            try {
+                final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                final ExecutorService virtualThreadExecutor = (ExecutorService) factory.invoke(null);
+                virtualThreads = true;
+                return virtualThreadExecutor;
+            } catch (NoSuchMethodException e) {
+                LOGGER.logDebug("virtual threads are not available. use a thread pool instead.");
+            } catch (Exception e) {
+                LOGGER.logWarn("failed to create virtual thread executor. use a thread pool instead.", e);
+            }
+        }
+        virtualThreads = false;
+        return new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "async-request-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
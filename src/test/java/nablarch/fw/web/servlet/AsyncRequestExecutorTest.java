@@ -0,0 +1,138 @@
+package nablarch.fw.web.servlet;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link AsyncRequestExecutor}のテストクラス。
+ */
+public class AsyncRequestExecutorTest {
+
+    private final AsyncRequestExecutor sut = new AsyncRequestExecutor();
+
+    /** 実行中の処理を止めておくためのラッチ */
+    private final CountDownLatch blocker = new CountDownLatch(1);
+
+    {
+        sut.setVirtualThreadsEnabled(false);
+    }
+
+    @After
+    public void tearDown() {
+        blocker.countDown();
+        sut.dispose();
+    }
+
+    /**
+     * 処理が呼び出し元とは別のスレッドで実行され、完了したリクエストの数が加算されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testExecute() throws Exception {
+        final String[] threadName = new String[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        sut.execute(new Runnable() {
+            @Override
+            public void run() {
+                threadName[0] = Thread.currentThread().getName();
+                done.countDown();
+            }
+        });
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(threadName[0].startsWith("async-request-"), is(true));
+        awaitCompleted(1);
+        assertThat(sut.getActiveCount(), is(0));
+        assertThat(sut.getRejectedCount(), is(0L));
+    }
+
+    /**
+     * 同時に実行するリクエストの数が上限に達している場合に、{@link RejectedExecutionException}が送出され、
+     * 呼び出し元のスレッドでは実行されずに、受け付けなかったリクエストの数が加算されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testExecute_rejected() throws Exception {
+        sut.setMaxThreads(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        sut.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+        final boolean[] executed = new boolean[1];
+        try {
+            sut.execute(new Runnable() {
+                @Override
+                public void run() {
+                    executed[0] = true;
+                }
+            });
+            fail("同時に実行するリクエストの数が上限に達しているため、例外が発生する。");
+        } catch (RejectedExecutionException e) {
+            assertThat(e.getMessage(), is("too many asynchronous requests. max = [1]"));
+        }
+        assertThat(executed[0], is(false));
+        assertThat(sut.getRejectedCount(), is(1L));
+        assertThat(sut.getActiveCount(), is(1));
+
+        blocker.countDown();
+        awaitCompleted(1);
+        assertThat(sut.getActiveCount(), is(0));
+    }
+
+    /**
+     * 解放時に実行が終了し、スレッドが停止することを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testDispose() throws Exception {
+        final Thread[] thread = new Thread[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        sut.execute(new Runnable() {
+            @Override
+            public void run() {
+                thread[0] = Thread.currentThread();
+                done.countDown();
+            }
+        });
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+
+        sut.dispose();
+
+        thread[0].join(5000);
+        assertThat(thread[0].isAlive(), is(false));
+    }
+
+    /**
+     * 完了したリクエストの数が、期待する値になるまで待つ。
+     *
+     * @param expected 期待する値
+     * @throws Exception
+     */
+    private void awaitCompleted(final long expected) throws Exception {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (sut.getCompletedCount() != expected) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("request not completed. completed = [" + sut.getCompletedCount() + ']');
+            }
+            Thread.sleep(10);
+        }
+    }
+}
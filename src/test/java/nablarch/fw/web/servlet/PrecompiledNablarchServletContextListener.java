@@ -0,0 +1,108 @@
+package nablarch.fw.web.servlet;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.SystemRepository;
+import nablarch.core.repository.di.precompiled.ComponentLoaderGenerator;
+import nablarch.core.repository.di.precompiled.PrecompiledComponentLoader;
+
+/**
+ * ビルド時に生成した{@link PrecompiledComponentLoader}でシステムリポジトリにコンポーネントを登録する
+ * {@link NablarchServletContextListener}。
+ * <p/>
+ * コンテキストパラメータ{@code di.config}の設定ファイルから{@link ComponentLoaderGenerator}が生成したクラスが存在する場合は、
+ * XMLの解析やリフレクションによるインジェクションを行わずにコンポーネントを構築し、システムリポジトリに登録する。
+ * その後、{@code di.config}をコンポーネントを定義しない設定ファイル({@value #EMPTY_CONFIG_FILE})に置き換えて
+ * {@link NablarchServletContextListener#contextInitialized(ServletContextEvent)}を呼び出す。
+ * システムリポジトリへの読み込みは既存のコンポーネントに追加されるため、
+ * 初期化処理({@code initializer})の実行やログ出力などは{@link NablarchServletContextListener}と同じ処理となる。
+ * <p/>
+ * 以下の場合は、{@link NablarchServletContextListener}と同様に設定ファイル(XML)から読み込む。
+ * <ul>
+ *     <li>クラスが生成されていない場合</li>
+ *     <li>クラスの生成後に設定ファイルが変更された場合</li>
+ *     <li>{@code di.duplicate-definition-policy}に{@code OVERRIDE}以外が指定された場合</li>
+ * </ul>
+ */
+public class PrecompiledNablarchServletContextListener extends NablarchServletContextListener {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(PrecompiledNablarchServletContextListener.class);
+
+    /** 設定ファイルを指定するコンテキストパラメータ */
+    private static final String DI_CONFIG_PARAM = "di.config";
+
+    /** 重複定義時の動作を指定するコンテキストパラメータ */
+    private static final String DUPLICATE_DEFINITION_POLICY_PARAM = "di.duplicate-definition-policy";
+
+    /** コンポーネントを定義しない設定ファイル */
+    static final String EMPTY_CONFIG_FILE = "nablarch/fw/web/servlet/precompiled-component-configuration.xml";
+
+    @Override
+    public void contextInitialized(final ServletContextEvent event) {
+        final ServletContext servletContext = event.getServletContext();
+        final PrecompiledComponentLoader loader = findLoader(servletContext);
+        if (loader == null) {
+            super.contextInitialized(event);
+            return;
+        }
+        try {
+            SystemRepository.load(loader);
+        } catch (RuntimeException e) {
+            LOGGER.logFatal("failed to load system repository. loader = [" + loader.getClass().getName() + ']', e);
+            throw e;
+        }
+        LOGGER.logInfo("system repository was loaded by precompiled component loader. loader = ["
+                + loader.getClass().getName() + ']');
+        super.contextInitialized(new ServletContextEvent(replaceConfigFile(servletContext, EMPTY_CONFIG_FILE)));
+    }
+
+    /**
+     * 設定ファイルから生成した{@link PrecompiledComponentLoader}を取得する。
+     *
+     * @param context サーブレットコンテキスト
+     * @return {@link PrecompiledComponentLoader}(XMLから読み込む場合は{@code null})
+     */
+    private static PrecompiledComponentLoader findLoader(final ServletContext context) {
+        final String configFile = context.getInitParameter(DI_CONFIG_PARAM);
+        final String policy = context.getInitParameter(DUPLICATE_DEFINITION_POLICY_PARAM);
+        if (configFile == null || (policy != null && !policy.equals("OVERRIDE"))) {
+            return null;
+        }
+        return PrecompiledComponentLoader.find(configFile);
+    }
+
+    /**
+     * コンテキストパラメータ{@code di.config}を置き換えたサーブレットコンテキストを生成する。
+     * <p/>
+     * {@code di.config}以外の呼び出しは、元のサーブレットコンテキストに委譲する。
+     *
+     * @param context 元のサーブレットコンテキスト
+     * @param configFile 置き換える設定ファイル
+     * @return サーブレットコンテキスト
+     */
+    static ServletContext replaceConfigFile(final ServletContext context, final String configFile) {
+        return (ServletContext) Proxy.newProxyInstance(PrecompiledNablarchServletContextListener.class.getClassLoader(),
+                new Class<?>[] {ServletContext.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        if (method.getName().equals("getInitParameter") && DI_CONFIG_PARAM.equals(args[0])) {
+                            return configFile;
+                        }
+                        try {
+                            return method.invoke(context, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+}
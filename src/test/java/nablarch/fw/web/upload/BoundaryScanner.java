@@ -0,0 +1,88 @@
+package nablarch.fw.web.upload;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ByteBuffer}内から境界文字列を検索するクラス。
+ * <p/>
+ * Boyer-Moore-Horspool法により、境界文字列の末尾のバイトと一致しない位置は、
+ * 事前に計算したスキップ表に従って読み飛ばす。
+ * 境界文字列はリクエスト単位で固定のため、スキップ表の計算はリクエストごとに1度だけ行う。
+ */
+public final class BoundaryScanner {
+
+    /** 検索するバイト列 */
+    private final byte[] pattern;
+
+    /** 不一致時に読み飛ばすバイト数(バイト値ごと) */
+    private final int[] skip = new int[256];
+
+    /**
+     * コンストラクタ。
+     *
+     * @param pattern 検索するバイト列
+     */
+    public BoundaryScanner(final byte[] pattern) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("pattern must not be empty.");
+        }
+        this.pattern = pattern.clone();
+        final int last = pattern.length - 1;
+        for (int i = 0; i < skip.length; i++) {
+            skip[i] = pattern.length;
+        }
+        for (int i = 0; i < last; i++) {
+            skip[pattern[i] & 0xff] = last - i;
+        }
+    }
+
+    /**
+     * 検索するバイト列の長さを取得する。
+     *
+     * @return バイト数
+     */
+    public int length() {
+        return pattern.length;
+    }
+
+    /**
+     * バッファ内でバイト列を検索する。
+     * <p/>
+     * バッファの位置(position)及びリミット(limit)は変更しない。
+     *
+     * @param buffer 検索対象のバッファ
+     * @param from 検索開始位置(絶対位置)
+     * @param to 検索終了位置(絶対位置。この位置は含まない)
+     * @return 見つかった位置(絶対位置)。見つからない場合は{@code -1}
+     */
+    public int indexOf(final ByteBuffer buffer, final int from, final int to) {
+        final int last = pattern.length - 1;
+        final byte lastByte = pattern[last];
+        int i = from;
+        while (i + last < to) {
+            final byte b = buffer.get(i + last);
+            if (b == lastByte && matchesAt(buffer, i, last)) {
+                return i;
+            }
+            i += skip[b & 0xff];
+        }
+        return -1;
+    }
+
+    /**
+     * 指定位置から末尾を除くバイト列が一致するかどうかを判定する。
+     *
+     * @param buffer 検索対象のバッファ
+     * @param start 比較開始位置
+     * @param last 比較するバイト数
+     * @return 一致する場合は{@code true}
+     */
+    private boolean matchesAt(final ByteBuffer buffer, final int start, final int last) {
+        for (int j = last - 1; j >= 0; j--) {
+            if (buffer.get(start + j) != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,76 @@
+package nablarch.fw.web.upload;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * パートの内容のダイジェストを、16進数の文字列で返す{@link PartProcessor}。
+ */
+public class ChecksumPartProcessor implements PartProcessor {
+
+    /** 16進数の文字 */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** 読み込みバッファのサイズ */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** 名前 */
+    private String name = "checksum";
+
+    /** ダイジェストのアルゴリズム */
+    private String algorithm = "SHA-256";
+
+    /**
+     * 名前を設定する。デフォルトは{@code checksum}。
+     *
+     * @param name 名前
+     */
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * ダイジェストのアルゴリズムを設定する。デフォルトは{@code SHA-256}。
+     *
+     * @param algorithm {@link MessageDigest}のアルゴリズム名
+     */
+    public void setAlgorithm(final String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String process(final PartInfo part) throws Exception {
+        final MessageDigest digest = MessageDigest.getInstance(algorithm);
+        final InputStream in = part.getInputStream();
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * バイト列を16進数の文字列に変換する。
+     *
+     * @param bytes バイト列
+     * @return 16進数の文字列(小文字)
+     */
+    static String toHex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,101 @@
+package nablarch.fw.web.upload;
+
+import java.io.InputStream;
+
+/**
+ * パートの先頭のバイト列(マジックナンバー)から判定したContent-Typeを返す{@link PartProcessor}。
+ * <p/>
+ * クライアントが送信したContent-Typeは信頼できないため、ファイルの形式を検証する場合は本クラスの結果を使用する。
+ * 判定できない場合は、先頭部分に制御文字を含まなければ{@code text/plain}、
+ * 含む場合は{@code application/octet-stream}を返す。
+ */
+public class ContentTypeSniffingPartProcessor implements PartProcessor {
+
+    /** 判定に使用する先頭のバイト数 */
+    private static final int SNIFF_LENGTH = 512;
+
+    /** マジックナンバーとContent-Typeの組み合わせ */
+    private static final Object[][] SIGNATURES = {
+            {new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'}, "image/png"},
+            {new byte[] {(byte) 0xff, (byte) 0xd8, (byte) 0xff}, "image/jpeg"},
+            {new byte[] {'G', 'I', 'F', '8'}, "image/gif"},
+            {new byte[] {'%', 'P', 'D', 'F', '-'}, "application/pdf"},
+            {new byte[] {'P', 'K', 0x03, 0x04}, "application/zip"},
+            {new byte[] {0x1f, (byte) 0x8b}, "application/gzip"},
+    };
+
+    /** 名前 */
+    private String name = "sniffedContentType";
+
+    /**
+     * 名前を設定する。デフォルトは{@code sniffedContentType}。
+     *
+     * @param name 名前
+     */
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String process(final PartInfo part) throws Exception {
+        final byte[] head = new byte[SNIFF_LENGTH];
+        int length = 0;
+        final InputStream in = part.getInputStream();
+        try {
+            int read;
+            while (length < head.length && (read = in.read(head, length, head.length - length)) != -1) {
+                length += read;
+            }
+        } finally {
+            in.close();
+        }
+        return sniff(head, length);
+    }
+
+    /**
+     * 先頭のバイト列からContent-Typeを判定する。
+     *
+     * @param head 先頭のバイト列
+     * @param length 有効なバイト数
+     * @return Content-Type
+     */
+    static String sniff(final byte[] head, final int length) {
+        for (Object[] signature : SIGNATURES) {
+            if (startsWith(head, length, (byte[]) signature[0])) {
+                return (String) signature[1];
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            final int b = head[i] & 0xff;
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r') {
+                return "application/octet-stream";
+            }
+        }
+        return "text/plain";
+    }
+
+    /**
+     * バイト列が指定したマジックナンバーで始まるか否か。
+     *
+     * @param head 先頭のバイト列
+     * @param length 有効なバイト数
+     * @param magic マジックナンバー
+     * @return 始まる場合は{@code true}
+     */
+    private static boolean startsWith(final byte[] head, final int length, final byte[] magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (head[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+package nablarch.fw.web.upload;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mockit.Invocation;
+import mockit.Mock;
+import mockit.MockUp;
+
+/**
+ * 一時ファイルへの書き込み回数を記録する{@link MultipartParser}のモッククラス。
+ * <p/>
+ * 書き込み自体は本来の処理に委譲する。
+ */
+public class CountingMultipartParser extends MockUp<MultipartParser> {
+
+    /** 一時ファイルへの書き込み回数 */
+    private final AtomicInteger writeCount = new AtomicInteger();
+
+    @Mock
+    private void write(Invocation invocation, PartInfo part) {
+        writeCount.incrementAndGet();
+        invocation.proceed();
+    }
+
+    /**
+     * 一時ファイルへの書き込み回数を取得する。
+     *
+     * @return 書き込み回数
+     */
+    public int getWriteCount() {
+        return writeCount.get();
+    }
+}
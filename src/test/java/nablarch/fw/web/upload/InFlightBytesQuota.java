@@ -0,0 +1,88 @@
+package nablarch.fw.web.upload;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 処理中のリクエストが使用するサイズ(一時ファイルとして使用し得るサイズや、読み込みバッファの容量)の合計を管理するクラス。
+ * <p/>
+ * ロックは使用せず、CASにより予約・解放を行う。
+ */
+class InFlightBytesQuota {
+
+    /** 予約済みのサイズ */
+    private final AtomicLong reserved = new AtomicLong();
+
+    /** 予約済みのサイズの最大値 */
+    private final AtomicLong peak = new AtomicLong();
+
+    /**
+     * 指定されたサイズの予約を試みる。
+     *
+     * @param bytes 予約するサイズ
+     * @param limit 予約済みのサイズの合計の上限
+     * @return 予約できた場合は{@code true}
+     */
+    boolean tryReserve(final long bytes, final long limit) {
+        while (true) {
+            final long current = reserved.get();
+            final long next = current + bytes;
+            if (next > limit || next < 0) {
+                return false;
+            }
+            if (reserved.compareAndSet(current, next)) {
+                updatePeak(next);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 上限を確認せずに、指定されたサイズを予約する。
+     *
+     * @param bytes 予約するサイズ
+     */
+    void reserve(final long bytes) {
+        updatePeak(reserved.addAndGet(bytes));
+    }
+
+    /**
+     * 予約したサイズを解放する。
+     *
+     * @param bytes 解放するサイズ
+     */
+    void release(final long bytes) {
+        reserved.addAndGet(-bytes);
+    }
+
+    /**
+     * 予約済みのサイズを取得する。
+     *
+     * @return 予約済みのサイズ
+     */
+    long getReservedBytes() {
+        return reserved.get();
+    }
+
+    /**
+     * 予約済みのサイズの最大値を取得する。
+     *
+     * @return 予約済みのサイズの最大値
+     */
+    long getPeakReservedBytes() {
+        return peak.get();
+    }
+
+    /**
+     * 予約済みのサイズの最大値を更新する。
+     *
+     * @param value 予約済みのサイズ
+     */
+    private void updatePeak(final long value) {
+        long current;
+        while ((current = peak.get()) < value) {
+            if (peak.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package nablarch.fw.web.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import nablarch.fw.web.HttpErrorResponse;
+import nablarch.fw.web.HttpResponse;
+import nablarch.fw.web.buffer.BufferLeases;
+
+/**
+ * マルチパートのリクエストボディを、読み込みバッファ(ウィンドウ)単位で逐次解析するクラス。
+ * <p/>
+ * 区切りの検出は{@link BoundaryScanner}でウィンドウ全体を対象に行い、1バイト単位での読み込みは行わない。
+ * <p/>
+ * パートの内容は一時ファイルに書き出さず、ウィンドウ内のバイト列をそのまま呼び出し元に渡す。
+ * そのため、{@link #nextBodyChunk()}が返すバッファは次の読み込みまでに消費しなければならない。
+ */
+class MultipartStreamReader {
+
+    /** ヘッダの文字コード */
+    private static final Charset HEADER_CHARSET = Charset.forName("UTF-8");
+
+    /** 改行 */
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    /** ヘッダの終端 */
+    private static final BoundaryScanner HEADER_TERMINATOR = new BoundaryScanner(new byte[] {'\r', '\n', '\r', '\n'});
+
+    /** 読み込み元 */
+    private final ReadableByteChannel in;
+
+    /** 読み込みバッファ(読み出しモードで保持する) */
+    private final ByteBuffer window;
+
+    /** パートの区切り(CRLF + "--" + boundary) */
+    private final BoundaryScanner delimiter;
+
+    /** アップロード設定 */
+    private final StreamingUploadSettings settings;
+
+    /** 読み込みバッファを取得したリース(プールから取得していない場合は{@code null}) */
+    private final BufferLeases leases;
+
+    /** 読み込んだバイト数 */
+    private long totalRead;
+
+    /** 読み込み元の終端に達した場合は{@code true} */
+    private boolean eof;
+
+    /** 終端の区切りを読み込んだ場合は{@code true} */
+    private boolean finished;
+
+    /** 読み込んだパートの数 */
+    private int partCount;
+
+    /** 現在のパートの上限サイズ */
+    private long partSizeLimit;
+
+    /** 現在のパートの読み込み済みのサイズ */
+    private long partSize;
+
+    /** 現在のパート(先頭の区切りより前は前文)の内容を読み終えた場合は{@code true} */
+    private boolean partEnded;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param in 読み込み元
+     * @param boundary 境界文字列
+     * @param settings アップロード設定
+     */
+    MultipartStreamReader(final ReadableByteChannel in, final String boundary, final StreamingUploadSettings settings) {
+        this(in, boundary, settings, null);
+    }
+
+    /**
+     * コンストラクタ。
+     * <p/>
+     * {@code leases}を指定した場合は、読み込みバッファをプールから取得する。
+     * 取得したバッファは{@link #release()}で返却する。
+     *
+     * @param in 読み込み元
+     * @param boundary 境界文字列
+     * @param settings アップロード設定
+     * @param leases 読み込みバッファを取得するリース(プールから取得しない場合は{@code null})
+     */
+    MultipartStreamReader(final ReadableByteChannel in, final String boundary, final StreamingUploadSettings settings,
+            final BufferLeases leases) {
+        this.in = in;
+        this.delimiter = new BoundaryScanner(("\r\n--" + boundary).getBytes(HEADER_CHARSET));
+        this.settings = settings;
+        this.leases = leases;
+        partSizeLimit = Long.MAX_VALUE;
+        final int windowSize = Math.max(
+                settings.getStreamingBufferSize(), delimiter.length() * 2 + HEADER_TERMINATOR.length());
+        window = leases != null ? leases.acquireDirect(windowSize) : ByteBuffer.allocateDirect(windowSize);
+
+        // 先頭の区切りも他の区切りと同様に検出できるよう、改行が読み込まれた状態から開始する。
+        window.put(CRLF);
+        window.flip();
+    }
+
+    /**
+     * 読み込みバッファをプールに返却する。以降は読み込みできない。
+     */
+    void release() {
+        if (leases != null) {
+            leases.release(window);
+        }
+    }
+
+    /**
+     * 次のパートのヘッダを読み込む。
+     * <p/>
+     * 現在のパートの内容が残っている場合は読み捨てる。
+     *
+     * @return パートのヘッダ(ヘッダ名は小文字)。パートが存在しない場合は{@code null}
+     * @throws IOException 入出力例外
+     */
+    Map<String, String> nextPartHeaders() throws IOException {
+        while (nextBodyChunk() != null) {
+            // 現在のパート(または前文)の残りを読み捨てる。
+        }
+        if (finished) {
+            return null;
+        }
+        ensureAvailable(CRLF.length);
+        if (window.get(window.position()) == '-' && window.get(window.position() + 1) == '-') {
+            finished = true;
+            return null;
+        }
+        if (partCount >= settings.getMaxPartCount()) {
+            throw new HttpErrorResponse(HttpResponse.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+        }
+        expect(CRLF);
+        final Map<String, String> headers = readHeaders();
+        partEnded = false;
+        partCount++;
+        partSize = 0;
+        final String disposition = headers.get("content-disposition");
+        partSizeLimit = disposition != null && disposition.contains("filename=")
+                ? settings.getMaxPartSize()
+                : settings.getMaxFieldSize();
+        return headers;
+    }
+
+    /**
+     * 読み込みバッファの容量を取得する。
+     *
+     * @return 容量(バイト)
+     */
+    int getBufferCapacity() {
+        return window.capacity();
+    }
+
+    /**
+     * 読み込み元から読み込んだバイト数を取得する。
+     *
+     * @return バイト数
+     */
+    long getTotalRead() {
+        return totalRead;
+    }
+
+    /**
+     * 読み込んだパートの数を取得する。
+     *
+     * @return パートの数
+     */
+    int getPartCount() {
+        return partCount;
+    }
+
+    /**
+     * 現在のパートの内容を、読み込みバッファ内で取得できる範囲で返す。
+     *
+     * @return パートの内容。パートの終端に達した場合は{@code null}
+     * @throws IOException 入出力例外
+     */
+    ByteBuffer nextBodyChunk() throws IOException {
+        if (partEnded) {
+            return null;
+        }
+        while (true) {
+            final int index = delimiter.indexOf(window, window.position(), window.limit());
+            if (index == window.position()) {
+                window.position(index + delimiter.length());
+                partEnded = true;
+                return null;
+            }
+            if (index >= 0) {
+                return takeBody(index);
+            }
+            // 区切りの先頭部分がバッファの末尾にかかっている可能性があるため、その分は次回に持ち越す。
+            final int safeEnd = window.limit() - (delimiter.length() - 1);
+            if (safeEnd > window.position()) {
+                return takeBody(safeEnd);
+            }
+            if (!fill()) {
+                throw new HttpErrorResponse(HttpResponse.Status.BAD_REQUEST.getStatusCode());
+            }
+        }
+    }
+
+    /**
+     * パートのヘッダを読み込む。
+     * <p/>
+     * ヘッダのないパート(区切りの直後が空行)の場合は、空のヘッダを返す。
+     *
+     * @return ヘッダ(ヘッダ名は小文字)
+     * @throws IOException 入出力例外
+     */
+    private Map<String, String> readHeaders() throws IOException {
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        ensureAvailable(CRLF.length);
+        if (window.get(window.position()) == '\r' && window.get(window.position() + 1) == '\n') {
+            window.position(window.position() + CRLF.length);
+            return headers;
+        }
+        int index;
+        while ((index = HEADER_TERMINATOR.indexOf(window, window.position(), window.limit())) < 0) {
+            if (window.remaining() > settings.getMaxHeaderSize()
+                    || window.remaining() == window.capacity() || !fill()) {
+                throw new HttpErrorResponse(HttpResponse.Status.BAD_REQUEST.getStatusCode());
+            }
+        }
+        if (index - window.position() > settings.getMaxHeaderSize()) {
+            throw new HttpErrorResponse(HttpResponse.Status.BAD_REQUEST.getStatusCode());
+        }
+        final byte[] bytes = new byte[index - window.position()];
+        window.get(bytes);
+        window.position(window.position() + HEADER_TERMINATOR.length());
+
+        for (String line : new String(bytes, HEADER_CHARSET).split("\r\n")) {
+            final int separator = line.indexOf(':');
+            if (separator > 0) {
+                headers.put(line.substring(0, separator).trim().toLowerCase(Locale.ENGLISH),
+                        line.substring(separator + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * 指定されたバイト列が続くことを確認し、読み飛ばす。
+     *
+     * @param expected 期待するバイト列
+     * @throws IOException 入出力例外
+     */
+    private void expect(final byte[] expected) throws IOException {
+        ensureAvailable(expected.length);
+        for (byte b : expected) {
+            if (window.get() != b) {
+                throw new HttpErrorResponse(HttpResponse.Status.BAD_REQUEST.getStatusCode());
+            }
+        }
+    }
+
+    /**
+     * 読み込みバッファに指定されたバイト数が存在する状態にする。
+     *
+     * @param length バイト数
+     * @throws IOException 入出力例外
+     */
+    private void ensureAvailable(final int length) throws IOException {
+        while (window.remaining() < length) {
+            if (!fill()) {
+                throw new HttpErrorResponse(HttpResponse.Status.BAD_REQUEST.getStatusCode());
+            }
+        }
+    }
+
+    /**
+     * 読み込みバッファの先頭から指定位置までを、パートの内容として切り出す。
+     *
+     * @param end 終了位置(この位置は含まない)
+     * @return 切り出したバッファ
+     */
+    private ByteBuffer takeBody(final int end) {
+        partSize += end - window.position();
+        if (partSize > partSizeLimit) {
+            throw new HttpErrorResponse(HttpResponse.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+        }
+        final ByteBuffer chunk = window.duplicate();
+        chunk.limit(end);
+        window.position(end);
+        return chunk;
+    }
+
+    /**
+     * 読み込み元から読み込みバッファに追加で読み込む。
+     *
+     * @return 1バイト以上読み込めた場合は{@code true}
+     * @throws IOException 入出力例外
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        window.compact();
+        try {
+            int read = 0;
+            while (read == 0 && window.hasRemaining()) {
+                read = in.read(window);
+            }
+            if (read < 0) {
+                eof = true;
+                return false;
+            }
+            totalRead += read;
+            if (totalRead > settings.getStreamingContentLengthLimit()) {
+                throw new HttpErrorResponse(HttpResponse.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+            }
+            return read > 0;
+        } finally {
+            window.flip();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package nablarch.fw.web.upload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Handler;
+import nablarch.fw.web.HttpErrorResponse;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.HttpResponse;
+
+/**
+ * {@link MultipartHandler}が保存したパートを{@link PartProcessor}で処理し、
+ * 結果を{@link PartProcessingResults}としてリクエストスコープに格納するハンドラ。
+ * <p/>
+ * {@link StreamingMultipartHandler}が、ボディの解析後、業務Actionの実行前に呼び出されるようハンドラキューに追加する。
+ * パートとプロセッサの組み合わせごとに{@link Executor}で並行して処理するため、
+ * 複数のファイルをアップロードしたリクエストの処理時間は、最も大きなパートの処理時間程度となる。
+ * {@link Executor}が処理を受け付けない場合は、残りの処理を行わず、受け付けられた処理の完了を待ってから503とする。
+ * リクエストスレッドで処理させる場合は、{@link PartProcessorExecutor}の{@code CALLER_RUNS}を使用すること。
+ */
+class PartProcessingHandler implements Handler<HttpRequest, Object> {
+
+    /** パートを処理する{@link PartProcessor} */
+    private final List<PartProcessor> processors;
+
+    /** 処理を実行する{@link Executor}(リクエストスレッドで順に処理する場合は{@code null}) */
+    private final Executor executor;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param processors パートを処理する{@link PartProcessor}
+     * @param executor 処理を実行する{@link Executor}
+     */
+    PartProcessingHandler(final List<PartProcessor> processors, final Executor executor) {
+        this.processors = processors;
+        this.executor = executor;
+    }
+
+    @Override
+    public Object handle(final HttpRequest request, final ExecutionContext context) {
+        final List<PartTask> tasks = new ArrayList<PartTask>();
+        for (List<PartInfo> parts : request.getMultipart().values()) {
+            for (PartInfo part : parts) {
+                for (PartProcessor processor : processors) {
+                    tasks.add(new PartTask(part, processor));
+                }
+            }
+        }
+        // 最初の処理はリクエストスレッドで実行し、それ以外を他のスレッドに委譲する
+        boolean rejected = false;
+        for (int i = 1; i < tasks.size(); i++) {
+            if (rejected || !submit(tasks.get(i))) {
+                // 受け付けられなかった処理と、それ以降の処理は実行しない
+                tasks.get(i).cancel(false);
+                rejected = true;
+            }
+        }
+        if (!tasks.isEmpty()) {
+            if (rejected) {
+                tasks.get(0).cancel(false);
+            } else {
+                tasks.get(0).run();
+            }
+        }
+
+        final PartProcessingResults results = new PartProcessingResults();
+        RuntimeException failure = null;
+        for (PartTask task : tasks) {
+            try {
+                results.put(task.part, task.processor.getName(), task.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while processing parts.", e);
+            } catch (CancellationException e) {
+                // 受け付けられなかったため実行していない
+            } catch (ExecutionException e) {
+                // 一時ファイルは後続の処理で削除されるため、失敗した場合も全ての処理の完了を待つ
+                if (failure == null) {
+                    failure = new RuntimeException("failed to process part. name = [" + task.part.getName()
+                            + "], processor = [" + task.processor.getName() + ']', e.getCause());
+                }
+            }
+        }
+        if (rejected) {
+            throw new HttpErrorResponse(HttpResponse.Status.SERVICE_UNAVAILABLE.getStatusCode());
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        context.setRequestScopedVar(PartProcessingResults.REQUEST_SCOPE_KEY, results);
+        return context.handleNext(request);
+    }
+
+    /**
+     * 処理を{@link Executor}に委譲する。{@link Executor}が設定されていない場合はリクエストスレッドで処理する。
+     *
+     * @param task 処理
+     * @return 受け付けられなかった場合は{@code false}
+     */
+    private boolean submit(final PartTask task) {
+        if (executor == null) {
+            task.run();
+            return true;
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * パートを1つの{@link PartProcessor}で処理するタスク。
+     */
+    private static final class PartTask extends FutureTask<Object> {
+
+        /** パート */
+        private final PartInfo part;
+
+        /** プロセッサ */
+        private final PartProcessor processor;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param part パート
+         * @param processor プロセッサ
+         */
+        PartTask(final PartInfo part, final PartProcessor processor) {
+            super(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return processor.process(part);
+                }
+            });
+            this.part = part;
+            this.processor = processor;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package nablarch.fw.web.upload;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nablarch.fw.ExecutionContext;
+
+/**
+ * {@link PartProcessor}による、パートごとの処理結果。
+ * <p/>
+ * {@link StreamingMultipartHandler}が、業務Actionの実行前にリクエストスコープに格納する。
+ * <pre>
+ * {@code
+ * PartInfo part = request.getPart("uploadFile").get(0);
+ * String checksum = (String) PartProcessingResults.get(context).get(part, "checksum");
+ * }
+ * </pre>
+ */
+public class PartProcessingResults {
+
+    /** リクエストスコープに格納する際のキー */
+    static final String REQUEST_SCOPE_KEY = PartProcessingResults.class.getName();
+
+    /** パートごとの処理結果(キーは{@link PartProcessor#getName()}) */
+    private final Map<PartInfo, Map<String, Object>> results = new IdentityHashMap<PartInfo, Map<String, Object>>();
+
+    /**
+     * 処理中のリクエストの{@link PartProcessingResults}を取得する。
+     *
+     * @param context 実行コンテキスト
+     * @return {@link PartProcessingResults}
+     * @throws IllegalStateException パートが処理されていないリクエストの場合
+     */
+    public static PartProcessingResults get(final ExecutionContext context) {
+        final PartProcessingResults results = context.getRequestScopedVar(REQUEST_SCOPE_KEY);
+        if (results == null) {
+            throw new IllegalStateException("parts are not processed in this request.");
+        }
+        return results;
+    }
+
+    /**
+     * パートの処理結果を取得する。
+     *
+     * @param part パート
+     * @return 処理結果(キーは{@link PartProcessor#getName()})
+     */
+    public Map<String, Object> get(final PartInfo part) {
+        final Map<String, Object> result = results.get(part);
+        return result == null ? Collections.<String, Object>emptyMap() : Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * パートの処理結果を取得する。
+     *
+     * @param part パート
+     * @param name {@link PartProcessor#getName()}
+     * @return 処理結果(処理されていない場合は{@code null})
+     */
+    public Object get(final PartInfo part, final String name) {
+        return get(part).get(name);
+    }
+
+    /**
+     * パートの処理結果を追加する。
+     *
+     * @param part パート
+     * @param name {@link PartProcessor#getName()}
+     * @param result 処理結果
+     */
+    void put(final PartInfo part, final String name, final Object result) {
+        Map<String, Object> partResults = results.get(part);
+        if (partResults == null) {
+            partResults = new LinkedHashMap<String, Object>();
+            results.put(part, partResults);
+        }
+        partResults.put(name, result);
+    }
+}
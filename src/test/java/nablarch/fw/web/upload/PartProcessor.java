@@ -0,0 +1,30 @@
+package nablarch.fw.web.upload;
+
+/**
+ * アップロードされたパートを、業務Actionの実行前に処理するインタフェース。
+ * <p/>
+ * {@link StreamingUploadSettings#setPartProcessors(java.util.List)}に設定すると、
+ * {@link StreamingMultipartHandler}が一時ファイルに保存したパートごとに呼び出す。
+ * 複数のパートは並行して処理されるため、実装はスレッドセーフでなければならない。
+ * 処理結果は{@link PartProcessingResults}から取得できる。
+ */
+public interface PartProcessor {
+
+    /**
+     * 処理結果を{@link PartProcessingResults}から取得する際の名前を取得する。
+     *
+     * @return 名前
+     */
+    String getName();
+
+    /**
+     * パートを処理する。
+     * <p/>
+     * パートの移動は業務Actionで行うため、本メソッドでは一時ファイルを移動・削除してはならない。
+     *
+     * @param part パート
+     * @return 処理結果
+     * @throws Exception 処理に失敗した場合
+     */
+    Object process(PartInfo part) throws Exception;
+}
@@ -0,0 +1,183 @@
+package nablarch.fw.web.upload;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nablarch.core.repository.disposal.Disposable;
+
+/**
+ * {@link PartProcessor}の処理を実行する{@link Executor}。
+ * <p/>
+ * スレッド数と待ち行列の長さに上限を設けたスレッドプールで実行する。
+ * リクエストを処理するスレッドとは別のスレッドプールとするため、パートの処理が集中しても
+ * リクエストの受け付けには影響しない。
+ * <p/>
+ * スレッドと待ち行列が全て埋まっている場合の動作は、{@link #setRejectionPolicy(String)}で指定する。
+ * <ul>
+ *     <li>{@code ABORT}:{@link RejectedExecutionException}を送出する(デフォルト)。
+ *     {@link StreamingMultipartHandler}はリクエストを503とする。</li>
+ *     <li>{@code CALLER_RUNS}:呼び出し元のスレッド(リクエストスレッド)で実行する。</li>
+ * </ul>
+ * アプリケーションの停止時は{@link #dispose()}でスレッドプールを終了する。
+ */
+public class PartProcessorExecutor implements Executor, Disposable {
+
+    /**
+     * 処理を受け付けられない場合の動作。
+     */
+    enum RejectionPolicy {
+        /** 例外を送出する */
+        ABORT,
+        /** 呼び出し元のスレッドで実行する */
+        CALLER_RUNS
+    }
+
+    /** 受け付けなかった処理の数 */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /** スレッド数の上限 */
+    private int maxThreads = 8;
+
+    /** 待ち行列の長さの上限 */
+    private int queueSize = 64;
+
+    /** 処理を受け付けられない場合の動作 */
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+
+    /** 実行に使用するスレッドプール */
+    private volatile ThreadPoolExecutor executor;
+
+    /**
+     * スレッド数の上限を設定する。デフォルトは8。
+     *
+     * @param maxThreads スレッド数の上限
+     */
+    public void setMaxThreads(final int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * 実行を待つ処理の数の上限を設定する。デフォルトは64。
+     *
+     * @param queueSize 待ち行列の長さの上限
+     */
+    public void setQueueSize(final int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * 処理を受け付けられない場合の動作({@code ABORT}または{@code CALLER_RUNS})を設定する。デフォルトは{@code ABORT}。
+     *
+     * @param rejectionPolicy 処理を受け付けられない場合の動作
+     */
+    public void setRejectionPolicy(final String rejectionPolicy) {
+        this.rejectionPolicy = RejectionPolicy.valueOf(rejectionPolicy);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        getExecutor().execute(command);
+    }
+
+    /**
+     * 実行を終了する。
+     * <p/>
+     * 実行中の処理の完了は待たない。
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * スレッドプールを終了する。{@link #shutdown()}と同じ。
+     */
+    @Override
+    public void dispose() {
+        shutdown();
+    }
+
+    /**
+     * 実行中の処理の数を取得する。
+     *
+     * @return 実行中の処理の数
+     */
+    public int getActiveCount() {
+        final ThreadPoolExecutor current = executor;
+        return current == null ? 0 : current.getActiveCount();
+    }
+
+    /**
+     * 受け付けられなかった処理の数を取得する。
+     * <p/>
+     * {@code CALLER_RUNS}の場合は、呼び出し元のスレッドで実行した処理の数となる。
+     *
+     * @return 受け付けられなかった処理の数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * 実行に使用するスレッドプールを取得する。初回の呼び出し時に生成する。
+     *
+     * @return スレッドプール
+     */
+    private ThreadPoolExecutor getExecutor() {
+        ThreadPoolExecutor result = executor;
+        if (result == null) {
+            synchronized (this) {
+                result = executor;
+                if (result == null) {
+                    result = createExecutor();
+                    executor = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * スレッドプールを生成する。
+     *
+     * @return スレッドプール
+     */
+    private ThreadPoolExecutor createExecutor() {
+        final RejectionPolicy policy = rejectionPolicy;
+        final ThreadPoolExecutor result = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "part-processor-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+                        rejectedCount.incrementAndGet();
+                        if (policy == RejectionPolicy.CALLER_RUNS && !executor.isShutdown()) {
+                            r.run();
+                            return;
+                        }
+                        throw new RejectedExecutionException("too many part processing tasks. max threads = ["
+                                + maxThreads + "], queue size = [" + queueSize + ']');
+                    }
+                });
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+}
@@ -0,0 +1,132 @@
+package nablarch.fw.web.upload;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link PartProcessorExecutor}のテストクラス。
+ */
+public class PartProcessorExecutorTest {
+
+    private final PartProcessorExecutor sut = new PartProcessorExecutor();
+
+    /** 実行中の処理を止めておくためのラッチ */
+    private final CountDownLatch blocker = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        blocker.countDown();
+        sut.shutdown();
+    }
+
+    /**
+     * 処理がリクエストスレッドとは別のスレッドで実行されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testExecute() throws Exception {
+        final String[] threadName = new String[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        sut.execute(new Runnable() {
+            @Override
+            public void run() {
+                threadName[0] = Thread.currentThread().getName();
+                done.countDown();
+            }
+        });
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(threadName[0].startsWith("part-processor-"), is(true));
+        assertThat(sut.getRejectedCount(), is(0L));
+    }
+
+    /**
+     * デフォルト({@code ABORT})では、スレッドと待ち行列が埋まっている場合に
+     * {@link RejectedExecutionException}が送出され、呼び出し元のスレッドでは実行されないことを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testAbort() throws Exception {
+        sut.setMaxThreads(1);
+        sut.setQueueSize(1);
+        fill();
+
+        final boolean[] executed = new boolean[1];
+        try {
+            sut.execute(new Runnable() {
+                @Override
+                public void run() {
+                    executed[0] = true;
+                }
+            });
+            fail("スレッドと待ち行列が埋まっているため、例外が発生する。");
+        } catch (RejectedExecutionException e) {
+            assertThat(e.getMessage(), is("too many part processing tasks. max threads = [1], queue size = [1]"));
+        }
+        assertThat(executed[0], is(false));
+        assertThat(sut.getRejectedCount(), is(1L));
+    }
+
+    /**
+     * {@code CALLER_RUNS}を設定した場合、スレッドと待ち行列が埋まっている場合に
+     * 呼び出し元のスレッドで実行されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testCallerRuns() throws Exception {
+        sut.setMaxThreads(1);
+        sut.setQueueSize(1);
+        sut.setRejectionPolicy("CALLER_RUNS");
+        fill();
+
+        final Thread[] thread = new Thread[1];
+        sut.execute(new Runnable() {
+            @Override
+            public void run() {
+                thread[0] = Thread.currentThread();
+            }
+        });
+        assertThat(thread[0], is(Thread.currentThread()));
+        assertThat(sut.getRejectedCount(), is(1L));
+    }
+
+    /**
+     * サポートしない動作を設定した場合に、例外となることを確認するケース。
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetRejectionPolicy_unsupported() {
+        sut.setRejectionPolicy("DISCARD");
+    }
+
+    /**
+     * スレッドと待ち行列を、完了しない処理で埋める。
+     * @throws Exception
+     */
+    private void fill() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        sut.execute(blocking);
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        sut.execute(blocking);
+        assertThat(sut.getActiveCount(), is(1));
+        assertThat(sut.getRejectedCount(), is(0L));
+    }
+}
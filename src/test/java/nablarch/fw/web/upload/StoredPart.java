@@ -0,0 +1,202 @@
+package nablarch.fw.web.upload;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link TempStorage}に保存したパート。
+ * <p/>
+ * {@link StreamingParts#store(StreamingPart)}で取得する。
+ * 小さなパートはヒープ上に、それ以外はプールした一時ファイルに保持する。
+ * リクエストの処理が終わるまでに{@link #moveTo(File, String)}で移動されなかった内容は、
+ * {@link StreamingMultipartHandler}が解放する。
+ * 一時ファイルのために予約したサイズ({@link StreamingUploadSettings#getMaxInFlightBytes()})は、
+ * 移動した時点、または解放した一時ファイルをリーパーで処理した時点で解放する。
+ */
+public class StoredPart {
+
+    /** 保存先 */
+    private final TempStorage storage;
+
+    /** パラメータ名 */
+    private final String name;
+
+    /** ファイル名 */
+    private final String fileName;
+
+    /** Content-Type */
+    private final String contentType;
+
+    /** ヒープ上に保持している内容(一時ファイルに保持している場合は{@code null}) */
+    private byte[] content;
+
+    /** 一時ファイル(ヒープ上に保持している場合は{@code null}) */
+    private final File file;
+
+    /** サイズ */
+    private final long size;
+
+    /** 一時ファイルのために予約したサイズを解放する処理(予約していない場合は{@code null}) */
+    private final Runnable reservation;
+
+    /** 移動または解放済みの場合は{@code true} */
+    private boolean released;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param storage 保存先
+     * @param part 保存元のパート
+     * @param content ヒープ上に保持している内容
+     * @param file 一時ファイル
+     * @param size サイズ
+     * @param reservation 一時ファイルのために予約したサイズを解放する処理(予約していない場合は{@code null})
+     */
+    StoredPart(final TempStorage storage, final StreamingPart part, final byte[] content, final File file,
+            final long size, final Runnable reservation) {
+        this.storage = storage;
+        name = part.getName();
+        fileName = part.getFileName();
+        contentType = part.getContentType();
+        this.content = content;
+        this.file = file;
+        this.size = size;
+        this.reservation = reservation;
+    }
+
+    /**
+     * パラメータ名を取得する。
+     *
+     * @return パラメータ名
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * ファイル名を取得する。
+     *
+     * @return ファイル名(ファイル以外のパートの場合は{@code null})
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Content-Typeを取得する。
+     *
+     * @return Content-Type(指定されていない場合は{@code null})
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * サイズを取得する。
+     *
+     * @return サイズ(バイト)
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * 内容をヒープ上に保持しているか否か。
+     *
+     * @return ヒープ上に保持している場合は{@code true}
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * 内容を読み込むストリームを取得する。
+     *
+     * @return 内容を読み込むストリーム
+     */
+    public InputStream getInputStream() {
+        assertNotReleased();
+        if (file == null) {
+            return new ByteArrayInputStream(content);
+        }
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            throw new IllegalStateException("temp file not found. file = [" + file + ']', e);
+        }
+    }
+
+    /**
+     * 内容を指定されたディレクトリのファイルに移動する。
+     * <p/>
+     * 一時ファイルに保持している場合、一時ファイルと移動先が同じファイルシステム上にあればアトミックなリネームで移動する。
+     * 同名のファイルが存在する場合は上書きする。
+     *
+     * @param dir 移動先ディレクトリ
+     * @param fileName 移動先ファイル名
+     */
+    public void moveTo(final File dir, final String fileName) {
+        assertNotReleased();
+        final File target = new File(dir, fileName);
+        if (file != null) {
+            storage.moveFile(file, size, target);
+            if (reservation != null) {
+                reservation.run();
+            }
+        } else {
+            write(target);
+            storage.releaseInMemory(size);
+            content = null;
+        }
+        released = true;
+    }
+
+    /**
+     * 移動されていない内容を解放する。既に移動または解放済みの場合は何もしない。
+     */
+    void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (file != null) {
+            // 予約したサイズは、一時ファイルがディスク上から無くなるまで解放しない
+            storage.releaseFile(file, size, reservation);
+        } else {
+            storage.releaseInMemory(size);
+            content = null;
+        }
+    }
+
+    /**
+     * ヒープ上に保持している内容をファイルに書き込む。
+     *
+     * @param target 書き込み先
+     */
+    private void write(final File target) {
+        try {
+            final FileOutputStream out = new FileOutputStream(target);
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to write file. file = [" + target + ']', e);
+        }
+    }
+
+    /**
+     * 移動または解放済みでないことを確認する。
+     */
+    private void assertNotReleased() {
+        if (released) {
+            throw new IllegalStateException("part has already been moved or released. name = [" + name + ']');
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package nablarch.fw.web.upload;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.web.HttpErrorResponse;
+import nablarch.fw.web.HttpRequest;
+import nablarch.fw.web.HttpResponse;
+import nablarch.fw.web.buffer.BufferLeases;
+import nablarch.fw.web.servlet.ServletExecutionContext;
+
+/**
+ * ストリーミングモードをサポートする{@link MultipartHandler}。
+ * <p/>
+ * {@link StreamingUploadSettings}でストリーミングモードの対象としたリクエストは、
+ * パートを一時ファイルに書き出さず、リクエストボディを読み込みながら{@link StreamingParts}として後続ハンドラに渡す。
+ * {@link nablarch.fw.web.buffer.BufferPoolHandler}が設定されている場合、読み込みバッファはプールから取得する。
+ * <p/>
+ * ストリーミングモードでは、最初のファイルのパートより前にあるフォームのフィールドのみを、
+ * 後続ハンドラの実行前にリクエストパラメータとして読み込む(文字コードはリクエストの文字コード。指定されていない場合はUTF-8)。
+ * 最初のファイルのパートより後にあるフィールドはリクエストパラメータとならないため、{@link StreamingParts}から取得すること。
+ * Hiddenストアやトークンなど、後続のハンドラが参照するフィールドは、フォーム上でファイルより前に配置すること。
+ * それ以外のリクエストは{@link MultipartHandler}の処理に委譲する。
+ * <p/>
+ * {@link MultipartHandler}に委譲するリクエストについても、Content-Lengthが上限を超える場合や、
+ * 処理中のリクエストの合計サイズが{@link StreamingUploadSettings#getMaxInFlightBytes()}を超える場合は、
+ * ボディを読み込む前に413とする。
+ * 予約したサイズは、一時ファイルの削除(リーパーで処理する場合はリーパーでの処理)が完了した後に解放する。
+ * ストリーミングモードで{@link StreamingParts#store(StreamingPart)}が一時ファイルに書き込むサイズも、同じ上限で予約する。
+ * また、{@link StreamingUploadSettings#getPartProcessors()}が設定されている場合は、
+ * 保存したパートを業務Actionの実行前に{@link PartProcessor}で処理する。
+ * <p/>
+ * ストリーミングモードで読み込みバッファに保持しているサイズの合計と、読み込んだリクエストボディのサイズの合計を計測値として公開する。
+ * <p/>
+ * ストリーミングモードでは、エラー時のレスポンスは{@link MultipartHandler}と同様とする。
+ * <ul>
+ *     <li>境界文字列(boundary)が指定されていない、またはボディの形式が不正な場合
+ *     (パラメータ名のないパートを含む):400</li>
+ *     <li>リクエストボディが上限サイズを超えた場合:413</li>
+ *     <li>パートの転送に失敗した場合:500</li>
+ * </ul>
+ */
+public class StreamingMultipartHandler extends MultipartHandler {
+
+    /** Content-Typeから境界文字列を抽出するパターン */
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=(?:\"([^\"]+)\"|([^;\\s]+))",
+            Pattern.CASE_INSENSITIVE);
+
+    /** アップロード設定 */
+    private UploadSettings uploadSettings = new UploadSettings();
+
+    /** 一時ファイルを作成する処理中のリクエストのボディサイズと、ストリーミングモードで一時ファイルに書き込んだサイズの合計 */
+    private final InFlightBytesQuota inFlightBytes = new InFlightBytesQuota();
+
+    /** ストリーミングモードで処理中のリクエストの読み込みバッファの容量の合計 */
+    private final InFlightBytesQuota bufferedBytes = new InFlightBytesQuota();
+
+    /** ストリーミングモードで読み込んだリクエストボディのサイズの合計 */
+    private final AtomicLong streamedBytes = new AtomicLong();
+
+    @Override
+    public void setUploadSettings(final UploadSettings uploadSettings) {
+        super.setUploadSettings(uploadSettings);
+        this.uploadSettings = uploadSettings;
+    }
+
+    @Override
+    public HttpResponse handle(final HttpRequest request, final ExecutionContext context) {
+        if (!isMultipartRequest(request, context)) {
+            return super.handle(request, context);
+        }
+        if (!isStreamingRequest(request)) {
+            return handleBuffered(request, context);
+        }
+        final StreamingUploadSettings settings = (StreamingUploadSettings) uploadSettings;
+        final HttpServletRequest servletRequest = ((ServletExecutionContext) context).getServletRequest();
+
+        final String boundary = extractBoundary(servletRequest.getContentType());
+        if (boundary == null) {
+            throw new HttpErrorResponse(HttpResponse.Status.BAD_REQUEST.getStatusCode());
+        }
+        final long contentLength = getContentLength(servletRequest);
+        if (contentLength > settings.getStreamingContentLengthLimit()) {
+            throw new HttpErrorResponse(HttpResponse.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+        }
+
+        final MultipartStreamReader reader;
+        try {
+            reader = new MultipartStreamReader(Channels.newChannel(servletRequest.getInputStream()), boundary,
+                    settings, BufferLeases.get(context));
+        } catch (IOException e) {
+            throw new RuntimeException("failed to open request body.", e);
+        }
+        final StreamingParts parts = new StreamingParts(reader, settings.getTempStorage(), inFlightBytes,
+                settings.getMaxInFlightBytes());
+        context.setRequestScopedVar(StreamingParts.REQUEST_SCOPE_KEY, parts);
+        final int bufferCapacity = reader.getBufferCapacity();
+        bufferedBytes.reserve(bufferCapacity);
+        try {
+            final Map<String, String[]> params = new LinkedHashMap<String, String[]>(request.getParamMap());
+            parts.readLeadingFields(params, getCharset(servletRequest));
+            request.setParamMap(params);
+            return context.handleNext(request);
+        } finally {
+            streamedBytes.addAndGet(reader.getTotalRead());
+            bufferedBytes.release(bufferCapacity);
+            parts.release();
+        }
+    }
+
+    /**
+     * 一時ファイルを作成するリクエストを、サイズの上限を確認した上で{@link MultipartHandler}に委譲する。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return レスポンス
+     */
+    private HttpResponse handleBuffered(final HttpRequest request, final ExecutionContext context) {
+        final StreamingUploadSettings settings = (StreamingUploadSettings) uploadSettings;
+        final long contentLength = getContentLength(((ServletExecutionContext) context).getServletRequest());
+        if (contentLength > settings.getContentLengthLimit()) {
+            throw new HttpErrorResponse(HttpResponse.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+        }
+        final long reservation = contentLength >= 0 ? contentLength : settings.getContentLengthLimit();
+        if (!inFlightBytes.tryReserve(reservation, settings.getMaxInFlightBytes())) {
+            throw new HttpErrorResponse(HttpResponse.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+        }
+        if (!settings.getPartProcessors().isEmpty()) {
+            // MultipartHandlerがボディを解析した後に、後続ハンドラの先頭として呼び出される
+            context.addHandler(0, new PartProcessingHandler(
+                    settings.getPartProcessors(), settings.getPartProcessorExecutor()));
+        }
+        try {
+            return super.handle(request, context);
+        } finally {
+            if (settings.isAsyncCleaning()) {
+                // 一時ファイルはまだディスク上にあるため、リーパーでの処理が完了するまで予約を解放しない
+                settings.getTempStorage().reap(request.getMultipart(), new Runnable() {
+                    @Override
+                    public void run() {
+                        inFlightBytes.release(reservation);
+                    }
+                });
+            } else {
+                inFlightBytes.release(reservation);
+            }
+        }
+    }
+
+    /**
+     * 一時ファイルを作成する処理中のリクエストのボディサイズと、ストリーミングモードで一時ファイルに書き込んだサイズの合計を取得する。
+     *
+     * @return 予約済みのサイズの合計(バイト)
+     */
+    public long getInFlightBytes() {
+        return inFlightBytes.getReservedBytes();
+    }
+
+    /**
+     * {@link #getInFlightBytes()}の最大値を取得する。
+     *
+     * @return 予約済みのサイズの合計の最大値(バイト)
+     */
+    public long getPeakInFlightBytes() {
+        return inFlightBytes.getPeakReservedBytes();
+    }
+
+    /**
+     * ストリーミングモードで処理中のリクエストが、読み込みバッファとして保持しているサイズの合計を取得する。
+     *
+     * @return 読み込みバッファの容量の合計(バイト)
+     */
+    public long getBufferedBytes() {
+        return bufferedBytes.getReservedBytes();
+    }
+
+    /**
+     * ストリーミングモードで処理中のリクエストが、読み込みバッファとして保持したサイズの合計の最大値を取得する。
+     *
+     * @return 読み込みバッファの容量の合計の最大値(バイト)
+     */
+    public long getPeakBufferedBytes() {
+        return bufferedBytes.getPeakReservedBytes();
+    }
+
+    /**
+     * ストリーミングモードで読み込んだリクエストボディのサイズの合計を取得する。
+     *
+     * @return リクエストボディのサイズの合計(バイト)
+     */
+    public long getStreamedBytes() {
+        return streamedBytes.get();
+    }
+
+    /**
+     * {@link StreamingUploadSettings}が設定された状態で、マルチパートリクエストを処理するかどうかを判定する。
+     *
+     * @param request リクエスト
+     * @param context 実行コンテキスト
+     * @return マルチパートリクエストを処理する場合は{@code true}
+     */
+    private boolean isMultipartRequest(final HttpRequest request, final ExecutionContext context) {
+        if (!(uploadSettings instanceof StreamingUploadSettings) || !(context instanceof ServletExecutionContext)) {
+            return false;
+        }
+        final String contentType = request.getHeader("Content-Type");
+        return contentType != null && contentType.toLowerCase(Locale.ENGLISH).startsWith("multipart/");
+    }
+
+    /**
+     * ストリーミングモードで処理するリクエストかどうかを判定する。
+     *
+     * @param request リクエスト
+     * @return ストリーミングモードで処理する場合は{@code true}
+     */
+    private boolean isStreamingRequest(final HttpRequest request) {
+        return ((StreamingUploadSettings) uploadSettings).isStreamingRequest(request.getRequestPath());
+    }
+
+    /**
+     * リクエストボディのサイズを取得する。
+     *
+     * @param servletRequest リクエスト
+     * @return リクエストボディのサイズ。不明な場合は{@code -1}
+     */
+    private static long getContentLength(final HttpServletRequest servletRequest) {
+        final String contentLength = servletRequest.getHeader("Content-Length");
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            throw new HttpErrorResponse(HttpResponse.Status.BAD_REQUEST.getStatusCode());
+        }
+    }
+
+    /**
+     * フォームのフィールドの文字コードを取得する。
+     *
+     * @param servletRequest リクエスト
+     * @return リクエストの文字コード。指定されていない場合はUTF-8
+     */
+    private static Charset getCharset(final HttpServletRequest servletRequest) {
+        final String encoding = servletRequest.getCharacterEncoding();
+        return Charset.forName(encoding != null ? encoding : "UTF-8");
+    }
+
+    /**
+     * Content-Typeから境界文字列を抽出する。
+     *
+     * @param contentType Content-Type
+     * @return 境界文字列。指定されていない場合は{@code null}
+     */
+    private static String extractBoundary(final String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        final Matcher matcher = BOUNDARY.matcher(contentType);
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+    }
+}
@@ -0,0 +1,186 @@
+package nablarch.fw.web.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ストリーミングモードで読み込まれるマルチパートの1パート。
+ * <p/>
+ * パートの内容はリクエストボディから直接読み込まれるため、1度だけ読み込むことができる。
+ * また、{@link StreamingParts#next()}で次のパートに進んだ時点で、読み込まれていない内容は破棄される。
+ */
+public class StreamingPart {
+
+    /** Content-Dispositionヘッダのパラメータを抽出するパターン */
+    private static final Pattern DISPOSITION_PARAMETER = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+
+    /** 読み込み元 */
+    private final MultipartStreamReader reader;
+
+    /** パートのヘッダ */
+    private final Map<String, String> headers;
+
+    /** パラメータ名 */
+    private final String name;
+
+    /** ファイル名 */
+    private final String fileName;
+
+    /** リクエスト内でのパートの番号 */
+    private final int partNumber;
+
+    /** 内容を読み込み済みの場合は{@code true} */
+    private boolean consumed;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param reader 読み込み元
+     * @param headers パートのヘッダ(ヘッダ名は小文字)
+     */
+    StreamingPart(final MultipartStreamReader reader, final Map<String, String> headers) {
+        this.reader = reader;
+        this.headers = headers;
+        partNumber = reader.getPartCount();
+
+        String name = null;
+        String fileName = null;
+        final String disposition = headers.get("content-disposition");
+        if (disposition != null) {
+            final Matcher matcher = DISPOSITION_PARAMETER.matcher(disposition);
+            while (matcher.find()) {
+                if (matcher.group(1).equalsIgnoreCase("name")) {
+                    name = matcher.group(2);
+                } else if (matcher.group(1).equalsIgnoreCase("filename")) {
+                    fileName = matcher.group(2);
+                }
+            }
+        }
+        this.name = name;
+        this.fileName = fileName;
+    }
+
+    /**
+     * パラメータ名を取得する。
+     *
+     * @return パラメータ名
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * ファイル名を取得する。
+     *
+     * @return ファイル名(ファイル以外のパートの場合は{@code null})
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Content-Typeを取得する。
+     *
+     * @return Content-Type(指定されていない場合は{@code null})
+     */
+    public String getContentType() {
+        return headers.get("content-type");
+    }
+
+    /**
+     * ヘッダの値を取得する。
+     *
+     * @param headerName ヘッダ名(大文字・小文字は区別しない)
+     * @return ヘッダの値
+     */
+    public String getHeader(final String headerName) {
+        return headers.get(headerName.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * パートの内容をチャネルに転送する。
+     * <p/>
+     * 読み込みバッファの内容をそのまま書き込むため、一時ファイルやヒープ上のバッファへのコピーは発生しない。
+     *
+     * @param target 転送先
+     * @return 転送したバイト数
+     */
+    public long transferTo(final WritableByteChannel target) {
+        markConsumed();
+        long transferred = 0;
+        try {
+            ByteBuffer chunk;
+            while ((chunk = reader.nextBodyChunk()) != null) {
+                while (chunk.hasRemaining()) {
+                    transferred += target.write(chunk);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to transfer part. name = [" + name + ']', e);
+        }
+        return transferred;
+    }
+
+    /**
+     * パートの内容を指定されたディレクトリのファイルに転送する。
+     * <p/>
+     * 同名のファイルが存在する場合は上書きする。
+     *
+     * @param dir 転送先ディレクトリ
+     * @param fileName 転送先ファイル名
+     * @return 転送したバイト数
+     */
+    public long transferTo(final File dir, final String fileName) {
+        final FileOutputStream out;
+        try {
+            out = new FileOutputStream(new File(dir, fileName));
+        } catch (IOException e) {
+            throw new RuntimeException("failed to open file. file = [" + new File(dir, fileName) + ']', e);
+        }
+        final FileChannel channel = out.getChannel();
+        try {
+            return transferTo(channel);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // クローズ失敗は転送結果に影響しないため無視する。
+            }
+        }
+    }
+
+    /**
+     * パートの内容を文字列として取得する。
+     * <p/>
+     * ファイル以外のパート(フォームのパラメータ)を想定しているため、内容はすべてヒープ上に読み込まれる。
+     *
+     * @param charset 文字コード
+     * @return パートの内容
+     */
+    public String getString(final Charset charset) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transferTo(Channels.newChannel(out));
+        return new String(out.toByteArray(), charset);
+    }
+
+    /**
+     * パートの内容を読み込み済みの状態にする。
+     */
+    private void markConsumed() {
+        if (consumed || partNumber != reader.getPartCount()) {
+            throw new IllegalStateException("part has already been consumed. name = [" + name + ']');
+        }
+        consumed = true;
+    }
+}
@@ -0,0 +1,181 @@
+package nablarch.fw.web.upload;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.web.HttpErrorResponse;
+import nablarch.fw.web.HttpResponse;
+
+/**
+ * ストリーミングモードで処理中のマルチパートリクエストのパートを、先頭から順に取得するクラス。
+ * <p/>
+ * 業務Actionからは{@link #get(ExecutionContext)}で取得する。
+ * <pre>
+ * StreamingParts parts = StreamingParts.get(context);
+ * for (StreamingPart part = parts.next(); part != null; part = parts.next()) {
+ *     part.transferTo(dir, part.getFileName());
+ * }
+ * </pre>
+ * 最初のファイルのパートより前にあるフォームのフィールドは、{@link StreamingMultipartHandler}が
+ * リクエストパラメータとして読み込むため、本クラスからは取得できない。
+ * <p/>
+ * パラメータ名(Content-Dispositionヘッダのname)のないパートは、形式が不正として400とする。
+ */
+public class StreamingParts {
+
+    /** リクエストスコープに格納する際のキー */
+    static final String REQUEST_SCOPE_KEY = StreamingParts.class.getName();
+
+    /** 読み込み元 */
+    private final MultipartStreamReader reader;
+
+    /** パートの保存先(保存しない場合は{@code null}) */
+    private final TempStorage storage;
+
+    /** 一時ファイルのサイズを予約する先(予約しない場合は{@code null}) */
+    private final InFlightBytesQuota quota;
+
+    /** 予約済みのサイズの合計の上限 */
+    private final long quotaLimit;
+
+    /** 保存したパート */
+    private final List<StoredPart> storedParts = new ArrayList<StoredPart>();
+
+    /** 先読みしたパート(存在しない場合は{@code null}) */
+    private StreamingPart pending;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param reader 読み込み元
+     */
+    StreamingParts(final MultipartStreamReader reader) {
+        this(reader, null, null, Long.MAX_VALUE);
+    }
+
+    /**
+     * コンストラクタ。
+     *
+     * @param reader 読み込み元
+     * @param storage パートの保存先
+     * @param quota 一時ファイルのサイズを予約する先(予約しない場合は{@code null})
+     * @param quotaLimit 予約済みのサイズの合計の上限
+     */
+    StreamingParts(final MultipartStreamReader reader, final TempStorage storage, final InFlightBytesQuota quota,
+            final long quotaLimit) {
+        this.reader = reader;
+        this.storage = storage;
+        this.quota = quota;
+        this.quotaLimit = quotaLimit;
+    }
+
+    /**
+     * 処理中のリクエストの{@link StreamingParts}を取得する。
+     *
+     * @param context 実行コンテキスト
+     * @return {@link StreamingParts}
+     * @throws IllegalStateException ストリーミングモードで処理されていないリクエストの場合
+     */
+    public static StreamingParts get(final ExecutionContext context) {
+        final StreamingParts parts = context.getRequestScopedVar(REQUEST_SCOPE_KEY);
+        if (parts == null) {
+            throw new IllegalStateException("request is not processed in streaming mode.");
+        }
+        return parts;
+    }
+
+    /**
+     * 次のパートを取得する。
+     * <p/>
+     * 前回取得したパートの内容のうち、読み込まれていない部分は破棄される。
+     *
+     * @return 次のパート。パートが存在しない場合は{@code null}
+     */
+    public StreamingPart next() {
+        if (pending != null) {
+            final StreamingPart part = pending;
+            pending = null;
+            return part;
+        }
+        final Map<String, String> headers;
+        try {
+            headers = reader.nextPartHeaders();
+        } catch (IOException e) {
+            throw new RuntimeException("failed to read multipart request.", e);
+        }
+        if (headers == null) {
+            return null;
+        }
+        final StreamingPart part = new StreamingPart(reader, headers);
+        if (part.getName() == null) {
+            throw new HttpErrorResponse(HttpResponse.Status.BAD_REQUEST.getStatusCode());
+        }
+        return part;
+    }
+
+    /**
+     * 最初のファイルのパートより前にある、フォームのフィールドを読み込む。
+     * <p/>
+     * 読み込んだフィールドは、{@code params}の同じ名前の値の後ろに追加する。
+     * 最初のファイルのパートは読み込まずに保持し、次の{@link #next()}で返す。
+     *
+     * @param params フィールドを追加するパラメータ
+     * @param charset フィールドの文字コード
+     */
+    void readLeadingFields(final Map<String, String[]> params, final Charset charset) {
+        for (StreamingPart part = next(); part != null; part = next()) {
+            if (part.getFileName() != null) {
+                pending = part;
+                return;
+            }
+            final String[] values = params.get(part.getName());
+            final String value = part.getString(charset);
+            if (values == null) {
+                params.put(part.getName(), new String[] {value});
+            } else {
+                final String[] added = new String[values.length + 1];
+                System.arraycopy(values, 0, added, 0, values.length);
+                added[values.length] = value;
+                params.put(part.getName(), added);
+            }
+        }
+    }
+
+    /**
+     * パートの内容を{@link TempStorage}に保存する。
+     * <p/>
+     * 次のパートに進んだ後も内容を参照する場合に使用する。
+     * 保存したパートのうち、リクエストの処理が終わるまでに移動されなかったものは解放される。
+     * <p/>
+     * 一時ファイルに書き込むサイズは、一時ファイルを作成する処理中のリクエストと合わせて
+     * {@link StreamingUploadSettings#getMaxInFlightBytes()}を上限として予約する。上限を超える場合は413とする。
+     *
+     * @param part パート
+     * @return 保存したパート
+     * @throws IllegalStateException {@link TempStorage}が設定されていない場合
+     * @throws nablarch.fw.web.HttpErrorResponse 一時ファイルのサイズが上限を超える場合
+     */
+    public StoredPart store(final StreamingPart part) {
+        if (storage == null) {
+            throw new IllegalStateException("temp storage is not configured.");
+        }
+        final StoredPart stored = storage.store(part, quota, quotaLimit);
+        storedParts.add(stored);
+        return stored;
+    }
+
+    /**
+     * 保存したパートのうち、移動されていないものを解放し、読み込みバッファを返却する。
+     */
+    void release() {
+        for (StoredPart stored : storedParts) {
+            stored.release();
+        }
+        storedParts.clear();
+        reader.release();
+    }
+}
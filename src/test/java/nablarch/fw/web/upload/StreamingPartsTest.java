@@ -0,0 +1,159 @@
+package nablarch.fw.web.upload;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import nablarch.fw.web.HttpErrorResponse;
+
+/**
+ * {@link StreamingParts}のテストクラス。
+ */
+public class StreamingPartsTest {
+
+    /** 文字コード */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 最初のファイルのパートより前にあるフィールドがパラメータに追加され、
+     * 最初のファイルのパートとそれ以降のパートが{@link StreamingParts#next()}で取得できることを確認するケース。
+     */
+    @Test
+    public void testReadLeadingFields() {
+        final StreamingParts sut = createParts(
+                "--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"_HIDDEN_STORE_\"\r\n"
+                + "\r\n"
+                + "hidden\r\n"
+                + "--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"key\"\r\n"
+                + "\r\n"
+                + "値\r\n"
+                + "--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"uploadFile\"; filename=\"upload.txt\"\r\n"
+                + "\r\n"
+                + "content\r\n"
+                + "--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"after\"\r\n"
+                + "\r\n"
+                + "after\r\n"
+                + "--boundary--\r\n");
+        final Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+        params.put("key", new String[] {"query"});
+
+        sut.readLeadingFields(params, UTF_8);
+
+        assertThat(params.size(), is(2));
+        assertThat(params.get("_HIDDEN_STORE_"), is(new String[] {"hidden"}));
+        assertThat(params.get("key"), is(new String[] {"query", "値"}));
+
+        StreamingPart part = sut.next();
+        assertThat(part.getName(), is("uploadFile"));
+        assertThat(part.getString(UTF_8), is("content"));
+        part = sut.next();
+        assertThat(part.getName(), is("after"));
+        assertThat(part.getString(UTF_8), is("after"));
+        assertThat(sut.next(), is(nullValue()));
+    }
+
+    /**
+     * ファイルのパートがない場合、全てのフィールドがパラメータに追加されることを確認するケース。
+     */
+    @Test
+    public void testReadLeadingFields_noFile() {
+        final StreamingParts sut = createParts(
+                "--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"key\"\r\n"
+                + "\r\n"
+                + "value\r\n"
+                + "--boundary--\r\n");
+        final Map<String, String[]> params = new LinkedHashMap<String, String[]>();
+
+        sut.readLeadingFields(params, UTF_8);
+
+        assertThat(params.get("key"), is(new String[] {"value"}));
+        assertThat(sut.next(), is(nullValue()));
+    }
+
+    /**
+     * ヘッダのないパートは、パラメータ名がないため400となることを確認するケース。
+     */
+    @Test
+    public void testNext_noHeaders() {
+        final StreamingParts sut = createParts(
+                "--boundary\r\n"
+                + "\r\n"
+                + "content\r\n"
+                + "\r\n"
+                + "content\r\n"
+                + "--boundary--\r\n");
+        assertBadRequest(sut);
+    }
+
+    /**
+     * Content-Dispositionヘッダにパラメータ名がないパートは、400となることを確認するケース。
+     */
+    @Test
+    public void testNext_noName() {
+        final StreamingParts sut = createParts(
+                "--boundary\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "\r\n"
+                + "content\r\n"
+                + "--boundary--\r\n");
+        assertBadRequest(sut);
+    }
+
+    /**
+     * 最初のファイルのパートより前にパラメータ名のないパートがある場合、フィールドの読み込みで400となることを確認するケース。
+     */
+    @Test
+    public void testReadLeadingFields_noHeaders() {
+        final StreamingParts sut = createParts(
+                "--boundary\r\n"
+                + "\r\n"
+                + "content\r\n"
+                + "--boundary--\r\n");
+        try {
+            sut.readLeadingFields(new LinkedHashMap<String, String[]>(), UTF_8);
+            fail("パラメータ名のないパートがあるため、例外が発生する。");
+        } catch (HttpErrorResponse e) {
+            assertThat(e.getResponse().getStatusCode(), is(400));
+        }
+    }
+
+    /**
+     * 次のパートの取得で400となることを確認する。
+     *
+     * @param sut テスト対象
+     */
+    private static void assertBadRequest(final StreamingParts sut) {
+        try {
+            sut.next();
+            fail("パラメータ名のないパートのため、例外が発生する。");
+        } catch (HttpErrorResponse e) {
+            assertThat(e.getResponse().getStatusCode(), is(400));
+        }
+    }
+
+    /**
+     * マルチパートのボディを読み込む{@link StreamingParts}を作成する。
+     *
+     * @param body マルチパートのボディ
+     * @return {@link StreamingParts}
+     */
+    private static StreamingParts createParts(final String body) {
+        return new StreamingParts(new MultipartStreamReader(
+                Channels.newChannel(new ByteArrayInputStream(body.getBytes(UTF_8))),
+                "boundary", new StreamingUploadSettings()));
+    }
+}
@@ -0,0 +1,306 @@
+package nablarch.fw.web.upload;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+/**
+ * ストリーミングモードの設定を追加した{@link UploadSettings}。
+ * <p/>
+ * {@link #setStreamingRequestPattern(String)}に一致するリクエストパスのマルチパートリクエストは、
+ * 一時ファイルを経由せずに{@link StreamingParts}から逐次読み込まれる。
+ * それ以外のリクエストは従来通り{@link MultipartHandler}で処理される。
+ * <p/>
+ * ストリーミングモードでは、パート単位の上限(サイズ、数、ヘッダサイズ)を、上限を超えた時点で検出する。
+ * また、一時ファイルを作成するリクエストについては、処理中の全リクエストで合計したサイズの上限を設定できる。
+ * <p/>
+ * 一時ファイルを作成するリクエストでは、{@link #setPartProcessors(List)}に設定した{@link PartProcessor}で、
+ * 業務Actionの実行前にパートを並行して処理できる。
+ */
+public class StreamingUploadSettings extends UploadSettings {
+
+    /** ストリーミングモードで処理するリクエストパスのパターン */
+    private Pattern streamingRequestPattern;
+
+    /** ストリーミングモードでのリクエストボディの上限サイズ */
+    private long streamingContentLengthLimit = Long.MAX_VALUE;
+
+    /** ストリーミングモードで使用する読み込みバッファのサイズ */
+    private int streamingBufferSize = 64 * 1024;
+
+    /** ファイルのパートの上限サイズ */
+    private long maxPartSize = Long.MAX_VALUE;
+
+    /** ファイル以外のパート(フォームのパラメータ)の上限サイズ */
+    private long maxFieldSize = Long.MAX_VALUE;
+
+    /** パート数の上限 */
+    private int maxPartCount = Integer.MAX_VALUE;
+
+    /** パートのヘッダの上限サイズ */
+    private int maxHeaderSize = Integer.MAX_VALUE;
+
+    /** 一時ファイルを作成する処理中のリクエストのボディサイズの合計の上限 */
+    private long maxInFlightBytes = Long.MAX_VALUE;
+
+    /** パートの保存先 */
+    private TempStorage tempStorage;
+
+    /** 業務Actionの実行前にパートを処理する{@link PartProcessor} */
+    private List<PartProcessor> partProcessors = Collections.emptyList();
+
+    /** {@link PartProcessor}の処理を実行する{@link Executor} */
+    private Executor partProcessorExecutor;
+
+    /**
+     * ストリーミングモードで処理するリクエストパスかどうかを判定する。
+     *
+     * @param requestPath リクエストパス
+     * @return ストリーミングモードで処理する場合は{@code true}
+     */
+    public boolean isStreamingRequest(final String requestPath) {
+        return streamingRequestPattern != null && streamingRequestPattern.matcher(requestPath).matches();
+    }
+
+    /**
+     * ストリーミングモードで処理するリクエストパスのパターン(正規表現)を設定する。
+     *
+     * @param streamingRequestPattern リクエストパスのパターン
+     */
+    public void setStreamingRequestPattern(final String streamingRequestPattern) {
+        this.streamingRequestPattern = Pattern.compile(streamingRequestPattern);
+    }
+
+    /**
+     * ストリーミングモードでのリクエストボディの上限サイズを取得する。
+     *
+     * @return 上限サイズ(バイト)
+     */
+    public long getStreamingContentLengthLimit() {
+        return streamingContentLengthLimit;
+    }
+
+    /**
+     * ストリーミングモードでのリクエストボディの上限サイズを設定する。
+     * <p/>
+     * デフォルトは上限なし。
+     *
+     * @param streamingContentLengthLimit 上限サイズ(バイト)
+     */
+    public void setStreamingContentLengthLimit(final long streamingContentLengthLimit) {
+        this.streamingContentLengthLimit = streamingContentLengthLimit;
+    }
+
+    /**
+     * ストリーミングモードで使用する読み込みバッファのサイズを取得する。
+     *
+     * @return バッファサイズ(バイト)
+     */
+    public int getStreamingBufferSize() {
+        return streamingBufferSize;
+    }
+
+    /**
+     * ストリーミングモードで使用する読み込みバッファのサイズを設定する。
+     * <p/>
+     * デフォルトは64KB。
+     *
+     * @param streamingBufferSize バッファサイズ(バイト)
+     */
+    public void setStreamingBufferSize(final int streamingBufferSize) {
+        this.streamingBufferSize = streamingBufferSize;
+    }
+
+    /**
+     * ファイルのパートの上限サイズを取得する。
+     *
+     * @return 上限サイズ(バイト)
+     */
+    public long getMaxPartSize() {
+        return maxPartSize;
+    }
+
+    /**
+     * ファイルのパートの上限サイズを設定する。
+     * <p/>
+     * 上限を超えた場合は413(Request Entity Too Large)となる。デフォルトは上限なし。
+     *
+     * @param maxPartSize 上限サイズ(バイト)
+     */
+    public void setMaxPartSize(final long maxPartSize) {
+        this.maxPartSize = maxPartSize;
+    }
+
+    /**
+     * ファイル以外のパート(フォームのパラメータ)の上限サイズを取得する。
+     *
+     * @return 上限サイズ(バイト)
+     */
+    public long getMaxFieldSize() {
+        return maxFieldSize;
+    }
+
+    /**
+     * ファイル以外のパート(フォームのパラメータ)の上限サイズを設定する。
+     * <p/>
+     * 上限を超えた場合は413(Request Entity Too Large)となる。デフォルトは上限なし。
+     *
+     * @param maxFieldSize 上限サイズ(バイト)
+     */
+    public void setMaxFieldSize(final long maxFieldSize) {
+        this.maxFieldSize = maxFieldSize;
+    }
+
+    /**
+     * パート数の上限を取得する。
+     *
+     * @return パート数の上限
+     */
+    public int getMaxPartCount() {
+        return maxPartCount;
+    }
+
+    /**
+     * パート数の上限を設定する。
+     * <p/>
+     * 上限を超えた場合は413(Request Entity Too Large)となる。デフォルトは上限なし。
+     *
+     * @param maxPartCount パート数の上限
+     */
+    public void setMaxPartCount(final int maxPartCount) {
+        this.maxPartCount = maxPartCount;
+    }
+
+    /**
+     * パートのヘッダの上限サイズを取得する。
+     *
+     * @return 上限サイズ(バイト)
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    /**
+     * パートのヘッダの上限サイズを設定する。
+     * <p/>
+     * 上限を超えた場合は400(Bad Request)となる。
+     * デフォルトは上限なしだが、読み込みバッファに収まらないヘッダは常に400となる。
+     *
+     * @param maxHeaderSize 上限サイズ(バイト)
+     */
+    public void setMaxHeaderSize(final int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    /**
+     * 一時ファイルを作成する処理中のリクエストのボディサイズの合計の上限を取得する。
+     *
+     * @return 上限サイズ(バイト)
+     */
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    /**
+     * 一時ファイルを作成する処理中のリクエストのボディサイズの合計の上限を設定する。
+     * <p/>
+     * ストリーミングモード以外のリクエストが対象となる。
+     * 一時ファイルの合計サイズはリクエストボディのサイズを超えないため、
+     * リクエストの処理開始時にボディサイズ(Content-Lengthが不明な場合は{@link #getContentLengthLimit()})を予約し、
+     * 予約できない場合は一時ファイルを作成せずに413(Request Entity Too Large)とする。デフォルトは上限なし。
+     *
+     * @param maxInFlightBytes 上限サイズ(バイト)
+     */
+    public void setMaxInFlightBytes(final long maxInFlightBytes) {
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    /**
+     * パートの保存先を取得する。
+     *
+     * @return パートの保存先(設定されていない場合は{@code null})
+     */
+    public TempStorage getTempStorage() {
+        return tempStorage;
+    }
+
+    /**
+     * パートの保存先を設定する。
+     * <p/>
+     * 設定した場合、ストリーミングモードでは{@link StreamingParts#store(StreamingPart)}でパートを保存できる。
+     * また、{@link #setAutoCleaning(boolean)}が{@code true}の場合でも、一時ファイルはリクエストスレッドでは削除せず、
+     * {@link TempStorage}のリーパーで処理する。
+     *
+     * @param tempStorage パートの保存先
+     */
+    public void setTempStorage(final TempStorage tempStorage) {
+        this.tempStorage = tempStorage;
+    }
+
+    /**
+     * 業務Actionの実行前にパートを処理する{@link PartProcessor}を取得する。
+     *
+     * @return {@link PartProcessor}
+     */
+    public List<PartProcessor> getPartProcessors() {
+        return partProcessors;
+    }
+
+    /**
+     * 業務Actionの実行前にパートを処理する{@link PartProcessor}を設定する。
+     * <p/>
+     * ストリーミングモード以外のリクエストが対象となる。
+     * 処理結果は{@link PartProcessingResults}から取得できる。デフォルトは処理しない。
+     *
+     * @param partProcessors {@link PartProcessor}
+     */
+    public void setPartProcessors(final List<PartProcessor> partProcessors) {
+        this.partProcessors = partProcessors;
+    }
+
+    /**
+     * {@link PartProcessor}の処理を実行する{@link Executor}を取得する。
+     *
+     * @return {@link Executor}(設定されていない場合は{@code null})
+     */
+    public Executor getPartProcessorExecutor() {
+        return partProcessorExecutor;
+    }
+
+    /**
+     * {@link PartProcessor}の処理を実行する{@link Executor}を設定する。
+     * <p/>
+     * パートとプロセッサの組み合わせごとに並行して実行する。
+     * リクエストを処理する{@link Executor}とは共有せず、スレッド数と待ち行列の長さに上限を設けた
+     * {@link PartProcessorExecutor}を設定すること。
+     * 処理が{@link java.util.concurrent.RejectedExecutionException}により受け付けられなかった場合、リクエストは503となる。
+     * デフォルトは設定なしで、全ての処理をリクエストスレッドで順に実行する。
+     *
+     * @param partProcessorExecutor {@link Executor}
+     */
+    public void setPartProcessorExecutor(final Executor partProcessorExecutor) {
+        this.partProcessorExecutor = partProcessorExecutor;
+    }
+
+    /**
+     * {@link MultipartHandler}がリクエストスレッドで一時ファイルを削除するか否か。
+     * <p/>
+     * {@link TempStorage}が設定されている場合は、リーパーで処理するため{@code false}を返す。
+     *
+     * @return リクエストスレッドで削除する場合は{@code true}
+     */
+    @Override
+    public boolean isAutoCleaning() {
+        return super.isAutoCleaning() && tempStorage == null;
+    }
+
+    /**
+     * 一時ファイルを{@link TempStorage}のリーパーで削除するか否か。
+     *
+     * @return リーパーで削除する場合は{@code true}
+     */
+    public boolean isAsyncCleaning() {
+        return super.isAutoCleaning() && tempStorage != null;
+    }
+}
@@ -0,0 +1,708 @@
+package nablarch.fw.web.upload;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.disposal.Disposable;
+import nablarch.fw.web.HttpErrorResponse;
+import nablarch.fw.web.HttpResponse;
+import nablarch.fw.web.instrumentation.LatencyHistogram;
+
+/**
+ * アップロードされたパートを一時的に保持する領域。
+ * <p/>
+ * 以下の機能により、リクエストスレッドでの一時ファイルの作成・削除を減らす。
+ * <ul>
+ *     <li>あらかじめ作成した空の一時ファイルをプールし、パートの保存に再利用する。</li>
+ *     <li>{@link #setInMemoryThreshold(int)}以下の小さなパートは、一時ファイルを作成せずヒープ上に保持する。</li>
+ *     <li>移動されなかった一時ファイルは、バックグラウンドのスレッド(リーパー)で空にしてプールに戻すか、削除する。</li>
+ * </ul>
+ * {@link StreamingUploadSettings#setTempStorage(TempStorage)}で設定した場合、
+ * ストリーミングモード以外のリクエストで{@link MultipartParser}が作成した一時ファイルも、
+ * リクエストスレッドで削除せずにリーパーで処理する。
+ * <p/>
+ * 一時ファイルのサイズ、ヒープ上に保持しているサイズ、リーパーでの処理の遅延(登録から完了まで)を計測値として公開する。
+ * <p/>
+ * アプリケーションの停止時は{@link #dispose()}でリーパーを停止し、プールしている一時ファイルを削除する。
+ */
+public class TempStorage implements Disposable {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(TempStorage.class);
+
+    /** プールする一時ファイルの接頭辞 */
+    private static final String POOLED_FILE_PREFIX = "nablarch-upload-";
+
+    /** プールしている空の一時ファイル */
+    private final Queue<File> pool = new ConcurrentLinkedQueue<File>();
+
+    /** プールしている一時ファイルの数 */
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    /** リーパーで処理する一時ファイル */
+    private final BlockingQueue<ReapTask> reapQueue = new LinkedBlockingQueue<ReapTask>();
+
+    /** 本クラスが管理する一時ファイルの合計サイズ */
+    private final AtomicLong tempDiskBytes = new AtomicLong();
+
+    /** ヒープ上に保持しているパートの合計サイズ */
+    private final AtomicLong inMemoryBytes = new AtomicLong();
+
+    /** リーパーで処理した一時ファイルの数 */
+    private final AtomicLong reapedCount = new AtomicLong();
+
+    /** リーパーでの処理の遅延(ナノ秒) */
+    private final LatencyHistogram reapLatency = new LatencyHistogram();
+
+    /** 一時ファイルを作成するディレクトリ */
+    private File directory = new File(System.getProperty("java.io.tmpdir"));
+
+    /** プールする一時ファイルの数 */
+    private int poolSize = 16;
+
+    /** ヒープ上に保持するパートの上限サイズ */
+    private int inMemoryThreshold = 8 * 1024;
+
+    /** リーパーを開始済みの場合は{@code true} */
+    private volatile boolean started;
+
+    /** 解放済みの場合は{@code true} */
+    private boolean disposed;
+
+    /** リーパーのスレッド */
+    private Thread reaper;
+
+    /** JVMの停止時にプールしている一時ファイルを削除するフック */
+    private Thread cleaner;
+
+    /**
+     * 一時ファイルを作成するディレクトリを設定する。デフォルトはシステムプロパティ{@code java.io.tmpdir}。
+     * <p/>
+     * パートを移動する際にリネームで済むよう、移動先と同じファイルシステム上のディレクトリを指定すること。
+     *
+     * @param directory ディレクトリのパス
+     */
+    public void setDirectory(final String directory) {
+        this.directory = new File(directory);
+    }
+
+    /**
+     * プールする一時ファイルの数を設定する。デフォルトは16。
+     *
+     * @param poolSize プールする一時ファイルの数
+     */
+    public void setPoolSize(final int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * ヒープ上に保持するパートの上限サイズを設定する。デフォルトは8KB。
+     * <p/>
+     * 上限を超えるパートは一時ファイルに保存する。
+     *
+     * @param inMemoryThreshold 上限サイズ(バイト)
+     */
+    public void setInMemoryThreshold(final int inMemoryThreshold) {
+        this.inMemoryThreshold = inMemoryThreshold;
+    }
+
+    /**
+     * パートの内容を保存する。
+     * <p/>
+     * {@code quota}が指定された場合、一時ファイルに書き込むサイズを書き込む前に予約する。
+     * 予約済みのサイズの合計が{@code limit}を超える場合は、書き込みを中止して413とする。
+     * 予約したサイズは、保存したパートの移動、またはリーパーでの一時ファイルの処理が完了した時点で解放する。
+     *
+     * @param part パート
+     * @param quota 一時ファイルのサイズを予約する先(予約しない場合は{@code null})
+     * @param limit 予約済みのサイズの合計の上限
+     * @return 保存したパート
+     * @throws HttpErrorResponse 予約済みのサイズの合計が上限を超える場合
+     */
+    StoredPart store(final StreamingPart part, final InFlightBytesQuota quota, final long limit) {
+        start();
+        final SpillingChannel channel = new SpillingChannel(quota, limit);
+        try {
+            part.transferTo(channel);
+        } catch (RuntimeException e) {
+            channel.discard();
+            throw e;
+        }
+        if (channel.file == null) {
+            // ヒープ上に保持するのはinMemoryThreshold(int)以下のパートのみ
+            if (channel.size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("in-memory part is too large. size = [" + channel.size + ']');
+            }
+            final byte[] content = Arrays.copyOf(channel.heap, (int) channel.size);
+            inMemoryBytes.addAndGet(content.length);
+            return new StoredPart(this, part, content, null, content.length, null);
+        }
+        channel.close();
+        return new StoredPart(this, part, null, channel.file, channel.size, channel.reservation());
+    }
+
+    /**
+     * {@link MultipartParser}が作成した一時ファイルのうち、移動されていないものをリーパーで処理する。
+     * <p/>
+     * 全ての一時ファイルの処理が完了した時点で、{@code onReaped}をリーパーのスレッドで実行する。
+     * 処理する一時ファイルがない場合、またはリーパーを開始できなかった場合は、呼び出し元のスレッドで実行する。
+     *
+     * @param multipart リクエストのパート
+     * @param onReaped 一時ファイルの処理が完了した後に実行する処理
+     */
+    void reap(final Map<String, List<PartInfo>> multipart, final Runnable onReaped) {
+        final List<File> files = new ArrayList<File>();
+        if (multipart != null) {
+            for (Collection<PartInfo> parts : multipart.values()) {
+                for (PartInfo part : parts) {
+                    final File file = part.getSavedFile();
+                    if (file != null && file.exists()) {
+                        files.add(file);
+                    }
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            onReaped.run();
+            return;
+        }
+        try {
+            start();
+        } catch (RuntimeException e) {
+            onReaped.run();
+            throw e;
+        }
+        final ReapCompletion completion = new ReapCompletion(files.size(), onReaped);
+        for (File file : files) {
+            final long size = file.length();
+            tempDiskBytes.addAndGet(size);
+            reapQueue.add(new ReapTask(file, size, completion));
+        }
+    }
+
+    /**
+     * 保存したパートのうち、ヒープ上に保持していた内容を解放する。
+     *
+     * @param size サイズ
+     */
+    void releaseInMemory(final long size) {
+        inMemoryBytes.addAndGet(-size);
+    }
+
+    /**
+     * 保存したパートの一時ファイルをリーパーで処理する。
+     *
+     * @param file 一時ファイル
+     * @param size サイズ
+     * @param onReaped 処理が完了した後に実行する処理(実行しない場合は{@code null})
+     */
+    void releaseFile(final File file, final long size, final Runnable onReaped) {
+        reapQueue.add(new ReapTask(file, size, onReaped == null ? null : new ReapCompletion(1, onReaped)));
+    }
+
+    /**
+     * 保存したパートの一時ファイルを移動する。
+     *
+     * @param file 一時ファイル
+     * @param size サイズ
+     * @param target 移動先
+     */
+    void moveFile(final File file, final long size, final File target) {
+        move(file, target);
+        tempDiskBytes.addAndGet(-size);
+    }
+
+    /**
+     * {@link PartInfo}が保持する一時ファイルを移動する。
+     * <p/>
+     * {@link PartInfo#moveTo(File, String)}の代わりに使用する。
+     * 一時ファイルと移動先が同じファイルシステム上にある場合は、アトミックなリネームで移動し、
+     * 異なる場合はコピーして削除する。移動先にファイルが存在する場合は上書きする。
+     *
+     * @param part パート
+     * @param dir 移動先ディレクトリ
+     * @param fileName 移動先ファイル名
+     */
+    public static void moveTo(final PartInfo part, final File dir, final String fileName) {
+        move(part.getSavedFile(), new File(dir, fileName));
+    }
+
+    /**
+     * リーパーを停止し、JVMの停止時のフックを解除する。
+     * <p/>
+     * リーパーでの処理待ちの一時ファイルは呼び出し元のスレッドで処理し、プールしている一時ファイルは削除する。
+     * 解放後はパートを保存できない。
+     */
+    @Override
+    public synchronized void dispose() {
+        disposed = true;
+        if (!started) {
+            return;
+        }
+        reaper.interrupt();
+        try {
+            reaper.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(cleaner);
+        } catch (IllegalStateException ignored) {
+            // JVMの停止中はフックを解除できないが、フックで削除されるため問題ない。
+        }
+        for (ReapTask task = reapQueue.poll(); task != null; task = reapQueue.poll()) {
+            reap(task);
+        }
+        deletePooledFiles();
+        started = false;
+    }
+
+    /**
+     * 本クラスが管理する一時ファイル(保存したパートと、リーパーでの処理待ちのもの)の合計サイズを取得する。
+     *
+     * @return 合計サイズ(バイト)
+     */
+    public long getTempDiskBytes() {
+        return tempDiskBytes.get();
+    }
+
+    /**
+     * ヒープ上に保持しているパートの合計サイズを取得する。
+     *
+     * @return 合計サイズ(バイト)
+     */
+    public long getInMemoryBytes() {
+        return inMemoryBytes.get();
+    }
+
+    /**
+     * プールしている空の一時ファイルの数を取得する。
+     *
+     * @return 一時ファイルの数
+     */
+    public int getPooledFileCount() {
+        return pooledCount.get();
+    }
+
+    /**
+     * リーパーでの処理待ちの一時ファイルの数を取得する。
+     *
+     * @return 一時ファイルの数
+     */
+    public int getPendingReapCount() {
+        return reapQueue.size();
+    }
+
+    /**
+     * リーパーで処理した一時ファイルの数を取得する。
+     *
+     * @return 一時ファイルの数
+     */
+    public long getReapedCount() {
+        return reapedCount.get();
+    }
+
+    /**
+     * リーパーでの処理の遅延(登録から完了まで、ナノ秒)の分布を取得する。
+     *
+     * @return 遅延の分布
+     */
+    public LatencyHistogram.Snapshot getReapLatency() {
+        return reapLatency.snapshot();
+    }
+
+    /**
+     * ファイルを移動する。
+     * <p/>
+     * アトミックなリネームを試み、ファイルシステムが異なるなどで行えない場合はコピーして削除する。
+     * 移動先にファイルが存在する場合は上書きする。
+     *
+     * @param source 移動元
+     * @param target 移動先
+     */
+    static void move(final File source, final File target) {
+        try {
+            try {
+                Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to move file. source = [" + source + "], target = [" + target + ']', e);
+        }
+    }
+
+    /**
+     * 一時ファイルを取得する。
+     * <p/>
+     * プールが空の場合は、リクエストスレッドで作成する。
+     *
+     * @return 一時ファイル
+     * @throws IOException 一時ファイルの作成に失敗した場合
+     */
+    private File acquireFile() throws IOException {
+        final File pooled = pool.poll();
+        if (pooled != null) {
+            pooledCount.decrementAndGet();
+            return pooled;
+        }
+        return File.createTempFile(POOLED_FILE_PREFIX, ".tmp", directory);
+    }
+
+    /**
+     * リーパーを開始する。
+     */
+    private void start() {
+        if (started) {
+            return;
+        }
+        synchronized (this) {
+            if (started) {
+                return;
+            }
+            if (disposed) {
+                throw new IllegalStateException("temp storage was disposed.");
+            }
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IllegalStateException("failed to create temp storage directory. directory = [" + directory + ']');
+            }
+            reaper = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runReaper();
+                }
+            }, "temp-storage-reaper");
+            reaper.setDaemon(true);
+            reaper.start();
+            cleaner = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    deletePooledFiles();
+                }
+            }, "temp-storage-cleaner");
+            Runtime.getRuntime().addShutdownHook(cleaner);
+            started = true;
+        }
+    }
+
+    /**
+     * プールしている一時ファイルを削除する。
+     */
+    private void deletePooledFiles() {
+        for (File file = pool.poll(); file != null; file = pool.poll()) {
+            pooledCount.decrementAndGet();
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * リーパーの処理を行う。
+     * <p/>
+     * 処理待ちの一時ファイルがない間に、プールを補充する。
+     */
+    private void runReaper() {
+        while (true) {
+            try {
+                final ReapTask task = reapQueue.poll(1, TimeUnit.SECONDS);
+                if (task != null) {
+                    reap(task);
+                }
+                if (reapQueue.isEmpty()) {
+                    fillPool();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.logWarn("an error occurred in temp storage reaper.", e);
+            }
+        }
+    }
+
+    /**
+     * 一時ファイルを空にしてプールに戻す。プールが一杯の場合、またはプールの対象外のディレクトリの場合は削除する。
+     *
+     * @param task 処理する一時ファイル
+     */
+    private void reap(final ReapTask task) {
+        try {
+            if (!task.file.exists()) {
+                return;
+            }
+            if (directory.equals(task.file.getParentFile()) && pooledCount.get() < poolSize && truncate(task.file)) {
+                pooledCount.incrementAndGet();
+                pool.add(task.file);
+            } else if (!task.file.delete()) {
+                LOGGER.logWarn("failed to delete temp file. file = [" + task.file + ']');
+            }
+        } finally {
+            tempDiskBytes.addAndGet(-task.size);
+            reapedCount.incrementAndGet();
+            reapLatency.record(System.nanoTime() - task.enqueuedAt);
+            if (task.completion != null) {
+                task.completion.countDown();
+            }
+        }
+    }
+
+    /**
+     * プールを補充する。
+     */
+    private void fillPool() {
+        while (pooledCount.get() < poolSize) {
+            try {
+                pool.add(File.createTempFile(POOLED_FILE_PREFIX, ".tmp", directory));
+                pooledCount.incrementAndGet();
+            } catch (IOException e) {
+                LOGGER.logWarn("failed to create pooled temp file. directory = [" + directory + ']', e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * ファイルを空にする。
+     *
+     * @param file ファイル
+     * @return 空にできた場合は{@code true}
+     */
+    private static boolean truncate(final File file) {
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(0);
+            } finally {
+                raf.close();
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * リーパーで処理する一時ファイル。
+     */
+    private static final class ReapTask {
+
+        /** 一時ファイル */
+        private final File file;
+
+        /** サイズ */
+        private final long size;
+
+        /** 登録した時刻(ナノ秒) */
+        private final long enqueuedAt = System.nanoTime();
+
+        /** 処理の完了を通知する先(通知しない場合は{@code null}) */
+        private final ReapCompletion completion;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param file 一時ファイル
+         * @param size サイズ
+         * @param completion 処理の完了を通知する先(通知しない場合は{@code null})
+         */
+        ReapTask(final File file, final long size, final ReapCompletion completion) {
+            this.file = file;
+            this.size = size;
+            this.completion = completion;
+        }
+    }
+
+    /**
+     * 一リクエスト分の一時ファイルの処理が、全て完了したことを通知するクラス。
+     */
+    private static final class ReapCompletion {
+
+        /** 処理が完了していない一時ファイルの数 */
+        private final AtomicInteger remaining;
+
+        /** 全ての処理が完了した後に実行する処理 */
+        private final Runnable onReaped;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param count 一時ファイルの数
+         * @param onReaped 全ての処理が完了した後に実行する処理
+         */
+        ReapCompletion(final int count, final Runnable onReaped) {
+            remaining = new AtomicInteger(count);
+            this.onReaped = onReaped;
+        }
+
+        /**
+         * 一時ファイルの処理の完了を通知する。最後の一時ファイルの場合は、完了後の処理を実行する。
+         */
+        void countDown() {
+            if (remaining.decrementAndGet() == 0) {
+                onReaped.run();
+            }
+        }
+    }
+
+    /**
+     * 上限サイズまではヒープ上に書き込み、超えた時点で一時ファイルに切り替えるチャネル。
+     * <p/>
+     * 一時ファイルに書き込むサイズは、書き込む前に予約する。
+     */
+    private final class SpillingChannel implements WritableByteChannel {
+
+        /** 一時ファイルのサイズを予約する先(予約しない場合は{@code null}) */
+        private final InFlightBytesQuota quota;
+
+        /** 予約済みのサイズの合計の上限 */
+        private final long limit;
+
+        /** 予約したサイズ */
+        private long reserved;
+
+        /** ヒープ上の書き込み先 */
+        private byte[] heap = new byte[Math.min(inMemoryThreshold, 1024)];
+
+        /** 一時ファイル(ヒープ上に書き込んでいる間は{@code null}) */
+        private File file;
+
+        /** 一時ファイルへの書き込み先 */
+        private FileChannel fileChannel;
+
+        /** 書き込んだサイズ */
+        private long size;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param quota 一時ファイルのサイズを予約する先(予約しない場合は{@code null})
+         * @param limit 予約済みのサイズの合計の上限
+         */
+        SpillingChannel(final InFlightBytesQuota quota, final long limit) {
+            this.quota = quota;
+            this.limit = limit;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final int length = src.remaining();
+            if (file == null && size + length <= inMemoryThreshold) {
+                if (size + length > heap.length) {
+                    heap = Arrays.copyOf(heap, Math.min(inMemoryThreshold, Math.max(heap.length * 2, (int) size + length)));
+                }
+                src.get(heap, (int) size, length);
+                size += length;
+                return length;
+            }
+            // ヒープ上に書き込んでいた内容も一時ファイルに書き込むため、合わせて予約する
+            reserve(file == null ? size + length : length);
+            if (file == null) {
+                file = acquireFile();
+                fileChannel = new FileOutputStream(file).getChannel();
+                fileChannel.write(ByteBuffer.wrap(heap, 0, (int) size));
+                tempDiskBytes.addAndGet(size);
+                heap = null;
+            }
+            int written = 0;
+            while (src.hasRemaining()) {
+                written += fileChannel.write(src);
+            }
+            size += written;
+            tempDiskBytes.addAndGet(written);
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    throw new RuntimeException("failed to close temp file. file = [" + file + ']', e);
+                }
+            }
+        }
+
+        /**
+         * 一時ファイルに書き込むサイズを予約する。
+         *
+         * @param bytes 予約するサイズ
+         * @throws HttpErrorResponse 予約済みのサイズの合計が上限を超える場合
+         */
+        private void reserve(final long bytes) {
+            if (quota == null) {
+                return;
+            }
+            if (!quota.tryReserve(bytes, limit)) {
+                throw new HttpErrorResponse(HttpResponse.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+            }
+            reserved += bytes;
+        }
+
+        /**
+         * 予約したサイズを解放する処理を取得する。
+         *
+         * @return 予約したサイズを解放する処理(予約していない場合は{@code null})
+         */
+        Runnable reservation() {
+            if (quota == null || reserved == 0) {
+                return null;
+            }
+            final long bytes = reserved;
+            return new Runnable() {
+                @Override
+                public void run() {
+                    quota.release(bytes);
+                }
+            };
+        }
+
+        /**
+         * 書き込んだ内容を破棄する。
+         * <p/>
+         * 予約したサイズは、リーパーで一時ファイルを処理した後に解放する。
+         */
+        void discard() {
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                } catch (IOException ignored) {
+                    // 破棄する一時ファイルのため、クローズ失敗は無視する。
+                }
+            }
+            final Runnable reservation = reservation();
+            if (file != null) {
+                releaseFile(file, size, reservation);
+            } else if (reservation != null) {
+                reservation.run();
+            }
+        }
+    }
+}
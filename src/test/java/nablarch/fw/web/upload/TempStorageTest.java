@@ -0,0 +1,225 @@
+package nablarch.fw.web.upload;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nablarch.fw.web.HttpErrorResponse;
+
+/**
+ * {@link TempStorage}のテストクラス。
+ */
+public class TempStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TempStorage sut = new TempStorage();
+
+    @After
+    public void tearDown() {
+        sut.dispose();
+    }
+
+    /**
+     * {@link PartInfo}の一時ファイルが移動先に移動され、移動先のファイルが上書きされることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testMoveTo() throws Exception {
+        final File saved = createFile(folder.newFile("saved.tmp"), "uploaded");
+        final File dir = folder.newFolder("upload");
+        createFile(new File(dir, "uploadFile"), "old");
+        final PartInfo part = PartInfo.newInstance("uploadFile");
+        part.setSavedFile(saved);
+
+        TempStorage.moveTo(part, dir, "uploadFile");
+
+        assertThat(saved.exists(), is(false));
+        assertThat(new File(dir, "uploadFile").length(), is((long) "uploaded".length()));
+    }
+
+    /**
+     * 解放時にリーパーが停止し、プールしている一時ファイルと処理待ちの一時ファイルが削除されることを確認するケース。
+     * <p/>
+     * 解放後はリーパーを開始できないこと。
+     * @throws Exception
+     */
+    @Test
+    public void testDispose() throws Exception {
+        final File dir = folder.newFolder("temp");
+        sut.setDirectory(dir.getPath());
+        sut.setPoolSize(2);
+
+        // リーパーを開始し、プールが補充されるのを待つ。
+        final File saved = createFile(new File(dir, "saved.tmp"), "uploaded");
+        final PartInfo part = PartInfo.newInstance("uploadFile");
+        part.setSavedFile(saved);
+        final CountDownLatch reaped = new CountDownLatch(1);
+        sut.reap(Collections.singletonMap("uploadFile", Collections.singletonList(part)), new Runnable() {
+            @Override
+            public void run() {
+                reaped.countDown();
+            }
+        });
+        assertThat(reaped.await(5, TimeUnit.SECONDS), is(true));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (sut.getPooledFileCount() < 2) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("pool not filled. pooled = [" + sut.getPooledFileCount() + ']');
+            }
+            Thread.sleep(10);
+        }
+
+        sut.dispose();
+
+        assertThat(sut.getPooledFileCount(), is(0));
+        assertThat(dir.list().length, is(0));
+        // リーパーが停止しているため、プールは補充されない。
+        Thread.sleep(1500);
+        assertThat(dir.list().length, is(0));
+
+        final File another = createFile(new File(dir, "another.tmp"), "uploaded");
+        part.setSavedFile(another);
+        final Map<String, List<PartInfo>> multipart = Collections.singletonMap("uploadFile", Collections.singletonList(part));
+        try {
+            sut.reap(multipart, new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail("解放後はリーパーを開始できないため、例外が発生する。");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("temp storage was disposed."));
+        }
+    }
+
+    /**
+     * 一時ファイルに書き込むサイズが予約され、移動した時点で解放されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testStore_reserve() throws Exception {
+        sut.setDirectory(folder.newFolder("temp").getPath());
+        sut.setInMemoryThreshold(1024);
+        final InFlightBytesQuota quota = new InFlightBytesQuota();
+        final StreamingParts parts = createParts(5000, quota, 10000);
+
+        final StoredPart stored = parts.store(parts.next());
+        assertThat(stored.isInMemory(), is(false));
+        assertThat(quota.getReservedBytes(), is(5000L));
+
+        stored.moveTo(folder.newFolder("upload"), "uploadFile");
+        assertThat(quota.getReservedBytes(), is(0L));
+        assertThat(quota.getPeakReservedBytes(), is(5000L));
+    }
+
+    /**
+     * ヒープ上に保持するパートは、予約の対象とならないことを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testStore_inMemory() throws Exception {
+        sut.setDirectory(folder.newFolder("temp").getPath());
+        sut.setInMemoryThreshold(1024);
+        final InFlightBytesQuota quota = new InFlightBytesQuota();
+        final StreamingParts parts = createParts(1000, quota, 10);
+
+        final StoredPart stored = parts.store(parts.next());
+        assertThat(stored.isInMemory(), is(true));
+        assertThat(quota.getPeakReservedBytes(), is(0L));
+        parts.release();
+    }
+
+    /**
+     * 一時ファイルに書き込むサイズが上限を超える場合に413となり、
+     * 書き込んだ一時ファイルがリーパーで処理された時点で予約が解放されることを確認するケース。
+     * @throws Exception
+     */
+    @Test
+    public void testStore_quota_exceeded() throws Exception {
+        final File dir = folder.newFolder("temp");
+        sut.setDirectory(dir.getPath());
+        sut.setInMemoryThreshold(1024);
+        sut.setPoolSize(0);
+        final InFlightBytesQuota quota = new InFlightBytesQuota();
+        // 他のリクエストが予約済みの状態とする。
+        quota.reserve(7000);
+        final StreamingParts parts = createParts(5000, quota, 10000);
+
+        try {
+            parts.store(parts.next());
+            fail("一時ファイルのサイズが上限を超えるため、例外が発生する。");
+        } catch (HttpErrorResponse e) {
+            assertThat(e.getResponse().getStatusCode(), is(413));
+        }
+        assertThat(quota.getPeakReservedBytes() <= 10000, is(true));
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (quota.getReservedBytes() != 7000 || sut.getTempDiskBytes() != 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("reservation not released. reserved = [" + quota.getReservedBytes() + ']');
+            }
+            Thread.sleep(10);
+        }
+        assertThat(dir.list().length, is(0));
+    }
+
+    /**
+     * 1つのファイルのパートから成るマルチパートのボディを読み込む{@link StreamingParts}を作成する。
+     *
+     * @param size パートのサイズ
+     * @param quota 一時ファイルのサイズを予約する先
+     * @param limit 予約済みのサイズの合計の上限
+     * @return {@link StreamingParts}
+     * @throws Exception
+     */
+    private StreamingParts createParts(final int size, final InFlightBytesQuota quota, final long limit) throws Exception {
+        final StringBuilder body = new StringBuilder();
+        body.append("--boundary\r\n")
+            .append("Content-Disposition: form-data; name=\"uploadFile\"; filename=\"upload.txt\"\r\n")
+            .append("\r\n");
+        for (int i = 0; i < size; i++) {
+            body.append('a');
+        }
+        body.append("\r\n--boundary--\r\n");
+        final MultipartStreamReader reader = new MultipartStreamReader(
+                Channels.newChannel(new ByteArrayInputStream(body.toString().getBytes("ISO-8859-1"))),
+                "boundary", new StreamingUploadSettings());
+        return new StreamingParts(reader, sut, quota, limit);
+    }
+
+    /**
+     * 内容を書き込んだファイルを作成する。
+     *
+     * @param file ファイル
+     * @param content 内容
+     * @return ファイル
+     * @throws IOException 入出力例外
+     */
+    private static File createFile(final File file, final String content) throws IOException {
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}